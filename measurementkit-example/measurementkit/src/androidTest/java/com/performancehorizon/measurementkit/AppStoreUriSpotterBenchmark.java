@@ -0,0 +1,66 @@
+package com.performancehorizon.measurementkit;
+
+import android.net.Uri;
+import android.support.test.runner.AndroidJUnit4;
+
+import junit.framework.Assert;
+
+import org.junit.Ignore;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Rough on-device timing of app store spotting, against the previous chain of string checks.  Reports through the
+ * measurementkit log.  Correctness is covered by TestAppStoreSpotter and TestAppStoreUriMatcher.
+ */
+@Ignore("benchmark - run by hand")
+@RunWith(AndroidJUnit4.class)
+public class AppStoreUriSpotterBenchmark {
+
+    private static final int ITERATIONS = 20000;
+
+    private static final Uri[] URIS = {
+            Uri.parse("http://play.google.com/store/apps/details?id=someid"),
+            Uri.parse("market://details?id=com.example.android"),
+            Uri.parse("http://www.amazon.com/gp/mas/dl/android?something=something"),
+            Uri.parse("https://www.ourwebsite.com/products/a-product?colour=red&size=10&utm_source=feed"),
+            Uri.parse("exactview://open/products/1"),
+    };
+
+    //the previous implementation.
+    private static boolean chainedIsAppStoreURI(Uri uri) {
+        return uri.getAuthority().contains("play.google.com") ||
+                uri.getScheme().equals("market") ||
+                uri.getScheme().equals("amzn") ||
+                uri.toString().contains("www.amazon.com/gp/mas/dl/android") ||
+                uri.getScheme().equals("samsungapps");
+    }
+
+    @Test
+    public void benchmarkAgainstChainedChecks() {
+        int matched = 0;
+
+        for (Uri uri : URIS) {
+            Assert.assertEquals(chainedIsAppStoreURI(uri), AppStoreUriSpotter.isAppStoreURI(uri));
+        }
+
+        long start = System.nanoTime();
+
+        for (int index = 0; index < ITERATIONS; index++) {
+            matched += chainedIsAppStoreURI(URIS[index % URIS.length]) ? 1 : 0;
+        }
+
+        long chained = System.nanoTime() - start;
+        start = System.nanoTime();
+
+        for (int index = 0; index < ITERATIONS; index++) {
+            matched += AppStoreUriSpotter.isAppStoreURI(URIS[index % URIS.length]) ? 1 : 0;
+        }
+
+        long compiled = System.nanoTime() - start;
+
+        Assert.assertTrue(matched > 0);
+        MeasurementServiceLog.d("App Store Uri Spotter Benchmark - chained: " + (chained / ITERATIONS) + "ns/op, rules: " +
+                (compiled / ITERATIONS) + "ns/op");
+    }
+}
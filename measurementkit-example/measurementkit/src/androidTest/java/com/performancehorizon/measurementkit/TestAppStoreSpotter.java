@@ -40,4 +40,37 @@ public class TestAppStoreSpotter {
     public void testSamsungStore() throws Exception {
         Assert.assertTrue(AppStoreUriSpotter.isAppStoreURI(Uri.parse("samsungapps://idontactuallyknowtheformat")));
     }
+
+    @Test
+    public void testNotAppStore() throws Exception {
+        Assert.assertFalse(AppStoreUriSpotter.isAppStoreURI(Uri.parse("http://www.amazon.com/products/1")));
+        Assert.assertFalse(AppStoreUriSpotter.isAppStoreURI(Uri.parse("https://www.google.com/search?q=play.google.com")));
+    }
+
+    @Test
+    public void testAdvertiserLinks() throws Exception {
+        Assert.assertFalse(AppStoreUriSpotter.isAppStoreURI(Uri.parse("https://www.ourwebsite.com/products/a-product?colour=red&size=10&utm_source=feed")));
+        Assert.assertFalse(AppStoreUriSpotter.isAppStoreURI(Uri.parse("exactview://open/products/1")));
+    }
+
+    @Test
+    public void testNoAuthority() throws Exception {
+        Assert.assertFalse(AppStoreUriSpotter.isAppStoreURI(Uri.parse("mailto:someone@example.com")));
+        Assert.assertFalse(AppStoreUriSpotter.isAppStoreURI(Uri.parse("/relative/path")));
+        Assert.assertFalse(AppStoreUriSpotter.isAppStoreURI(null));
+    }
+
+    @Test
+    public void testRegisteredStore() throws Exception {
+        Uri store = Uri.parse("https://apps.example-store.com/app/1234");
+
+        Assert.assertFalse(AppStoreUriSpotter.isAppStoreURI(store));
+
+        AppStoreUriSpotter.registerAppStoreHost("example-store.com", "/app/");
+        AppStoreUriSpotter.registerAppStoreScheme("examplestore");
+
+        Assert.assertTrue(AppStoreUriSpotter.isAppStoreURI(store));
+        Assert.assertFalse(AppStoreUriSpotter.isAppStoreURI(Uri.parse("https://apps.example-store.com/about")));
+        Assert.assertTrue(AppStoreUriSpotter.isAppStoreURI(Uri.parse("examplestore://app/1234")));
+    }
 }
@@ -300,4 +300,29 @@ public class TestEventRequestJSONBuilder {
             return matches;
         }
     }
+
+    @Test //test typed meta is written as numbers and booleans, strings as before
+    public void testTypedMetaBuild() throws Exception
+    {
+        EventRequestJSONBuilder eventbuilder = new EventRequestJSONBuilder();
+
+        Event event = new Event("category");
+        event.addMetaItem("meta", "meta-value");
+        event.addMetaItem("level", 7);
+        event.addMetaItem("basket", 19.99);
+        event.addMetaItem("notanumber", Double.NaN);
+        event.addMetaItem("returning", false);
+
+        eventbuilder.setEvent(event)
+                .setCampaignID("campaign_id")
+                .setMobileTrackingID("mobile_tracking_id");
+
+        JSONObject metajson = eventbuilder.build().getJSONObject("meta");
+
+        Assert.assertEquals(metajson.getString("meta"), "meta-value");
+        Assert.assertEquals(metajson.get("level"), 7L);
+        Assert.assertEquals(metajson.get("basket"), 19.99);
+        Assert.assertEquals(metajson.get("notanumber"), "NaN");
+        Assert.assertEquals(metajson.get("returning"), Boolean.FALSE);
+    }
 }
@@ -7,11 +7,21 @@ import junit.framework.Assert;
 import org.json.JSONObject;
 import org.junit.Before;
 import org.junit.Test;
+import org.mockito.ArgumentMatcher;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+import bolts.TaskCompletionSource;
 
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.argThat;
 import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.timeout;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
@@ -48,6 +58,8 @@ public class TestEventRequestQueue {
 
         this.trackingHelper = mock(TrackingURLHelper.class);
         when(this.trackingHelper.urlStringForTracking()).thenReturn(TRACKINGURL);
+        when(this.trackingHelper.selectEndpoint()).thenReturn(
+                new TrackingEndpoints(Collections.singletonList(TRACKINGURL)).select());
 
         this.requestFactory = mock(TrackingRequestFactory.class);
     }
@@ -118,6 +130,53 @@ public class TestEventRequestQueue {
         Assert.assertEquals(queue.getIncompleteEventRequests().size(), 0);
     }
 
+    @Test
+    public void testAddValidRequestEncodedInBackground() {
+
+        JSONObject requestjson = new JSONObject();
+        when(builder.build()).thenReturn(requestjson);
+
+        TrackingRequest trackingrequest = mock(TrackingRequest.class);
+        when(this.requestFactory.getRequest(anyString(), eq(requestjson))).thenReturn(trackingrequest);
+
+        EventRequestQueue queue = new EventRequestQueue(this.trackingQueue, this.requestFactory, this.trackingHelper, this.jsonFactory, true);
+        queue.setCampaignID("campaignid");
+
+        EventRequest arequest = new EventRequest(mock(Event.class));
+        arequest.setTrackingID("trackingid");
+
+        queue.addEventRequest(arequest);
+
+        //encoded and queued by the encoder stage, not the calling thread.
+        verify(trackingQueue, timeout(1000)).enqueueRequest(trackingrequest);
+        Assert.assertEquals(queue.getIncompleteEventRequests().size(), 0);
+    }
+
+    @Test
+    public void testEncodedAfterShutdownIsDropped() throws Exception {
+
+        JSONObject requestjson = new JSONObject();
+        when(builder.build()).thenReturn(requestjson);
+
+        TrackingRequest trackingrequest = mock(TrackingRequest.class);
+        when(this.requestFactory.getRequest(anyString(), eq(requestjson))).thenReturn(trackingrequest);
+
+        EventRequestQueue queue = new EventRequestQueue(this.trackingQueue, this.requestFactory, this.trackingHelper, this.jsonFactory);
+        queue.setCampaignID("campaignid");
+        queue.shutdown();
+
+        EventRequest arequest = new EventRequest(mock(Event.class));
+        arequest.setTrackingID("trackingid");
+        arequest.setDelivery(new TaskCompletionSource<EventDelivery>(), System.nanoTime());
+        when(trackingrequest.getTag()).thenReturn(arequest);
+
+        //as an encoder still running after shutdown would.
+        queue.encode(arequest);
+
+        verify(trackingQueue, times(0)).enqueueRequest(any(TrackingRequest.class));
+        Assert.assertEquals(EventDelivery.Outcome.DROPPED, arequest.getDelivery().getResult().getOutcome());
+    }
+
     @Test
     public void testSetDelegate() {
 
@@ -170,6 +229,55 @@ public class TestEventRequestQueue {
         Assert.assertEquals(queue.getIncompleteEventRequests().size(), 1);
     }
 
+    @Test
+    public void testIncompleteRequestIsTraced() {
+        EventTracer.start(16);
+
+        try {
+            EventRequestQueue queue = new EventRequestQueue(this.trackingQueue, this.requestFactory, this.trackingHelper, this.jsonFactory);
+            queue.setCampaignID("campaign_id");
+
+            EventRequest arequest = new EventRequest(mock(Event.class));
+            arequest.setTrace(7, 0);
+
+            queue.addEventRequest(arequest);
+
+            JSONObject requestjson = new JSONObject();
+            when(builder.build()).thenReturn(requestjson);
+            when(this.requestFactory.getRequest(anyString(), eq(requestjson))).thenReturn(mock(TrackingRequest.class));
+
+            queue.setTrackingIDForIncompleteRequests("trackingid");
+
+            String trace = EventTracer.exportChromeTrace();
+
+            Assert.assertEquals(2, EventTracer.getSpanCount());
+            Assert.assertTrue(trace.contains("\"name\":\"awaiting tracking id\",\"cat\":\"event\",\"ph\":\"X\",\"pid\":1,\"tid\":7"));
+            Assert.assertTrue(trace.contains("\"name\":\"serialise\""));
+        }
+        finally {
+            EventTracer.stop();
+        }
+    }
+
+    @Test
+    public void testIncompleteRequestsGauge() {
+        MeasurementServiceMetrics metrics = new MeasurementServiceMetrics();
+
+        EventRequestQueue queue = new EventRequestQueue(this.trackingQueue, this.requestFactory, this.trackingHelper, this.jsonFactory);
+        queue.setMetrics(metrics);
+        verify(this.trackingQueue).setMetrics(metrics);
+
+        queue.addEventRequest(new EventRequest(mock(Event.class)));
+        queue.addEventRequest(new EventRequest(mock(Event.class)));
+
+        Assert.assertEquals(2, metrics.snapshot().getGauge(MeasurementServiceMetrics.Gauge.EVENTS_AWAITING_TRACKING_ID));
+
+        queue.clearIncompleteRequests();
+
+        Assert.assertEquals(0, metrics.snapshot().getGauge(MeasurementServiceMetrics.Gauge.EVENTS_AWAITING_TRACKING_ID));
+        Assert.assertEquals(2, metrics.snapshot().getCounter(MeasurementServiceMetrics.Counter.EVENTS_DROPPED));
+    }
+
     @Test
     public void testEnqueueIncompletesAddToQueue() {
 
@@ -191,7 +299,8 @@ public class TestEventRequestQueue {
 
         queue.enqueueIncompletes();
 
-        verify(trackingQueue).enqueueRequest(any(TrackingRequest.class));
+        //released incompletes go to the transport queue as one batch.
+        verify(trackingQueue).enqueueRequests(argThat(new HasSize(1)));
         Assert.assertEquals(queue.getIncompleteEventRequests().size(), 0);
     }
 
@@ -214,7 +323,52 @@ public class TestEventRequestQueue {
 
         queue.setTrackingIDForIncompleteRequests("trackingid");
 
-        verify(trackingQueue).enqueueRequest(any(TrackingRequest.class));
+        verify(trackingQueue).enqueueRequests(argThat(new HasSize(1)));
         Assert.assertEquals(queue.getIncompleteEventRequests().size(), 0);
     }
+
+    @Test
+    public void testSetTrackingIDReleasesManyIncompletesAsOneBatch() {
+
+        EventRequestQueue queue = new EventRequestQueue(this.trackingQueue, this.requestFactory, this.trackingHelper, this.jsonFactory);
+        queue.setCampaignID("campaign_id");
+
+        List<EventRequest> requests = new ArrayList<>();
+
+        for (int index = 0; index < 5000; index++) {
+            EventRequest arequest = new EventRequest(mock(Event.class));
+            requests.add(arequest);
+            queue.addEventRequest(arequest);
+        }
+
+        Assert.assertEquals(5000, queue.getIncompleteEventRequests().size());
+
+        JSONObject requestjson = new JSONObject();
+        when(builder.build()).thenReturn(requestjson);
+        when(this.requestFactory.getRequest(anyString(), eq(requestjson))).thenReturn(mock(TrackingRequest.class));
+
+        queue.setTrackingIDForIncompleteRequests("trackingid");
+
+        verify(trackingQueue, times(1)).enqueueRequests(argThat(new HasSize(5000)));
+        verify(trackingQueue, times(0)).enqueueRequest(any(TrackingRequest.class));
+        Assert.assertEquals(0, queue.getIncompleteEventRequests().size());
+
+        for (EventRequest request : requests) {
+            Assert.assertEquals("trackingid", request.getTrackingID());
+        }
+    }
+
+    private static class HasSize extends ArgumentMatcher<Collection<TrackingRequest>> {
+
+        private final int size;
+
+        HasSize(int size) {
+            this.size = size;
+        }
+
+        @Override
+        public boolean matches(Object argument) {
+            return argument instanceof Collection && ((Collection) argument).size() == this.size;
+        }
+    }
 }
@@ -1,6 +1,5 @@
 package com.performancehorizon.measurementkit;
 
-import android.content.Intent;
 import android.net.Uri;
 import android.support.test.runner.AndroidJUnit4;
 
@@ -13,10 +12,7 @@ import org.junit.runner.RunWith;
 
 import java.net.URLEncoder;
 
-import static org.mockito.Matchers.any;
-import static org.mockito.Matchers.anyString;
 import static org.mockito.Mockito.mock;
-import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 /**
@@ -26,8 +22,6 @@ import static org.mockito.Mockito.when;
 @RunWith(AndroidJUnit4.class)
 public class TestMeasurementServiceURIBuilder {
 
-    private UriBuilderWrapper builder;
-    private MeasurementServiceURIBuilder.UriBuilderFactory factory;
     private TrackingURLHelper helper;
 
     private final static String SCHEME = "http";
@@ -35,29 +29,19 @@ public class TestMeasurementServiceURIBuilder {
     private final static Uri DESTINATION = Uri.parse("http://www.google.com");
     private final static String CAMREF = "examplecamref";
 
+    private final static String CLICK = "http://mobiletracking/click/camref:examplecamref/destination:";
+
     @Before
     public void initialise() {
-
-        builder = mock(UriBuilderWrapper.class);
-
-        when(builder.scheme(anyString())).thenReturn(builder);
-        when(builder.authority(anyString())).thenReturn(builder);
-        when(builder.appendPath(anyString())).thenReturn(builder);
-        when(builder.appendEncodedPath(anyString())).thenReturn(builder);
-        when(builder.appendQueryParameter(anyString(), anyString())).thenReturn(builder);
-
         helper = mock(TrackingURLHelper.class);
         when(helper.scheme()).thenReturn(SCHEME);
         when(helper.hostForMobileTracking()).thenReturn(HOST);
-
-        factory = mock(MeasurementServiceURIBuilder.UriBuilderFactory.class);
-        when(factory.getBuilder()).thenReturn(builder);
     }
 
     @Test
     public void testInvalidNoCamref() throws Exception{
 
-        MeasurementServiceURIBuilder uribuilder = new MeasurementServiceURIBuilder(helper, factory);
+        MeasurementServiceURIBuilder uribuilder = new MeasurementServiceURIBuilder(helper);
 
         uribuilder.setDestination(Uri.parse("http://www.google.com"));
 
@@ -67,7 +51,7 @@ public class TestMeasurementServiceURIBuilder {
     @Test
     public void testInvalidNoHelper() throws Exception {
 
-        MeasurementServiceURIBuilder uribuilder = new MeasurementServiceURIBuilder(null, factory);
+        MeasurementServiceURIBuilder uribuilder = new MeasurementServiceURIBuilder(null);
         uribuilder.setCamref(CAMREF);
 
         Assert.assertNull(uribuilder.build());
@@ -76,166 +60,103 @@ public class TestMeasurementServiceURIBuilder {
     @Test
     public void testInvalidNoDestination()
     {
-        MeasurementServiceURIBuilder uribuilder = new MeasurementServiceURIBuilder(helper, factory);
+        MeasurementServiceURIBuilder uribuilder = new MeasurementServiceURIBuilder(helper);
 
         uribuilder.setCamref(CAMREF);
 
         Assert.assertNull(uribuilder.build());
     }
 
-    @Test
-    public void testValidBuildThrowsException()
-    {
-        MeasurementServiceURIBuilder uribuilder = new MeasurementServiceURIBuilder(helper, factory);
-        uribuilder.setCamref(CAMREF).setDestination(DESTINATION);
-
-        when(builder.build()).thenThrow(new UnsupportedOperationException());
-
-        Assert.assertNull(uribuilder.build());
-    }
-
     @Test
     public void testValidBuild() throws Exception {
-        MeasurementServiceURIBuilder uribuilder = new MeasurementServiceURIBuilder(helper, factory);
+        MeasurementServiceURIBuilder uribuilder = new MeasurementServiceURIBuilder(helper);
         uribuilder.setCamref(CAMREF).setDestination(DESTINATION);
 
-        Uri built = Uri.parse("http://www.performancehorizon.com");
-        when(builder.build()).thenReturn(built);
-        Assert.assertEquals(uribuilder.build(), built);
-
-
         String encodeddestination = URLEncoder.encode(DESTINATION.toString(), "utf-8");
 
-
-        verify(builder).scheme(SCHEME);
-        verify(builder).authority(HOST);
-        verify(builder).appendPath("click");
-        verify(builder).appendEncodedPath("camref:" + CAMREF);
-        verify(builder).appendEncodedPath("destination:" + encodeddestination);
+        Assert.assertEquals(Uri.parse(CLICK + encodeddestination), uribuilder.build());
     }
 
     @Test
     public void testValidBuildWithAlias() {
 
-        MeasurementServiceURIBuilder uribuilder = new MeasurementServiceURIBuilder(helper, factory);
+        MeasurementServiceURIBuilder uribuilder = new MeasurementServiceURIBuilder(helper);
         uribuilder.setCamref(CAMREF)
                 .setDestination(DESTINATION)
-                .putAlias("alias", "analias");
-
-        Uri built = Uri.parse("http://www.performancehorizon.com");
-        when(builder.build()).thenReturn(built);
-        Assert.assertEquals(uribuilder.build(), built);
+                .putAlias("alias", "an alias");
 
-        verify(builder).appendQueryParameter("alias", "analias");
+        Uri built = uribuilder.build();
 
+        Assert.assertEquals("an alias", built.getQueryParameter("alias"));
+        Assert.assertEquals(CLICK + "http%3A%2F%2Fwww.google.com?alias=an%20alias", built.toString());
     }
 
     @Test
     public void testValidBuildSkippingDeepLinkWitDeepLink() throws Exception {
 
-        MeasurementServiceURIBuilder uribuilder = new MeasurementServiceURIBuilder(helper, factory);
+        MeasurementServiceURIBuilder uribuilder = new MeasurementServiceURIBuilder(helper);
         uribuilder.setCamref(CAMREF)
                 .setDestination(DESTINATION)
                 .setDeeplink(Uri.parse("http://www.google.com"))
                 .setSkipDeepLink(true);
 
-        Uri built = Uri.parse("http://www.performancehorizon.com?deep_link=" + URLEncoder.encode("http://www.google.com", "utf-8"));
-        when(builder.build()).thenReturn(built);
-        Assert.assertEquals(uribuilder.build(), built);
+        Uri built = uribuilder.build();
 
-        verify(builder).appendQueryParameter("skip_deep_link", "true");
+        Assert.assertEquals("true", built.getQueryParameter("skip_deep_link"));
+        Assert.assertEquals("http://www.google.com", built.getQueryParameter("deep_link"));
     }
 
     @Test
     public void testValidBuildSkippingDeepLinkWithNoDeepLink() {
 
-        MeasurementServiceURIBuilder uribuilder = new MeasurementServiceURIBuilder(helper, factory);
+        MeasurementServiceURIBuilder uribuilder = new MeasurementServiceURIBuilder(helper);
         uribuilder.setCamref(CAMREF)
                 .setDestination(DESTINATION)
                 .setSkipDeepLink(true);
 
-        Uri built = Uri.parse("http://www.performancehorizon.com");
-        when(builder.build()).thenReturn(built);
-        Assert.assertEquals(uribuilder.build(), built);
+        Uri built = uribuilder.build();
 
+        Assert.assertNull(built.getQuery());
     }
 
     @Test
     public void testValidBuildWithDeepLink() {
 
-        MeasurementServiceURIBuilder uribuilder = new MeasurementServiceURIBuilder(helper, factory);
+        MeasurementServiceURIBuilder uribuilder = new MeasurementServiceURIBuilder(helper);
         uribuilder.setCamref(CAMREF)
                 .setDestination(DESTINATION)
                 .setDeeplink(DESTINATION);
 
-        Uri built = Uri.parse("http://www.performancehorizon.com");
-        when(builder.build()).thenReturn(built);
-        Assert.assertEquals(uribuilder.build(), built);
+        Uri built = uribuilder.build();
 
-        verify(builder).appendQueryParameter("deep_link", DESTINATION.toString());
+        Assert.assertEquals(DESTINATION.toString(), built.getQueryParameter("deep_link"));
+        Assert.assertNull(built.getQueryParameter("skip_deep_link"));
     }
 
-    /**
-     * Created by owainbrown on 04/02/16.
-     */
-
-
-    @RunWith(AndroidJUnit4.class)
-    public static class TestWebIntentProcessor {
-
-        @Test
-        public void testIntentNoData()
-        {
-            Intent intent = new Intent(Intent.ACTION_MAIN);
-
-            WebClickIntentProccessor webprocessor = new WebClickIntentProccessor(intent);
-
-            Assert.assertNull(webprocessor.getMobileTrackingID());
-            Assert.assertNull(webprocessor.getFilteredIntent());
-        }
-
-        @Test
-        public void testIntentNotViewed() throws Exception
-        {
-            Intent intent = new Intent(Intent.ACTION_MAIN, Uri.parse("http://www.google.com/"));
-
-            WebClickIntentProccessor webprocessor = new WebClickIntentProccessor(intent);
-
-            Assert.assertNull(webprocessor.getMobileTrackingID());
-            Assert.assertNull(webprocessor.getFilteredIntent());
-        }
-
-        @Test
-        public void testIntentNoMobileTrackingID() throws Exception
-        {
-            Intent intent = new Intent(Intent.ACTION_VIEW, Uri.parse("http://www.google.com/"));
-
-            WebClickIntentProccessor webprocessor = new WebClickIntentProccessor(intent);
-
-            Assert.assertNull(webprocessor.getMobileTrackingID());
-            Assert.assertNull(webprocessor.getFilteredIntent());
-        }
-
-        @Test
-        public void testIntentWithMobileTrackingID() throws Exception
-        {
-            Intent intent = new Intent(Intent.ACTION_VIEW, Uri.parse("http://www.google.com?phn_mtid=trackingid"));
+    @Test
+    public void testBuiltLinkParsesBack() {
+        MeasurementServiceURIBuilder uribuilder = new MeasurementServiceURIBuilder(helper);
+        uribuilder.setCamref(CAMREF)
+                .setDestination(Uri.parse("http://www.google.com/a%20path?q=a+b"))
+                .setDeeplink(Uri.parse("exactview://open?x=1&y=2"));
 
-            WebClickIntentProccessor webprocessor = new WebClickIntentProccessor(intent);
+        TrackingLink link = TrackingLink.parse(uribuilder.build().toString());
 
-            Assert.assertEquals(webprocessor.getMobileTrackingID(), "trackingid");
-            Assert.assertEquals(webprocessor.getFilteredIntent(), new Intent(Intent.ACTION_VIEW, Uri.parse("http://www.google.com")));
-        }
+        Assert.assertEquals(CAMREF, link.getCamref());
+        Assert.assertEquals("http://www.google.com/a%20path?q=a+b", link.getDestination());
+        Assert.assertEquals("exactview://open?x=1&y=2", link.getDeepLink());
+    }
 
-        @Test
-        public void testIntentWithMobileTrackingIDAndExtraQueryParams() throws Exception
-        {
-            Intent intent = new Intent(Intent.ACTION_VIEW, Uri.parse("http://www.google.com?phn_mtid=trackingid&other=query"));
+    @Test
+    public void testMatchesTrackedLinkGenerator() {
+        Uri destination = Uri.parse("https://www.ourwebsite.com/products/a%20product?colour=red");
+        Uri deeplink = Uri.parse("exactview://open/products/1");
 
-            WebClickIntentProccessor webprocessor = new WebClickIntentProccessor(intent);
+        TrackedLinkGenerator generator = new TrackedLinkGenerator(CAMREF, "anaaid", 0);
 
-            Assert.assertEquals(webprocessor.getMobileTrackingID(), "trackingid");
-            Assert.assertEquals(webprocessor.getFilteredIntent(), new Intent(Intent.ACTION_VIEW, Uri.parse("http://www.google.com?other=query")));
-        }
+        Assert.assertEquals(MeasurementService.measurementServiceURI(CAMREF, "anaaid", destination, null),
+                generator.uriFor(destination));
+        Assert.assertEquals(MeasurementService.measurementServiceURI(CAMREF, "anaaid", destination, deeplink),
+                generator.uriFor(destination, deeplink));
     }
 }
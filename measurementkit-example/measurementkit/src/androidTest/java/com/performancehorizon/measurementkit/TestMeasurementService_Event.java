@@ -1,5 +1,6 @@
 package com.performancehorizon.measurementkit;
 
+import android.content.ComponentCallbacks2;
 import android.content.Context;
 import android.content.Intent;
 import android.net.ConnectivityManager;
@@ -16,13 +17,22 @@ import org.mockito.ArgumentMatcher;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+
+import bolts.Task;
+import bolts.TaskCompletionSource;
 
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyBoolean;
 import static org.mockito.Matchers.anyString;
 import static org.mockito.Matchers.argThat;
+import static org.mockito.Mockito.after;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.reset;
 import static org.mockito.Mockito.spy;
 import static org.mockito.Mockito.timeout;
 import static org.mockito.Mockito.times;
@@ -126,6 +136,55 @@ public class TestMeasurementService_Event {
         verify(eventQueue, times(0)).addEventRequest(eventRequest);
     }
 
+    @Test
+    public void testTrackEventForDeliveryWhenInactive()
+    {
+        Event event = mock(Event.class);
+
+        service.putStatus(MeasurementService.MeasurementServiceStatus.INACTIVE);
+        Task<EventDelivery> delivery = service.trackEventForDelivery(event);
+
+        Assert.assertTrue(delivery.isCompleted());
+        Assert.assertEquals(EventDelivery.Outcome.DROPPED, delivery.getResult().getOutcome());
+        Assert.assertEquals(event, delivery.getResult().getEvent());
+    }
+
+    @Test
+    public void testTrackEventForDeliveryAccepted()
+    {
+        EventRequest request = new EventRequest(mock(Event.class));
+        TaskCompletionSource<EventDelivery> delivery = new TaskCompletionSource<>();
+        request.setDelivery(delivery, System.nanoTime());
+
+        when(eventRequestFactory.getEventRequest(any(Event.class))).thenReturn(request);
+        service.putStatus(MeasurementService.MeasurementServiceStatus.QUERYING);
+        service.trackEvent(request.getEvent(), eventRequestFactory);
+
+        TrackingRequest trackingrequest = mock(TrackingRequest.class);
+        when(trackingrequest.getTag()).thenReturn(request);
+        when(trackingrequest.getResponseCode()).thenReturn(200);
+
+        service.requestQueueDidCompleteRequest(mock(TrackingRequestQueue.class), trackingrequest, "");
+
+        Assert.assertEquals(EventDelivery.Outcome.ACCEPTED, delivery.getTask().getResult().getOutcome());
+        Assert.assertEquals(200, delivery.getTask().getResult().getResponseCode());
+    }
+
+    @Test
+    public void testTrackEventForDeliveryExpiredOnError()
+    {
+        EventRequest request = new EventRequest(mock(Event.class));
+        TaskCompletionSource<EventDelivery> delivery = new TaskCompletionSource<>();
+        request.setDelivery(delivery, System.nanoTime());
+
+        TrackingRequest trackingrequest = mock(TrackingRequest.class);
+        when(trackingrequest.getTag()).thenReturn(request);
+
+        service.requestQueueErrorOnRequest(mock(TrackingRequestQueue.class), trackingrequest, new Exception("offline"));
+
+        Assert.assertEquals(EventDelivery.Outcome.EXPIRED, delivery.getTask().getResult().getOutcome());
+    }
+
     @Test
     public void testTrackEventWhenQuerying()
     {
@@ -151,79 +210,222 @@ public class TestMeasurementService_Event {
     }
 
 
-    //tests for queue restarts on events.
+    //tests for queue restarts as the network comes and goes.
+
+    private static final Reachability.NetworkState CONNECTED =
+            new Reachability.NetworkState(true, false, Reachability.Transport.WIFI);
 
     @Test
-    public void testQueuesRestartOnEventBeforeInitialise()
+    public void testEventDoesNotPollNetwork()
     {
         Event event = mock(Event.class);
 
-        when(reachability.isNetworkActive()).thenReturn(true);
+        service.putStatus(MeasurementService.MeasurementServiceStatus.ACTIVE);
+        reset(eventQueue, registerQueue);
 
         service.trackEvent(event);
 
+        verify(reachability, never()).isNetworkActive();
+        verify(eventQueue, never()).setQueueIsPaused(anyBoolean());
+        verify(registerQueue, never()).setQueueIsPaused(anyBoolean());
+    }
+
+    @Test
+    public void testQueuesRestartOnConnectBeforeInitialise()
+    {
+        service.networkStateChanged(CONNECTED);
+
         verify(eventQueue).setQueueIsPaused(true);
         verify(registerQueue).setQueueIsPaused(true);
     }
 
 
     @Test
-    public void testQueuesRestartOnEventWhenActive() {
-        Event event = mock(Event.class);
-
+    public void testQueuesRestartOnConnectWhenActive() {
         service.putStatus(MeasurementService.MeasurementServiceStatus.ACTIVE);
-        when(reachability.isNetworkActive()).thenReturn(true);
 
-        service.trackEvent(event);
+        service.networkStateChanged(CONNECTED);
 
         verify(eventQueue).setQueueIsPaused(false);
         verify(registerQueue).setQueueIsPaused(true);
     }
 
     @Test
-    public void testQueuesRestartOnEventWhenInactive()
-    {
-        Event event = mock(Event.class);
+    public void testQueuesPauseOnDisconnectWhenActive() {
+        service.putStatus(MeasurementService.MeasurementServiceStatus.ACTIVE);
+
+        service.networkStateChanged(Reachability.NetworkState.DISCONNECTED);
 
+        verify(eventQueue).setQueueIsPaused(true);
+        verify(registerQueue).setQueueIsPaused(true);
+    }
+
+    @Test
+    public void testQueuesRestartOnConnectWhenInactive()
+    {
         service.putStatus(MeasurementService.MeasurementServiceStatus.INACTIVE);
-        when(reachability.isNetworkActive()).thenReturn(true);
 
-        service.trackEvent(event);
+        service.networkStateChanged(CONNECTED);
 
         verify(eventQueue).setQueueIsPaused(true);
         verify(registerQueue).setQueueIsPaused(true);
     }
 
     @Test
-    public void testQueuesRestartOnEventWhenQuerying()
+    public void testQueuesRestartOnConnectWhenQuerying()
     {
-        Event event = mock(Event.class);
-
         service.putStatus(MeasurementService.MeasurementServiceStatus.QUERYING);
-        when(reachability.isNetworkActive()).thenReturn(true);
 
-        service.trackEvent(event);
+        service.networkStateChanged(CONNECTED);
 
         verify(eventQueue).setQueueIsPaused(true);
         verify(registerQueue).setQueueIsPaused(false);
     }
 
     @Test
-    public void testQueuesRestartOnEventWhenHalted()
+    public void testQueuesRestartOnConnectWhenHalted()
     {
-        Event event = mock(Event.class);
-
         when(storage.status()).thenReturn(MeasurementService.MeasurementServiceStatus.HALTED);
 
         service.putStatus(MeasurementService.MeasurementServiceStatus.HALTED);
-        when(reachability.isNetworkActive()).thenReturn(true);
 
-        service.trackEvent(event);
+        service.networkStateChanged(CONNECTED);
 
         verify(eventQueue).setQueueIsPaused(true);
         verify(registerQueue).setQueueIsPaused(true);
     }
 
+    @Test
+    public void testFlushOnUiHidden()
+    {
+        when(configuration.getFlushOnBackground()).thenReturn(true);
+
+        service.trimMemory(ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN);
+
+        verify(eventQueue).flush();
+    }
+
+    @Test
+    public void testNoFlushWhileRunning()
+    {
+        when(configuration.getFlushOnBackground()).thenReturn(true);
+
+        service.trimMemory(ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW);
+        service.trimMemory(ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN - 1);
+
+        verify(eventQueue, never()).flush();
+    }
+
+    @Test
+    public void testReleaseMemoryOnPressure() throws Exception
+    {
+        when(configuration.getSpillOnMemoryPressure()).thenReturn(true);
+        when(eventQueue.getQueuedHeapBytes()).thenReturn(2048L);
+
+        service.trimMemory(ComponentCallbacks2.TRIM_MEMORY_RUNNING_MODERATE);
+        verify(eventQueue, after(200).never()).getQueuedHeapBytes();
+
+        service.trimMemory(ComponentCallbacks2.TRIM_MEMORY_BACKGROUND);
+        verify(eventQueue, timeout(1000).times(2)).getQueuedHeapBytes();
+
+        //not initialised, so there's nowhere to spill to.
+        Task<MemoryPressureReport> released = service.releaseMemory();
+        Assert.assertTrue(released.waitForCompletion(1, TimeUnit.SECONDS));
+        Assert.assertEquals(2048, released.getResult().getHeapBytesBefore());
+        Assert.assertEquals(0, released.getResult().getRequestsSpilled());
+        verify(eventQueue, never()).spill(any(RequestSpillFile.class));
+    }
+
+    @Test
+    public void testShutdownReportsUnsent() throws Exception
+    {
+        EventRequest awaiting = mock(EventRequest.class);
+        EventRequest queued = mock(EventRequest.class);
+
+        when(eventQueue.getIncompleteEventRequests()).thenReturn(Arrays.asList(awaiting));
+        when(eventQueue.flush()).thenReturn(new TaskCompletionSource<Boolean>().getTask());
+        when(eventQueue.shutdown()).thenReturn(Arrays.asList(queued));
+        when(registerQueue.shutdown()).thenReturn(1);
+
+        Task<ShutdownReport> shutdown = service.shutdown(50, TimeUnit.MILLISECONDS);
+        Assert.assertTrue(shutdown.waitForCompletion(2, TimeUnit.SECONDS));
+
+        ShutdownReport report = shutdown.getResult();
+        Assert.assertFalse(report.isDrained());
+        Assert.assertEquals(1, report.getEventsUnsent());
+        Assert.assertEquals(1, report.getEventsAwaitingTrackingID());
+        Assert.assertEquals(1, report.getRegistrationsUnsent());
+
+        verify(eventQueue).clearIncompleteRequests();
+        verify(queued).completeDelivery(EventDelivery.Outcome.DROPPED, 0);
+        verify(reachability).stop();
+    }
+
+    @Test
+    public void testShutdownWhenDrained() throws Exception
+    {
+        when(eventQueue.getIncompleteEventRequests()).thenReturn(new ArrayList<EventRequest>());
+        when(eventQueue.flush()).thenReturn(Task.forResult(true));
+        when(eventQueue.shutdown()).thenReturn(new ArrayList<EventRequest>());
+
+        //drained, so it doesn't wait for the deadline.
+        Task<ShutdownReport> shutdown = service.shutdown(1, TimeUnit.HOURS);
+        Assert.assertTrue(shutdown.waitForCompletion(2, TimeUnit.SECONDS));
+
+        Assert.assertTrue(shutdown.getResult().isDrained());
+        Assert.assertEquals(0, shutdown.getResult().getEventsUnsent());
+    }
+
+    @Test
+    public void testEventAfterShutdownIsDropped() throws Exception
+    {
+        when(eventQueue.getIncompleteEventRequests()).thenReturn(new ArrayList<EventRequest>());
+        when(eventQueue.flush()).thenReturn(Task.forResult(true));
+        when(eventQueue.shutdown()).thenReturn(new ArrayList<EventRequest>());
+
+        service.shutdown(1, TimeUnit.SECONDS).waitForCompletion();
+        service.putStatus(MeasurementService.MeasurementServiceStatus.ACTIVE);
+
+        Task<EventDelivery> delivery = service.trackEventForDelivery(mock(Event.class));
+
+        Assert.assertEquals(EventDelivery.Outcome.DROPPED, delivery.getResult().getOutcome());
+        verify(eventQueue, never()).addEventRequest(any(EventRequest.class));
+    }
+
+    @Test
+    public void testShutdownCountsRequestsInFlightOnBothQueues() throws Exception
+    {
+        when(eventQueue.getIncompleteEventRequests()).thenReturn(new ArrayList<EventRequest>());
+        when(eventQueue.flush()).thenReturn(new TaskCompletionSource<Boolean>().getTask());
+        when(eventQueue.shutdown()).thenReturn(new ArrayList<EventRequest>());
+        when(eventQueue.isRequestActive()).thenReturn(true);
+        when(registerQueue.isRequestActive()).thenReturn(true);
+
+        Task<ShutdownReport> shutdown = service.shutdown(50, TimeUnit.MILLISECONDS);
+        Assert.assertTrue(shutdown.waitForCompletion(2, TimeUnit.SECONDS));
+
+        Assert.assertEquals(2, shutdown.getResult().getRequestsCancelled());
+    }
+
+    @Test
+    public void testShutdownReleasesSharedInstance() throws Exception
+    {
+        when(eventQueue.getIncompleteEventRequests()).thenReturn(new ArrayList<EventRequest>());
+        when(eventQueue.flush()).thenReturn(Task.forResult(true));
+        when(eventQueue.shutdown()).thenReturn(new ArrayList<EventRequest>());
+
+        MeasurementService.setTrackingInstance(service);
+
+        try {
+            service.shutdown(1, TimeUnit.SECONDS).waitForCompletion();
+
+            Assert.assertNotSame(service, MeasurementService.sharedInstance(new MeasurementServiceConfiguration()));
+        }
+        finally {
+            MeasurementService.setTrackingInstance(null);
+        }
+    }
+
     private class EventRequestNoTrackingID extends ArgumentMatcher<EventRequest>{
 
         @Override
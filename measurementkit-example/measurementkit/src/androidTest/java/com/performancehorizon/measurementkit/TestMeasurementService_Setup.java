@@ -18,10 +18,17 @@ import org.mockito.MockitoAnnotations;
 import org.mockito.invocation.InvocationOnMock;
 import org.mockito.stubbing.Answer;
 
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import bolts.Task;
 
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyBoolean;
+import static org.mockito.Matchers.anyLong;
 import static org.mockito.Matchers.anyString;
 import static org.mockito.Matchers.argThat;
 import static org.mockito.Matchers.eq;
@@ -63,9 +70,7 @@ public class TestMeasurementService_Setup {
     private Fingerprinter fingerprinter;
     private ReferrerTracker tracker;
 
-    private WebClickIntentProccessor webProcessor;
-    private UniversalIntentProcessor universalProcessor;
-    private AppClickIntentProcessor appProcessor;
+    private TrackedIntentClassifier classifier;
 
     private ReachabilityCallback reachabilitycallback;
 
@@ -98,9 +103,7 @@ public class TestMeasurementService_Setup {
         registerRequest = mock(RegisterRequest.class);
         fingerprinter = mock(Fingerprinter.class);
 
-        webProcessor = mock(WebClickIntentProccessor.class);
-        universalProcessor = mock(UniversalIntentProcessor.class);
-        appProcessor = mock(AppClickIntentProcessor.class);
+        classifier = mock(TrackedIntentClassifier.class);
 
         reachabilitycallback = mock(ReachabilityCallback.class);
 
@@ -116,19 +119,15 @@ public class TestMeasurementService_Setup {
                 });
 
         when(storageFactory.getMeasurementStorage(any(Context.class))).thenReturn(storage);
-        when(processorFactory.getAppIntentProcessor(any(Intent.class), anyString())).thenReturn(appProcessor);
-        when(processorFactory.getUniversalIntentProcessor(any(Intent.class), any(TrackingURLHelper.class)))
-                .thenReturn(universalProcessor);
-        when(processorFactory.getWebIntentProcessor(any(Intent.class))).thenReturn(webProcessor);
+        when(processorFactory.getIntentClassifier(any(Intent.class), anyString(), any(TrackingURLHelper.class)))
+                .thenReturn(classifier);
         when(registerRequestFactory.getRegisterRequest(any(Context.class), anyBoolean())).thenReturn(registerRequest);
         when(fingerprinterFactory.getFingerprinter(any(Context.class))).thenReturn(fingerprinter);
 
         service = spy(new MeasurementService(config, registerQueue, eventQueue, fingerprinterFactory));
 
-        //default- return nothing from the processors
-        when(webProcessor.getMobileTrackingID()).thenReturn(null);
-        when(universalProcessor.getCamref()).thenReturn(null);
-        when(appProcessor.getCamref()).thenReturn(null);
+        //default- not a tracked click
+        when(classifier.getClickType()).thenReturn(TrackedIntentClassifier.ClickType.NONE);
 
         //default- return nothing from storage
         when(storage.getCamRef()).thenReturn(null);
@@ -196,6 +195,34 @@ public class TestMeasurementService_Setup {
         verify(eventQueue).setQueueIsPaused(false);
     }
 
+    @Test
+    public void testReachabilityStateChanges()
+    {
+        when(context.getSystemService(Context.CONNECTIVITY_SERVICE)).thenReturn(mock(ConnectivityManager.class));
+        when(storage.status()).thenReturn(MeasurementService.MeasurementServiceStatus.ACTIVE);
+        when(storage.getTrackingID()).thenReturn("tracking_id");
+
+        service.initialise(context, new Intent(Intent.ACTION_MAIN), ADVERTISERID, CAMPAIGNID,
+                storageFactory, reachabilityFactory, processorFactory, registerRequestFactory, trackerFactory);
+
+        reset(registerQueue, eventQueue);
+
+        //losing the network pauses both queues.
+        reachabilitycallback.onNetworkStateChanged(Reachability.NetworkState.DISCONNECTED);
+
+        verify(registerQueue).setQueueIsPaused(true);
+        verify(eventQueue).setQueueIsPaused(true);
+
+        reset(registerQueue, eventQueue);
+
+        //and getting it back restarts the event queue.
+        reachabilitycallback.onNetworkStateChanged(
+                new Reachability.NetworkState(true, true, Reachability.Transport.CELLULAR));
+
+        verify(registerQueue).setQueueIsPaused(true);
+        verify(eventQueue).setQueueIsPaused(false);
+    }
+
 
     @Test //NB - this tests the non-registration parts of initialise( with no context, and no query)
     public void testInitialiseSetupNoContext() throws Exception
@@ -228,6 +255,156 @@ public class TestMeasurementService_Setup {
         verify(registerQueue, timeout(1000)).addRegisterRequest(registerRequest);
     }
 
+    @Test
+    public void testRepeatedInitialiseSharesRegistration() throws Exception
+    {
+        Intent boringlink = new Intent(Intent.ACTION_MAIN);
+
+        when(context.getSystemService(Context.CONNECTIVITY_SERVICE)).thenReturn(mock(ConnectivityManager.class));
+        when(storage.status()).thenReturn(MeasurementService.MeasurementServiceStatus.QUERYING);
+
+        //several activities initialising before the registration completes.
+        for (int index = 0; index < 5; index++) {
+            service.initialise(context, boringlink, ADVERTISERID, CAMPAIGNID,
+                    storageFactory, reachabilityFactory, processorFactory, registerRequestFactory, trackerFactory);
+        }
+
+        verify(registerQueue, timeout(1000)).addRegisterRequest(registerRequest);
+        Thread.sleep(200);
+
+        verify(registerQueue, times(1)).addRegisterRequest(registerRequest);
+        verify(registerRequestFactory, times(1)).getRegisterRequest(any(Context.class), anyBoolean());
+        Assert.assertTrue(service.isRegistrationInFlight());
+    }
+
+    @Test
+    public void testReinitialiseStopsPreviousReachability() throws Exception
+    {
+        Intent boringlink = new Intent(Intent.ACTION_MAIN);
+
+        Reachability first = mock(Reachability.class);
+        Reachability second = mock(Reachability.class);
+
+        when(context.getSystemService(Context.CONNECTIVITY_SERVICE)).thenReturn(mock(ConnectivityManager.class));
+        when(reachabilityFactory.getReachability(any(ConnectivityManager.class), any(ReachabilityCallback.class)))
+                .thenReturn(first, second);
+
+        service.initialise(context, boringlink, ADVERTISERID, CAMPAIGNID,
+                storageFactory, reachabilityFactory, processorFactory, registerRequestFactory, trackerFactory);
+        verify(first, never()).stop();
+
+        service.initialise(context, boringlink, ADVERTISERID, CAMPAIGNID,
+                storageFactory, reachabilityFactory, processorFactory, registerRequestFactory, trackerFactory);
+
+        verify(first).stop();
+        verify(second, never()).stop();
+        Assert.assertSame(second, service.getReachability());
+    }
+
+    @Test
+    public void testInitialiseAfterShutdownIsIgnored() throws Exception
+    {
+        when(eventQueue.getIncompleteEventRequests()).thenReturn(new ArrayList<EventRequest>());
+        when(eventQueue.flush()).thenReturn(Task.forResult(true));
+        when(eventQueue.shutdown()).thenReturn(new ArrayList<EventRequest>());
+
+        service.shutdown(1, TimeUnit.SECONDS).waitForCompletion();
+
+        service.initialise(context, new Intent(Intent.ACTION_MAIN), ADVERTISERID, CAMPAIGNID,
+                storageFactory, reachabilityFactory, processorFactory, registerRequestFactory, trackerFactory);
+
+        verify(storageFactory, never()).getMeasurementStorage(any(Context.class));
+        verify(reachabilityFactory, never()).getReachability(any(ConnectivityManager.class), any(ReachabilityCallback.class));
+    }
+
+    @Test
+    public void testFailedRegistrationReleasesFlight() throws Exception
+    {
+        Intent boringlink = new Intent(Intent.ACTION_MAIN);
+
+        when(context.getSystemService(Context.CONNECTIVITY_SERVICE)).thenReturn(mock(ConnectivityManager.class));
+        when(storage.status()).thenReturn(MeasurementService.MeasurementServiceStatus.QUERYING);
+
+        service.initialise(context, boringlink, ADVERTISERID, CAMPAIGNID,
+                storageFactory, reachabilityFactory, processorFactory, registerRequestFactory, trackerFactory);
+        verify(registerQueue, timeout(1000)).addRegisterRequest(registerRequest);
+
+        service.registerRequestQueueDidError(registerQueue, registerRequest, new Exception("offline"));
+        Assert.assertFalse(service.isRegistrationInFlight());
+
+        //the next initialise registers afresh.
+        service.initialise(context, boringlink, ADVERTISERID, CAMPAIGNID,
+                storageFactory, reachabilityFactory, processorFactory, registerRequestFactory, trackerFactory);
+        verify(registerQueue, timeout(1000).times(2)).addRegisterRequest(registerRequest);
+    }
+
+    @Test
+    public void testRegistrationCancelledByShutdownIsNotRecovered() throws Exception
+    {
+        when(context.getSystemService(Context.CONNECTIVITY_SERVICE)).thenReturn(mock(ConnectivityManager.class));
+        when(storage.status()).thenReturn(MeasurementService.MeasurementServiceStatus.QUERYING);
+        when(eventQueue.getIncompleteEventRequests()).thenReturn(new ArrayList<EventRequest>());
+        when(eventQueue.flush()).thenReturn(Task.forResult(true));
+        when(eventQueue.shutdown()).thenReturn(new ArrayList<EventRequest>());
+
+        service.initialise(context, new Intent(Intent.ACTION_MAIN), ADVERTISERID, CAMPAIGNID,
+                storageFactory, reachabilityFactory, processorFactory, registerRequestFactory, trackerFactory);
+        verify(registerQueue, timeout(1000)).addRegisterRequest(registerRequest);
+
+        service.shutdown(1, TimeUnit.SECONDS).waitForCompletion();
+
+        //the registration in flight is cancelled, and reported as an error.
+        service.registerRequestQueueDidError(registerQueue, registerRequest, new IOException("Canceled"));
+
+        verify(storage, never()).putRegistrationAttempts(anyLong());
+    }
+
+    @Test
+    public void testRecoveryRetryKeepsCorrelationID() throws Exception
+    {
+        when(context.getSystemService(Context.CONNECTIVITY_SERVICE)).thenReturn(mock(ConnectivityManager.class));
+        when(storage.status()).thenReturn(MeasurementService.MeasurementServiceStatus.QUERYING);
+
+        service.initialise(context, new Intent(Intent.ACTION_MAIN), ADVERTISERID, CAMPAIGNID,
+                storageFactory, reachabilityFactory, processorFactory, registerRequestFactory, trackerFactory);
+        verify(registerQueue, timeout(1000)).addRegisterRequest(registerRequest);
+        verify(registerRequest, never()).setCorrelationID(anyString());
+
+        RegisterRequest failed = mock(RegisterRequest.class);
+        when(failed.getCorrelationID()).thenReturn("correlationid");
+        service.registerRequestQueueDidError(registerQueue, failed, new IOException("offline"));
+
+        service.recoverRegistration(registerRequestFactory);
+
+        verify(registerQueue, timeout(1000).times(2)).addRegisterRequest(registerRequest);
+        verify(registerRequest).setCorrelationID("correlationid");
+    }
+
+    @Test
+    public void testExpiredRegistrationKeepsNewerFlight() throws Exception
+    {
+        Intent boringlink = new Intent(Intent.ACTION_MAIN);
+
+        when(context.getSystemService(Context.CONNECTIVITY_SERVICE)).thenReturn(mock(ConnectivityManager.class));
+        when(storage.status()).thenReturn(MeasurementService.MeasurementServiceStatus.QUERYING);
+
+        service.initialise(context, boringlink, ADVERTISERID, CAMPAIGNID,
+                storageFactory, reachabilityFactory, processorFactory, registerRequestFactory, trackerFactory);
+        verify(registerQueue, timeout(1000)).addRegisterRequest(registerRequest);
+
+        //an older registration expires while this one is still pending.
+        when(registerQueue.hasPendingRequests()).thenReturn(true);
+        service.registerRequestQueueDidError(registerQueue, mock(RegisterRequest.class),
+                new TimeoutException("expired"));
+        Assert.assertTrue(service.isRegistrationInFlight());
+
+        //once nothing is pending, an expiry frees registration to be retried.
+        when(registerQueue.hasPendingRequests()).thenReturn(false);
+        service.registerRequestQueueDidError(registerQueue, registerRequest,
+                new TimeoutException("expired"));
+        Assert.assertFalse(service.isRegistrationInFlight());
+    }
+
     @Test //NB - this tests the non-registration parts of initialise( with context, but no query)
     public void testInitialiseSetupWithContextNoStored()
     {
@@ -480,8 +657,9 @@ public class TestMeasurementService_Setup {
     {
         Intent boringlink = new Intent(Intent.ACTION_MAIN);
         Intent filteredintent = new Intent(Intent.ACTION_VIEW);
-        when(universalProcessor.getCamref()).thenReturn("camref");
-        when(universalProcessor.getFilteredIntent()).thenReturn(filteredintent);
+        when(classifier.getClickType()).thenReturn(TrackedIntentClassifier.ClickType.UNIVERSAL);
+        when(classifier.getCamref()).thenReturn("camref");
+        when(classifier.getFilteredIntent()).thenReturn(filteredintent);
 
         when(storage.getCamRef()).thenReturn("camref");
 
@@ -513,8 +691,9 @@ public class TestMeasurementService_Setup {
     {
         Intent boringlink = new Intent(Intent.ACTION_MAIN);
         Intent filteredintent = new Intent(Intent.ACTION_VIEW);
-        when(appProcessor.getCamref()).thenReturn("camref");
-        when(appProcessor.getFilteredIntent()).thenReturn(filteredintent);
+        when(classifier.getClickType()).thenReturn(TrackedIntentClassifier.ClickType.APP);
+        when(classifier.getCamref()).thenReturn("camref");
+        when(classifier.getFilteredIntent()).thenReturn(filteredintent);
 
         when(storage.getCamRef()).thenReturn("camref");
 
@@ -546,8 +725,9 @@ public class TestMeasurementService_Setup {
     {
         Intent boringlink = new Intent(Intent.ACTION_MAIN);
         Intent filteredintent = new Intent(Intent.ACTION_VIEW);
-        when(webProcessor.getMobileTrackingID()).thenReturn("tracking_id");
-        when(webProcessor.getFilteredIntent()).thenReturn(filteredintent);
+        when(classifier.getClickType()).thenReturn(TrackedIntentClassifier.ClickType.WEB);
+        when(classifier.getMobileTrackingID()).thenReturn("tracking_id");
+        when(classifier.getFilteredIntent()).thenReturn(filteredintent);
 
         when(storage.getCamRef()).thenReturn("camref");
 
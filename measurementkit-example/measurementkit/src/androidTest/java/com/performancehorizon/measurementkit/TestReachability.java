@@ -2,6 +2,7 @@ package com.performancehorizon.measurementkit;
 
 import android.annotation.TargetApi;
 import android.net.ConnectivityManager;
+import android.net.Network;
 import android.net.NetworkInfo;
 import android.os.Build;
 import android.support.test.runner.AndroidJUnit4;
@@ -11,11 +12,15 @@ import junit.framework.Assert;
 import org.json.JSONObject;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
 
 import java.math.BigDecimal;
+import java.util.concurrent.Executor;
 
 import static org.mockito.Matchers.any;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -71,6 +76,7 @@ public class TestReachability {
         Assert.assertTrue(reachability.isNetworkActive());
     }
 
+    @Test
     public void testNetworkActiveWithNotConnectedNetwork() {
         NetworkInfo mockedinfo = mock(NetworkInfo.class);
         when(mockedinfo.isConnectedOrConnecting()).thenReturn(false);
@@ -83,4 +89,89 @@ public class TestReachability {
         Assert.assertFalse(reachability.isNetworkActive());
     }
 
+    //runs callbacks straight away, rather than on the main thread.
+    private static final Executor IMMEDIATE = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+    @Test
+    public void testStateIsCachedAndFollowsCallbacks() {
+        NetworkInfo wifi = mock(NetworkInfo.class);
+        when(wifi.isConnectedOrConnecting()).thenReturn(true);
+        when(wifi.getType()).thenReturn(ConnectivityManager.TYPE_WIFI);
+
+        ConnectivityManager mockconnectivity = mock(ConnectivityManager.class);
+        when(mockconnectivity.getActiveNetworkInfo()).thenReturn(wifi);
+
+        ReachabilityCallback callback = mock(ReachabilityCallback.class);
+        Reachability reachability = new Reachability(mockconnectivity, callback, IMMEDIATE);
+
+        ArgumentCaptor<ConnectivityManager.NetworkCallback> networkcallback =
+                ArgumentCaptor.forClass(ConnectivityManager.NetworkCallback.class);
+        verify(mockconnectivity).registerDefaultNetworkCallback(networkcallback.capture());
+
+        //reads don't go back to the connectivity manager.
+        for (int count = 0; count < 10; count++) {
+            Assert.assertTrue(reachability.isNetworkActive());
+        }
+
+        Assert.assertEquals(Reachability.Transport.WIFI, reachability.getNetworkState().getTransport());
+        verify(mockconnectivity, times(1)).getActiveNetworkInfo();
+
+        //lost - taken from the callback, though the connectivity manager still says wifi.
+        Network lost = mock(Network.class);
+        networkcallback.getValue().onLost(lost);
+
+        Assert.assertFalse(reachability.isNetworkActive());
+        verify(callback).onNetworkStateChanged(Reachability.NetworkState.DISCONNECTED);
+
+        //back, on a network whose capabilities are still to come.
+        Network available = mock(Network.class);
+        networkcallback.getValue().onAvailable(available);
+
+        Reachability.NetworkState state = reachability.getNetworkState();
+        Assert.assertTrue(state.isConnected());
+        Assert.assertEquals(Reachability.Transport.OTHER, state.getTransport());
+        verify(callback).onNetworkStateChanged(state);
+
+        //another network going doesn't disconnect the one in use.
+        networkcallback.getValue().onLost(lost);
+        Assert.assertTrue(reachability.isNetworkActive());
+
+        //unchanged, so no call.
+        networkcallback.getValue().onCapabilitiesChanged(available, null);
+        verify(callback, times(2)).onNetworkStateChanged(any(Reachability.NetworkState.class));
+
+        verify(mockconnectivity, times(1)).getActiveNetworkInfo();
+    }
+
+    @Test
+    public void testNoCallbackWithoutConnectivity() {
+        ReachabilityCallback callback = mock(ReachabilityCallback.class);
+        Reachability reachability = new Reachability(null, callback, IMMEDIATE);
+
+        Assert.assertFalse(reachability.isNetworkActive());
+        Assert.assertEquals(Reachability.Transport.NONE, reachability.getNetworkState().getTransport());
+        verify(callback, never()).onNetworkStateChanged(any(Reachability.NetworkState.class));
+    }
+
+    @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+    @Test
+    public void testStopUnregisters() {
+        ConnectivityManager mockconnectivity = mock(ConnectivityManager.class);
+        Reachability reachability = new Reachability(mockconnectivity, mock(ReachabilityCallback.class), IMMEDIATE);
+
+        ArgumentCaptor<ConnectivityManager.NetworkCallback> networkcallback =
+                ArgumentCaptor.forClass(ConnectivityManager.NetworkCallback.class);
+        verify(mockconnectivity).registerDefaultNetworkCallback(networkcallback.capture());
+
+        reachability.stop();
+
+        verify(mockconnectivity).unregisterNetworkCallback(networkcallback.getValue());
+        verify(mockconnectivity).removeDefaultNetworkActiveListener(any(ConnectivityManager.OnNetworkActiveListener.class));
+    }
 }
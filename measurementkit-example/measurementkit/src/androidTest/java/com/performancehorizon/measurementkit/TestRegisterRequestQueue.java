@@ -7,12 +7,14 @@ import junit.framework.Assert;
 import org.json.JSONObject;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
 
-
-import java.util.Map;
+import java.util.Collections;
+import java.util.concurrent.TimeoutException;
 
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
@@ -30,7 +32,7 @@ public class TestRegisterRequestQueue {
 
         TrackingRequestQueue requestqueue = mock(TrackingRequestQueue.class);
         TrackingRequestFactory requestfactory = mock(TrackingRequestFactory.class);
-        TrackingURLHelper urlhelper = mock(TrackingURLHelper.class);
+        TrackingURLHelper urlhelper = new TrackingURLHelper(false);
 
         RegisterRequestQueue queue = new RegisterRequestQueue(requestqueue, requestfactory, urlhelper);
 
@@ -39,6 +41,16 @@ public class TestRegisterRequestQueue {
         verify(requestqueue).setQueueIsPaused(true);
     }
 
+    @Test
+    public void testFailedRegistrationsAreNotHeld() {
+        TrackingRequestQueue requestqueue = mock(TrackingRequestQueue.class);
+
+        new RegisterRequestQueue(requestqueue, mock(TrackingRequestFactory.class), new TrackingURLHelper(false));
+
+        //retries are left to the service's recovery scheduler.
+        verify(requestqueue).setMaxAttempts(1);
+    }
+
     @Test
     public void testAddRequest() {
         
@@ -46,7 +58,7 @@ public class TestRegisterRequestQueue {
 
         TrackingRequestQueue requestqueue = mock(TrackingRequestQueue.class);
         TrackingRequestFactory requestfactory = mock(TrackingRequestFactory.class);
-        TrackingURLHelper urlhelper = mock(TrackingURLHelper.class);
+        TrackingURLHelper urlhelper = new TrackingURLHelper(false);
 
         TrackingRequest mocktrackingrequest = mock(TrackingRequest.class);
         when(requestfactory.getRequest(anyString(), any(JSONObject.class))).thenReturn(mocktrackingrequest);
@@ -64,11 +76,13 @@ public class TestRegisterRequestQueue {
         queue.addRegisterRequest(request);
         
         verify(requestqueue).enqueueRequest(mocktrackingrequest);
-        
-        Map<TrackingRequest, RegisterRequest> requests=  queue.getRequests();
 
-        Assert.assertEquals(requests.size(), 1);
-        Assert.assertEquals(requests.get(mocktrackingrequest), request);
+        //the transport request is tagged with the registration's correlation id.
+        ArgumentCaptor<Object> correlationid = ArgumentCaptor.forClass(Object.class);
+        verify(mocktrackingrequest).setTag(correlationid.capture());
+
+        Assert.assertEquals(queue.getPendingRequestCount(), 1);
+        Assert.assertEquals(queue.getPendingRequest((String) correlationid.getValue()), request);
     }
 
     @Test
@@ -78,7 +92,7 @@ public class TestRegisterRequestQueue {
 
         TrackingRequestQueue requestqueue = mock(TrackingRequestQueue.class);
         TrackingRequestFactory requestfactory = mock(TrackingRequestFactory.class);
-        TrackingURLHelper urlhelper = mock(TrackingURLHelper.class);
+        TrackingURLHelper urlhelper = new TrackingURLHelper(false);
 
         TrackingRequest mocktrackingrequest = mock(TrackingRequest.class);
         when(requestfactory.getRequest(anyString(), any(JSONObject.class))).thenReturn(mocktrackingrequest);
@@ -97,9 +111,7 @@ public class TestRegisterRequestQueue {
 
         verify(requestqueue, times(0)).enqueueRequest(mocktrackingrequest);
 
-        Map<TrackingRequest, RegisterRequest> requests=  queue.getRequests();
-
-        Assert.assertEquals(requests.size(), 0);
+        Assert.assertEquals(queue.getPendingRequestCount(), 0);
     }
 
     @Test
@@ -108,7 +120,7 @@ public class TestRegisterRequestQueue {
         //adding a request setup, feel free to skip...
         TrackingRequestQueue requestqueue = mock(TrackingRequestQueue.class);
         TrackingRequestFactory requestfactory = mock(TrackingRequestFactory.class);
-        TrackingURLHelper urlhelper = mock(TrackingURLHelper.class);
+        TrackingURLHelper urlhelper = new TrackingURLHelper(false);
 
         TrackingRequest mocktrackingrequest = mock(TrackingRequest.class);
         when(requestfactory.getRequest(anyString(), any(JSONObject.class))).thenReturn(mocktrackingrequest);
@@ -140,7 +152,14 @@ public class TestRegisterRequestQueue {
         };
 
         queue.setDelegate(delegate);
+
+        ArgumentCaptor<Object> correlationid = ArgumentCaptor.forClass(Object.class);
+        verify(mocktrackingrequest).setTag(correlationid.capture());
+        when(mocktrackingrequest.getTag()).thenReturn(correlationid.getValue());
+
         queue.requestQueueDidCompleteRequest(requestqueue, mocktrackingrequest, theresult);
+
+        Assert.assertEquals(0, queue.getPendingRequestCount());
     }
 
     @Test
@@ -149,7 +168,7 @@ public class TestRegisterRequestQueue {
         //adding a request setup, feel free to skip...
         TrackingRequestQueue requestqueue = mock(TrackingRequestQueue.class);
         TrackingRequestFactory requestfactory = mock(TrackingRequestFactory.class);
-        TrackingURLHelper urlhelper = mock(TrackingURLHelper.class);
+        TrackingURLHelper urlhelper = new TrackingURLHelper(false);
 
         TrackingRequest mocktrackingrequest = mock(TrackingRequest.class);
         when(requestfactory.getRequest(anyString(), any(JSONObject.class))).thenReturn(mocktrackingrequest);
@@ -181,7 +200,154 @@ public class TestRegisterRequestQueue {
         };
 
         queue.setDelegate(delegate);
+
+        ArgumentCaptor<Object> correlationid = ArgumentCaptor.forClass(Object.class);
+        verify(mocktrackingrequest).setTag(correlationid.capture());
+        when(mocktrackingrequest.getTag()).thenReturn(correlationid.getValue());
+
         queue.requestQueueErrorOnRequest(requestqueue, mocktrackingrequest, exception);
+
+        //failed registrations aren't kept.
+        Assert.assertEquals(0, queue.getPendingRequestCount());
+    }
+
+    @Test
+    public void testRetryReusesCorrelationID() {
+
+        TrackingRequestQueue requestqueue = mock(TrackingRequestQueue.class);
+        RegisterRequestQueue queue = new RegisterRequestQueue(requestqueue, this.requestFactory(), new TrackingURLHelper(false),
+                this.builderFactory());
+
+        MeasurementServiceMetrics metrics = new MeasurementServiceMetrics();
+        queue.setMetrics(metrics);
+
+        RegisterRequest request = new RegisterRequest(null);
+
+        queue.addRegisterRequest(request);
+        String correlationid = request.getCorrelationID();
+
+        queue.addRegisterRequest(request);
+
+        Assert.assertNotNull(correlationid);
+        Assert.assertEquals(correlationid, request.getCorrelationID());
+        Assert.assertEquals(1, queue.getPendingRequestCount());
+        Assert.assertEquals(request, queue.getPendingRequest(correlationid));
+
+        Assert.assertEquals(1, metrics.snapshot().getCounter(MeasurementServiceMetrics.Counter.REGISTRATIONS_RETRIED));
+        Assert.assertEquals(1, metrics.snapshot().getGauge(MeasurementServiceMetrics.Gauge.REGISTRATIONS_PENDING));
+    }
+
+    @Test
+    public void testFailedRegistrationsDontAccumulate() {
+
+        TrackingRequestQueue requestqueue = mock(TrackingRequestQueue.class);
+        TrackingRequestFactory requestfactory = this.requestFactory();
+        RegisterRequestQueue queue = new RegisterRequestQueue(requestqueue, requestfactory, new TrackingURLHelper(false),
+                this.builderFactory());
+
+        //no delegate attached - failures must be cleared regardless.
+        for (int index = 0; index < 5000; index++) {
+            RegisterRequest request = new RegisterRequest(null);
+            queue.addRegisterRequest(request);
+
+            TrackingRequest transportrequest = mock(TrackingRequest.class);
+            when(transportrequest.getTag()).thenReturn(request.getCorrelationID());
+
+            queue.requestQueueErrorOnRequest(requestqueue, transportrequest, new Exception("offline"));
+
+            Assert.assertEquals(0, queue.getPendingRequestCount());
+        }
+    }
+
+    @Test
+    public void testUnansweredRegistrationsAreBounded() {
+
+        RegisterRequestQueue queue = new RegisterRequestQueue(mock(TrackingRequestQueue.class), this.requestFactory(),
+                new TrackingURLHelper(false), this.builderFactory());
+
+        for (int index = 0; index < 5000; index++) {
+            queue.addRegisterRequest(new RegisterRequest(null));
+        }
+
+        Assert.assertEquals(RegisterRequestQueue.MAX_PENDING_REQUESTS, queue.getPendingRequestCount());
+    }
+
+    @Test
+    public void testUnansweredRegistrationsTimeOut() {
+
+        final long[] now = {0};
+
+        RegisterRequestQueue queue = new RegisterRequestQueue(mock(TrackingRequestQueue.class), this.requestFactory(),
+                new TrackingURLHelper(false), this.builderFactory()) {
+            @Override
+            protected long monotonicMillis() {
+                return now[0];
+            }
+        };
+
+        RegisterRequest oldrequest = new RegisterRequest(null);
+        queue.addRegisterRequest(oldrequest);
+
+        now[0] = RegisterRequestQueue.PENDING_REQUEST_TIMEOUT_MILLIS + 1;
+
+        RegisterRequest newrequest = new RegisterRequest(null);
+        queue.addRegisterRequest(newrequest);
+
+        Assert.assertEquals(1, queue.getPendingRequestCount());
+        Assert.assertNull(queue.getPendingRequest(oldrequest.getCorrelationID()));
+        Assert.assertEquals(newrequest, queue.getPendingRequest(newrequest.getCorrelationID()));
+    }
+
+    @Test
+    public void testExpiredRegistrationsReportFailure() {
+
+        final long[] now = {0};
+        TrackingRequestQueue transport = mock(TrackingRequestQueue.class);
+
+        RegisterRequestQueue queue = new RegisterRequestQueue(transport, this.requestFactory(),
+                new TrackingURLHelper(false), this.builderFactory()) {
+            @Override
+            protected long monotonicMillis() {
+                return now[0];
+            }
+        };
+
+        RegisterRequestQueueDelegate delegate = mock(RegisterRequestQueueDelegate.class);
+        queue.setDelegate(delegate);
+
+        RegisterRequest oldrequest = new RegisterRequest(null);
+        queue.addRegisterRequest(oldrequest);
+
+        queue.expirePendingRequests();
+        verify(delegate, times(0)).registerRequestQueueDidError(any(RegisterRequestQueue.class),
+                any(RegisterRequest.class), any(Exception.class));
+
+        now[0] = RegisterRequestQueue.PENDING_REQUEST_TIMEOUT_MILLIS + 1;
+        queue.expirePendingRequests();
+
+        verify(delegate).registerRequestQueueDidError(eq(queue), eq(oldrequest), any(TimeoutException.class));
+        Assert.assertFalse(queue.hasPendingRequests());
+
+        //and if it's still queued, it's not sent.
+        verify(transport).removeRequestsTagged(Collections.singletonList(oldrequest.getCorrelationID()));
+    }
+
+    private TrackingRequestFactory requestFactory() {
+        TrackingRequestFactory requestfactory = mock(TrackingRequestFactory.class);
+        when(requestfactory.getRequest(anyString(), any(JSONObject.class))).thenReturn(mock(TrackingRequest.class));
+
+        return requestfactory;
+    }
+
+    private RegisterRequestQueue.RegisterRequestJSONFactory builderFactory() {
+        RegisterRequestJSONBuilder builder = mock(RegisterRequestJSONBuilder.class);
+        when(builder.setRequest(any(RegisterRequest.class))).thenReturn(builder);
+        when(builder.build()).thenReturn(new JSONObject());
+
+        RegisterRequestQueue.RegisterRequestJSONFactory builderfactory = mock(RegisterRequestQueue.RegisterRequestJSONFactory.class);
+        when(builderfactory.jsonBuilder()).thenReturn(builder);
+
+        return builderfactory;
     }
 
 }
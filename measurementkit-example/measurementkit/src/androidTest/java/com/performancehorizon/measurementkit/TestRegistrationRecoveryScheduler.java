@@ -0,0 +1,171 @@
+package com.performancehorizon.measurementkit;
+
+import android.support.test.InstrumentationRegistry;
+
+import junit.framework.Assert;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Random;
+import java.util.concurrent.Executor;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class TestRegistrationRecoveryScheduler {
+
+    private MeasurementServiceStorage storage;
+    private Reachability reachability;
+    private RegistrationRecoveryScheduler.Callback callback;
+
+    private final long[] now = {1000};
+
+    //runs callbacks straight away, on the scheduling thread.
+    private final Executor immediate = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    @Before
+    public void startup() {
+        System.setProperty("dexmaker.dexcache", InstrumentationRegistry.getTargetContext().getCacheDir().getPath());
+
+        this.storage = mock(MeasurementServiceStorage.class);
+        this.reachability = mock(Reachability.class);
+        this.callback = mock(RegistrationRecoveryScheduler.Callback.class);
+
+        when(this.reachability.isNetworkActive()).thenReturn(true);
+    }
+
+    private RegistrationRecoveryScheduler scheduler(Random random) {
+        return new RegistrationRecoveryScheduler(this.storage, this.reachability, this.callback, random, this.immediate) {
+            @Override
+            protected long currentTimeMillis() {
+                return now[0];
+            }
+        };
+    }
+
+    @Test
+    public void testDelayBacksOffWithJitter() {
+        RegistrationRecoveryScheduler scheduler = this.scheduler(new Random(42));
+
+        long previousmax = 0;
+
+        for (long attempts = 1; attempts < 30; attempts++) {
+            long delay = scheduler.delayForAttempt(attempts);
+            long max = Math.min(RegistrationRecoveryScheduler.MAX_DELAY_MILLIS,
+                    RegistrationRecoveryScheduler.BASE_DELAY_MILLIS << Math.min(attempts - 1, 20));
+
+            Assert.assertTrue(delay >= max / 2);
+            Assert.assertTrue(delay <= max);
+            Assert.assertTrue(max >= previousmax);
+
+            previousmax = max;
+        }
+    }
+
+    @Test
+    public void testFailurePersistsAttemptAndRetries() {
+        when(this.storage.getRegistrationAttempts()).thenReturn(0L);
+
+        RegistrationRecoveryScheduler scheduler = new RegistrationRecoveryScheduler(this.storage, this.reachability,
+                this.callback, new Random(), this.immediate) {
+            @Override
+            protected long delayForAttempt(long attempts) {
+                return 10;
+            }
+        };
+
+        Assert.assertTrue(scheduler.registrationFailed());
+
+        verify(this.storage).putRegistrationAttempts(1);
+        verify(this.callback, timeout(1000)).registrationRecoveryDue(scheduler);
+    }
+
+    @Test
+    public void testRetryWaitsForNetwork() throws Exception {
+        when(this.reachability.isNetworkActive()).thenReturn(false);
+
+        RegistrationRecoveryScheduler scheduler = new RegistrationRecoveryScheduler(this.storage, this.reachability,
+                this.callback, new Random(), this.immediate) {
+            @Override
+            protected long delayForAttempt(long attempts) {
+                return 10;
+            }
+        };
+
+        scheduler.registrationFailed();
+        Thread.sleep(200);
+
+        verify(this.callback, never()).registrationRecoveryDue(any(RegistrationRecoveryScheduler.class));
+        Assert.assertTrue(scheduler.isRetryPending());
+
+        scheduler.networkActive();
+
+        verify(this.callback).registrationRecoveryDue(scheduler);
+        Assert.assertFalse(scheduler.isRetryPending());
+    }
+
+    @Test
+    public void testNoRetryAfterCap() {
+        when(this.storage.getRegistrationAttempts()).thenReturn((long) RegistrationRecoveryScheduler.MAX_ATTEMPTS - 1);
+
+        RegistrationRecoveryScheduler scheduler = this.scheduler(new Random());
+
+        Assert.assertFalse(scheduler.registrationFailed());
+        Assert.assertFalse(scheduler.isRetryPending());
+        verify(this.storage).putRegistrationAttempts(RegistrationRecoveryScheduler.MAX_ATTEMPTS);
+    }
+
+    @Test
+    public void testAnswerResetsAttemptsAndCancels() throws Exception {
+        when(this.storage.getRegistrationAttempts()).thenReturn(3L);
+
+        RegistrationRecoveryScheduler scheduler = new RegistrationRecoveryScheduler(this.storage, this.reachability,
+                this.callback, new Random(), this.immediate) {
+            @Override
+            protected long delayForAttempt(long attempts) {
+                return 100;
+            }
+        };
+
+        scheduler.registrationFailed();
+        scheduler.registrationAnswered();
+        Thread.sleep(300);
+
+        verify(this.storage).putRegistrationAttempts(0);
+        verify(this.callback, never()).registrationRecoveryDue(any(RegistrationRecoveryScheduler.class));
+    }
+
+    @Test
+    public void testTimeInQuerying() {
+        RegistrationRecoveryScheduler scheduler = this.scheduler(new Random());
+
+        when(this.storage.getQueryingSince()).thenReturn(0L);
+        scheduler.queryingStarted();
+        verify(this.storage).putQueryingSince(1000);
+
+        //querying carried over from a previous launch.
+        when(this.storage.getQueryingSince()).thenReturn(1000L);
+        now[0] = 6000;
+        scheduler.queryingStarted();
+
+        verify(this.storage, never()).putQueryingSince(6000);
+        Assert.assertEquals(5000, scheduler.getTimeInQueryingMillis());
+
+        scheduler.queryingEnded();
+        verify(this.storage).putQueryingSince(0);
+
+        when(this.storage.getQueryingSince()).thenReturn(0L);
+        now[0] = 10000;
+        Assert.assertEquals(5000, scheduler.getTimeInQueryingMillis());
+    }
+}
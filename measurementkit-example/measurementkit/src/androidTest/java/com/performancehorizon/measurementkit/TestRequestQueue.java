@@ -2,19 +2,33 @@ package com.performancehorizon.measurementkit;
 
 import android.support.test.runner.AndroidJUnit4;
 
+import junit.framework.Assert;
+
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 
 import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.*;
 
 
 
+import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import bolts.Task;
 
+import okhttp3.MediaType;
 import okhttp3.OkHttpClient;
+import okhttp3.RequestBody;
 
 /**
  * Created by owainbrown on 17/03/15.
@@ -154,4 +168,351 @@ public class TestRequestQueue {
         verify(delegate, timeout(500)).requestQueueDidCompleteRequest(queue,firstrequest,result);
         verify(delegate, timeout(500).times(1)).requestQueueErrorOnRequest(queue, secondrequest, exception);
     }
+
+    //a request answering with each of codes in turn, then 200.
+    private TrackingRequest requestAnswering(TrackingEndpoints.Endpoint endpoint, final int... codes) throws Exception {
+        final AtomicInteger sent = new AtomicInteger();
+
+        TrackingRequest request = mock(TrackingRequest.class);
+        when(request.getEndpoint()).thenReturn(endpoint);
+        when(request.getRetryAfterMillis()).thenReturn(-1L);
+        when(request.execute(any(OkHttpClientWrapper.class))).thenAnswer(new Answer<String>() {
+            @Override
+            public String answer(InvocationOnMock invocation) throws Throwable {
+                sent.incrementAndGet();
+                return "result";
+            }
+        });
+        when(request.getResponseCode()).thenAnswer(new Answer<Integer>() {
+            @Override
+            public Integer answer(InvocationOnMock invocation) throws Throwable {
+                int attempt = sent.get() - 1;
+                return (attempt < codes.length) ? codes[attempt] : 200;
+            }
+        });
+        when(request.getAttempts()).thenAnswer(new Answer<Integer>() {
+            @Override
+            public Integer answer(InvocationOnMock invocation) throws Throwable {
+                return sent.get();
+            }
+        });
+
+        return request;
+    }
+
+    //retries after a short fixed wait.
+    private TrackingRequestQueue quickRetryQueue(final long delayNanos) {
+        return new TrackingRequestQueue(new OkHttpClient()) {
+            @Override
+            protected long retryDelayNanos(TrackingRequest request, Exception error) {
+                return delayNanos;
+            }
+        };
+    }
+
+    @Test
+    public void testThrottledRequestIsHeldAndRetried() throws Exception {
+        TrackingRequestQueueDelegate delegate = mock(TrackingRequestQueueDelegate.class);
+        TrackingEndpoints.Endpoint endpoint = new TrackingEndpoints(Arrays.asList("http://mobiletracking")).select();
+
+        //503 with Retry-After 0, on every attempt but the last.
+        TrackingRequest request = this.requestAnswering(endpoint, 503, 503, 503, 503);
+        when(request.getRetryAfterMillis()).thenReturn(0L);
+
+        queue.setDelegate(delegate);
+        queue.enqueueRequest(request);
+
+        //held, not completed, until it's answered.
+        verify(request, timeout(2000).times(TrackingRequestQueue.DEFAULT_MAX_ATTEMPTS)).execute(any(OkHttpClientWrapper.class));
+        verify(delegate, timeout(2000).times(1)).requestQueueDidCompleteRequest(queue, request, "result");
+    }
+
+    @Test
+    public void testRequestFailsOnceOutOfAttempts() throws Exception {
+        TrackingRequestQueueDelegate delegate = mock(TrackingRequestQueueDelegate.class);
+        TrackingEndpoints.Endpoint endpoint = new TrackingEndpoints(Arrays.asList("http://mobiletracking")).select();
+
+        //throttled with Retry-After 0 (so the circuit doesn't keep it waiting), every time.
+        TrackingRequest request = this.requestAnswering(endpoint, 503, 503, 503, 503, 503, 503);
+        when(request.getRetryAfterMillis()).thenReturn(0L);
+        TrackingRequest behind = this.requestAnswering(endpoint);
+
+        queue.setDelegate(delegate);
+        queue.enqueueRequests(Arrays.asList(request, behind));
+
+        //reported as failed, and no longer in the way.
+        verify(delegate, timeout(2000)).requestQueueErrorOnRequest(eq(queue), eq(request), any(IOException.class));
+        verify(delegate, timeout(2000)).requestQueueDidCompleteRequest(queue, behind, "result");
+        verify(request, times(TrackingRequestQueue.DEFAULT_MAX_ATTEMPTS)).execute(any(OkHttpClientWrapper.class));
+        verify(delegate, never()).requestQueueDidCompleteRequest(queue, request, "result");
+    }
+
+    @Test
+    public void testSingleAttemptQueueDoesNotHold() throws Exception {
+        TrackingRequestQueueDelegate delegate = mock(TrackingRequestQueueDelegate.class);
+        TrackingEndpoints.Endpoint endpoint = new TrackingEndpoints(Arrays.asList("http://mobiletracking")).select();
+
+        TrackingRequest request = this.requestAnswering(endpoint, 502);
+
+        queue.setMaxAttempts(1);
+        queue.setDelegate(delegate);
+        queue.enqueueRequest(request);
+
+        verify(delegate, timeout(1000)).requestQueueErrorOnRequest(eq(queue), eq(request), any(IOException.class));
+        verify(request, after(200).times(1)).execute(any(OkHttpClientWrapper.class));
+    }
+
+    @Test
+    public void testServerErrorIsHeldWithBackoff() throws Exception {
+        TrackingRequestQueue backoffqueue = this.quickRetryQueue(300 * 1000000L);
+        TrackingRequestQueueDelegate delegate = mock(TrackingRequestQueueDelegate.class);
+        TrackingEndpoints.Endpoint endpoint = new TrackingEndpoints(Arrays.asList("http://mobiletracking")).select();
+
+        TrackingRequest request = this.requestAnswering(endpoint, 502);
+
+        backoffqueue.setDelegate(delegate);
+        backoffqueue.enqueueRequest(request);
+
+        //not sent again straight away, though the circuit is still closed.
+        verify(request, after(150).times(1)).execute(any(OkHttpClientWrapper.class));
+        verify(request, timeout(1000).times(2)).execute(any(OkHttpClientWrapper.class));
+        verify(delegate, timeout(1000).times(1)).requestQueueDidCompleteRequest(backoffqueue, request, "result");
+    }
+
+    @Test
+    public void testUnansweredRequestIsHeld() throws Exception {
+        TrackingRequestQueue backoffqueue = this.quickRetryQueue(1000000L);
+        TrackingRequestQueueDelegate delegate = mock(TrackingRequestQueueDelegate.class);
+        TrackingEndpoints.Endpoint endpoint = new TrackingEndpoints(Arrays.asList("http://mobiletracking")).select();
+
+        TrackingRequest request = mock(TrackingRequest.class);
+        when(request.getEndpoint()).thenReturn(endpoint);
+        when(request.getRetryAfterMillis()).thenReturn(-1L);
+        when(request.execute(any(OkHttpClientWrapper.class))).thenThrow(new IOException("offline")).thenReturn("result");
+
+        backoffqueue.setDelegate(delegate);
+        backoffqueue.enqueueRequest(request);
+
+        verify(delegate, timeout(1000)).requestQueueDidCompleteRequest(backoffqueue, request, "result");
+        verify(delegate, never()).requestQueueErrorOnRequest(eq(backoffqueue), eq(request), any(Exception.class));
+    }
+
+    @Test
+    public void testClientErrorIsNotHeld() throws Exception {
+        TrackingRequestQueueDelegate delegate = mock(TrackingRequestQueueDelegate.class);
+        TrackingEndpoints.Endpoint endpoint = new TrackingEndpoints(Arrays.asList("http://mobiletracking")).select();
+
+        TrackingRequest request = this.requestAnswering(endpoint, 400);
+
+        queue.setDelegate(delegate);
+        queue.enqueueRequest(request);
+
+        verify(delegate, timeout(1000)).requestQueueDidCompleteRequest(queue, request, "result");
+        verify(request, after(200).times(1)).execute(any(OkHttpClientWrapper.class));
+    }
+
+    @Test
+    public void testTracesFailureApartFromAcknowledgement() throws Exception {
+        TrackingRequestQueueDelegate delegate = mock(TrackingRequestQueueDelegate.class);
+
+        EventTracer.start(32);
+
+        try {
+            long acceptedid = EventTracer.newTraceID();
+            long failedid = EventTracer.newTraceID();
+
+            TrackingRequest accepted = mock(TrackingRequest.class);
+            when(accepted.getTraceID()).thenReturn(acceptedid);
+            when(accepted.getTraceMarkNanos()).thenReturn(EventTracer.mark());
+            when(accepted.getResponseCode()).thenReturn(200);
+            when(accepted.execute(any(OkHttpClientWrapper.class))).thenReturn("accepted");
+
+            TrackingRequest failed = mock(TrackingRequest.class);
+            when(failed.getTraceID()).thenReturn(failedid);
+            when(failed.getTraceMarkNanos()).thenReturn(EventTracer.mark());
+            when(failed.execute(any(OkHttpClientWrapper.class))).thenThrow(new IOException("offline"));
+
+            queue.setDelegate(delegate);
+            queue.enqueueRequests(Arrays.asList(accepted, failed));
+
+            Assert.assertTrue(queue.flush().waitForCompletion(2, TimeUnit.SECONDS));
+
+            String trace = EventTracer.exportChromeTrace();
+
+            Assert.assertTrue(trace.contains("\"name\":\"acknowledged\",\"cat\":\"event\",\"ph\":\"X\",\"pid\":1,\"tid\":" + acceptedid + ","));
+            Assert.assertTrue(trace.contains("\"name\":\"failed\",\"cat\":\"event\",\"ph\":\"X\",\"pid\":1,\"tid\":" + failedid + ","));
+            Assert.assertFalse(trace.contains("\"name\":\"acknowledged\",\"cat\":\"event\",\"ph\":\"X\",\"pid\":1,\"tid\":" + failedid + ","));
+        }
+        finally {
+            EventTracer.stop();
+        }
+    }
+
+    @Test
+    public void testOpenCircuitHoldsRequests() throws Exception {
+        TrackingRequestQueueDelegate delegate = mock(TrackingRequestQueueDelegate.class);
+        TrackingEndpoints.Endpoint endpoint = new TrackingEndpoints(Arrays.asList("http://mobiletracking")).select();
+
+        //the server asked for an hour's quiet.
+        endpoint.recordThrottled(60 * 60 * 1000000000L);
+
+        TrackingRequest request = mock(TrackingRequest.class);
+        when(request.getEndpoint()).thenReturn(endpoint);
+
+        queue.setDelegate(delegate);
+        queue.enqueueRequest(request);
+
+        verify(request, after(300).never()).execute(any(OkHttpClientWrapper.class));
+        verify(delegate, never()).requestQueueErrorOnRequest(eq(queue), eq(request), any(Exception.class));
+    }
+
+    @Test
+    public void testFlushCompletesOnceEmpty() throws Exception {
+        TrackingRequest first = mock(TrackingRequest.class);
+        TrackingRequest second = mock(TrackingRequest.class);
+        when(first.execute(any(OkHttpClientWrapper.class))).thenReturn("first");
+        when(second.execute(any(OkHttpClientWrapper.class))).thenReturn("second");
+
+        queue.setQueueIsPaused(true);
+        queue.enqueueRequests(Arrays.asList(first, second));
+        queue.setQueueIsPaused(false);
+
+        Task<Boolean> flushed = queue.flush();
+
+        Assert.assertTrue(flushed.waitForCompletion(2, TimeUnit.SECONDS));
+        Assert.assertTrue(flushed.getResult());
+        verify(first).execute(any(OkHttpClientWrapper.class));
+        verify(second).execute(any(OkHttpClientWrapper.class));
+    }
+
+    @Test
+    public void testFlushOfPausedQueue() throws Exception {
+        TrackingRequest request = mock(TrackingRequest.class);
+
+        queue.setQueueIsPaused(true);
+        queue.enqueueRequest(request);
+
+        //paused, so nothing is sent and the flush stalls straight away.
+        Task<Boolean> flushed = queue.flush();
+
+        Assert.assertTrue(flushed.isCompleted());
+        Assert.assertFalse(flushed.getResult());
+        verify(request, never()).execute(any(OkHttpClientWrapper.class));
+
+        Assert.assertTrue(queue.flush().isCompleted());
+    }
+
+    @Test
+    public void testFlushOfEmptyQueue() {
+        Task<Boolean> flushed = queue.flush();
+
+        Assert.assertTrue(flushed.isCompleted());
+        Assert.assertTrue(flushed.getResult());
+    }
+
+    @Test
+    public void testRemoveRequestsTagged() throws Exception {
+        TrackingRequest stale = mock(TrackingRequest.class);
+        when(stale.getTag()).thenReturn("stale");
+        TrackingRequest current = mock(TrackingRequest.class);
+        when(current.getTag()).thenReturn("current");
+        when(current.execute(any(OkHttpClientWrapper.class))).thenReturn("result");
+
+        queue.setQueueIsPaused(true);
+        queue.enqueueRequests(Arrays.asList(stale, current));
+
+        Assert.assertEquals(1, queue.removeRequestsTagged(Arrays.asList("stale", "unknown")));
+
+        queue.setQueueIsPaused(false);
+        Assert.assertTrue(queue.flush().waitForCompletion(2, TimeUnit.SECONDS));
+
+        verify(current).execute(any(OkHttpClientWrapper.class));
+        verify(stale, never()).execute(any(OkHttpClientWrapper.class));
+    }
+
+    @Test
+    public void testShutdownReturnsQueued() throws Exception {
+        TrackingRequest first = mock(TrackingRequest.class);
+        TrackingRequest second = mock(TrackingRequest.class);
+
+        queue.setQueueIsPaused(true);
+        queue.enqueueRequests(Arrays.asList(first, second));
+
+        Assert.assertEquals(Arrays.asList(first, second), queue.shutdown());
+
+        //nothing is sent once shut down, even unpaused.
+        queue.setQueueIsPaused(false);
+        queue.enqueueRequest(first);
+
+        verify(first, after(300).never()).execute(any(OkHttpClientWrapper.class));
+        Assert.assertFalse(queue.flush().getResult());
+    }
+
+    @Test
+    public void testSpillFreesQueuedBodies() throws Exception {
+        File directory = new File(System.getProperty("java.io.tmpdir"));
+        RequestSpillFile file = new RequestSpillFile(directory);
+
+        MediaType json = MediaType.parse("application/json");
+        EventRequest event = new EventRequest(mock(Event.class), "trackingid");
+
+        TrackingRequest first = new TrackingRequest("http://mobiletracking/event", RequestBody.create(json, "{\"a\":1}"));
+        TrackingRequest second = new TrackingRequest("http://mobiletracking/event", RequestBody.create(json, "{\"b\":22}"));
+        second.setTag(event);
+
+        queue.setQueueIsPaused(true);
+        queue.enqueueRequests(Arrays.asList(first, second));
+
+        Assert.assertEquals(15, queue.getQueuedHeapBytes());
+        Assert.assertEquals(2, queue.spill(file));
+        Assert.assertEquals(0, queue.getQueuedHeapBytes());
+
+        Assert.assertTrue(first.isSpilled());
+        //already serialised, and no one is waiting on its delivery.
+        Assert.assertNull(event.getEvent());
+
+        file.delete();
+    }
+
+    @Test
+    public void testSpillWritesOutsideTheQueueLock() throws Exception {
+        final RequestSpillFile file = mock(RequestSpillFile.class);
+        final CountDownLatch writing = new CountDownLatch(1);
+        final CountDownLatch written = new CountDownLatch(1);
+
+        TrackingRequest request = mock(TrackingRequest.class);
+        when(request.execute(any(OkHttpClientWrapper.class))).thenReturn("result");
+        when(request.spill(file)).thenAnswer(new Answer<Long>() {
+            @Override
+            public Long answer(InvocationOnMock invocation) throws Throwable {
+                writing.countDown();
+                written.await(5, TimeUnit.SECONDS);
+                return 10L;
+            }
+        });
+
+        queue.setQueueIsPaused(true);
+        queue.enqueueRequest(request);
+
+        Task<Integer> spilled = Task.callInBackground(new Callable<Integer>() {
+            @Override
+            public Integer call() throws Exception {
+                return queue.spill(file);
+            }
+        });
+
+        Assert.assertTrue(writing.await(5, TimeUnit.SECONDS));
+
+        //the queue can be used while the body is written, but the request isn't sent until it's done.
+        queue.setQueueIsPaused(false);
+        Assert.assertEquals(0, queue.getQueuedHeapBytes());
+        Assert.assertFalse(queue.isRequestActive());
+        verify(request, never()).execute(any(OkHttpClientWrapper.class));
+
+        written.countDown();
+        spilled.waitForCompletion();
+
+        Assert.assertEquals(1, spilled.getResult().intValue());
+        verify(request, timeout(1000)).execute(any(OkHttpClientWrapper.class));
+    }
 }
@@ -146,4 +146,24 @@ public class TestSaleJSONBuilder {
         Assert.assertEquals(metajson.get("other"), "thing");
 
     }
+
+    @Test
+    public void testSaleWithTypedMetaItems() throws Exception {
+
+        Sale sale = new Sale("product", new BigDecimal(0));
+        sale.setMetaItem("size", "12");
+        sale.setMetaItem("quantity", 12);
+        sale.setMetaItem("rating", 4.5);
+        sale.setMetaItem("gift", true);
+
+        SaleJSONBuilder salebuilder = new SaleJSONBuilder(sale);
+        JSONObject metajson = salebuilder.build().getJSONObject("meta");
+
+        Assert.assertEquals(metajson.length(), 4);
+        Assert.assertEquals(metajson.get("size"), "12");
+        Assert.assertEquals(metajson.get("quantity"), 12L);
+        Assert.assertEquals(metajson.get("rating"), 4.5);
+        Assert.assertEquals(metajson.get("gift"), Boolean.TRUE);
+        Assert.assertEquals(metajson.toString(), "{\"size\":\"12\",\"quantity\":12,\"rating\":4.5,\"gift\":true}");
+    }
 }
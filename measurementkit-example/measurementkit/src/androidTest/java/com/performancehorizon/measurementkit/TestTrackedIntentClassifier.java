@@ -0,0 +1,218 @@
+package com.performancehorizon.measurementkit;
+
+import android.content.Intent;
+import android.net.Uri;
+import android.support.test.runner.AndroidJUnit4;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Created by owainbrown on 04/01/2017.
+ */
+
+@RunWith(AndroidJUnit4.class)
+public class TestTrackedIntentClassifier {
+
+    private static final String CAMREF_KEY = MeasurementService.TrackingConstants.TRACKING_INTENT_CAMREF;
+
+    private TrackedIntentClassifier classify(Intent intent) {
+        return new TrackedIntentClassifier(intent, CAMREF_KEY, new TrackingURLHelper(false));
+    }
+
+    //web clicks
+
+    @Test
+    public void testWebIntentWithNoMobileTrackingID() {
+        TrackedIntentClassifier classifier = this.classify(new Intent(Intent.ACTION_VIEW, Uri.parse("http://www.ourwebsite.com/apage")));
+
+        Assert.assertEquals(TrackedIntentClassifier.ClickType.NONE, classifier.getClickType());
+        Assert.assertNull(classifier.getMobileTrackingID());
+        Assert.assertNull(classifier.getFilteredIntent());
+    }
+
+    @Test
+    public void testWebIntentWithMobileTrackingID() {
+        TrackedIntentClassifier classifier = this.classify(new Intent(Intent.ACTION_VIEW, Uri.parse("http://www.ourwebsite.com/apage?phn_mtid=bob")));
+
+        Assert.assertEquals(TrackedIntentClassifier.ClickType.WEB, classifier.getClickType());
+        Assert.assertEquals("bob", classifier.getMobileTrackingID());
+        Assert.assertEquals(Uri.parse("http://www.ourwebsite.com/apage"), classifier.getFilteredIntent().getData());
+    }
+
+    @Test
+    public void testWebIntentWithMobileTrackingIDAndCustomScheme() {
+        TrackedIntentClassifier classifier = this.classify(new Intent(Intent.ACTION_VIEW, Uri.parse("exactview://open?phn_mtid=bob")));
+
+        Assert.assertEquals("bob", classifier.getMobileTrackingID());
+        Assert.assertEquals(Uri.parse("exactview://open"), classifier.getFilteredIntent().getData());
+    }
+
+    @Test
+    public void testWillPreserveOtherQueryArgs() {
+        TrackedIntentClassifier classifier = this.classify(new Intent(Intent.ACTION_VIEW,
+                Uri.parse("exactview://open?first=1&phn_mtid=bob&someotherparam=steve%20smith&phn_mtid=again")));
+
+        Assert.assertEquals("bob", classifier.getMobileTrackingID());
+        Assert.assertEquals(Uri.parse("exactview://open?first=1&someotherparam=steve%20smith"), classifier.getFilteredIntent().getData());
+    }
+
+    @Test
+    public void testLongQueryWithMobileTrackingID() {
+        StringBuilder link = new StringBuilder("https://www.ourwebsite.com/products/a-product?");
+
+        for (int index = 0; index < 200; index++) {
+            if (index == 100) {
+                link.append("phn_mtid=1101l12345abcdef&");
+            }
+
+            link.append("utm_param").append(index).append("=value%20").append(index).append('&');
+        }
+
+        TrackedIntentClassifier classifier = this.classify(new Intent(Intent.ACTION_VIEW, Uri.parse(link.append("last=true").toString())));
+
+        Assert.assertEquals("1101l12345abcdef", classifier.getMobileTrackingID());
+        Assert.assertNull(classifier.getFilteredIntent().getData().getQueryParameter("phn_mtid"));
+        Assert.assertEquals("value 199", classifier.getFilteredIntent().getData().getQueryParameter("utm_param199"));
+    }
+
+    @Test
+    public void testMobileTrackingIDIsDecoded() {
+        TrackedIntentClassifier classifier = this.classify(new Intent(Intent.ACTION_VIEW, Uri.parse("http://www.google.com?phn_mtid=a%2Fb+c")));
+
+        Assert.assertEquals("a/b c", classifier.getMobileTrackingID());
+    }
+
+    @Test
+    public void testWrongIntentAction() {
+        TrackedIntentClassifier classifier = this.classify(new Intent(Intent.ACTION_DIAL, Uri.parse("content://contacts/people/1?phn_mtid=bob")));
+
+        Assert.assertEquals(TrackedIntentClassifier.ClickType.NONE, classifier.getClickType());
+        Assert.assertNull(classifier.getMobileTrackingID());
+        Assert.assertNull(classifier.getFilteredIntent());
+    }
+
+    @Test
+    public void testNoUriAction() {
+        TrackedIntentClassifier classifier = this.classify(new Intent(Intent.ACTION_VIEW));
+
+        Assert.assertEquals(TrackedIntentClassifier.ClickType.NONE, classifier.getClickType());
+        Assert.assertNull(classifier.getFilteredIntent());
+    }
+
+    //app clicks
+
+    @Test
+    public void testWithClickedIntent() {
+        Intent intent = new Intent();
+        intent.setAction(Intent.ACTION_ANSWER);
+        intent.putExtra(CAMREF_KEY, "camref");
+
+        TrackedIntentClassifier classifier = this.classify(intent);
+        Intent filteredintent = classifier.getFilteredIntent();
+
+        Assert.assertEquals(TrackedIntentClassifier.ClickType.APP, classifier.getClickType());
+        Assert.assertEquals("camref", classifier.getCamref());
+        Assert.assertNull(filteredintent.getStringExtra(CAMREF_KEY));
+        Assert.assertEquals(intent.getAction(), filteredintent.getAction());
+
+        //the original is left alone.
+        Assert.assertEquals("camref", intent.getStringExtra(CAMREF_KEY));
+    }
+
+    @Test
+    public void testWithClickedIntentAndCamrefKey() {
+        Intent intent = new Intent();
+        intent.setAction(Intent.ACTION_ANSWER);
+        intent.putExtra("key", "camref");
+
+        TrackedIntentClassifier classifier = new TrackedIntentClassifier(intent, "key", new TrackingURLHelper(false));
+
+        Assert.assertEquals("camref", classifier.getCamref());
+        Assert.assertNull(classifier.getFilteredIntent().getStringExtra("key"));
+    }
+
+    @Test
+    public void testWithUnclickedIntent() {
+        Intent intent = new Intent();
+        intent.setAction(Intent.ACTION_ANSWER);
+
+        TrackedIntentClassifier classifier = this.classify(intent);
+
+        Assert.assertEquals(TrackedIntentClassifier.ClickType.NONE, classifier.getClickType());
+        Assert.assertNull(classifier.getCamref());
+        Assert.assertNull(classifier.getFilteredIntent());
+    }
+
+    //universal clicks
+
+    @Test
+    public void testWithSchemeLink() {
+        TrackedIntentClassifier classifier = this.classify(new Intent(Intent.ACTION_DEFAULT, Uri.parse("exactview://open")));
+
+        Assert.assertNull(classifier.getCamref());
+    }
+
+    @Test
+    public void testWithWrongDomainLink() {
+        TrackedIntentClassifier classifier = this.classify(new Intent(Intent.ACTION_DEFAULT, Uri.parse("http://somewhere/someday")));
+
+        Assert.assertNull(classifier.getCamref());
+    }
+
+    @Test
+    public void testWithUniversal() {
+        TrackedIntentClassifier classifier = this.classify(new Intent(Intent.ACTION_DEFAULT, Uri.parse("https://m.prf.hn/click/camref:camref/")));
+
+        Assert.assertEquals(TrackedIntentClassifier.ClickType.UNIVERSAL, classifier.getClickType());
+        Assert.assertEquals("camref", classifier.getCamref());
+
+        //no alternate destination is provided.
+        Assert.assertEquals("https://m.prf.hn/click/camref:camref/", classifier.getFilteredIntent().getData().toString());
+    }
+
+    @Test
+    public void testWithDestination() {
+        TrackedIntentClassifier classifier = this.classify(new Intent(Intent.ACTION_DEFAULT,
+                Uri.parse("https://m.prf.hn/click/camref:camref/destination:http%3A%2F%2Fwww.google.com/")));
+
+        Assert.assertEquals("camref", classifier.getCamref());
+        Assert.assertEquals("http://www.google.com", classifier.getFilteredIntent().getData().toString());
+    }
+
+    @Test
+    public void testWithDeepLink() {
+        TrackedIntentClassifier classifier = this.classify(new Intent(Intent.ACTION_DEFAULT,
+                Uri.parse("https://m.prf.hn/click/camref:camref/?deep_link=http%3A%2F%2Fwww.google.com")));
+
+        Assert.assertEquals("camref", classifier.getCamref());
+        Assert.assertEquals("http://www.google.com", classifier.getFilteredIntent().getData().toString());
+    }
+
+    //precedence
+
+    @Test
+    public void testWebClickTakesPrecedence() {
+        Intent intent = new Intent(Intent.ACTION_VIEW, Uri.parse("https://m.prf.hn/click/camref:universal/?phn_mtid=bob"));
+        intent.putExtra(CAMREF_KEY, "app");
+
+        TrackedIntentClassifier classifier = this.classify(intent);
+
+        Assert.assertEquals(TrackedIntentClassifier.ClickType.WEB, classifier.getClickType());
+        Assert.assertEquals("bob", classifier.getMobileTrackingID());
+        Assert.assertNull(classifier.getCamref());
+    }
+
+    @Test
+    public void testAppClickBeforeUniversal() {
+        Intent intent = new Intent(Intent.ACTION_DEFAULT, Uri.parse("https://m.prf.hn/click/camref:universal/"));
+        intent.putExtra(CAMREF_KEY, "app");
+
+        TrackedIntentClassifier classifier = this.classify(intent);
+
+        Assert.assertEquals(TrackedIntentClassifier.ClickType.APP, classifier.getClickType());
+        Assert.assertEquals("app", classifier.getCamref());
+    }
+}
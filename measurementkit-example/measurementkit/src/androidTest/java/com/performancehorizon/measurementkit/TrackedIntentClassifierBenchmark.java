@@ -0,0 +1,80 @@
+package com.performancehorizon.measurementkit;
+
+import android.content.Intent;
+import android.net.Uri;
+import android.support.test.runner.AndroidJUnit4;
+
+import junit.framework.Assert;
+
+import org.junit.Ignore;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Rough on-device timing of intent classification, for affiliate links with long query strings.  Reports through
+ * the measurementkit log.  Correctness is covered by TestTrackedIntentClassifier.
+ */
+@Ignore("benchmark - run by hand")
+@RunWith(AndroidJUnit4.class)
+public class TrackedIntentClassifierBenchmark {
+
+    private static final int WARMUP_ITERATIONS = 200;
+    private static final int ITERATIONS = 2000;
+
+    private static Uri longLink(int parameters, boolean tracked) {
+        StringBuilder link = new StringBuilder("https://www.ourwebsite.com/products/a-product?");
+
+        for (int index = 0; index < parameters; index++) {
+            if (tracked && index == parameters / 2) {
+                link.append("phn_mtid=1101l12345abcdef&");
+            }
+
+            link.append("utm_param").append(index).append("=value%20").append(index).append('&');
+        }
+
+        link.append("last=true");
+
+        return Uri.parse(link.toString());
+    }
+
+    private long timeClassification(Intent intent) {
+        TrackingURLHelper helper = new TrackingURLHelper(false);
+
+        for (int index = 0; index < WARMUP_ITERATIONS; index++) {
+            new TrackedIntentClassifier(intent, MeasurementService.TrackingConstants.TRACKING_INTENT_CAMREF, helper);
+        }
+
+        long start = System.nanoTime();
+
+        for (int index = 0; index < ITERATIONS; index++) {
+            new TrackedIntentClassifier(intent, MeasurementService.TrackingConstants.TRACKING_INTENT_CAMREF, helper);
+        }
+
+        return (System.nanoTime() - start) / ITERATIONS;
+    }
+
+    @Test
+    public void benchmarkLongTrackedQuery() {
+        for (int parameters : new int[] {10, 50, 200}) {
+            Intent intent = new Intent(Intent.ACTION_VIEW, longLink(parameters, true));
+
+            TrackedIntentClassifier classifier = new TrackedIntentClassifier(intent,
+                    MeasurementService.TrackingConstants.TRACKING_INTENT_CAMREF, new TrackingURLHelper(false));
+            Assert.assertEquals("1101l12345abcdef", classifier.getMobileTrackingID());
+            Assert.assertNull(classifier.getFilteredIntent().getData().getQueryParameter("phn_mtid"));
+
+            MeasurementServiceLog.d("Tracked Intent Classifier Benchmark - tracked, " + parameters + " parameters: "
+                    + this.timeClassification(intent) + "ns/op");
+        }
+    }
+
+    @Test
+    public void benchmarkLongUntrackedQuery() {
+        for (int parameters : new int[] {10, 50, 200}) {
+            Intent intent = new Intent(Intent.ACTION_VIEW, longLink(parameters, false));
+
+            MeasurementServiceLog.d("Tracked Intent Classifier Benchmark - untracked, " + parameters + " parameters: "
+                    + this.timeClassification(intent) + "ns/op");
+        }
+    }
+}
@@ -1,5 +1,9 @@
 package com.performancehorizon.measurementkit;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
 /**
  * Created by owainbrown on 14/01/16.
  */
@@ -7,6 +11,12 @@ public class MeasurementServiceConfiguration {
     private boolean debugModeActive = false;
     private boolean trackAndroidAdvertisingIdentifier = true;
     private boolean useActiveFingerprinting = false;
+    private boolean useBinaryStateStore = false;
+    private boolean prewarmConnection = false;
+    private boolean flushOnBackground = false;
+    private boolean spillOnMemoryPressure = false;
+    private long connectionIdleTimeoutSeconds = 300;
+    private List<String> failoverTrackingUrls = Collections.emptyList();
 
     protected boolean useActiveFingerprinting() {
         return this.useActiveFingerprinting;
@@ -25,6 +35,82 @@ public class MeasurementServiceConfiguration {
         return this.trackAndroidAdvertisingIdentifier;
     }
 
+    /**
+     * stores the service state in a compact binary snapshot, rather than shared preferences.
+     * Existing shared preferences are migrated the first time the snapshot is opened.
+     * @param useBinaryStateStore true to use the binary snapshot
+     */
+    public void setUseBinaryStateStore(boolean useBinaryStateStore) {
+        this.useBinaryStateStore = useBinaryStateStore;
+    }
+
+    public boolean getUseBinaryStateStore() {
+        return this.useBinaryStateStore;
+    }
+
+    /**
+     * opens a connection to the tracking host in the background on initialise, so the first registration or event
+     * doesn't wait for dns, connect and the tls handshake.
+     * @param prewarmConnection true to prewarm
+     */
+    public void setPrewarmConnection(boolean prewarmConnection) {
+        this.prewarmConnection = prewarmConnection;
+    }
+
+    public boolean getPrewarmConnection() {
+        return this.prewarmConnection;
+    }
+
+    /**
+     * sends the events waiting to go when the app moves to the background, rather than leaving them until it's next
+     * in the foreground (or the process is killed with them).  See {@link MeasurementService#flush()}.
+     * @param flushOnBackground true to flush
+     */
+    public void setFlushOnBackground(boolean flushOnBackground) {
+        this.flushOnBackground = flushOnBackground;
+    }
+
+    public boolean getFlushOnBackground() {
+        return this.flushOnBackground;
+    }
+
+    /**
+     * moves queued events off the heap, to a file in the cache directory, when the system says memory is short.
+     * See {@link MeasurementService#releaseMemory()}.
+     * @param spillOnMemoryPressure true to spill
+     */
+    public void setSpillOnMemoryPressure(boolean spillOnMemoryPressure) {
+        this.spillOnMemoryPressure = spillOnMemoryPressure;
+    }
+
+    public boolean getSpillOnMemoryPressure() {
+        return this.spillOnMemoryPressure;
+    }
+
+    /**
+     * @param connectionIdleTimeoutSeconds how long an unused connection to the tracking host is kept open (default 300).
+     */
+    public void setConnectionIdleTimeoutSeconds(long connectionIdleTimeoutSeconds) {
+        this.connectionIdleTimeoutSeconds = connectionIdleTimeoutSeconds;
+    }
+
+    public long getConnectionIdleTimeoutSeconds() {
+        return this.connectionIdleTimeoutSeconds;
+    }
+
+    /**
+     * Endpoints to fail over to when the tracking host is failing or slow.  Requests go to the fastest healthy
+     * endpoint, scored from the round trip times and errors of recent requests.
+     * @param failoverTrackingUrls scheme and host of each endpoint, e.g. https://m2.example.com, in order of preference.
+     */
+    public void setFailoverTrackingUrls(List<String> failoverTrackingUrls) {
+        this.failoverTrackingUrls = new ArrayList<>(failoverTrackingUrls);
+    }
+
+    public List<String> getFailoverTrackingUrls() {
+        return this.failoverTrackingUrls;
+    }
+
     public void setDebugMode(boolean debugIsActive) {
         this.debugModeActive = debugIsActive;
     }
@@ -29,20 +29,15 @@ public class ActiveFingerprinter {
             @Override
             public void run() {
 
+                HashMap<String, String> fingerprint = new HashMap<>();
+
                 try {
                     Context context = weakContext.get();
 
                     if (context != null) {
                         WebView webview = new WebView(context);
 
-                        HashMap<String, String> fingerprint = new HashMap<>();
-
                         fingerprint.put("and_active_ua", webview.getSettings().getUserAgentString());
-
-                        if (callback != null) {
-                            callback.activeFingerprintComplete(ActiveFingerprinter.this,
-                                    fingerprint);
-                        }
                     }
                 }
                 catch(Exception exception) {
@@ -51,7 +46,12 @@ public class ActiveFingerprinter {
                 catch(VerifyError verificationerror) {
                     MeasurementServiceLog.e("Active Fingerprinter - Fingerprint failed with Verification error.");
                 }
+
+                //always call back (without the active fingerprint on failure) so the registration waiting on it goes ahead.
+                if (callback != null) {
+                    callback.activeFingerprintComplete(ActiveFingerprinter.this, fingerprint);
+                }
             }
         });
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,205 @@
+package com.performancehorizon.measurementkit;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Matches uris against app store rules: a set of schemes, then a trie of host suffixes (by label, so "google.com"
+ * matches "play.google.com" but not "notgoogle.com"), each with an optional path prefix.
+ *
+ * Rules are compiled on registration; matching reads the compiled rules without locking or allocating.
+ */
+public class AppStoreUriMatcher {
+
+    private static final HostNode[] NO_CHILDREN = new HostNode[0];
+    private static final String[] ANY_PATH = new String[0];
+
+    private static class HostNode {
+        private final String label;
+        private HostNode[] children = NO_CHILDREN;
+
+        //null where no rule ends at this node, ANY_PATH where one matches any path.
+        private String[] pathPrefixes = null;
+
+        private HostNode(String label) {
+            this.label = label;
+        }
+
+        private HostNode child(String name, int start, int end) {
+            for (HostNode child : this.children) {
+                if (child.label.length() == end - start && name.regionMatches(true, start, child.label, 0, end - start)) {
+                    return child;
+                }
+            }
+
+            return null;
+        }
+    }
+
+    private static class CompiledRules {
+        private final String[] schemes;
+        private final HostNode hosts;
+
+        private CompiledRules(String[] schemes, HostNode hosts) {
+            this.schemes = schemes;
+            this.hosts = hosts;
+        }
+    }
+
+    //rules as registered; {host, path prefix or null}.
+    private final List<String> schemeRules = new ArrayList<>();
+    private final List<String[]> hostRules = new ArrayList<>();
+
+    private volatile CompiledRules rules = new CompiledRules(new String[0], new HostNode(""));
+
+    /**
+     * @return a matcher for the google play, amazon and samsung stores.
+     */
+    public static AppStoreUriMatcher defaultMatcher() {
+        return new AppStoreUriMatcher()
+                .addHost("play.google.com", null) //play store
+                .addScheme("market") //play store scheme
+                .addScheme("amzn") //amazon store
+                .addHost("www.amazon.com", "/gp/mas/dl/android") //amazon store http
+                .addScheme("samsungapps"); //samsung app store
+    }
+
+    /**
+     * @param scheme a scheme only used by the store (matched regardless of host or path).
+     */
+    public synchronized AppStoreUriMatcher addScheme(String scheme) {
+        this.schemeRules.add(scheme.toLowerCase(Locale.US));
+        this.compile();
+
+        return this;
+    }
+
+    /**
+     * @param host the store host; subdomains also match.
+     * @param pathprefix the prefix the encoded path must start with, or null to match any path.
+     */
+    public synchronized AppStoreUriMatcher addHost(String host, String pathprefix) {
+        this.hostRules.add(new String[] {host.toLowerCase(Locale.US), pathprefix});
+        this.compile();
+
+        return this;
+    }
+
+    private void compile() {
+        HostNode root = new HostNode("");
+
+        for (String[] rule : this.hostRules) {
+            String host = rule[0];
+            HostNode node = root;
+            int end = host.length();
+
+            //labels from the top level domain down.
+            while (end > 0) {
+                int start = host.lastIndexOf('.', end - 1) + 1;
+                HostNode child = node.child(host, start, end);
+
+                if (child == null) {
+                    child = new HostNode(host.substring(start, end));
+
+                    HostNode[] children = new HostNode[node.children.length + 1];
+                    System.arraycopy(node.children, 0, children, 0, node.children.length);
+                    children[node.children.length] = child;
+                    node.children = children;
+                }
+
+                node = child;
+                end = start - 1;
+            }
+
+            if (rule[1] == null) {
+                node.pathPrefixes = ANY_PATH;
+            }
+            else if (node.pathPrefixes != ANY_PATH) {
+                String[] prefixes = (node.pathPrefixes == null) ? new String[1] : new String[node.pathPrefixes.length + 1];
+
+                if (node.pathPrefixes != null) {
+                    System.arraycopy(node.pathPrefixes, 0, prefixes, 0, node.pathPrefixes.length);
+                }
+
+                prefixes[prefixes.length - 1] = rule[1];
+                node.pathPrefixes = prefixes;
+            }
+        }
+
+        this.rules = new CompiledRules(this.schemeRules.toArray(new String[this.schemeRules.size()]), root);
+    }
+
+    /**
+     * @param scheme the uri scheme, or null.
+     * @param authority the uri authority (userinfo and port are ignored), or null.
+     * @param encodedpath the encoded uri path, or null.
+     * @return true if the uri belongs to a registered app store.
+     */
+    public boolean matches(String scheme, String authority, String encodedpath) {
+        CompiledRules compiled = this.rules;
+
+        if (scheme != null) {
+            for (String storescheme : compiled.schemes) {
+                if (storescheme.equalsIgnoreCase(scheme)) {
+                    return true;
+                }
+            }
+        }
+
+        if (authority == null) {
+            return false;
+        }
+
+        //host within [userinfo@]host[:port]
+        int hoststart = authority.lastIndexOf('@') + 1;
+        int hostend = authority.indexOf(':', hoststart);
+
+        if (hostend == -1) {
+            hostend = authority.length();
+        }
+
+        HostNode node = compiled.hosts;
+        int end = hostend;
+
+        while (end > hoststart) {
+            int start = authority.lastIndexOf('.', end - 1) + 1;
+
+            if (start < hoststart) {
+                start = hoststart;
+            }
+
+            node = node.child(authority, start, end);
+
+            if (node == null) {
+                return false;
+            }
+
+            if (node.pathPrefixes != null && matchesPath(node.pathPrefixes, encodedpath)) {
+                return true;
+            }
+
+            end = start - 1;
+        }
+
+        return false;
+    }
+
+    private static boolean matchesPath(String[] prefixes, String encodedpath) {
+        if (prefixes == ANY_PATH) {
+            return true;
+        }
+
+        if (encodedpath == null) {
+            return false;
+        }
+
+        for (String prefix : prefixes) {
+            if (encodedpath.startsWith(prefix)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+}
@@ -9,12 +9,25 @@ import android.net.Uri;
 /**identifies app store uris*/
 public class AppStoreUriSpotter {
 
+    private static final AppStoreUriMatcher matcher = AppStoreUriMatcher.defaultMatcher();
+
     public static boolean isAppStoreURI(Uri uri) {
+        return uri != null && matcher.matches(uri.getScheme(), uri.getEncodedAuthority(), uri.getEncodedPath());
+    }
+
+    /**
+     * Registers an additional store, identified by its scheme.
+     */
+    public static void registerAppStoreScheme(String scheme) {
+        matcher.addScheme(scheme);
+    }
 
-        return uri.getAuthority().contains("play.google.com") || //play store
-                uri.getScheme().equals("market") || //play store scheme
-                uri.getScheme().equals("amzn") || //amazon store
-                uri.toString().contains("www.amazon.com/gp/mas/dl/android")|| //amazon store http
-                uri.getScheme().equals("samsungapps"); //samsung app store
+    /**
+     * Registers an additional store, identified by its host (and subdomains).
+     *
+     * @param pathprefix the prefix of store paths on the host, or null if every path on the host is the store.
+     */
+    public static void registerAppStoreHost(String host, String pathprefix) {
+        matcher.addHost(host, pathprefix);
     }
 }
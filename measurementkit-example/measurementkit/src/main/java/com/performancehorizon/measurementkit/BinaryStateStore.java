@@ -0,0 +1,371 @@
+package com.performancehorizon.measurementkit;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+
+import bolts.Task;
+
+/**
+ * {@link MeasurementStateStore} held as a small versioned binary snapshot.
+ *
+ * The snapshot is read with a single sequential read when the store is opened, and rewritten atomically
+ * (temp file, then rename) in the background after changes are applied.  Bursts of changes are coalesced
+ * into a single write.
+ *
+ * The first time a store is opened, any values in the shared preferences file of the same name are migrated
+ * into the snapshot and the preferences file is removed.
+ */
+public class BinaryStateStore implements MeasurementStateStore {
+
+    protected static final int SNAPSHOT_MAGIC = 0x50484e4d; //"PHNM"
+    protected static final int SNAPSHOT_VERSION = 1;
+    protected static final String SNAPSHOT_EXTENSION = ".mmkstate";
+
+    private static final byte TYPE_STRING = 1;
+    private static final byte TYPE_BOOLEAN = 2;
+    private static final byte TYPE_LONG = 3;
+
+    //marks a removal in an editor's pending changes.
+    private static final Object REMOVED = new Object();
+
+    //stores are shared per file, so every reader in the process sees the same state.
+    private static final Map<String, BinaryStateStore> openStores = new HashMap<>();
+
+    private final File snapshot;
+    private final Map<String, Object> values;
+
+    //guards the snapshot file, separately from the in-memory values.
+    private final Object fileLock = new Object();
+
+    private long version = 0;
+    private long writtenVersion = 0;
+    private boolean writeScheduled = false;
+
+    /**
+     * open the binary store with the given name, migrating from shared preferences if required.
+     * @param context the current context
+     * @param name the name of the store (matching the shared preferences name it replaces)
+     * @return the store
+     */
+    public static synchronized BinaryStateStore open(Context context, String name) {
+
+        File snapshot = new File(context.getFilesDir(), name + SNAPSHOT_EXTENSION);
+        BinaryStateStore store = openStores.get(snapshot.getPath());
+
+        if (store == null) {
+            //only pay for parsing the preferences xml if there's something to migrate.
+            File legacyfile = (context.getApplicationInfo() != null) ?
+                    new File(new File(context.getApplicationInfo().dataDir, "shared_prefs"), name + ".xml") : null;
+            boolean haslegacy = legacyfile != null && legacyfile.exists();
+
+            store = new BinaryStateStore(snapshot,
+                    haslegacy ? context.getSharedPreferences(name, Context.MODE_PRIVATE) : null);
+
+            if (haslegacy && store.writtenVersion > 0 && !legacyfile.delete()) {
+                MeasurementServiceLog.d("Binary State Store - unable to remove migrated preferences {}", name);
+            }
+
+            openStores.put(snapshot.getPath(), store);
+        }
+
+        return store;
+    }
+
+    protected BinaryStateStore(File snapshot, SharedPreferences legacy) {
+        this.snapshot = snapshot;
+        this.values = BinaryStateStore.readSnapshot(snapshot);
+
+        if (legacy != null) {
+            this.migrate(legacy);
+        }
+    }
+
+    private void migrate(SharedPreferences legacy) {
+
+        for (Map.Entry<String, ?> entry : legacy.getAll().entrySet()) {
+            Object value = entry.getValue();
+
+            if (value instanceof Integer) {
+                value = Long.valueOf((Integer) value);
+            }
+
+            if (value instanceof String || value instanceof Boolean || value instanceof Long) {
+                this.values.put(entry.getKey(), value);
+            }
+        }
+
+        this.version++;
+
+        //only drop the old values once they're safely in the snapshot.
+        if (this.writeSnapshot()) {
+            legacy.edit().clear().commit();
+        }
+    }
+
+    @Override
+    public synchronized String getString(String key, String defaultValue) {
+        Object value = this.values.get(key);
+        return (value instanceof String) ? (String) value : defaultValue;
+    }
+
+    @Override
+    public synchronized boolean getBoolean(String key, boolean defaultValue) {
+        Object value = this.values.get(key);
+        return (value instanceof Boolean) ? (Boolean) value : defaultValue;
+    }
+
+    @Override
+    public synchronized long getLong(String key, long defaultValue) {
+        Object value = this.values.get(key);
+        return (value instanceof Long) ? (Long) value : defaultValue;
+    }
+
+    @Override
+    public MeasurementStateStore.Editor edit() {
+        return new Editor();
+    }
+
+    private synchronized void applyChanges(boolean clear, Map<String, Object> changes) {
+        if (clear) {
+            this.values.clear();
+        }
+
+        for (Map.Entry<String, Object> change : changes.entrySet()) {
+            if (change.getValue() == REMOVED) {
+                this.values.remove(change.getKey());
+            }
+            else {
+                this.values.put(change.getKey(), change.getValue());
+            }
+        }
+
+        this.version++;
+
+        if (!this.writeScheduled) {
+            this.writeScheduled = true;
+
+            Task.callInBackground(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    BinaryStateStore.this.writeSnapshot();
+                    return null;
+                }
+            });
+        }
+    }
+
+    /**
+     * write the current state to disk on the calling thread.
+     * @return true if the snapshot on disk is up to date.
+     */
+    boolean writeSnapshot() {
+        byte[] encoded;
+        long encodedversion;
+
+        synchronized (this) {
+            this.writeScheduled = false;
+
+            encoded = BinaryStateStore.encode(this.values);
+            encodedversion = this.version;
+        }
+
+        synchronized (this.fileLock) {
+            //a later write may have overtaken this one.
+            if (encodedversion <= this.writtenVersion) {
+                return true;
+            }
+
+            try {
+                BinaryStateStore.writeAtomically(this.snapshot, encoded);
+                this.writtenVersion = encodedversion;
+
+                return true;
+            }
+            catch (IOException writeexception) {
+                MeasurementServiceLog.e("Binary State Store - snapshot write failed: {}", writeexception);
+                return false;
+            }
+        }
+    }
+
+    private static void writeAtomically(File file, byte[] contents) throws IOException {
+        File temporary = new File(file.getPath() + ".tmp");
+
+        FileOutputStream output = new FileOutputStream(temporary);
+
+        try {
+            output.write(contents);
+            output.getFD().sync();
+        }
+        finally {
+            output.close();
+        }
+
+        if (!temporary.renameTo(file)) {
+            temporary.delete();
+            throw new IOException("unable to replace snapshot " + file.getPath());
+        }
+    }
+
+    static byte[] encode(Map<String, Object> values) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 + values.size() * 64);
+            DataOutputStream output = new DataOutputStream(bytes);
+
+            output.writeInt(SNAPSHOT_MAGIC);
+            output.writeByte(SNAPSHOT_VERSION);
+            output.writeInt(values.size());
+
+            for (Map.Entry<String, Object> entry : values.entrySet()) {
+                Object value = entry.getValue();
+
+                if (value instanceof String) {
+                    output.writeByte(TYPE_STRING);
+                    output.writeUTF(entry.getKey());
+                    output.writeUTF((String) value);
+                }
+                else if (value instanceof Boolean) {
+                    output.writeByte(TYPE_BOOLEAN);
+                    output.writeUTF(entry.getKey());
+                    output.writeBoolean((Boolean) value);
+                }
+                else {
+                    output.writeByte(TYPE_LONG);
+                    output.writeUTF(entry.getKey());
+                    output.writeLong((Long) value);
+                }
+            }
+
+            output.flush();
+            return bytes.toByteArray();
+        }
+        catch (IOException impossible) { //in-memory streams don't throw.
+            throw new IllegalStateException(impossible);
+        }
+    }
+
+    static Map<String, Object> decode(byte[] snapshot) throws IOException {
+        DataInputStream input = new DataInputStream(new ByteArrayInputStream(snapshot));
+
+        if (input.readInt() != SNAPSHOT_MAGIC) {
+            throw new IOException("not a state snapshot");
+        }
+
+        int snapshotversion = input.readUnsignedByte();
+        if (snapshotversion != SNAPSHOT_VERSION) {
+            throw new IOException("unsupported snapshot version " + snapshotversion);
+        }
+
+        int count = input.readInt();
+        Map<String, Object> values = new HashMap<>(Math.max(16, count * 2));
+
+        for (int index = 0; index < count; index++) {
+            byte type = input.readByte();
+            String key = input.readUTF();
+
+            switch (type) {
+                case TYPE_STRING:
+                    values.put(key, input.readUTF());
+                    break;
+                case TYPE_BOOLEAN:
+                    values.put(key, input.readBoolean());
+                    break;
+                case TYPE_LONG:
+                    values.put(key, input.readLong());
+                    break;
+                default:
+                    throw new IOException("unknown value type " + type);
+            }
+        }
+
+        return values;
+    }
+
+    private static Map<String, Object> readSnapshot(File file) {
+
+        if (!file.exists()) {
+            return new HashMap<>();
+        }
+
+        try {
+            byte[] contents = new byte[(int) file.length()];
+            FileInputStream input = new FileInputStream(file);
+
+            try {
+                int offset = 0;
+                while (offset < contents.length) {
+                    int read = input.read(contents, offset, contents.length - offset);
+
+                    if (read < 0) {
+                        break;
+                    }
+
+                    offset += read;
+                }
+            }
+            finally {
+                input.close();
+            }
+
+            return BinaryStateStore.decode(contents);
+        }
+        catch (IOException readexception) {
+            //a lost snapshot only costs a fresh registration, so start again rather than fail.
+            MeasurementServiceLog.e("Binary State Store - snapshot unreadable, starting empty: {}", readexception);
+            return new HashMap<>();
+        }
+    }
+
+    private class Editor implements MeasurementStateStore.Editor {
+
+        private final Map<String, Object> changes = new HashMap<>();
+        private boolean clear = false;
+
+        @Override
+        public MeasurementStateStore.Editor putString(String key, String value) {
+            this.changes.put(key, (value != null) ? value : REMOVED);
+            return this;
+        }
+
+        @Override
+        public MeasurementStateStore.Editor putBoolean(String key, boolean value) {
+            this.changes.put(key, value);
+            return this;
+        }
+
+        @Override
+        public MeasurementStateStore.Editor putLong(String key, long value) {
+            this.changes.put(key, value);
+            return this;
+        }
+
+        @Override
+        public MeasurementStateStore.Editor remove(String key) {
+            this.changes.put(key, REMOVED);
+            return this;
+        }
+
+        @Override
+        public MeasurementStateStore.Editor clear() {
+            this.clear = true;
+            return this;
+        }
+
+        @Override
+        public void apply() {
+            BinaryStateStore.this.applyChanges(this.clear, this.changes);
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package com.performancehorizon.measurementkit;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+
+import bolts.Task;
+import okhttp3.ConnectionPool;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+
+/**
+ * Opens a pooled connection to the tracking host in the background (dns, tcp and tls), so the first registration or
+ * event after a cold start doesn't pay for them.
+ *
+ * The connection is opened with a HEAD request, whose response is discarded.  It stays in the client's pool until
+ * used, or until the pool's idle timeout.
+ */
+public class ConnectionPrewarmer {
+
+    private final OkHttpClient client;
+    private final String url;
+
+    /**
+     * @param client the client the tracking requests are made with (or one sharing its connection pool).
+     * @param url the tracking host, e.g. TrackingURLHelper.urlStringForTracking().
+     */
+    public ConnectionPrewarmer(OkHttpClient client, String url) {
+        this.client = client;
+        this.url = url;
+    }
+
+    /**
+     * @param idleTimeoutSeconds how long an unused connection (prewarmed or not) is kept open, or 0 for okhttp's default.
+     * @return a client shared by the tracking queues, whose pool keeps an idle connection for each.
+     */
+    public static OkHttpClient newTrackingClient(long idleTimeoutSeconds) {
+        if (idleTimeoutSeconds <= 0) {
+            return new OkHttpClient();
+        }
+
+        return new OkHttpClient.Builder()
+                .connectionPool(new ConnectionPool(2, idleTimeoutSeconds, TimeUnit.SECONDS))
+                .build();
+    }
+
+    /**
+     * open a connection, unless the pool already has one.
+     * @return a task completing once the connection is open (or the attempt failed - prewarming is best effort).
+     */
+    public Task<Void> prewarm() {
+        return Task.callInBackground(new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                if (ConnectionPrewarmer.this.client.connectionPool().connectionCount() > 0) {
+                    return null;
+                }
+
+                Request request = new Request.Builder()
+                        .url(ConnectionPrewarmer.this.url)
+                        .head()
+                        .build();
+
+                try {
+                    Response response = ConnectionPrewarmer.this.client.newCall(request).execute();
+                    response.close();
+
+                    MeasurementServiceLog.d("Connection Prewarmer - connection open to {}", ConnectionPrewarmer.this.url);
+                }
+                catch (Exception prewarmexception) {
+                    MeasurementServiceLog.d("Connection Prewarmer - failed: {}", prewarmexception);
+                }
+
+                return null;
+            }
+        });
+    }
+}
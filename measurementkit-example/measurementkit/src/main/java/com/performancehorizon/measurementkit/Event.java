@@ -2,7 +2,6 @@ package com.performancehorizon.measurementkit;
 
 import java.util.ArrayList;
 import java.util.Date;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
@@ -12,12 +11,16 @@ import java.util.UUID;
  * An Event in the measurement service (represented as a conversion in the affiliate tracking service)
  *
  * An example could be registration, or an in-app purchase.
+ *
+ * Kept compact, as most events are built, encoded and dropped in quick succession: the date is held as epoch
+ * millis, and meta is only allocated when the first item is added.
  */
 public class Event {
 
     private UUID internalEventID;
-    private Map<String, String> meta;
-    private Date date;
+    //null until the first item is added.
+    private EventMeta meta;
+    private long dateMillis;
 
     private String conversionReference;
     private String customerReference;
@@ -30,9 +33,8 @@ public class Event {
 
     private Event()
     {
-        this.meta = new HashMap<>();
-        this.internalEventID = UUID.randomUUID();
-        this.date = new Date();
+        this.internalEventID = EventIDGenerator.getDefault().nextID();
+        this.dateMillis = System.currentTimeMillis();
     }
 
     /**
@@ -65,8 +67,13 @@ public class Event {
         this.setSales(sales, currency);
     }
 
-    //Get meta data for given event.
+    //Get meta data for given event, as a new map.
     protected Map<String, String> getMeta(){
+        return EventMeta.toMap(this.meta);
+    }
+
+    //Get meta data for given event - null if there's none.
+    protected EventMeta getEventMeta() {
         return this.meta;
     }
 
@@ -75,7 +82,36 @@ public class Event {
     }
 
     public void addMetaItem(String key, String value) {
-        this.meta.put(key, value);
+        this.meta().put(key, value);
+    }
+
+    /**
+     * adds a numeric meta item, sent as a number rather than a string.
+     */
+    public void addMetaItem(String key, long value) {
+        this.meta().put(key, value);
+    }
+
+    /**
+     * adds a numeric meta item, sent as a number rather than a string.
+     */
+    public void addMetaItem(String key, double value) {
+        this.meta().put(key, value);
+    }
+
+    /**
+     * adds a boolean meta item, sent as true or false rather than a string.
+     */
+    public void addMetaItem(String key, boolean value) {
+        this.meta().put(key, value);
+    }
+
+    private EventMeta meta() {
+        if (this.meta == null) {
+            this.meta = new EventMeta();
+        }
+
+        return this.meta;
     }
 
     protected List<Sale> getSales() {
@@ -144,11 +180,15 @@ public class Event {
      * @param date
      */
     public void setDate(Date date) {
-        this.date = date;
+        this.dateMillis = date.getTime();
     }
 
     protected Date getDate() {
-        return this.date;
+        return new Date(this.dateMillis);
+    }
+
+    protected long getDateMillis() {
+        return this.dateMillis;
     }
 
     /**
@@ -202,6 +242,7 @@ public class Event {
         private String voucher;
         private String country;
         private String customerType;
+        private EventMeta meta;
 
         public Builder() {
             this.category = "category";
@@ -243,28 +284,54 @@ public class Event {
             return this;
         }
 
-        public Event build() {
+        public Builder metaItem(String key, String value) {
+            this.meta().put(key, value);
+            return this;
+        }
 
-            Event event = (this.sales != null) ? new Event(this.sales, this.salesCurrency): new Event(this.category);
+        public Builder metaItem(String key, long value) {
+            this.meta().put(key, value);
+            return this;
+        }
 
-            if (this.customerReference != null) {
-                event.setCustomerReference(this.customerReference);
-            }
+        public Builder metaItem(String key, double value) {
+            this.meta().put(key, value);
+            return this;
+        }
 
-            if (this.conversionReference != null) {
-                event.setConversionReference(this.conversionReference);
-            }
+        public Builder metaItem(String key, boolean value) {
+            this.meta().put(key, value);
+            return this;
+        }
 
-            if (this.customerType != null) {
-                event.setCustomerType(this.customerType);
+        private EventMeta meta() {
+            if (this.meta == null) {
+                this.meta = new EventMeta();
             }
 
-            if (this.voucher != null) {
-                event.setVoucher(this.voucher);
+            return this.meta;
+        }
+
+        public Event build() {
+
+            Event event = new Event();
+
+            if (this.sales != null) {
+                event.setSales(this.sales, this.salesCurrency);
             }
+            else {
+                event.category = this.category;
+            }
+
+            event.customerReference = this.customerReference;
+            event.conversionReference = this.conversionReference;
+            event.customerType = this.customerType;
+            event.voucher = this.voucher;
+            event.country = this.country;
 
-            if (this.country != null) {
-                event.setCountry(this.country);
+            //copied, so the builder can carry on without changing the event.
+            if (this.meta != null) {
+                event.meta = this.meta.copy();
             }
 
             return event;
@@ -0,0 +1,78 @@
+package com.performancehorizon.measurementkit;
+
+/**
+ * Outcome of tracking a single {@link Event}, as delivered by {@link MeasurementService#trackEventForDelivery(Event)}.
+ */
+public class EventDelivery {
+
+    public enum Outcome {
+        /**
+         * The tracking API accepted the event.
+         */
+        ACCEPTED,
+
+        /**
+         * The tracking API answered, but did not accept the event (see {@link #getResponseCode()}).
+         */
+        REJECTED,
+
+        /**
+         * The event was discarded by the service without being sent, e.g. because tracking is inactive for this
+         * device, or the event was invalid.
+         */
+        DROPPED,
+
+        /**
+         * Delivery was abandoned after the request failed without an answer from the tracking API, or kept being
+         * answered with a server error or throttled, until the queue gave up on it.
+         */
+        EXPIRED
+    }
+
+    private final Event event;
+    private final Outcome outcome;
+    private final int responseCode;
+
+    private final long trackedAtNanos;
+    private final long completedAtNanos;
+
+    protected EventDelivery(Event event, Outcome outcome, int responseCode, long trackedAtNanos, long completedAtNanos) {
+        this.event = event;
+        this.outcome = outcome;
+        this.responseCode = responseCode;
+        this.trackedAtNanos = trackedAtNanos;
+        this.completedAtNanos = completedAtNanos;
+    }
+
+    /**
+     * @return the tracked event
+     */
+    public Event getEvent() {
+        return this.event;
+    }
+
+    public Outcome getOutcome() {
+        return this.outcome;
+    }
+
+    /**
+     * @return the HTTP status code of the tracking API response, or 0 if the event was never answered.
+     */
+    public int getResponseCode() {
+        return this.responseCode;
+    }
+
+    /**
+     * @return time from the event being tracked to this outcome, in nanoseconds.
+     */
+    public long getLatencyNanos() {
+        return this.completedAtNanos - this.trackedAtNanos;
+    }
+
+    /**
+     * @return time from the event being tracked to this outcome, in milliseconds.
+     */
+    public long getLatencyMillis() {
+        return this.getLatencyNanos() / 1000000L;
+    }
+}
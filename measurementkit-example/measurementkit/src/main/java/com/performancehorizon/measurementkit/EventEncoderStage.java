@@ -0,0 +1,276 @@
+package com.performancehorizon.measurementkit;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import bolts.Task;
+import bolts.TaskCompletionSource;
+
+/**
+ * Background stage between event intake and the transport queue.
+ *
+ * Callers hand ready {@link EventRequest}s (or batches of them) to a bounded ring buffer, and a single encoder
+ * thread takes them off in order and serialises them (via the {@link Encoder}).  Offering an event is a short critical section
+ * with no allocation; when the ring is full, {@link #offer(EventRequest)} returns false and the caller is expected
+ * to encode on its own thread rather than drop the event.  Events are encoded in the order offered, but an event
+ * encoded by the caller that way goes ahead of those still in the ring - the tracking API doesn't rely on the order
+ * events arrive in, as each carries its own date.
+ *
+ * An event that fails to encode has its delivery completed as {@link EventDelivery.Outcome#DROPPED}.
+ */
+public class EventEncoderStage implements Runnable {
+
+    protected static final int DEFAULT_CAPACITY = 256;
+    //how long stop() waits for the entry being encoded.
+    protected static final long STOP_TIMEOUT_MILLIS = 1000;
+
+    public interface Encoder {
+        void encode(EventRequest request);
+
+        void encodeBatch(List<EventRequest> requests);
+    }
+
+    private final Encoder encoder;
+
+    //each slot holds either an EventRequest, or a List of them.
+    private final Object[] ring;
+    private final int mask;
+
+    //head - next slot to encode, tail - next slot to fill.  Both only ever increase.
+    private long head = 0;
+    private long tail = 0;
+
+    //entries encoded so far - head is taken before encoding, so this trails it.
+    private long encoded = 0;
+    //drains waiting on the encoder, and the number of entries each is waiting to see encoded.
+    private final List<TaskCompletionSource<Void>> drainWaiters = new ArrayList<>();
+    private final List<Long> drainTargets = new ArrayList<>();
+
+    private boolean encoderWaiting = false;
+    private Thread encoderThread;
+    private boolean stopped = false;
+
+    public EventEncoderStage(Encoder encoder) {
+        this(encoder, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param encoder serialises each request, on the encoder thread
+     * @param capacity ring capacity, rounded up to a power of two
+     */
+    public EventEncoderStage(Encoder encoder, int capacity) {
+        int size = (capacity <= 2) ? 2 : Integer.highestOneBit(capacity - 1) << 1;
+
+        this.encoder = encoder;
+        this.ring = new Object[size];
+        this.mask = size - 1;
+    }
+
+    /**
+     * hand a request to the encoder thread.
+     * @param request the request to encode
+     * @return false if the ring is full, and the request has not been taken.
+     */
+    public boolean offer(EventRequest request) {
+        return this.offerEntry(request);
+    }
+
+    /**
+     * hand a batch of requests to the encoder thread.  The batch takes a single slot, and is encoded in order.
+     * @param requests the requests to encode, which should not be modified afterwards.
+     * @return false if the ring is full, and the batch has not been taken.
+     */
+    public boolean offerBatch(List<EventRequest> requests) {
+        return this.offerEntry(requests);
+    }
+
+    private boolean offerEntry(Object entry) {
+        synchronized (this) {
+            if (this.stopped || this.tail - this.head == this.ring.length) {
+                return false;
+            }
+
+            this.ring[(int) (this.tail & this.mask)] = entry;
+            this.tail++;
+
+            if (this.encoderThread == null) {
+                this.encoderThread = new Thread(this, "measurementkit-event-encoder");
+                this.encoderThread.setDaemon(true);
+                this.encoderThread.start();
+            }
+            else if (this.encoderWaiting) {
+                this.notify();
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * stop the stage: the requests waiting are taken off it, and the encoder thread exits once it has finished the
+     * entry it's encoding (waited for, up to STOP_TIMEOUT_MILLIS).  Further offers are refused.  Waiting drains
+     * complete.
+     * @return the requests that were waiting to be encoded, in order.
+     */
+    @SuppressWarnings("unchecked")
+    public List<EventRequest> stop() {
+        List<EventRequest> unencoded = new ArrayList<>();
+        List<TaskCompletionSource<Void>> drained;
+        Thread encoder;
+
+        synchronized (this) {
+            this.stopped = true;
+
+            while (this.head != this.tail) {
+                int slot = (int) (this.head & this.mask);
+                Object entry = this.ring[slot];
+
+                if (entry instanceof List) {
+                    unencoded.addAll((List<EventRequest>) entry);
+                }
+                else {
+                    unencoded.add((EventRequest) entry);
+                }
+
+                this.ring[slot] = null;
+                this.head++;
+            }
+
+            drained = new ArrayList<>(this.drainWaiters);
+            this.drainWaiters.clear();
+            this.drainTargets.clear();
+
+            encoder = this.encoderThread;
+            this.notify();
+        }
+
+        for (TaskCompletionSource<Void> waiter : drained) {
+            waiter.trySetResult(null);
+        }
+
+        if (encoder != null && encoder != Thread.currentThread()) {
+            try {
+                encoder.join(STOP_TIMEOUT_MILLIS);
+            }
+            catch (InterruptedException interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        return unencoded;
+    }
+
+    /**
+     * @return the number of requests or batches waiting to be encoded.
+     */
+    public synchronized int pending() {
+        return (int) (this.tail - this.head);
+    }
+
+    /**
+     * @return a task completing, on the encoder thread, once every request offered so far has been encoded (or the
+     * stage is stopped).
+     */
+    public Task<Void> drain() {
+        synchronized (this) {
+            if (this.stopped || this.encoded == this.tail) {
+                return Task.forResult(null);
+            }
+
+            TaskCompletionSource<Void> drained = new TaskCompletionSource<>();
+            this.drainWaiters.add(drained);
+            this.drainTargets.add(this.tail);
+
+            return drained.getTask();
+        }
+    }
+
+    private void completeDrains() {
+        List<TaskCompletionSource<Void>> drained = null;
+
+        synchronized (this) {
+            this.encoded++;
+
+            Iterator<Long> targets = this.drainTargets.iterator();
+            Iterator<TaskCompletionSource<Void>> waiters = this.drainWaiters.iterator();
+
+            while (targets.hasNext()) {
+                TaskCompletionSource<Void> waiter = waiters.next();
+
+                if (targets.next() <= this.encoded) {
+                    if (drained == null) {
+                        drained = new ArrayList<>();
+                    }
+
+                    drained.add(waiter);
+                    targets.remove();
+                    waiters.remove();
+                }
+            }
+        }
+
+        if (drained != null) {
+            for (TaskCompletionSource<Void> waiter : drained) {
+                waiter.trySetResult(null);
+            }
+        }
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public void run() {
+        while (true) {
+            Object entry;
+
+            synchronized (this) {
+                while (this.head == this.tail) {
+                    if (this.stopped) {
+                        return;
+                    }
+
+                    this.encoderWaiting = true;
+
+                    try {
+                        this.wait();
+                    }
+                    catch (InterruptedException interrupted) {
+                        //nothing interrupts the stage deliberately, keep encoding.
+                    }
+                    finally {
+                        this.encoderWaiting = false;
+                    }
+                }
+
+                int slot = (int) (this.head & this.mask);
+                entry = this.ring[slot];
+                this.ring[slot] = null;
+                this.head++;
+            }
+
+            try {
+                if (entry instanceof List) {
+                    this.encoder.encodeBatch((List<EventRequest>) entry);
+                }
+                else {
+                    this.encoder.encode((EventRequest) entry);
+                }
+            }
+            catch (RuntimeException encodingexception) {
+                MeasurementServiceLog.e("Event Encoder - encoding failed, event ignored: {}", encodingexception);
+
+                //the encoder hands a batch on only once it's all encoded, so none of it was queued.
+                if (entry instanceof List) {
+                    for (EventRequest request : (List<EventRequest>) entry) {
+                        request.completeDelivery(EventDelivery.Outcome.DROPPED, 0);
+                    }
+                }
+                else {
+                    ((EventRequest) entry).completeDelivery(EventDelivery.Outcome.DROPPED, 0);
+                }
+            }
+
+            this.completeDrains();
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package com.performancehorizon.measurementkit;
+
+import java.security.SecureRandom;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+
+import bolts.Task;
+
+/**
+ * Time ordered, 128 bit ids (UUID version 7, RFC 9562), without the cost of UUID.randomUUID() - which goes to
+ * SecureRandom, slow to seed on first use and locked on some Android versions.
+ *
+ * Each id is the unix time in milliseconds (48 bits), a 12 bit counter and 62 random bits.  The counter starts from
+ * a random value each millisecond, and counts up for ids in the same millisecond (or if the clock goes back), so ids
+ * from a generator always increase.  The random bits come from a SplitMix64 sequence: not for secrets, but plenty to
+ * keep ids from different devices apart, once it's seeded from SecureRandom.  That seeding is done once, in the
+ * background, so it doesn't hold up the first ids - which are drawn from a clock seed until it lands.
+ */
+public class EventIDGenerator {
+
+    private static final EventIDGenerator defaultGenerator = new EventIDGenerator();
+
+    private static final long GOLDEN_GAMMA = 0x9e3779b97f4a7c15L;
+    private static final int COUNTER_MAX = 0xfff;
+
+    //guarded by this.
+    private long lastMillis = 0;
+    private int counter = 0;
+    private long randomState;
+
+    public EventIDGenerator() {
+        this(System.nanoTime() ^ Long.rotateLeft(System.currentTimeMillis(), 32) ^
+                ((long) System.identityHashCode(new Object()) << 16) ^ System.identityHashCode(Thread.currentThread()));
+
+        Task.callInBackground(new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                EventIDGenerator.this.reseed(new SecureRandom().nextLong());
+                return null;
+            }
+        });
+    }
+
+    /**
+     * @param seed seed for the random bits.
+     */
+    protected EventIDGenerator(long seed) {
+        this.randomState = mix(seed);
+    }
+
+    /**
+     * mix a seed into the random bits, for the ids from now on.
+     * @param seed a random seed.
+     */
+    protected synchronized void reseed(long seed) {
+        this.randomState ^= mix(seed);
+    }
+
+    /**
+     * @return the generator shared by the service.
+     */
+    public static EventIDGenerator getDefault() {
+        return defaultGenerator;
+    }
+
+    /**
+     * @return a new id, greater than any this generator returned before.
+     */
+    public UUID nextID() {
+        long millis;
+        int count;
+        long random;
+
+        synchronized (this) {
+            long now = this.currentTimeMillis();
+
+            if (now > this.lastMillis) {
+                this.lastMillis = now;
+                //start low in the range, so there's room to count up.
+                this.counter = (int) (this.nextRandom() >>> 55);
+            }
+            else if (this.counter < COUNTER_MAX) {
+                this.counter++;
+            }
+            else {
+                //out of ids for this millisecond - borrow the next.
+                this.lastMillis++;
+                this.counter = 0;
+            }
+
+            millis = this.lastMillis;
+            count = this.counter;
+            random = this.nextRandom();
+        }
+
+        long mostsignificant = (millis << 16) | 0x7000L | count;
+        long leastsignificant = (random >>> 2) | 0x8000000000000000L;
+
+        return new UUID(mostsignificant, leastsignificant);
+    }
+
+    //SplitMix64 - guarded by this.
+    private long nextRandom() {
+        this.randomState += GOLDEN_GAMMA;
+
+        return mix(this.randomState);
+    }
+
+    private static long mix(long value) {
+        value = (value ^ (value >>> 30)) * 0xbf58476d1ce4e5b9L;
+        value = (value ^ (value >>> 27)) * 0x94d049bb133111ebL;
+
+        return value ^ (value >>> 31);
+    }
+
+    protected long currentTimeMillis() {
+        return System.currentTimeMillis();
+    }
+}
@@ -0,0 +1,308 @@
+package com.performancehorizon.measurementkit;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Meta items for an {@link Event} or {@link Sale}, kept as parallel arrays in the order they were first set.  Most
+ * events carry a handful of items at most, where a linear search beats hashing and the arrays cost a fraction of a
+ * HashMap and its entries; past LINEAR_MAX items an open addressing index of positions is added, so puts stay
+ * constant time.
+ *
+ * Values are strings, longs, doubles or booleans.  Numbers and booleans are held unboxed in a long array (allocated
+ * on the first one), and written to JSON as numbers and booleans rather than strings.
+ */
+public class EventMeta {
+
+    public static final byte TYPE_STRING = 0;
+    public static final byte TYPE_LONG = 1;
+    public static final byte TYPE_DOUBLE = 2;
+    public static final byte TYPE_BOOLEAN = 3;
+
+    protected static final int LINEAR_MAX = 8;
+
+    private static final int INITIAL_CAPACITY = 4;
+
+    private String[] keys;
+    private byte[] types;
+    //string values - null for other types.
+    private String[] values;
+    //long values, double bits, or 1/0 for booleans - null until the first non-string value.
+    private long[] bits;
+    private int size;
+
+    //position + 1 of each key, by hash with linear probing (0 is empty), once there are more than LINEAR_MAX items.
+    private int[] index;
+
+    public EventMeta() {
+        this(INITIAL_CAPACITY);
+    }
+
+    protected EventMeta(int capacity) {
+        this.keys = new String[capacity];
+        this.types = new byte[capacity];
+        this.values = new String[capacity];
+        this.size = 0;
+    }
+
+    /**
+     * @return a copy, trimmed to size.
+     */
+    public EventMeta copy() {
+        EventMeta copy = new EventMeta(Math.max(this.size, 1));
+
+        System.arraycopy(this.keys, 0, copy.keys, 0, this.size);
+        System.arraycopy(this.types, 0, copy.types, 0, this.size);
+        System.arraycopy(this.values, 0, copy.values, 0, this.size);
+        copy.size = this.size;
+
+        if (this.bits != null) {
+            copy.bits = Arrays.copyOf(this.bits, copy.keys.length);
+        }
+
+        if (this.index != null) {
+            copy.rebuildIndex();
+        }
+
+        return copy;
+    }
+
+    /**
+     * set an item, replacing any value for the same key.
+     */
+    public void put(String key, String value) {
+        int position = this.positionFor(key);
+
+        this.types[position] = TYPE_STRING;
+        this.values[position] = value;
+    }
+
+    public void put(String key, long value) {
+        this.putBits(key, TYPE_LONG, value);
+    }
+
+    public void put(String key, double value) {
+        this.putBits(key, TYPE_DOUBLE, Double.doubleToRawLongBits(value));
+    }
+
+    public void put(String key, boolean value) {
+        this.putBits(key, TYPE_BOOLEAN, value ? 1 : 0);
+    }
+
+    /**
+     * @return the value for the key as a string (numbers as by Long.toString or Double.toString), or null if it's
+     * not set.
+     */
+    public String get(String key) {
+        int position = this.indexOf(key);
+
+        return (position >= 0) ? this.getValue(position) : null;
+    }
+
+    public int size() {
+        return this.size;
+    }
+
+    public String getKey(int position) {
+        return this.keys[position];
+    }
+
+    /**
+     * @return one of the TYPE_ constants.
+     */
+    public byte getType(int position) {
+        return this.types[position];
+    }
+
+    /**
+     * @return the value as a string, whatever its type.
+     */
+    public String getValue(int position) {
+        switch (this.types[position]) {
+            case TYPE_LONG:
+                return Long.toString(this.getLong(position));
+            case TYPE_DOUBLE:
+                return Double.toString(this.getDouble(position));
+            case TYPE_BOOLEAN:
+                return Boolean.toString(this.getBoolean(position));
+            default:
+                return this.values[position];
+        }
+    }
+
+    public long getLong(int position) {
+        return this.bits[position];
+    }
+
+    public double getDouble(int position) {
+        return Double.longBitsToDouble(this.bits[position]);
+    }
+
+    public boolean getBoolean(int position) {
+        return this.bits[position] != 0;
+    }
+
+    /**
+     * @return the items as a new map of strings, in the order they were set.
+     */
+    public Map<String, String> toMap() {
+        Map<String, String> map = new LinkedHashMap<>(this.size * 2);
+
+        for (int i = 0; i < this.size; i++) {
+            map.put(this.keys[i], this.getValue(i));
+        }
+
+        return map;
+    }
+
+    /**
+     * put the items in a json object - strings as strings, numbers and booleans as themselves.  Doubles JSON can't
+     * hold (NaN, infinities) are written as strings.
+     */
+    public void writeTo(JSONObject json) throws JSONException {
+        for (int i = 0; i < this.size; i++) {
+            switch (this.types[i]) {
+                case TYPE_LONG:
+                    json.put(this.keys[i], this.getLong(i));
+                    break;
+                case TYPE_DOUBLE:
+                    double value = this.getDouble(i);
+
+                    if (Double.isNaN(value) || Double.isInfinite(value)) {
+                        json.put(this.keys[i], Double.toString(value));
+                    }
+                    else {
+                        json.put(this.keys[i], value);
+                    }
+                    break;
+                case TYPE_BOOLEAN:
+                    json.put(this.keys[i], this.getBoolean(i));
+                    break;
+                default:
+                    json.put(this.keys[i], this.values[i]);
+            }
+        }
+    }
+
+    /**
+     * @return the items of meta as a map, empty if there's no meta.
+     */
+    protected static Map<String, String> toMap(EventMeta meta) {
+        return (meta != null) ? meta.toMap() : Collections.<String, String>emptyMap();
+    }
+
+    private void putBits(String key, byte type, long value) {
+        if (this.bits == null) {
+            this.bits = new long[this.keys.length];
+        }
+
+        int position = this.positionFor(key);
+
+        this.types[position] = type;
+        this.values[position] = null;
+        this.bits[position] = value;
+    }
+
+    //the position of the key, appending it if it's new.
+    private int positionFor(String key) {
+        int position = this.indexOf(key);
+
+        if (position >= 0) {
+            return position;
+        }
+
+        if (this.size == this.keys.length) {
+            this.grow();
+        }
+
+        position = this.size;
+        this.keys[position] = key;
+        this.size++;
+
+        if (this.index != null) {
+            this.addToIndex(position);
+        }
+        else if (this.size > LINEAR_MAX) {
+            this.rebuildIndex();
+        }
+
+        return position;
+    }
+
+    private void grow() {
+        int capacity = this.keys.length * 2;
+
+        this.keys = Arrays.copyOf(this.keys, capacity);
+        this.types = Arrays.copyOf(this.types, capacity);
+        this.values = Arrays.copyOf(this.values, capacity);
+
+        if (this.bits != null) {
+            this.bits = Arrays.copyOf(this.bits, capacity);
+        }
+
+        if (this.index != null) {
+            this.rebuildIndex();
+        }
+    }
+
+    private int indexOf(String key) {
+        if (this.index != null) {
+            int mask = this.index.length - 1;
+
+            for (int slot = hash(key) & mask; this.index[slot] != 0; slot = (slot + 1) & mask) {
+                int position = this.index[slot] - 1;
+
+                if (equal(this.keys[position], key)) {
+                    return position;
+                }
+            }
+
+            return -1;
+        }
+
+        for (int i = 0; i < this.size; i++) {
+            if (equal(this.keys[i], key)) {
+                return i;
+            }
+        }
+
+        return -1;
+    }
+
+    //at most half full - sized from the key capacity, so it's only rebuilt when the arrays grow.
+    private void rebuildIndex() {
+        int slots = Integer.highestOneBit(Math.max(this.keys.length, LINEAR_MAX) * 2 - 1) * 2;
+
+        this.index = new int[slots];
+
+        for (int i = 0; i < this.size; i++) {
+            this.addToIndex(i);
+        }
+    }
+
+    private void addToIndex(int position) {
+        int mask = this.index.length - 1;
+        int slot = hash(this.keys[position]) & mask;
+
+        while (this.index[slot] != 0) {
+            slot = (slot + 1) & mask;
+        }
+
+        this.index[slot] = position + 1;
+    }
+
+    private static int hash(String key) {
+        int hash = (key != null) ? key.hashCode() : 0;
+
+        return hash ^ (hash >>> 16);
+    }
+
+    private static boolean equal(String existing, String key) {
+        return existing == key || (existing != null && existing.equals(key));
+    }
+}
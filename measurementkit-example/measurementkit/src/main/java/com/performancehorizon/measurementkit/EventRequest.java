@@ -1,5 +1,8 @@
 package com.performancehorizon.measurementkit;
 
+import bolts.Task;
+import bolts.TaskCompletionSource;
+
 /**
  * Created by owainbrown on 25/01/16.
  */
@@ -8,6 +11,14 @@ public class EventRequest {
     private String trackingID;
     private Event event;
 
+    //only present when the caller asked for a delivery handle.
+    private TaskCompletionSource<EventDelivery> delivery;
+    private long trackedAtNanos;
+
+    //for EventTracer - 0 when untraced.
+    private long traceID = 0;
+    private long traceMarkNanos = 0;
+
     public EventRequest( Event event, String trackingID) {
         this.trackingID= trackingID;
         this.event = event;
@@ -28,4 +39,63 @@ public class EventRequest {
     public Event getEvent() {
         return event;
     }
+
+    /**
+     * once the event is serialised into its transport request, it's only needed for the delivery - so without a
+     * delivery handle, it can go.
+     */
+    void releaseEvent() {
+        if (this.delivery == null) {
+            this.event = null;
+        }
+    }
+
+    void setDelivery(TaskCompletionSource<EventDelivery> delivery, long trackedAtNanos) {
+        this.delivery = delivery;
+        this.trackedAtNanos = trackedAtNanos;
+    }
+
+    long getTraceID() {
+        return this.traceID;
+    }
+
+    /**
+     * @param traceID the trace id (0 for none)
+     * @param markNanos start of the current span, from EventTracer.mark().
+     */
+    void setTrace(long traceID, long markNanos) {
+        this.traceID = traceID;
+        this.traceMarkNanos = markNanos;
+    }
+
+    long getTraceMarkNanos() {
+        return this.traceMarkNanos;
+    }
+
+    void setTraceMarkNanos(long markNanos) {
+        this.traceMarkNanos = markNanos;
+    }
+
+    void setTrackedAtNanos(long trackedAtNanos) {
+        this.trackedAtNanos = trackedAtNanos;
+    }
+
+    long getTrackedAtNanos() {
+        return this.trackedAtNanos;
+    }
+
+    Task<EventDelivery> getDelivery() {
+        return (this.delivery != null) ? this.delivery.getTask() : null;
+    }
+
+    /**
+     * complete the delivery handle (if there is one) with the given outcome.  Only the first outcome is kept.
+     * @param outcome outcome of the event
+     * @param responseCode HTTP status of the response, or 0 if there wasn't one.
+     */
+    void completeDelivery(EventDelivery.Outcome outcome, int responseCode) {
+        if (this.delivery != null) {
+            this.delivery.trySetResult(new EventDelivery(this.event, outcome, responseCode, this.trackedAtNanos, System.nanoTime()));
+        }
+    }
 }
@@ -7,7 +7,6 @@ import org.json.JSONObject;
 import java.math.BigDecimal;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Map;
 
 /**
  * Created by owainbrown on 11/01/16.
@@ -57,7 +56,7 @@ public class EventRequestJSONBuilder {
             eventrequest.put("mobiletracking_id", this.mobileTrackingID);
             eventrequest.put("campaign_id", this.campaignID);
             eventrequest.put("event_id", this.event.getInternalEventID());
-            eventrequest.put("date", event.getDate().getTime() / 1000);
+            eventrequest.put("date", event.getDateMillis() / 1000);
 
             //start with building the sales json.
             List<Sale> sales = event.getSales();
@@ -78,12 +77,11 @@ public class EventRequestJSONBuilder {
             eventrequest.put("sales", salesjson);
 
             //write meta to a jsonobject
-            if(event.getMeta().size() > 0) {
-                JSONObject metajson = new JSONObject();
+            EventMeta meta = event.getEventMeta();
 
-                for (Map.Entry<String, String> item : event.getMeta().entrySet()) {
-                    metajson.put(item.getKey(), item.getValue());
-                }
+            if(meta != null && meta.size() > 0) {
+                JSONObject metajson = new JSONObject();
+                meta.writeTo(metajson);
 
                 eventrequest.put("meta", metajson);
             }
@@ -5,12 +5,16 @@ package com.performancehorizon.measurementkit;
 import org.json.JSONObject;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
+import bolts.Continuation;
+import bolts.Task;
+
 /**
  * Created by owainbrown on 25/01/16.
  */
-public class EventRequestQueue {
+public class EventRequestQueue implements EventEncoderStage.Encoder {
 
     protected static class EventRequestJSONFactory {
         public EventRequestJSONBuilder getBuilder() {
@@ -24,54 +28,134 @@ public class EventRequestQueue {
      private TrackingURLHelper urlHelper;
      private EventRequestJSONFactory jsonFactory;
 
-     private String campaignID;
+     //null when events are encoded on the caller's thread.
+     private EventEncoderStage encoderStage;
+
+     private volatile String campaignID;
+
+     private MeasurementServiceMetrics metrics = new MeasurementServiceMetrics();
+
+     //held while handing encoded requests to the transport queue, so none arrive after it's been shut down.
+     private final Object handoffLock = new Object();
+     private boolean isShutdown = false;
 
 
     protected EventRequestQueue( TrackingRequestQueue queue,
                               TrackingRequestFactory factory,
                               TrackingURLHelper urlHelper,
                               EventRequestJSONFactory jsonFactory) {
+        this(queue, factory, urlHelper, jsonFactory, false);
+    }
+
+    protected EventRequestQueue( TrackingRequestQueue queue,
+                                 TrackingRequestFactory factory,
+                                 TrackingURLHelper urlHelper,
+                                 EventRequestJSONFactory jsonFactory,
+                                 boolean encodeInBackground) {
         this.requestQueue = queue;
         this.factory = factory;
         this.urlHelper = urlHelper;
         this.jsonFactory= jsonFactory;
 
         this.incompleteEventRequests = new ArrayList<>();
+
+        if (encodeInBackground) {
+            this.encoderStage = new EventEncoderStage(this);
+        }
     }
 
+    /**
+     * event queue that serialises events on a background encoder stage.
+     */
     public EventRequestQueue( TrackingRequestQueue queue,
                               TrackingRequestFactory factory,
                               TrackingURLHelper urlHelper) {
-        this(queue, factory, urlHelper, new EventRequestJSONFactory());
+        this(queue, factory, urlHelper, new EventRequestJSONFactory(), true);
+    }
+
+    /**
+     * @param metrics metrics to record into, shared with the transport queue.
+     */
+    public void setMetrics(MeasurementServiceMetrics metrics) {
+        this.metrics = metrics;
+        this.requestQueue.setMetrics(metrics);
     }
 
     public void clearIncompleteRequests() {
+        for (EventRequest request : this.incompleteEventRequests) {
+            request.completeDelivery(EventDelivery.Outcome.DROPPED, 0);
+        }
+
+        this.metrics.add(MeasurementServiceMetrics.Counter.EVENTS_DROPPED, this.incompleteEventRequests.size());
+        this.metrics.adjust(MeasurementServiceMetrics.Gauge.EVENTS_AWAITING_TRACKING_ID, -this.incompleteEventRequests.size());
+
         this.incompleteEventRequests.clear();
     }
 
     public void addEventRequest(EventRequest request) {
         if (this.campaignID != null && request.getTrackingID() != null) {
 
-            EventRequestJSONBuilder jsonbuilder = this.jsonFactory.getBuilder();
-
-            jsonbuilder.setCampaignID(this.campaignID)
-                    .setEvent(request.getEvent())
-                    .setMobileTrackingID(request.getTrackingID());
-
-            JSONObject eventjson  = jsonbuilder.build();
-
-            if (eventjson != null) {//if there's an error at this point, the event is invalid, and should be ignored.
-
-                TrackingRequest eventrequest = factory.getRequest(this.urlHelper.urlStringForTracking() + "/event", eventjson);
-                this.requestQueue.enqueueRequest(eventrequest);
+            //if the encoder stage is full, take the hit on this thread rather than lose the event (it goes ahead of
+            //those in the stage - see EventEncoderStage).
+            if (this.encoderStage == null || !this.encoderStage.offer(request)) {
+                this.encode(request);
             }
         }
         else
         {
+            request.setTraceMarkNanos(EventTracer.mark());
             this.incompleteEventRequests.add(request);
+            this.metrics.adjust(MeasurementServiceMetrics.Gauge.EVENTS_AWAITING_TRACKING_ID, 1);
         }
     }
 
+    /**
+     * serialise a ready request, and hand it to the transport queue.  Called on the encoder stage's thread
+     * when encoding in the background.
+     * @param request request with a tracking id.
+     */
+    @Override
+    public void encode(EventRequest request) {
+        TrackingRequest eventrequest = this.trackingRequestFor(request, this.urlHelper.selectEndpoint());
+
+        if (eventrequest != null) {
+            synchronized (this.handoffLock) {
+                if (!this.isShutdown) {
+                    this.requestQueue.enqueueRequest(eventrequest);
+                    return;
+                }
+            }
+
+            this.dropLate(Collections.singletonList(eventrequest));
+        }
+    }
+
+    private TrackingRequest trackingRequestFor(EventRequest request, TrackingEndpoints.Endpoint endpoint) {
+        long serialisestart = EventTracer.mark();
+        EventRequestJSONBuilder jsonbuilder = this.jsonFactory.getBuilder();
+
+        jsonbuilder.setCampaignID(this.campaignID)
+                .setEvent(request.getEvent())
+                .setMobileTrackingID(request.getTrackingID());
+
+        JSONObject eventjson  = jsonbuilder.build();
+
+        if (eventjson == null) {//if there's an error at this point, the event is invalid, and should be ignored.
+            request.completeDelivery(EventDelivery.Outcome.DROPPED, 0);
+            this.metrics.increment(MeasurementServiceMetrics.Counter.EVENTS_DROPPED);
+            return null;
+        }
+
+        TrackingRequest eventrequest = factory.getRequest(endpoint.getEventUrl(), eventjson);
+        eventrequest.setTag(request);
+        eventrequest.setEndpoint(endpoint);
+
+        EventTracer.span(request.getTraceID(), EventTracer.Phase.SERIALISE, serialisestart);
+        eventrequest.setTrace(request.getTraceID(), EventTracer.mark());
+
+        return eventrequest;
+    }
+
     public void setCampaignID(String campaignID) {
         this.campaignID = campaignID;
 
@@ -79,24 +163,147 @@ public class EventRequestQueue {
     }
 
     public void setTrackingIDForIncompleteRequests( String trackingID) {
+        this.releaseIncompletes(true, trackingID);
+    }
+
+    public void enqueueIncompletes() {
+        this.releaseIncompletes(false, null);
+    }
+
+    /**
+     * single pass over the incompletes - optionally rebinding the tracking id - splitting them into requests that are
+     * now ready to send, and those still waiting.  The ready requests are handed on as one batch.
+     * @param rebind whether to set the tracking id on every incomplete request
+     * @param trackingID the tracking id to set, if rebinding.
+     */
+    private void releaseIncompletes(boolean rebind, String trackingID) {
+        if (this.incompleteEventRequests.isEmpty()) {
+            return;
+        }
+
+        List<EventRequest> ready = new ArrayList<>(this.incompleteEventRequests.size());
+        List<EventRequest> stillincomplete = new ArrayList<>();
+
         for (EventRequest request : this.incompleteEventRequests) {
-            request.setTrackingID(trackingID);
+            if (rebind) {
+                request.setTrackingID(trackingID);
+            }
+
+            if (this.campaignID != null && request.getTrackingID() != null) {
+                EventTracer.span(request.getTraceID(), EventTracer.Phase.AWAITING_TRACKING_ID, request.getTraceMarkNanos());
+                ready.add(request);
+            }
+            else {
+                stillincomplete.add(request);
+            }
         }
 
-        this.enqueueIncompletes();
+        this.incompleteEventRequests = stillincomplete;
+        this.metrics.adjust(MeasurementServiceMetrics.Gauge.EVENTS_AWAITING_TRACKING_ID, -ready.size());
+
+        if (!ready.isEmpty() && (this.encoderStage == null || !this.encoderStage.offerBatch(ready))) {
+            this.encodeBatch(ready);
+        }
     }
 
-    public void enqueueIncompletes() {
-        //clone the list, as we're going to be iterating over it while mutating.
-        List<EventRequest> incompletes = new ArrayList<EventRequest>(this.incompleteEventRequests);
+    /**
+     * serialise a batch of ready requests, and hand them to the transport queue together.
+     * @param requests requests with a tracking id.
+     */
+    @Override
+    public void encodeBatch(List<EventRequest> requests) {
+        List<TrackingRequest> trackingrequests = new ArrayList<>(requests.size());
+        TrackingEndpoints.Endpoint endpoint = this.urlHelper.selectEndpoint();
+
+        for (EventRequest request : requests) {
+            TrackingRequest eventrequest = this.trackingRequestFor(request, endpoint);
+
+            if (eventrequest != null) {
+                trackingrequests.add(eventrequest);
+            }
+        }
 
-        for (EventRequest request : incompletes) {
+        if (!trackingrequests.isEmpty()) {
+            synchronized (this.handoffLock) {
+                if (!this.isShutdown) {
+                    this.requestQueue.enqueueRequests(trackingrequests);
+                    return;
+                }
+            }
 
-            //remove from list while we consider whether it's ready for sending.
-            this.incompleteEventRequests.remove(request);
+            this.dropLate(trackingrequests);
+        }
+    }
 
-            this.addEventRequest(request);
+    //encoded after shutdown - e.g. by an encoder that outlived the stop timeout - so there's no queue to send them.
+    private void dropLate(List<TrackingRequest> requests) {
+        for (TrackingRequest request : requests) {
+            ((EventRequest) request.getTag()).completeDelivery(EventDelivery.Outcome.DROPPED, 0);
         }
+
+        this.metrics.add(MeasurementServiceMetrics.Counter.EVENTS_DROPPED, requests.size());
+    }
+
+    /**
+     * send the ready events without waiting for anything else to prompt the queue - once the encoder stage has handed
+     * them on.  Events still waiting on a tracking id stay waiting.
+     * @return a task completing with true once every ready event has been sent, false if some are held (see
+     * {@link TrackingRequestQueue#flush()}).
+     */
+    public Task<Boolean> flush() {
+        Task<Void> encoded = (this.encoderStage != null) ? this.encoderStage.drain() : Task.<Void>forResult(null);
+
+        return encoded.continueWithTask(new Continuation<Void, Task<Boolean>>() {
+            @Override
+            public Task<Boolean> then(Task<Void> task) throws Exception {
+                return EventRequestQueue.this.requestQueue.flush();
+            }
+        });
+    }
+
+    /**
+     * stop sending events - see {@link TrackingRequestQueue#shutdown()}.  The encoder stage is stopped too, once
+     * it's finished any event it's encoding.  Events waiting on a tracking id are left to
+     * {@link #clearIncompleteRequests()}.  Events encoded after this (if the encoder outlives its stop) are dropped.
+     * @return the events not sent: those still to be encoded, then those queued.
+     */
+    public List<EventRequest> shutdown() {
+        List<EventRequest> unsent = new ArrayList<>();
+
+        if (this.encoderStage != null) {
+            unsent.addAll(this.encoderStage.stop());
+        }
+
+        synchronized (this.handoffLock) {
+            this.isShutdown = true;
+        }
+
+        for (TrackingRequest request : this.requestQueue.shutdown()) {
+            if (request.getTag() instanceof EventRequest) {
+                unsent.add((EventRequest) request.getTag());
+            }
+        }
+
+        return unsent;
+    }
+
+    /**
+     * move the queued events' request bodies to a spill file - see {@link TrackingRequestQueue#spill(RequestSpillFile)}.
+     * @return the number of requests spilled.
+     */
+    public int spill(RequestSpillFile file) {
+        return this.requestQueue.spill(file);
+    }
+
+    /**
+     * @return the bytes of queued request bodies on the heap.
+     */
+    public long getQueuedHeapBytes() {
+        return this.requestQueue.getQueuedHeapBytes();
+    }
+
+    protected boolean isRequestActive() {
+        return this.requestQueue.isRequestActive();
     }
 
     public void setDelegate(TrackingRequestQueueDelegate delegate) {
@@ -0,0 +1,183 @@
+package com.performancehorizon.measurementkit;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Records the lifecycle of tracked events as spans (enqueue, awaiting tracking id, serialise, queued, in flight, then
+ * acknowledged or failed) in a fixed size ring, for export in the Chrome trace event format (chrome://tracing, Perfetto).
+ *
+ * Off by default.  When off, events get no trace id, and each instrumentation point costs one volatile read.
+ */
+public class EventTracer {
+
+    public enum Phase {
+        ENQUEUE("enqueue"),
+        AWAITING_TRACKING_ID("awaiting tracking id"),
+        SERIALISE("serialise"),
+        QUEUED("queued"),
+        IN_FLIGHT("in flight"),
+        ACKNOWLEDGED("acknowledged"),
+        //errored, or answered with a rejection.
+        FAILED("failed");
+
+        private final String spanName;
+
+        Phase(String spanName) {
+            this.spanName = spanName;
+        }
+
+        public String getSpanName() {
+            return this.spanName;
+        }
+    }
+
+    private static final Phase[] PHASES = Phase.values();
+    private static final AtomicLong nextTraceID = new AtomicLong(1);
+
+    private static volatile boolean active = false;
+
+    //the ring - parallel arrays of primitives, so recording doesn't allocate.
+    private static long[] traceIDs = new long[0];
+    private static byte[] phases = new byte[0];
+    private static long[] startNanos = new long[0];
+    private static long[] durationNanos = new long[0];
+    private static int next = 0;
+    private static int count = 0;
+
+    //timestamps are exported relative to the start of tracing.
+    private static long originNanos = 0;
+
+    /**
+     * start tracing, discarding any previous trace.
+     * @param capacity the number of spans kept; older spans are overwritten.
+     */
+    public static synchronized void start(int capacity) {
+        traceIDs = new long[capacity];
+        phases = new byte[capacity];
+        startNanos = new long[capacity];
+        durationNanos = new long[capacity];
+        next = 0;
+        count = 0;
+        originNanos = System.nanoTime();
+
+        active = (capacity > 0);
+    }
+
+    /**
+     * stop tracing; the recorded spans are kept for export.
+     */
+    public static void stop() {
+        active = false;
+    }
+
+    public static boolean isActive() {
+        return active;
+    }
+
+    /**
+     * @return an id for a newly tracked event, or 0 if tracing is off (and the event won't be traced).
+     */
+    protected static long newTraceID() {
+        return active ? nextTraceID.getAndIncrement() : 0;
+    }
+
+    /**
+     * @return a monotonic timestamp to start a span from, or 0 if tracing is off.
+     */
+    protected static long mark() {
+        return active ? System.nanoTime() : 0;
+    }
+
+    /**
+     * record a span from start until now.  Ignored for untraced events, spans started while tracing was off, and once
+     * tracing is off.
+     */
+    protected static void span(long traceID, Phase phase, long start) {
+        if (!active || traceID == 0 || start == 0) {
+            return;
+        }
+
+        long end = System.nanoTime();
+
+        synchronized (EventTracer.class) {
+            if (traceIDs.length == 0) {
+                return;
+            }
+
+            traceIDs[next] = traceID;
+            phases[next] = (byte) phase.ordinal();
+            startNanos[next] = start;
+            durationNanos[next] = end - start;
+
+            next = (next + 1) % traceIDs.length;
+            count = Math.min(count + 1, traceIDs.length);
+        }
+    }
+
+    public static synchronized int getSpanCount() {
+        return count;
+    }
+
+    /**
+     * write the recorded spans, oldest first, as a Chrome trace event JSON object.  Each traced event is its own
+     * row (tid), with complete ("X") events for its spans, in microseconds.
+     */
+    public static synchronized void exportChromeTrace(Writer writer) throws IOException {
+        writer.write("{\"traceEvents\":[");
+
+        int first = (next - count + traceIDs.length) % Math.max(1, traceIDs.length);
+
+        for (int index = 0; index < count; index++) {
+            int position = (first + index) % traceIDs.length;
+
+            if (index > 0) {
+                writer.write(',');
+            }
+
+            writer.write("{\"name\":\"");
+            writer.write(PHASES[phases[position]].getSpanName());
+            writer.write("\",\"cat\":\"event\",\"ph\":\"X\",\"pid\":1,\"tid\":");
+            writer.write(Long.toString(traceIDs[position]));
+            writer.write(",\"ts\":");
+            writeMicros(writer, startNanos[position] - originNanos);
+            writer.write(",\"dur\":");
+            writeMicros(writer, durationNanos[position]);
+            writer.write('}');
+        }
+
+        writer.write("],\"displayTimeUnit\":\"ms\"}");
+    }
+
+    public static String exportChromeTrace() {
+        StringWriter writer = new StringWriter();
+
+        try {
+            exportChromeTrace(writer);
+        }
+        catch (IOException impossible) {
+            throw new IllegalStateException(impossible);
+        }
+
+        return writer.toString();
+    }
+
+    //microseconds, to three decimal places.
+    private static void writeMicros(Writer writer, long nanos) throws IOException {
+        if (nanos < 0) {
+            writer.write('-');
+            nanos = -nanos;
+        }
+
+        writer.write(Long.toString(nanos / 1000));
+
+        long fraction = nanos % 1000;
+
+        if (fraction != 0) {
+            writer.write('.');
+            writer.write(Long.toString(1000 + fraction).substring(1));
+        }
+    }
+}
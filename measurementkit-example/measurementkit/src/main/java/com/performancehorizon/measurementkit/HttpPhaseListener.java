@@ -0,0 +1,122 @@
+package com.performancehorizon.measurementkit;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.util.List;
+
+import okhttp3.Call;
+import okhttp3.Connection;
+import okhttp3.EventListener;
+import okhttp3.Handshake;
+import okhttp3.Protocol;
+import okhttp3.Request;
+
+/**
+ * Times the phases of a transport call (dns, connect, tls, time to first byte) into the service's latency
+ * histograms, and counts whether each call opened a connection or reused a pooled one.
+ *
+ * One listener per call (see {@link Factory}); okhttp calls it on the thread executing the call.
+ */
+public class HttpPhaseListener extends EventListener {
+
+    /**
+     * Creates a listener for each call, recording into the given metrics.
+     */
+    public static class Factory implements EventListener.Factory {
+
+        private final MeasurementServiceMetrics metrics;
+
+        public Factory(MeasurementServiceMetrics metrics) {
+            this.metrics = metrics;
+        }
+
+        @Override
+        public EventListener create(Call call) {
+            return new HttpPhaseListener(this.metrics);
+        }
+    }
+
+    private final MeasurementServiceMetrics metrics;
+
+    //phase starts, 0 when the phase isn't underway.
+    private long dnsStartNanos = 0;
+    private long connectStartNanos = 0;
+    private long secureConnectStartNanos = 0;
+    private long requestSentNanos = 0;
+
+    protected HttpPhaseListener(MeasurementServiceMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    @Override
+    public void dnsStart(Call call, String domainName) {
+        this.dnsStartNanos = System.nanoTime();
+    }
+
+    @Override
+    public void dnsEnd(Call call, String domainName, List<InetAddress> inetAddressList) {
+        this.recordSince(MeasurementServiceMetrics.Histogram.HTTP_DNS, this.dnsStartNanos);
+        this.dnsStartNanos = 0;
+    }
+
+    @Override
+    public void connectStart(Call call, InetSocketAddress inetSocketAddress, Proxy proxy) {
+        this.connectStartNanos = System.nanoTime();
+    }
+
+    @Override
+    public void secureConnectStart(Call call) {
+        this.secureConnectStartNanos = System.nanoTime();
+    }
+
+    @Override
+    public void secureConnectEnd(Call call, Handshake handshake) {
+        this.recordSince(MeasurementServiceMetrics.Histogram.HTTP_TLS, this.secureConnectStartNanos);
+        this.secureConnectStartNanos = 0;
+    }
+
+    @Override
+    public void connectEnd(Call call, InetSocketAddress inetSocketAddress, Proxy proxy, Protocol protocol) {
+        this.recordSince(MeasurementServiceMetrics.Histogram.HTTP_CONNECT, this.connectStartNanos);
+    }
+
+    @Override
+    public void connectFailed(Call call, InetSocketAddress inetSocketAddress, Proxy proxy, Protocol protocol,
+                              IOException ioe) {
+        //okhttp may try another route; only a successful connect is timed.
+        this.connectStartNanos = 0;
+        this.secureConnectStartNanos = 0;
+    }
+
+    @Override
+    public void connectionAcquired(Call call, Connection connection) {
+        //connectStart only happens when the call has to open a connection.
+        this.metrics.increment((this.connectStartNanos != 0) ?
+                MeasurementServiceMetrics.Counter.CONNECTIONS_OPENED : MeasurementServiceMetrics.Counter.CONNECTIONS_REUSED);
+        this.connectStartNanos = 0;
+    }
+
+    @Override
+    public void requestHeadersEnd(Call call, Request request) {
+        this.requestSentNanos = System.nanoTime();
+    }
+
+    @Override
+    public void requestBodyEnd(Call call, long byteCount) {
+        this.requestSentNanos = System.nanoTime();
+    }
+
+    @Override
+    public void responseHeadersStart(Call call) {
+        this.recordSince(MeasurementServiceMetrics.Histogram.HTTP_TIME_TO_FIRST_BYTE, this.requestSentNanos);
+        this.requestSentNanos = 0;
+    }
+
+    private void recordSince(MeasurementServiceMetrics.Histogram histogram, long startNanos) {
+        if (startNanos != 0) {
+            this.metrics.recordNanos(histogram, System.nanoTime() - startNanos);
+        }
+    }
+}
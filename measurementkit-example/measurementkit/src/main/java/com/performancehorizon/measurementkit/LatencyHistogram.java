@@ -0,0 +1,113 @@
+package com.performancehorizon.measurementkit;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A latency histogram with fixed millisecond buckets, safe to record into from any thread.
+ */
+public class LatencyHistogram {
+
+    /**
+     * inclusive upper bounds of the buckets, in milliseconds.  A final bucket takes anything slower.
+     */
+    public static final long[] BUCKET_UPPER_BOUNDS_MILLIS = {1, 2, 5, 10, 25, 50, 100, 250, 500, 1000, 2500, 5000, 10000, 30000, 60000};
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKET_UPPER_BOUNDS_MILLIS.length + 1);
+    private final AtomicLong sumMillis = new AtomicLong();
+
+    public void recordNanos(long nanos) {
+        this.recordMillis(nanos / 1000000);
+    }
+
+    public void recordMillis(long millis) {
+        if (millis < 0) {
+            millis = 0;
+        }
+
+        int bucket = 0;
+
+        while (bucket < BUCKET_UPPER_BOUNDS_MILLIS.length && millis > BUCKET_UPPER_BOUNDS_MILLIS[bucket]) {
+            bucket++;
+        }
+
+        this.counts.incrementAndGet(bucket);
+        this.sumMillis.addAndGet(millis);
+    }
+
+    public Snapshot snapshot() {
+        long[] bucketcounts = new long[this.counts.length()];
+
+        for (int index = 0; index < bucketcounts.length; index++) {
+            bucketcounts[index] = this.counts.get(index);
+        }
+
+        return new Snapshot(bucketcounts, this.sumMillis.get());
+    }
+
+    /**
+     * Counts at a point in time.  (Recorded concurrently, the sum may run slightly ahead of the counts.)
+     */
+    public static class Snapshot {
+
+        private final long[] bucketCounts;
+        private final long count;
+        private final long sumMillis;
+
+        protected Snapshot(long[] bucketCounts, long sumMillis) {
+            this.bucketCounts = bucketCounts;
+            this.sumMillis = sumMillis;
+
+            long total = 0;
+
+            for (long bucketcount : bucketCounts) {
+                total += bucketcount;
+            }
+
+            this.count = total;
+        }
+
+        public long getCount() {
+            return this.count;
+        }
+
+        public long getSumMillis() {
+            return this.sumMillis;
+        }
+
+        /**
+         * @return counts per bucket, as BUCKET_UPPER_BOUNDS_MILLIS plus a final overflow bucket.
+         */
+        public long[] getBucketCounts() {
+            return this.bucketCounts.clone();
+        }
+
+        public long getMeanMillis() {
+            return (this.count == 0) ? 0 : this.sumMillis / this.count;
+        }
+
+        /**
+         * @param percentile e.g. 0.99
+         * @return the upper bound of the bucket holding the percentile, Long.MAX_VALUE for the overflow bucket, or 0
+         * when nothing is recorded.
+         */
+        public long getPercentileUpperBoundMillis(double percentile) {
+            if (this.count == 0) {
+                return 0;
+            }
+
+            long rank = (long) Math.ceil(percentile * this.count);
+            long seen = 0;
+
+            for (int bucket = 0; bucket < this.bucketCounts.length; bucket++) {
+                seen += this.bucketCounts[bucket];
+
+                if (seen >= rank && seen > 0) {
+                    return (bucket < BUCKET_UPPER_BOUNDS_MILLIS.length) ? BUCKET_UPPER_BOUNDS_MILLIS[bucket] : Long.MAX_VALUE;
+                }
+            }
+
+            return Long.MAX_VALUE;
+        }
+    }
+}
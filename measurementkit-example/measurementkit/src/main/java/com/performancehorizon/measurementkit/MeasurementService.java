@@ -1,18 +1,25 @@
 package com.performancehorizon.measurementkit;
 
 import android.content.ActivityNotFoundException;
+import android.content.ComponentCallbacks2;
 import android.content.Context;
 import android.content.Intent;
+import android.content.res.Configuration;
 import android.net.ConnectivityManager;
 import android.net.Uri;
 
 import bolts.Continuation;
 import bolts.Task;
+import bolts.TaskCompletionSource;
 
 import java.lang.ref.WeakReference;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import okhttp3.OkHttpClient;
 
@@ -63,17 +70,9 @@ public class MeasurementService implements TrackingRequestQueueDelegate, Registe
 
     protected static class IntentProcessorFactory
     {
-        public WebClickIntentProccessor getWebIntentProcessor(Intent intent) {
-            return new WebClickIntentProccessor(intent);
-        }
-
-        public AppClickIntentProcessor getAppIntentProcessor(Intent intent, String camrefKey) {
-            return new AppClickIntentProcessor(intent, camrefKey);
-        }
-
-        public UniversalIntentProcessor getUniversalIntentProcessor(Intent intent, TrackingURLHelper helper)
+        public TrackedIntentClassifier getIntentClassifier(Intent intent, String camrefKey, TrackingURLHelper helper)
         {
-            return new UniversalIntentProcessor(intent, helper);
+            return new TrackedIntentClassifier(intent, camrefKey, helper);
         }
     }
 
@@ -155,6 +154,7 @@ public class MeasurementService implements TrackingRequestQueueDelegate, Registe
     private TrackingURLHelper urlHelper;
 
     private FingerprinterFactory fingerprinterfactory;
+    private final EventRequestFactory eventRequestFactory = new EventRequestFactory();
 
      private WeakReference<Context> context;
      private MeasurementServiceStorage storage;
@@ -163,6 +163,31 @@ public class MeasurementService implements TrackingRequestQueueDelegate, Registe
      private Intent deepLinkIntent;
     private boolean isInstalled =  false;
 
+    //single-flight registration - guarded by registrationLock.
+    private final Object registrationLock = new Object();
+    private boolean registrationInFlight = false;
+    private RegisterRequestFactory registrationFactory;
+    //the correlation id of the last registration to fail, for the recovery scheduler's retry to reuse.
+    private String failedCorrelationID;
+
+    private RegistrationRecoveryScheduler recoveryScheduler;
+
+    //null when the service is constructed with its queues.
+    private ConnectionPrewarmer prewarmer;
+
+    private final MeasurementServiceMetrics metrics = new MeasurementServiceMetrics();
+    private MeasurementServiceMetrics.Listener metricsListener;
+
+    //registered with the application once, on the first initialise with a context.
+    private ComponentCallbacks2 lifecycleCallbacks;
+    private Context applicationContext;
+
+    //once shut down, events are dropped.  Set on the caller's thread, read on whichever tracks an event.
+    private volatile boolean isShutdown = false;
+
+    //where queued events go under memory pressure - in the cache directory, so null until initialised with a context.
+    private RequestSpillFile spillFile;
+
     protected class TrackingConstants
     {
         protected final static String DEEPLINK_KEY = "deep_link";
@@ -186,7 +211,7 @@ public class MeasurementService implements TrackingRequestQueueDelegate, Registe
      * The configuration will be ignored if a shared instance has already been generated.
      * @return the shared instance of measurement service.
      */
-    public static MeasurementService sharedInstance(MeasurementServiceConfiguration config)
+    public static synchronized MeasurementService sharedInstance(MeasurementServiceConfiguration config)
     {
         if (_sharedTrackingService == null) {
             _sharedTrackingService = new MeasurementService(config);
@@ -200,17 +225,26 @@ public class MeasurementService implements TrackingRequestQueueDelegate, Registe
     }
 
     public MeasurementService(MeasurementServiceConfiguration config) {
+        this(config, ConnectionPrewarmer.newTrackingClient(config.getConnectionIdleTimeoutSeconds()),
+                new TrackingURLHelper(config.getDebugModeActive(), config.getFailoverTrackingUrls()));
+    }
+
+    //the register and event queues share a client, so a (prewarmed) connection serves both, and a url helper, so
+    //they share endpoint health.
+    private MeasurementService(MeasurementServiceConfiguration config, OkHttpClient client, TrackingURLHelper queueHelper) {
 
         this(config,
-                new RegisterRequestQueue(new TrackingRequestQueue(new OkHttpClient()),
+                new RegisterRequestQueue(new TrackingRequestQueue(client),
                 new TrackingRequestFactory(),
-                new TrackingURLHelper(config.getDebugModeActive())),
+                queueHelper),
                 new EventRequestQueue(
-                        new TrackingRequestQueue(new OkHttpClient()),
+                        new TrackingRequestQueue(client),
                         new TrackingRequestFactory(),
-                        new TrackingURLHelper(config.getDebugModeActive())),
+                        queueHelper),
                 new FingerprinterFactory()
         );
+
+        this.prewarmer = new ConnectionPrewarmer(client, this.urlHelper.urlStringForTracking());
     }
 
     public MeasurementService(MeasurementServiceConfiguration config,
@@ -228,8 +262,16 @@ public class MeasurementService implements TrackingRequestQueueDelegate, Registe
         this.eventQueue = eventQueue;
         this.eventQueue.setDelegate(this);
 
+        this.registerQueue.setMetrics(this.metrics);
+        this.eventQueue.setMetrics(this.metrics);
+
         this.fingerprinterfactory = fingerprintFactory;
 
+        //the referrer tracker is constructed by the system, so the store choice is shared process-wide.
+        if (config.getUseBinaryStateStore()) {
+            MeasurementStateStoreFactory.setDefaultStateStoreFactory(new MeasurementStateStoreFactory(true));
+        }
+
         this.status = MeasurementServiceStatus.AWAITING_INITIALISE;
     }
 
@@ -253,16 +295,20 @@ public class MeasurementService implements TrackingRequestQueueDelegate, Registe
         MeasurementServiceStorage.clearPreferences(context);
     }
 
-    protected static void setTrackingInstance(MeasurementService service)
+    protected static synchronized void setTrackingInstance(MeasurementService service)
     {
         _sharedTrackingService = service;
     }
 
-    private void register(RegisterRequestFactory registerRequestFactory) {
-        this.register(registerRequestFactory, new HashMap<String, String>());
+    private void register(RegisterRequestFactory registerRequestFactory, String correlationID) {
+        this.register(registerRequestFactory, new HashMap<String, String>(), correlationID);
     }
 
-    private void register(RegisterRequestFactory registerRequestFactory, final Map<String, String> additions) {
+    /**
+     * @param correlationID the correlation id of the registration this retries, or null for a new registration.
+     */
+    private void register(RegisterRequestFactory registerRequestFactory, final Map<String, String> additions,
+                          final String correlationID) {
 
         final RegisterRequestFactory therequestfactory = registerRequestFactory;
         final boolean installed = this.isInstalled;
@@ -297,13 +343,75 @@ public class MeasurementService implements TrackingRequestQueueDelegate, Registe
                     registerrequest.setInstalled();
                 }
 
+                if (correlationID != null) {
+                    registerrequest.setCorrelationID(correlationID);
+                }
+
                 MeasurementService.this.registerQueue.addRegisterRequest(registerrequest);
 
+                return null;
+            }
+        }).continueWith(new Continuation<Void, Void>() {
+            @Override
+            public Void then(Task<Void> task) throws Exception {
+                //the request never made it to the queue, so nothing will complete the registration.
+                if (task.isFaulted()) {
+                    MeasurementServiceLog.e("MeasurementService - Failed to build registration: {}", task.getError());
+                    MeasurementService.this.endRegistration();
+                }
+
                 return null;
             }
         });
         }
 
+    /**
+     * claim the registration for this caller, if there isn't one in flight already.
+     * @param registerRequestFactory factory for the registration, and any follow up.
+     * @return true if the caller should register, false if it shares the registration in flight.
+     */
+    private boolean beginRegistration(RegisterRequestFactory registerRequestFactory) {
+        synchronized (this.registrationLock) {
+            if (this.registrationInFlight) {
+                return false;
+            }
+
+            this.registrationInFlight = true;
+            this.registrationFactory = registerRequestFactory;
+
+            return true;
+        }
+    }
+
+    /**
+     * @return the factory the finished registration used, or null if there was no registration in flight.
+     */
+    private RegisterRequestFactory endRegistration() {
+        synchronized (this.registrationLock) {
+            RegisterRequestFactory factory = this.registrationFactory;
+
+            this.registrationInFlight = false;
+            this.registrationFactory = null;
+
+            return factory;
+        }
+    }
+
+    private String takeFailedCorrelationID() {
+        synchronized (this.registrationLock) {
+            String correlationid = this.failedCorrelationID;
+            this.failedCorrelationID = null;
+
+            return correlationid;
+        }
+    }
+
+    protected boolean isRegistrationInFlight() {
+        synchronized (this.registrationLock) {
+            return this.registrationInFlight;
+        }
+    }
+
     /**
      *
      * Initialises the measurement service.  Requires activity {@link Context}, the {@link Intent} that launched the activity,
@@ -333,28 +441,73 @@ public class MeasurementService implements TrackingRequestQueueDelegate, Registe
                                final RegisterRequestFactory registerRequestFactory,
                                ReferrerTrackerFactory trackerFactory)
     {
+        //a shut down service stays shut down - initialise would restart reachability and the lifecycle callbacks.
+        if (this.isShutdown) {
+            MeasurementServiceLog.w("Measurement Service - initialise after shutdown, ignored.");
+            return;
+        }
+
         this.context = new WeakReference<>(context);
         this.setAdvertiserID(advertiserID);
         this.setCampaignID(campaignID);
 
         this.storage = storageFactory.getMeasurementStorage(context);
 
+        if (this.config.getPrewarmConnection() && this.prewarmer != null) {
+            this.prewarmer.prewarm();
+        }
+
         if (this.context.get() != null) {
 
+            this.registerLifecycleCallbacks(context);
+
+            //the spilled bodies of a process that died with events queued can't be matched to requests - let them go.
+            if (this.spillFile == null && context.getCacheDir() != null) {
+                this.spillFile = new RequestSpillFile(context.getCacheDir());
+                this.spillFile.delete();
+            }
+
             //load from shared preferences.
             this.storage.loadFromPreferences();
 
             ConnectivityManager connectivityManager = (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
 
+            //initialise runs on every launch (and configuration change) - unregister the last one's network callbacks.
+            if (this.reachability != null) {
+                this.reachability.stop();
+            }
+
             this.reachability = reachabilityFactory.getReachability(connectivityManager, new ReachabilityCallback() {
                 @Override
                 public void onNetworkActive() {
                     MeasurementService.this.eventQueue.setQueueIsPaused(MeasurementService.this.eventQueueIsPaused(true));
                     MeasurementService.this.registerQueue.setQueueIsPaused(MeasurementService.this.registerQueueIsPaused(true));
+
+                    if (MeasurementService.this.recoveryScheduler != null) {
+                        MeasurementService.this.recoveryScheduler.networkActive();
+                    }
+                }
+
+                @Override
+                public void onNetworkStateChanged(Reachability.NetworkState state) {
+                    MeasurementService.this.networkStateChanged(state);
                 }
             });
         }
 
+        //retry failed registrations, without waiting for another initialise.
+        if (this.recoveryScheduler != null) {
+            this.recoveryScheduler.cancel();
+        }
+
+        this.recoveryScheduler = new RegistrationRecoveryScheduler(this.storage, this.reachability,
+                new RegistrationRecoveryScheduler.Callback() {
+            @Override
+            public void registrationRecoveryDue(RegistrationRecoveryScheduler scheduler) {
+                MeasurementService.this.recoverRegistration(registerRequestFactory);
+            }
+        });
+
         //now source data from the referrer
         ReferrerTracker tracker = trackerFactory.getReferrerTracker();
         if (context != null && tracker.getReferrer(context) != null) {
@@ -369,60 +522,151 @@ public class MeasurementService implements TrackingRequestQueueDelegate, Registe
         //set the initial status (also configures the queue states)
         this.setStatus(this.storage.status());
 
-        //if a new query is needed, send off request.
-        if (this.status == MeasurementServiceStatus.QUERYING) {
+        //if a new query is needed, send off request.  Only one registration is made at a time - later callers share
+        //it.  Their camref/referrer is stored, so is picked up when the request is built, or by a follow up registration.
+        if (this.status == MeasurementServiceStatus.QUERYING && this.beginRegistration(registerRequestFactory)) {
+            this.startRegistration(registerRequestFactory, null);
+        }
+    }
 
-            if (this.config.useActiveFingerprinting()) {
-                ActiveFingerprinter fingerprinter = new ActiveFingerprinter(this.context.get(), new ActiveFingerprinter.Callback() {
-                    @Override
-                    public void activeFingerprintComplete(ActiveFingerprinter fingerprinter, Map<String, String> fingerprint) {
-                        register(registerRequestFactory, fingerprint);
-                    }
-                });
+    //call having begun the registration.
+    private void startRegistration(final RegisterRequestFactory registerRequestFactory, final String correlationID) {
+        if (this.config.useActiveFingerprinting()) {
+            ActiveFingerprinter fingerprinter = new ActiveFingerprinter(this.context.get(), new ActiveFingerprinter.Callback() {
+                @Override
+                public void activeFingerprintComplete(ActiveFingerprinter fingerprinter, Map<String, String> fingerprint) {
+                    register(registerRequestFactory, fingerprint, correlationID);
+                }
+            });
 
-                fingerprinter.generateFingerprint();
-            }
-            else {
-                this.register(registerRequestFactory);
-            }
+            fingerprinter.generateFingerprint();
+        }
+        else {
+            this.register(registerRequestFactory, correlationID);
+        }
+    }
+
+    //the recovery scheduler's retry of a failed registration - so under the same correlation id.
+    void recoverRegistration(RegisterRequestFactory registerRequestFactory) {
+        if (!this.isShutdown && this.status == MeasurementServiceStatus.QUERYING &&
+                this.beginRegistration(registerRequestFactory)) {
+            this.startRegistration(registerRequestFactory, this.takeFailedCorrelationID());
         }
     }
 
     void trackEvent(Event event, EventRequestFactory factory)
     {
+        this.trackEvent(event, factory, null);
+    }
+
+    void trackEvent(Event event, EventRequestFactory factory, TaskCompletionSource<EventDelivery> delivery)
+    {
+        long trackedat = System.nanoTime();
+
+        if (this.isShutdown) {
+            MeasurementServiceLog.w("Measurement Service - event tracked after shutdown, ignored.");
+            this.metrics.increment(MeasurementServiceMetrics.Counter.EVENTS_DROPPED);
+
+            if (delivery != null) {
+                delivery.trySetResult(new EventDelivery(event, EventDelivery.Outcome.DROPPED, 0, trackedat, System.nanoTime()));
+            }
+
+            return;
+        }
+
+        long traceid = EventTracer.newTraceID();
+        long enqueuestart = EventTracer.mark();
+
         //if you're inactive, ignore.  If you're active, send off.
         //all other states, queue without a confirmed mobile tracking id.
         switch(this.status) {
             case ACTIVE:
 
                 //this is just a catch in case somehow
-                this.eventQueue.addEventRequest((this.storage.getTrackingID() == null) ?
+                EventRequest activerequest = (this.storage.getTrackingID() == null) ?
                         factory.getEventRequest(event) :
-                        factory.getEventRequest(event, this.storage.getTrackingID()));
+                        factory.getEventRequest(event, this.storage.getTrackingID());
+
+                if (delivery != null) {
+                    activerequest.setDelivery(delivery, trackedat);
+                }
+
+                activerequest.setTrace(traceid, 0);
+                activerequest.setTrackedAtNanos(trackedat);
+                this.metrics.increment(MeasurementServiceMetrics.Counter.EVENTS_ENQUEUED);
+
+                this.eventQueue.addEventRequest(activerequest);
                 break;
             case INACTIVE:
-                //do nothing!
+                //do nothing! (other than say so, if asked)
+                this.metrics.increment(MeasurementServiceMetrics.Counter.EVENTS_DROPPED);
+
+                if (delivery != null) {
+                    delivery.trySetResult(new EventDelivery(event, EventDelivery.Outcome.DROPPED, 0, trackedat, System.nanoTime()));
+                }
                 break;
             default:
-                this.eventQueue.addEventRequest(
-                        factory.getEventRequest(event));
-        }
+                EventRequest request = factory.getEventRequest(event);
+
+                if (delivery != null) {
+                    request.setDelivery(delivery, trackedat);
+                }
 
-        //prompt to check connectivity status and restart queues.
-        if (this.reachability != null && this.reachability.isNetworkActive()) {
-            this.eventQueue.setQueueIsPaused(this.eventQueueIsPaused(true));
-            this.registerQueue.setQueueIsPaused(this.registerQueueIsPaused(true));
+                request.setTrace(traceid, 0);
+                request.setTrackedAtNanos(trackedat);
+                this.metrics.increment(MeasurementServiceMetrics.Counter.EVENTS_ENQUEUED);
+
+                this.eventQueue.addEventRequest(request);
         }
+
+        //the queues are paused and resumed as the network comes and goes (see networkStateChanged), so there's no
+        //need to check on every event.
+        EventTracer.span(traceid, EventTracer.Phase.ENQUEUE, enqueuestart);
     }
 
     /**
      * Track an event.  Events are registered as a conversion in the Performance horizon's affiliate tracking interface.
-     * Events will be uploaded asynchronously in the background.
+     * Events will be serialised and uploaded asynchronously in the background, so the event should not be modified
+     * once tracked.
      * @param event the event to track
      */
     public void trackEvent(Event event)
     {
-        this.trackEvent(event, new EventRequestFactory());
+        this.trackEvent(event, this.eventRequestFactory);
+    }
+
+    /**
+     * Track an event, as {@link #trackEvent(Event)}, and get a handle on its delivery.
+     * The returned task completes once the event is accepted or rejected by the tracking API, dropped by the service
+     * (e.g. if tracking is inactive for this install), or expired after failing to send.  Continuations on the task
+     * run as per Bolts; use {@link Task#UI_THREAD_EXECUTOR} to return to the main thread.
+     * @param event the event to track
+     * @return a task completing with the {@link EventDelivery} for the event.  It never completes with an error.
+     */
+    public Task<EventDelivery> trackEventForDelivery(Event event)
+    {
+        TaskCompletionSource<EventDelivery> delivery = new TaskCompletionSource<>();
+        this.trackEvent(event, this.eventRequestFactory, delivery);
+
+        return delivery.getTask();
+    }
+
+    /**
+     * pause or resume the queues as the network comes and goes.
+     * @param state the new state of the network.
+     */
+    protected void networkStateChanged(Reachability.NetworkState state) {
+        this.eventQueue.setQueueIsPaused(this.eventQueueIsPaused(state.isConnected()));
+        this.registerQueue.setQueueIsPaused(this.registerQueueIsPaused(state.isConnected()));
+
+        if (state.isConnected()) {
+            //a registration the transport never answered would otherwise hold registration forever.
+            this.registerQueue.expirePendingRequests();
+
+            if (this.recoveryScheduler != null) {
+                this.recoveryScheduler.networkActive();
+            }
+        }
     }
 
     /**
@@ -436,40 +680,235 @@ public class MeasurementService implements TrackingRequestQueueDelegate, Registe
 
         this.eventQueue.setQueueIsPaused(this.eventQueueIsPaused(networkreachable));
         this.registerQueue.setQueueIsPaused(this.registerQueueIsPaused(networkreachable));
+
+        if (this.recoveryScheduler != null) {
+            if (status == MeasurementServiceStatus.QUERYING) {
+                this.recoveryScheduler.queryingStarted();
+            }
+            else {
+                this.recoveryScheduler.queryingEnded();
+            }
+        }
     }
 
     /**
-     * Processes the given intent, detecting a deep link if present and using it to set up the state of the measurement service
-     * (Specifically gets a tracking id or a query for a camref)
-     * @param intent
-     * @param factory
-     * @return
+     * @return how long the service has been waiting on registration (status {@link MeasurementServiceStatus#QUERYING}),
+     * across launches, in milliseconds.  Once registered, the length of the last wait.
      */
-    private Intent processDeepLink(Intent intent, IntentProcessorFactory factory) {
+    public long getTimeInQueryingMillis() {
+        return (this.recoveryScheduler != null) ? this.recoveryScheduler.getTimeInQueryingMillis() : 0;
+    }
+
+    /**
+     * Send the events waiting to go, without waiting for anything else to prompt the service - e.g. before the app
+     * goes into the background (see {@link MeasurementServiceConfiguration#setFlushOnBackground(boolean)}).  Events
+     * are still sent one at a time, and only while tracking is active and the network is up; events waiting on
+     * registration stay waiting.  Doesn't block the calling thread.
+     * @return a task completing with true once the events waiting when called have been sent (or failed to send), or
+     * false if some are held - offline, tracking inactive, or the tracking host unavailable.  It never completes
+     * with an error.
+     */
+    public Task<Boolean> flush() {
+        return this.eventQueue.flush();
+    }
+
+    /**
+     * Shut the service down, e.g. before switching accounts.  Events tracked from now on are dropped.  The events
+     * already tracked are sent (as {@link #flush()}) until the deadline; then sending stops, a request in flight is
+     * cancelled, and connections to the tracking host are closed.  Events waiting on registration are dropped
+     * straight away, as registration is stopped too.  Doesn't block the calling thread.
+     *
+     * A shut down service can't be initialised again; if it's the shared instance, the next
+     * {@link #sharedInstance(MeasurementServiceConfiguration)} creates a new one.
+     * @param timeout how long to spend sending events.
+     * @param unit the unit of the timeout.
+     * @return a task completing with what was left unsent.  It never completes with an error.
+     */
+    public Task<ShutdownReport> shutdown(long timeout, TimeUnit unit) {
+        this.isShutdown = true;
+
+        //so the next sharedInstance() is a fresh service, e.g. for the account switched to.
+        synchronized (MeasurementService.class) {
+            if (_sharedTrackingService == this) {
+                _sharedTrackingService = null;
+            }
+        }
+
+        if (this.recoveryScheduler != null) {
+            this.recoveryScheduler.cancel();
+            this.recoveryScheduler = null;
+        }
+
+        if (this.reachability != null) {
+            this.reachability.stop();
+        }
+
+        if (this.lifecycleCallbacks != null) {
+            this.applicationContext.unregisterComponentCallbacks(this.lifecycleCallbacks);
+            this.lifecycleCallbacks = null;
+        }
+
+        final int awaitingtrackingid = this.eventQueue.getIncompleteEventRequests().size();
+        this.eventQueue.clearIncompleteRequests();
+
+        final Task<Boolean> flushed = this.eventQueue.flush();
+        Task<Void> deadline = Task.delay(unit.toMillis(timeout));
 
-        //first check for web link. (sli
-        WebClickIntentProccessor webprocessor = factory.getWebIntentProcessor(intent);
+        return Task.whenAny(Arrays.<Task<?>>asList(flushed, deadline)).continueWith(new Continuation<Task<?>, ShutdownReport>() {
+            @Override
+            public ShutdownReport then(Task<Task<?>> task) throws Exception {
+                return MeasurementService.this.stopQueues(flushed.isCompleted() && flushed.getResult(),
+                        awaitingtrackingid);
+            }
+        }, Task.BACKGROUND_EXECUTOR);
+    }
+
+    private ShutdownReport stopQueues(boolean flushed, int awaitingTrackingID) {
+        int inflight = (this.eventQueue.isRequestActive() ? 1 : 0) + (this.registerQueue.isRequestActive() ? 1 : 0);
+
+        List<EventRequest> unsent = this.eventQueue.shutdown();
+        int registrationsunsent = this.registerQueue.shutdown();
+
+        for (EventRequest request : unsent) {
+            request.completeDelivery(EventDelivery.Outcome.DROPPED, 0);
+        }
+
+        this.metrics.add(MeasurementServiceMetrics.Counter.EVENTS_DROPPED, unsent.size());
+
+        if (this.spillFile != null) {
+            this.spillFile.delete();
+        }
+
+        ShutdownReport report = new ShutdownReport(flushed && awaitingTrackingID == 0, unsent.size(),
+                awaitingTrackingID, inflight, registrationsunsent);
+
+        MeasurementServiceLog.i("Measurement Service - shut down: {}", report);
+
+        return report;
+    }
+
+    private void registerLifecycleCallbacks(Context context) {
+        if (this.lifecycleCallbacks != null || context.getApplicationContext() == null ||
+                !(this.config.getFlushOnBackground() || this.config.getSpillOnMemoryPressure())) {
+            return;
+        }
+
+        this.lifecycleCallbacks = new ComponentCallbacks2() {
+            @Override
+            public void onTrimMemory(int level) {
+                MeasurementService.this.trimMemory(level);
+            }
 
-        if (webprocessor.getMobileTrackingID() != null) {
-            this.storage.putTrackingID(webprocessor.getMobileTrackingID());
-            return webprocessor.getFilteredIntent();
+            @Override
+            public void onConfigurationChanged(Configuration configuration) {}
+
+            @Override
+            public void onLowMemory() {
+                MeasurementService.this.trimMemory(ComponentCallbacks2.TRIM_MEMORY_COMPLETE);
+            }
+        };
+
+        this.applicationContext = context.getApplicationContext();
+        this.applicationContext.registerComponentCallbacks(this.lifecycleCallbacks);
+    }
+
+    /**
+     * the app's ui has been hidden - flush, while the process still has cpu - or memory is short - release memory -
+     * as configured.
+     * @param level the trim level, as {@link ComponentCallbacks2#onTrimMemory(int)}.
+     */
+    protected void trimMemory(int level) {
+        if (level == ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN) {
+            if (this.config.getFlushOnBackground()) {
+                MeasurementServiceLog.d("Measurement Service - app in the background, flushing events.");
+
+                this.flush();
+            }
         }
+        else if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW && this.config.getSpillOnMemoryPressure()) {
+            this.releaseMemory();
+        }
+    }
+
+    /**
+     * Free the heap held by queued events, e.g. when memory is short (see
+     * {@link MeasurementServiceConfiguration#setSpillOnMemoryPressure(boolean)}).  Their request bodies are moved to a
+     * file in the cache directory, and read back as each is sent; events without a delivery handle are let go, as
+     * they're already serialised.  The request in flight, and events waiting on registration, stay on the heap.
+     * Does nothing before initialise.  Doesn't block the calling thread.
+     * @return a task completing with the heap held by queued events before and after.
+     */
+    public Task<MemoryPressureReport> releaseMemory() {
+        final RequestSpillFile spillfile = this.spillFile;
+
+        return Task.callInBackground(new Callable<MemoryPressureReport>() {
+            @Override
+            public MemoryPressureReport call() throws Exception {
+                EventRequestQueue queue = MeasurementService.this.eventQueue;
+
+                long before = queue.getQueuedHeapBytes();
+                int spilled = (spillfile != null) ? queue.spill(spillfile) : 0;
+
+                MemoryPressureReport report = new MemoryPressureReport(before, queue.getQueuedHeapBytes(), spilled);
+
+                MeasurementServiceLog.i("Measurement Service - released memory: {}", report);
+
+                return report;
+            }
+        });
+    }
+
+    /**
+     * Metrics for the service's event and registration pipeline: counters, queue gauges and latency histograms.
+     * @return the metrics as of now.
+     */
+    public MeasurementServiceMetrics.Snapshot getMetrics() {
+        return this.metrics.snapshot();
+    }
+
+    /**
+     * @param listener a listener given a metrics snapshot (on the main thread) after each request outcome, or null.
+     */
+    public void setMetricsListener(MeasurementServiceMetrics.Listener listener) {
+        this.metricsListener = listener;
+    }
 
-        AppClickIntentProcessor appprocessor = factory.getAppIntentProcessor(intent, TrackingConstants.TRACKING_INTENT_CAMREF);
+    private void publishMetrics() {
+        MeasurementServiceMetrics.Listener listener = this.metricsListener;
 
-        if (appprocessor.getCamref() != null) {
-            this.storage.putCamrefQuery(appprocessor.getCamref());
-            return appprocessor.getFilteredIntent();
+        if (listener != null) {
+            listener.metricsUpdated(this.metrics.snapshot());
         }
+    }
 
-        UniversalIntentProcessor universalprocessor = factory.getUniversalIntentProcessor(intent, this.urlHelper);
+    /**
+     * Processes the given intent, detecting a deep link if present and using it to set up the state of the measurement service
+     * (Specifically gets a tracking id or a query for a camref)
+     * @param intent
+     * @param factory
+     * @return
+     */
+    private Intent processDeepLink(Intent intent, IntentProcessorFactory factory) {
 
-        if (universalprocessor.getCamref() != null) {
-            this.storage.putCamrefQuery(universalprocessor.getCamref());
-            return universalprocessor.getFilteredIntent();
+        if (intent == null) {
+            return null;
         }
 
-        return null;
+        //web (sets the tracking id), app or universal click (set a camref query), in a single pass over the intent.
+        TrackedIntentClassifier classifier = factory.getIntentClassifier(intent, TrackingConstants.TRACKING_INTENT_CAMREF,
+                this.urlHelper);
+
+        switch (classifier.getClickType()) {
+            case WEB:
+                this.storage.putTrackingID(classifier.getMobileTrackingID());
+                return classifier.getFilteredIntent();
+            case APP:
+            case UNIVERSAL:
+                this.storage.putCamrefQuery(classifier.getCamref());
+                return classifier.getFilteredIntent();
+            default:
+                return null;
+        }
     }
 
     static Intent trackedIntent(Intent intent, String camref) {
@@ -520,6 +959,8 @@ public class MeasurementService implements TrackingRequestQueueDelegate, Registe
      * as it is presumed that the original intent opening has failed.  E.g.  Uri for app has failed, now opening the
      * tracked web equivalent.
      *
+     * For many links under the same camref, use a {@link TrackedLinkGenerator}.
+     *
      * @param camref the campaign reference that represents the publisher-campaign combination.
      * @param advertisingid the android advertising id.
      * @param destinationuri the destination target for the uri.
@@ -540,7 +981,6 @@ public class MeasurementService implements TrackingRequestQueueDelegate, Registe
                                             boolean debuguri, UriBuilderFactory builderfactory) {
 
         TrackingURLHelper trackinghelper = new TrackingURLHelper(debuguri);
-        trackinghelper.setDebug(debuguri);
 
         MeasurementServiceURIBuilder builder = builderfactory.getTrackingUriBuilder(trackinghelper);
 
@@ -677,17 +1117,37 @@ public class MeasurementService implements TrackingRequestQueueDelegate, Registe
 
     @Override
     public void requestQueueDidCompleteRequest(TrackingRequestQueue queue, TrackingRequest request, String result) {
+        if (request.getTag() instanceof EventRequest) {
+            int responsecode = request.getResponseCode();
+            EventRequest eventrequest = (EventRequest) request.getTag();
+
+            this.metrics.recordNanos(MeasurementServiceMetrics.Histogram.EVENT_ENQUEUE_TO_ACK,
+                    System.nanoTime() - eventrequest.getTrackedAtNanos());
+
+            eventrequest.completeDelivery((responsecode >= 200 && responsecode < 300) ?
+                    EventDelivery.Outcome.ACCEPTED : EventDelivery.Outcome.REJECTED, responsecode);
+        }
+
+        this.publishMetrics();
     }
 
     @Override
     public void requestQueueErrorOnRequest(TrackingRequestQueue queue, TrackingRequest request, Exception error) {
-        MeasurementServiceLog.d("MeasurementService - Event request failed with error: " + error.toString());
+        MeasurementServiceLog.d("MeasurementService - Event request failed with error: {}", error);
+
+        //the queue has retried the request as far as it will, so this is the end of the road for the event.
+        if (request.getTag() instanceof EventRequest) {
+            ((EventRequest) request.getTag()).completeDelivery(EventDelivery.Outcome.EXPIRED, request.getResponseCode());
+        }
+
+        this.publishMetrics();
     }
 
     @Override
     public void registerRequestQueueDidComplete(RegisterRequestQueue queue, RegisterRequest request, String result)
     {
         this.registerRequestQueueDidComplete(queue, request, result, new RegistrationProcessorFactory());
+        this.publishMetrics();
     }
 
     void registerRequestQueueDidComplete(RegisterRequestQueue queue, RegisterRequest request, String result,
@@ -697,6 +1157,13 @@ public class MeasurementService implements TrackingRequestQueueDelegate, Registe
 
             RegistrationProcessor registrationprocessor = registerFactory.getRequestProcessor(result);
 
+            if (this.recoveryScheduler != null) {
+                this.recoveryScheduler.registrationAnswered();
+            }
+
+            //answered, so there's no failed registration left to retry.
+            this.takeFailedCorrelationID();
+
             //clear camref
             if (request.getCamref() != null && request.getCamref().equals(this.storage.getCamRef())) {
                 this.storage.clearCamref();
@@ -745,11 +1212,44 @@ public class MeasurementService implements TrackingRequestQueueDelegate, Registe
                 }
             }
         }
+
+        RegisterRequestFactory followupfactory = this.endRegistration();
+
+        //a camref or referrer that arrived while the registration was in flight is still stored - register for it now.
+        if (followupfactory != null && this.status != MeasurementServiceStatus.HALTED &&
+                this.storage.status() == MeasurementServiceStatus.QUERYING && this.beginRegistration(followupfactory)) {
+            this.setStatus(MeasurementServiceStatus.QUERYING);
+            this.startRegistration(followupfactory, null);
+        }
     }
 
     @Override
     public void registerRequestQueueDidError(RegisterRequestQueue queue, RegisterRequest request, Exception error) {
-        MeasurementServiceLog.d("MeasurementService - Register queue failure." + error.toString());
+        MeasurementServiceLog.d("MeasurementService - Register queue failure. {}", error);
+
+        //shutdown cancels the registration in flight - that's not a failure to recover from.
+        if (this.isShutdown) {
+            return;
+        }
+
+        //an old registration expired while a newer one is in flight - that one will report for itself.
+        if (error instanceof TimeoutException && queue.hasPendingRequests()) {
+            return;
+        }
+
+        this.endRegistration();
+
+        if (this.status == MeasurementServiceStatus.QUERYING && this.recoveryScheduler != null) {
+            if (request != null) {
+                synchronized (this.registrationLock) {
+                    this.failedCorrelationID = request.getCorrelationID();
+                }
+            }
+
+            this.recoveryScheduler.registrationFailed();
+        }
+
+        this.publishMetrics();
     }
 
     /**
@@ -3,18 +3,256 @@ package com.performancehorizon.measurementkit;
 
 import android.util.Log;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
 /**
  * Created by owainbrown on 26/01/16.
+ *
+ * Levelled logging for the measurement kit.  Messages may carry "{}" placeholders, which are only filled in (and the
+ * arguments only converted to strings) when the level is enabled, so disabled calls cost a comparison.  Primitive
+ * arguments go through the long overloads, so they aren't boxed either.
  */
 public class MeasurementServiceLog {
 
     protected final static String TRACKING_LOG = "PHN_MT";
 
+    //as android.util.Log.
+    public static final int VERBOSE = 2;
+    public static final int DEBUG = 3;
+    public static final int INFO = 4;
+    public static final int WARN = 5;
+    public static final int ERROR = 6;
+    public static final int NONE = Integer.MAX_VALUE;
+
+    private static volatile int level = DEBUG;
+    private static volatile boolean logcatActive = true;
+    private static volatile RingSink ringSink = null;
+
+    /**
+     * Keeps the most recent log messages in memory, e.g. for attaching to a support request.
+     */
+    public static class RingSink {
+
+        private final long[] times;
+        private final int[] levels;
+        private final String[] messages;
+
+        private int next = 0;
+        private int count = 0;
+
+        /**
+         * @param capacity the number of messages kept, at least 1.
+         */
+        public RingSink(int capacity) {
+            if (capacity < 1) {
+                throw new IllegalArgumentException("Measurement Service Log - ring sink capacity must be at least 1");
+            }
+
+            this.times = new long[capacity];
+            this.levels = new int[capacity];
+            this.messages = new String[capacity];
+        }
+
+        protected synchronized void append(int level, String message) {
+            this.times[this.next] = System.currentTimeMillis();
+            this.levels[this.next] = level;
+            this.messages[this.next] = message;
+
+            this.next = (this.next + 1) % this.messages.length;
+            this.count = Math.min(this.count + 1, this.messages.length);
+        }
+
+        /**
+         * @return the kept messages, oldest first, as "{time millis} {level letter} {message}".
+         */
+        public synchronized List<String> getEntries() {
+            List<String> entries = new ArrayList<>(this.count);
+            int first = (this.next - this.count + this.messages.length) % this.messages.length;
+
+            for (int index = 0; index < this.count; index++) {
+                int position = (first + index) % this.messages.length;
+                entries.add(this.times[position] + " " + levelLetter(this.levels[position]) + " " + this.messages[position]);
+            }
+
+            return entries;
+        }
+
+        public synchronized void clear() {
+            this.next = 0;
+            this.count = 0;
+            Arrays.fill(this.messages, null);
+        }
+    }
+
+    /**
+     * @param minimumlevel the lowest level emitted (e.g. WARN), or NONE.
+     */
+    public static void setLevel(int minimumlevel) {
+        level = minimumlevel;
+    }
+
+    public static int getLevel() {
+        return level;
+    }
+
+    public static boolean isEnabled(int messagelevel) {
+        return messagelevel >= level;
+    }
+
+    /**
+     * @param active false to stop writing to logcat (messages still go to the ring sink).
+     */
+    public static void setLogcatActive(boolean active) {
+        logcatActive = active;
+    }
+
+    /**
+     * @param sink a sink for emitted messages, or null to stop keeping them.
+     */
+    public static void setRingSink(RingSink sink) {
+        ringSink = sink;
+    }
+
+    public static RingSink getRingSink() {
+        return ringSink;
+    }
+
+    public static void v(String log) {
+        if (isEnabled(VERBOSE)) {
+            emit(VERBOSE, log);
+        }
+    }
+
+    public static void v(String format, Object argument) {
+        if (isEnabled(VERBOSE)) {
+            emit(VERBOSE, format(format, argument, null, 1));
+        }
+    }
+
+    public static void v(String format, long argument) {
+        if (isEnabled(VERBOSE)) {
+            emit(VERBOSE, format(format, argument, null, 1));
+        }
+    }
+
+    public static void v(String format, Object first, Object second) {
+        if (isEnabled(VERBOSE)) {
+            emit(VERBOSE, format(format, first, second, 2));
+        }
+    }
+
     public static void d( String log) {
-        Log.d(TRACKING_LOG, log);
+        if (isEnabled(DEBUG)) {
+            emit(DEBUG, log);
+        }
+    }
+
+    public static void d(String format, Object argument) {
+        if (isEnabled(DEBUG)) {
+            emit(DEBUG, format(format, argument, null, 1));
+        }
+    }
+
+    public static void d(String format, long argument) {
+        if (isEnabled(DEBUG)) {
+            emit(DEBUG, format(format, argument, null, 1));
+        }
+    }
+
+    public static void d(String format, Object first, Object second) {
+        if (isEnabled(DEBUG)) {
+            emit(DEBUG, format(format, first, second, 2));
+        }
+    }
+
+    public static void i(String log) {
+        if (isEnabled(INFO)) {
+            emit(INFO, log);
+        }
+    }
+
+    public static void i(String format, Object argument) {
+        if (isEnabled(INFO)) {
+            emit(INFO, format(format, argument, null, 1));
+        }
+    }
+
+    public static void i(String format, long argument) {
+        if (isEnabled(INFO)) {
+            emit(INFO, format(format, argument, null, 1));
+        }
+    }
+
+    public static void w(String log) {
+        if (isEnabled(WARN)) {
+            emit(WARN, log);
+        }
+    }
+
+    public static void w(String format, Object argument) {
+        if (isEnabled(WARN)) {
+            emit(WARN, format(format, argument, null, 1));
+        }
     }
 
     public static void e( String log) {
-        Log.e(TRACKING_LOG, log);
+        if (isEnabled(ERROR)) {
+            emit(ERROR, log);
+        }
+    }
+
+    public static void e(String format, Object argument) {
+        if (isEnabled(ERROR)) {
+            emit(ERROR, format(format, argument, null, 1));
+        }
+    }
+
+    public static void e(String format, Object first, Object second) {
+        if (isEnabled(ERROR)) {
+            emit(ERROR, format(format, first, second, 2));
+        }
+    }
+
+    private static void emit(int messagelevel, String message) {
+        if (logcatActive) {
+            Log.println(messagelevel, TRACKING_LOG, message);
+        }
+
+        RingSink sink = ringSink;
+
+        if (sink != null) {
+            sink.append(messagelevel, message);
+        }
+    }
+
+    //fills up to count "{}" placeholders in order; arguments without a placeholder are dropped.
+    protected static String format(String format, Object first, Object second, int count) {
+        StringBuilder message = new StringBuilder(format.length() + 32);
+        int start = 0;
+
+        for (int argument = 0; argument < count; argument++) {
+            int placeholder = format.indexOf("{}", start);
+
+            if (placeholder == -1) {
+                break;
+            }
+
+            message.append(format, start, placeholder).append((argument == 0) ? first : second);
+            start = placeholder + 2;
+        }
+
+        return message.append(format, start, format.length()).toString();
+    }
+
+    private static char levelLetter(int messagelevel) {
+        switch (messagelevel) {
+            case VERBOSE: return 'V';
+            case DEBUG: return 'D';
+            case INFO: return 'I';
+            case WARN: return 'W';
+            default: return 'E';
+        }
     }
 }
@@ -0,0 +1,160 @@
+package com.performancehorizon.measurementkit;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counters, gauges and latency histograms for the measurement service's request pipeline.  Recorded by the queues,
+ * from any thread; read as a {@link Snapshot} via MeasurementService.getMetrics().
+ */
+public class MeasurementServiceMetrics {
+
+    public enum Counter {
+        /** events accepted for tracking. */
+        EVENTS_ENQUEUED,
+        /** events dropped without being sent (tracking inactive, invalid, or discarded). */
+        EVENTS_DROPPED,
+        /** transport requests that got a response (of any status). */
+        REQUESTS_SENT,
+        /** transport requests that failed without a response. */
+        REQUESTS_FAILED,
+        /** transport requests held to send again - throttled, or failed without a response. */
+        REQUESTS_HELD,
+        /** queued transport requests whose bodies were moved to disk under memory pressure. */
+        REQUESTS_SPILLED,
+        /** registrations sent again after failing. */
+        REGISTRATIONS_RETRIED,
+        /** request body bytes sent. */
+        BYTES_OUT,
+        /** transport requests that opened a new connection. */
+        CONNECTIONS_OPENED,
+        /** transport requests sent on a pooled connection. */
+        CONNECTIONS_REUSED
+    }
+
+    public enum Gauge {
+        /** events held until a tracking id (or campaign id) is known. */
+        EVENTS_AWAITING_TRACKING_ID,
+        /** transport requests waiting to be sent. */
+        REQUESTS_QUEUED,
+        /** transport requests being sent. */
+        REQUESTS_IN_FLIGHT,
+        /** registrations sent without an answer yet. */
+        REGISTRATIONS_PENDING
+    }
+
+    public enum Histogram {
+        /** from trackEvent to the tracking API's response. */
+        EVENT_ENQUEUE_TO_ACK,
+        /** round trip of a single transport request. */
+        REQUEST_RTT,
+        /** dns lookup, when a request needs a new connection. */
+        HTTP_DNS,
+        /** tcp connect (including the tls handshake), when a request needs a new connection. */
+        HTTP_CONNECT,
+        /** tls handshake, when a request needs a new connection. */
+        HTTP_TLS,
+        /** from the request being written until the first byte of the response. */
+        HTTP_TIME_TO_FIRST_BYTE
+    }
+
+    /**
+     * For hosts exporting the metrics to their own telemetry.
+     */
+    public interface Listener {
+        /**
+         * called on the main thread after each request outcome.
+         */
+        void metricsUpdated(Snapshot snapshot);
+    }
+
+    private static final Counter[] COUNTERS = Counter.values();
+    private static final Gauge[] GAUGES = Gauge.values();
+    private static final Histogram[] HISTOGRAMS = Histogram.values();
+
+    private final AtomicLongArray counters = new AtomicLongArray(COUNTERS.length);
+    private final AtomicLongArray gauges = new AtomicLongArray(GAUGES.length);
+    private final LatencyHistogram[] histograms = new LatencyHistogram[HISTOGRAMS.length];
+
+    public MeasurementServiceMetrics() {
+        for (int index = 0; index < this.histograms.length; index++) {
+            this.histograms[index] = new LatencyHistogram();
+        }
+    }
+
+    public void increment(Counter counter) {
+        this.counters.incrementAndGet(counter.ordinal());
+    }
+
+    public void add(Counter counter, long amount) {
+        this.counters.addAndGet(counter.ordinal(), amount);
+    }
+
+    /**
+     * adjust a gauge by delta, so several queues can share it.
+     */
+    public void adjust(Gauge gauge, long delta) {
+        this.gauges.addAndGet(gauge.ordinal(), delta);
+    }
+
+    public void set(Gauge gauge, long value) {
+        this.gauges.set(gauge.ordinal(), value);
+    }
+
+    public void recordNanos(Histogram histogram, long nanos) {
+        this.histograms[histogram.ordinal()].recordNanos(nanos);
+    }
+
+    public Snapshot snapshot() {
+        long[] countervalues = new long[COUNTERS.length];
+        long[] gaugevalues = new long[GAUGES.length];
+        LatencyHistogram.Snapshot[] histogramsnapshots = new LatencyHistogram.Snapshot[HISTOGRAMS.length];
+
+        for (int index = 0; index < countervalues.length; index++) {
+            countervalues[index] = this.counters.get(index);
+        }
+
+        for (int index = 0; index < gaugevalues.length; index++) {
+            gaugevalues[index] = this.gauges.get(index);
+        }
+
+        for (int index = 0; index < histogramsnapshots.length; index++) {
+            histogramsnapshots[index] = this.histograms[index].snapshot();
+        }
+
+        return new Snapshot(System.currentTimeMillis(), countervalues, gaugevalues, histogramsnapshots);
+    }
+
+    /**
+     * Metric values at a point in time.
+     */
+    public static class Snapshot {
+
+        private final long takenAtMillis;
+        private final long[] counters;
+        private final long[] gauges;
+        private final LatencyHistogram.Snapshot[] histograms;
+
+        protected Snapshot(long takenAtMillis, long[] counters, long[] gauges, LatencyHistogram.Snapshot[] histograms) {
+            this.takenAtMillis = takenAtMillis;
+            this.counters = counters;
+            this.gauges = gauges;
+            this.histograms = histograms;
+        }
+
+        public long getTakenAtMillis() {
+            return this.takenAtMillis;
+        }
+
+        public long getCounter(Counter counter) {
+            return this.counters[counter.ordinal()];
+        }
+
+        public long getGauge(Gauge gauge) {
+            return this.gauges[gauge.ordinal()];
+        }
+
+        public LatencyHistogram.Snapshot getHistogram(Histogram histogram) {
+            return this.histograms[histogram.ordinal()];
+        }
+    }
+}
@@ -1,19 +1,14 @@
 package com.performancehorizon.measurementkit;
 
 import android.content.Context;
-import android.content.SharedPreferences;
-
-
 
 import com.performancehorizon.measurementkit.MeasurementService.MeasurementServiceStatus;
 
-import java.lang.ref.WeakReference;
-
 /**
  * Created by owainbrown on 15/01/16.
  */
 public class MeasurementServiceStorage {
-    private WeakReference<Context> context;
+    private MeasurementStateStore store;
 
     private  String mobileTrackingID;
     private boolean isTrackingInactive = false;
@@ -22,8 +17,13 @@ public class MeasurementServiceStorage {
     private  String camRef;
     private  String googlePlayReferrer;
 
+    //registration recovery
+    private long registrationAttempts = 0;
+    private long queryingSince = 0;
+
     public static void clearPreferences(Context context) {
-        SharedPreferences.Editor editor = context.getSharedPreferences(StorageConstants.TRACKING_PREF, Context.MODE_PRIVATE).edit();
+        MeasurementStateStore.Editor editor = MeasurementStateStoreFactory.getDefaultStateStoreFactory()
+                .getStateStore(context, StorageConstants.TRACKING_PREF).edit();
 
         editor.clear();
         editor.apply();
@@ -39,33 +39,36 @@ public class MeasurementServiceStorage {
         //query items
         protected final static String TRACKING_PREF_REFERRER = "com.performancehorizon.com.phnmmk.referrrer";
         protected final static String TRACKING_PREF_CAMREF = "com.performancehorizon.com.phnmmk.camref";
+
+        //registration recovery
+        protected final static String TRACKING_PREF_REGISTRATION_ATTEMPTS = "com.performancehorizon.mmk.registrationattempts";
+        protected final static String TRACKING_PREF_QUERYING_SINCE = "com.performancehorizon.mmk.queryingsince";
     }
 
     public MeasurementServiceStorage( Context context) {
-        this.context = new WeakReference<>(context);
+        this(context, MeasurementStateStoreFactory.getDefaultStateStoreFactory());
     }
 
-    private boolean contextAvailable() {
-        return this.context != null &&
-                this.context.get() != null;
+    public MeasurementServiceStorage( Context context, MeasurementStateStoreFactory storeFactory) {
+        this.store = storeFactory.getStateStore(context, StorageConstants.TRACKING_PREF);
     }
 
     public MeasurementServiceStatus loadFromPreferences() {
 
-        if (this.contextAvailable()) {
-            SharedPreferences preferences = this.context.get().getSharedPreferences(StorageConstants.TRACKING_PREF, Context.MODE_PRIVATE);
+        //id
+        this.mobileTrackingID = this.store.getString(StorageConstants.TRACKING_PREF_ID, null);
 
-            //id
-            this.mobileTrackingID = preferences.getString(StorageConstants.TRACKING_PREF_ID, null);
+        //activity
+        this.isTrackingInactive = this.store.getBoolean(StorageConstants.TRACKING_PREF_INACTIVE, false);
+        this.isTrackingHalted = this.store.getBoolean(StorageConstants.TRACKING_PREF_HALT, false);
 
-            //activity
-            this.isTrackingInactive = preferences.getBoolean(StorageConstants.TRACKING_PREF_INACTIVE, false);
-            this.isTrackingHalted = preferences.getBoolean(StorageConstants.TRACKING_PREF_HALT, false);
+        //queries.
+        this.camRef = this.store.getString(StorageConstants.TRACKING_PREF_CAMREF, null);
+        this.googlePlayReferrer = this.store.getString(StorageConstants.TRACKING_PREF_REFERRER, null);
 
-            //queries.
-            this.camRef = preferences.getString(StorageConstants.TRACKING_PREF_CAMREF, null);
-            this.googlePlayReferrer = preferences.getString(StorageConstants.TRACKING_PREF_REFERRER, null);
-        }
+        //registration recovery
+        this.registrationAttempts = this.store.getLong(StorageConstants.TRACKING_PREF_REGISTRATION_ATTEMPTS, 0);
+        this.queryingSince = this.store.getLong(StorageConstants.TRACKING_PREF_QUERYING_SINCE, 0);
 
         return this.status();
     }
@@ -73,87 +76,98 @@ public class MeasurementServiceStorage {
     public void putTrackingID(String trackingID) {
         this.mobileTrackingID = trackingID;
 
-        if (this.contextAvailable()) {
-            SharedPreferences.Editor prefeditor = this.context.get().getSharedPreferences(StorageConstants.TRACKING_PREF, Context.MODE_PRIVATE).edit();
+        MeasurementStateStore.Editor prefeditor = this.store.edit();
 
-            prefeditor.putString(StorageConstants.TRACKING_PREF_ID, trackingID);
-            prefeditor.putBoolean(StorageConstants.TRACKING_PREF_INACTIVE, false);
+        prefeditor.putString(StorageConstants.TRACKING_PREF_ID, trackingID);
+        prefeditor.putBoolean(StorageConstants.TRACKING_PREF_INACTIVE, false);
 
-            prefeditor.apply();
-        }
+        prefeditor.apply();
     }
 
     public void putTrackingInactive() {
         this.isTrackingInactive = true;
 
-        if (this.contextAvailable()) {
-            SharedPreferences.Editor prefeditor = this.context.get().getSharedPreferences(StorageConstants.TRACKING_PREF, Context.MODE_PRIVATE).edit();
+        MeasurementStateStore.Editor prefeditor = this.store.edit();
 
-            prefeditor.putBoolean(StorageConstants.TRACKING_PREF_INACTIVE, true);
-            prefeditor.apply();
-        }
+        prefeditor.putBoolean(StorageConstants.TRACKING_PREF_INACTIVE, true);
+        prefeditor.apply();
     }
 
     public void putHalted(boolean isTrackingHalted) {
         this.isTrackingHalted = isTrackingHalted;
 
-        if (this.contextAvailable()) {
-            SharedPreferences.Editor prefeditor = this.context.get().getSharedPreferences(StorageConstants.TRACKING_PREF, Context.MODE_PRIVATE).edit();
+        MeasurementStateStore.Editor prefeditor = this.store.edit();
 
-            prefeditor.putBoolean(StorageConstants.TRACKING_PREF_HALT, isTrackingHalted);
-            prefeditor.apply();
-        }
+        prefeditor.putBoolean(StorageConstants.TRACKING_PREF_HALT, isTrackingHalted);
+        prefeditor.apply();
     }
 
     public void putCamrefQuery(String camRef) {
         this.camRef = camRef;
 
-        if (this.contextAvailable()) {
-            SharedPreferences.Editor prefeditor = this.context.get().getSharedPreferences(StorageConstants.TRACKING_PREF, Context.MODE_PRIVATE).edit();
+        MeasurementStateStore.Editor prefeditor = this.store.edit();
 
-            prefeditor.putString(StorageConstants.TRACKING_PREF_CAMREF, camRef);
-            prefeditor.apply();
-        }
+        prefeditor.putString(StorageConstants.TRACKING_PREF_CAMREF, camRef);
+        prefeditor.apply();
     }
 
     public void putReferrerQuery(String referrer) {
         this.googlePlayReferrer = referrer;
 
-        if (this.contextAvailable()) {
-            SharedPreferences.Editor prefeditor = this.context.get().getSharedPreferences(StorageConstants.TRACKING_PREF, Context.MODE_PRIVATE).edit();
+        MeasurementStateStore.Editor prefeditor = this.store.edit();
 
-            prefeditor.putString(StorageConstants.TRACKING_PREF_REFERRER, referrer);
-            prefeditor.apply();
-        }
+        prefeditor.putString(StorageConstants.TRACKING_PREF_REFERRER, referrer);
+        prefeditor.apply();
     }
 
     protected void clearPreferences() {
-        if (this.contextAvailable()) {
-            SharedPreferences.Editor editor = this.context.get().getSharedPreferences(StorageConstants.TRACKING_PREF, Context.MODE_PRIVATE).edit();
+        MeasurementStateStore.Editor editor = this.store.edit();
 
-            editor.clear();
-            editor.apply();
-        }
+        editor.clear();
+        editor.apply();
     }
 
     public void clearCamref() {
         this.camRef = null;
 
-        if (this.contextAvailable()) {
-            SharedPreferences.Editor prefeditor = this.context.get().getSharedPreferences(StorageConstants.TRACKING_PREF, Context.MODE_PRIVATE).edit();
-            prefeditor.remove(StorageConstants.TRACKING_PREF_CAMREF);
-            prefeditor.apply();
-        }
+        MeasurementStateStore.Editor prefeditor = this.store.edit();
+        prefeditor.remove(StorageConstants.TRACKING_PREF_CAMREF);
+        prefeditor.apply();
     }
 
     public void clearReferrer() {
         this.googlePlayReferrer = null;
 
-        if (this.contextAvailable()) {
-            SharedPreferences.Editor prefeditor = this.context.get().getSharedPreferences(StorageConstants.TRACKING_PREF, Context.MODE_PRIVATE).edit();
-            prefeditor.remove(StorageConstants.TRACKING_PREF_REFERRER);
-            prefeditor.apply();
-        }
+        MeasurementStateStore.Editor prefeditor = this.store.edit();
+        prefeditor.remove(StorageConstants.TRACKING_PREF_REFERRER);
+        prefeditor.apply();
+    }
+
+    public void putRegistrationAttempts(long registrationAttempts) {
+        this.registrationAttempts = registrationAttempts;
+
+        MeasurementStateStore.Editor prefeditor = this.store.edit();
+        prefeditor.putLong(StorageConstants.TRACKING_PREF_REGISTRATION_ATTEMPTS, registrationAttempts);
+        prefeditor.apply();
+    }
+
+    /**
+     * @param queryingSince wall clock time the service started querying, or 0 when it isn't.
+     */
+    public void putQueryingSince(long queryingSince) {
+        this.queryingSince = queryingSince;
+
+        MeasurementStateStore.Editor prefeditor = this.store.edit();
+        prefeditor.putLong(StorageConstants.TRACKING_PREF_QUERYING_SINCE, queryingSince);
+        prefeditor.apply();
+    }
+
+    public long getRegistrationAttempts() {
+        return this.registrationAttempts;
+    }
+
+    public long getQueryingSince() {
+        return this.queryingSince;
     }
 
     public  String getTrackingID() {
@@ -1,7 +1,5 @@
 package com.performancehorizon.measurementkit;
 
-import java.net.URLEncoder;
-import java.nio.charset.Charset;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -14,14 +12,7 @@ import android.net.Uri;
  */
 public class MeasurementServiceURIBuilder {
 
-    protected static class UriBuilderFactory {
-        protected UriBuilderWrapper getBuilder() {
-            return new UriBuilderWrapper(new Uri.Builder());
-        }
-    }
-
      private TrackingURLHelper helper;
-     private UriBuilderFactory factory;
 
      private String camref;
      private Uri destination;
@@ -31,14 +22,9 @@ public class MeasurementServiceURIBuilder {
 
     private boolean skipDeepLink = false;
 
-    protected MeasurementServiceURIBuilder( TrackingURLHelper helper,  UriBuilderFactory factory) {
+    public MeasurementServiceURIBuilder(TrackingURLHelper helper) {
         this.helper = helper;
         this.aliases = new HashMap<>();
-        this.factory = factory;
-    }
-
-    public MeasurementServiceURIBuilder(TrackingURLHelper helper) {
-        this(helper, new UriBuilderFactory());
     }
 
     public boolean isValid() {
@@ -47,37 +33,34 @@ public class MeasurementServiceURIBuilder {
     }
 
     public Uri build() {
-        if (!this.isValid())  {
+        String link = this.buildString();
+        return (link != null) ? Uri.parse(link) : null;
+    }
+
+    /**
+     * @return the tracking link as a string (built without android.net.Uri), or null if it is not valid.
+     */
+    protected String buildString() {
+        if (!this.isValid()) {
             return null;
         }
-        else {
-            try {
-                UriBuilderWrapper builder = factory.getBuilder();
-
-                builder.scheme(helper.scheme())
-                        .authority(helper.hostForMobileTracking())
-                        .appendPath("click")
-                        .appendEncodedPath("camref:" + camref)
-                        .appendEncodedPath("destination:" + URLEncoder.encode(destination.toString(), Charset.defaultCharset().name()));
-
-                for (Map.Entry<String, String> alias : aliases.entrySet()) {
-                    builder.appendQueryParameter(alias.getKey(), alias.getValue());
-                }
-
-                if (this.shouldSkipDeepLink() && deeplink != null) {
-                    builder.appendQueryParameter("skip_deep_link", "true");
-                }
-
-                if (this.deeplink != null) {
-                    builder.appendQueryParameter("deep_link", deeplink.toString());
-                }
-
-                return builder.build();
-            }
-            catch(Exception exception) {
-                return null;
-            }
+
+        TrackingLink.Builder builder = new TrackingLink.Builder(helper.scheme(), helper.hostForMobileTracking())
+                .appendClickPath(camref, destination.toString());
+
+        for (Map.Entry<String, String> alias : aliases.entrySet()) {
+            builder.appendQueryParameter(alias.getKey(), alias.getValue());
+        }
+
+        if (this.shouldSkipDeepLink() && deeplink != null) {
+            builder.appendQueryParameter(TrackingLink.SKIP_DEEP_LINK_QUERY_PARAM, "true");
+        }
+
+        if (this.deeplink != null) {
+            builder.appendQueryParameter(TrackingLink.DEEP_LINK_QUERY_PARAM, deeplink.toString());
         }
+
+        return builder.build();
     }
 
     public MeasurementServiceURIBuilder setCamref( String camref) {
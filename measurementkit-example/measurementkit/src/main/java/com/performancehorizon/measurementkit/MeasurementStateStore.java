@@ -0,0 +1,31 @@
+package com.performancehorizon.measurementkit;
+
+/**
+ * Key/value persistence for the measurement service state.
+ *
+ * Mirrors the subset of {@link android.content.SharedPreferences} the service uses, so the backing storage
+ * (shared preferences or the binary snapshot) can be swapped without touching the callers.
+ *
+ * @see MeasurementStateStoreFactory
+ */
+public interface MeasurementStateStore {
+
+    String getString(String key, String defaultValue);
+    boolean getBoolean(String key, boolean defaultValue);
+    long getLong(String key, long defaultValue);
+
+    Editor edit();
+
+    /**
+     * batch of changes to a store.  Changes are visible to readers once applied, and are persisted asynchronously.
+     */
+    interface Editor {
+        Editor putString(String key, String value);
+        Editor putBoolean(String key, boolean value);
+        Editor putLong(String key, long value);
+        Editor remove(String key);
+        Editor clear();
+
+        void apply();
+    }
+}
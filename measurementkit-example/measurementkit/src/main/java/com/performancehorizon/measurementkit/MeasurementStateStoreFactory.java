@@ -0,0 +1,36 @@
+package com.performancehorizon.measurementkit;
+
+import android.content.Context;
+
+/**
+ * Provides the {@link MeasurementStateStore} backing the measurement service storage and referrer tracker.
+ *
+ * Shared preferences are used unless the binary snapshot has been enabled in the {@link MeasurementServiceConfiguration}.
+ */
+public class MeasurementStateStoreFactory {
+
+    private static MeasurementStateStoreFactory defaultStateStoreFactory = new MeasurementStateStoreFactory(false);
+
+    private boolean useBinarySnapshot;
+
+    public MeasurementStateStoreFactory(boolean useBinarySnapshot) {
+        this.useBinarySnapshot = useBinarySnapshot;
+    }
+
+    public MeasurementStateStore getStateStore(Context context, String name) {
+        if (this.useBinarySnapshot && context != null) {
+            return BinaryStateStore.open(context, name);
+        }
+        else {
+            return new SharedPreferencesStateStore(context, name);
+        }
+    }
+
+    public static synchronized void setDefaultStateStoreFactory(MeasurementStateStoreFactory factory) {
+        defaultStateStoreFactory = factory;
+    }
+
+    public static synchronized MeasurementStateStoreFactory getDefaultStateStoreFactory() {
+        return defaultStateStoreFactory;
+    }
+}
@@ -0,0 +1,39 @@
+package com.performancehorizon.measurementkit;
+
+/**
+ * The heap held by queued events before and after {@link MeasurementService#releaseMemory()}, counted as the bytes
+ * of their request bodies.
+ */
+public class MemoryPressureReport {
+
+    private final long heapBytesBefore;
+    private final long heapBytesAfter;
+    private final int requestsSpilled;
+
+    protected MemoryPressureReport(long heapBytesBefore, long heapBytesAfter, int requestsSpilled) {
+        this.heapBytesBefore = heapBytesBefore;
+        this.heapBytesAfter = heapBytesAfter;
+        this.requestsSpilled = requestsSpilled;
+    }
+
+    public long getHeapBytesBefore() {
+        return this.heapBytesBefore;
+    }
+
+    public long getHeapBytesAfter() {
+        return this.heapBytesAfter;
+    }
+
+    /**
+     * @return the number of queued requests moved to disk.
+     */
+    public int getRequestsSpilled() {
+        return this.requestsSpilled;
+    }
+
+    @Override
+    public String toString() {
+        return this.heapBytesBefore + " bytes queued on the heap before, " + this.heapBytesAfter + " after, " +
+                this.requestsSpilled + " requests spilled";
+    }
+}
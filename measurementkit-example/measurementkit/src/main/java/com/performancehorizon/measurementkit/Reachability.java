@@ -2,44 +2,347 @@ package com.performancehorizon.measurementkit;
 
 import android.annotation.TargetApi;
 import android.net.ConnectivityManager;
+import android.net.Network;
+import android.net.NetworkCapabilities;
 import android.net.NetworkInfo;
+import android.net.NetworkRequest;
 import android.os.Build;
 
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+
+import bolts.Task;
+
 
 /**
  * Created by owainbrown on 18/03/15.
  *
+ * Keeps the state of the default network, so reads are a field read rather than a call to the ConnectivityManager.
+ * On API 21+ the state is taken from network callbacks - from the network and capabilities they're given, as the
+ * ConnectivityManager's active network may not have caught up when they're called.  Below that (with no context to
+ * listen for connectivity broadcasts) it's read from the ConnectivityManager on read, once it's more than STALE_NANOS
+ * old.  Changes are passed to the callback on the main thread.
  */
 public class Reachability {
 
-    private ReachabilityCallback callback;
+    protected static final long STALE_NANOS = 5 * 1000000000L;
+
+    public enum Transport {
+        NONE,
+        WIFI,
+        CELLULAR,
+        ETHERNET,
+        OTHER
+    }
+
+    /**
+     * The state of the default network at a point in time.
+     */
+    public static class NetworkState {
+
+        public static final NetworkState DISCONNECTED = new NetworkState(false, false, Transport.NONE);
+
+        private final boolean connected;
+        private final boolean metered;
+        private final Transport transport;
+
+        protected NetworkState(boolean connected, boolean metered, Transport transport) {
+            this.connected = connected;
+            this.metered = metered;
+            this.transport = transport;
+        }
+
+        public boolean isConnected() {
+            return this.connected;
+        }
+
+        public boolean isMetered() {
+            return this.metered;
+        }
+
+        public Transport getTransport() {
+            return this.transport;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof NetworkState)) {
+                return false;
+            }
+
+            NetworkState state = (NetworkState)other;
+
+            return this.connected == state.connected && this.metered == state.metered &&
+                    this.transport == state.transport;
+        }
 
+        @Override
+        public int hashCode() {
+            return (this.connected ? 1 : 0) + (this.metered ? 2 : 0) + 4 * this.transport.ordinal();
+        }
+
+        @Override
+        public String toString() {
+            return this.connected ? this.transport + (this.metered ? " (metered)" : "") : "disconnected";
+        }
+    }
+
+    private ReachabilityCallback callback;
 
     private ConnectivityManager connectivityManager;
+    private final Executor callbackExecutor;
+
+    private volatile NetworkState state;
+    private volatile long refreshedNanos;
+    //whether callbacks keep the state current.
+    private volatile boolean listening = false;
+    //the network the state was last taken from by a callback - guarded by this.
+    private Network network;
+    //kept to unregister on stop.
+    private ConnectivityManager.OnNetworkActiveListener activeListener;
+    private ConnectivityManager.NetworkCallback networkCallback;
 
-    @TargetApi(21)
     public Reachability( ConnectivityManager connectivity, final ReachabilityCallback callback)
+    {
+        this(connectivity, callback, Task.UI_THREAD_EXECUTOR);
+    }
+
+    @TargetApi(21)
+    protected Reachability(ConnectivityManager connectivity, final ReachabilityCallback callback,
+                           Executor callbackExecutor)
     {
         this.callback= callback;
         this.connectivityManager = connectivity;
+        this.callbackExecutor = callbackExecutor;
+
+        this.state = this.readNetworkState();
+        this.refreshedNanos = this.nanoTime();
 
         if (connectivity != null && android.os.Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
-            connectivity.addDefaultNetworkActiveListener(new ConnectivityManager.OnNetworkActiveListener() {
+            this.activeListener = new ConnectivityManager.OnNetworkActiveListener() {
                 @Override
                 public void onNetworkActive() {
-                    callback.onNetworkActive();
+                    if (callback != null) {
+                        callback.onNetworkActive();
+                    }
                 }
-            });
+            };
+
+            connectivity.addDefaultNetworkActiveListener(this.activeListener);
+
+            this.registerNetworkCallback(connectivity);
         }
     }
 
+    @TargetApi(24)
+    private void registerNetworkCallback(ConnectivityManager connectivity) {
+        ConnectivityManager.NetworkCallback networkcallback = new ConnectivityManager.NetworkCallback() {
+            @Override
+            public void onAvailable(Network network) {
+                //the capabilities follow (from API 26 always), if they can't be had now.
+                Reachability.this.networkChanged(network, Reachability.this.connectivityManager.getNetworkCapabilities(network));
+            }
+
+            @Override
+            public void onLost(Network network) {
+                Reachability.this.networkLost(network);
+            }
+
+            @Override
+            public void onCapabilitiesChanged(Network network, NetworkCapabilities capabilities) {
+                Reachability.this.networkChanged(network, capabilities);
+            }
+        };
+
+        try {
+            if (android.os.Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
+                connectivity.registerDefaultNetworkCallback(networkcallback);
+            }
+            else {
+                connectivity.registerNetworkCallback(new NetworkRequest.Builder()
+                        .addCapability(NetworkCapabilities.NET_CAPABILITY_INTERNET)
+                        .build(), networkcallback);
+            }
+        }
+        catch (SecurityException securityexception) {
+            //android 6.0.0 wrongly requires CHANGE_NETWORK_STATE for this - fall back to refreshing on read.
+            MeasurementServiceLog.w("Reachability - could not register for network callbacks, polling instead.");
+            this.listening = false;
+            return;
+        }
+
+        this.networkCallback = networkcallback;
+        this.listening = true;
+    }
+
+    /**
+     * stop listening for network changes.  The state is still refreshed on read, as it is below API 21.
+     */
+    @TargetApi(21)
+    public void stop() {
+        if (this.activeListener != null) {
+            this.connectivityManager.removeDefaultNetworkActiveListener(this.activeListener);
+            this.activeListener = null;
+        }
+
+        if (this.networkCallback != null) {
+            try {
+                this.connectivityManager.unregisterNetworkCallback(this.networkCallback);
+            }
+            catch (IllegalArgumentException notregistered) {
+                //already gone.
+            }
+
+            this.networkCallback = null;
+        }
+
+        this.listening = false;
+    }
+
+    /**
+     * @return whether there's a connected (or connecting) network.  Doesn't call the ConnectivityManager while
+     * the state is maintained by callbacks.
+     */
     public boolean isNetworkActive() {
+        return this.getNetworkState().isConnected();
+    }
+
+    /**
+     * @return the state of the default network, as last seen.
+     */
+    public NetworkState getNetworkState() {
+        if (!this.listening && this.nanoTime() - this.refreshedNanos >= STALE_NANOS) {
+            this.refresh();
+        }
+
+        return this.state;
+    }
+
+    /**
+     * re-read the network state, telling the callback if it's changed.
+     */
+    protected void refresh() {
+        this.update(this.readNetworkState());
+    }
+
+    //the default network (or, before API 24, a network with internet) is up, or has changed.
+    @TargetApi(21)
+    private void networkChanged(Network network, NetworkCapabilities capabilities) {
+        synchronized (this) {
+            this.network = network;
+        }
+
+        this.update(stateFrom(capabilities));
+    }
+
+    @TargetApi(21)
+    private void networkLost(Network network) {
+        synchronized (this) {
+            //before API 24, one of several networks may go - only the one in use matters.
+            if (this.network != null && !this.network.equals(network)) {
+                return;
+            }
+
+            this.network = null;
+        }
+
+        this.update(NetworkState.DISCONNECTED);
+    }
+
+    private void update(NetworkState latest) {
+        NetworkState previous;
+
+        synchronized (this) {
+            previous = this.state;
+            this.state = latest;
+            this.refreshedNanos = this.nanoTime();
+        }
+
+        if (!latest.equals(previous)) {
+            MeasurementServiceLog.d("Reachability - network {}", latest);
+
+            this.notifyStateChanged(latest);
+        }
+    }
 
-        if (connectivityManager == null) return false;
+    private void notifyStateChanged(final NetworkState latest) {
+        final ReachabilityCallback callback = this.callback;
 
-        NetworkInfo networkinfo = connectivityManager.getActiveNetworkInfo();
+        if (callback == null) {
+            return;
+        }
+
+        Task.call(new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                callback.onNetworkStateChanged(latest);
+                return null;
+            }
+        }, this.callbackExecutor);
+    }
+
+    @TargetApi(16)
+    private NetworkState readNetworkState() {
+        if (this.connectivityManager == null) {
+            return NetworkState.DISCONNECTED;
+        }
+
+        NetworkInfo networkinfo = this.connectivityManager.getActiveNetworkInfo();
+
+        if (networkinfo == null || !networkinfo.isConnectedOrConnecting()) {
+            return NetworkState.DISCONNECTED;
+        }
+
+        Transport transport;
+
+        switch (networkinfo.getType()) {
+            case ConnectivityManager.TYPE_WIFI:
+                transport = Transport.WIFI;
+                break;
+            case ConnectivityManager.TYPE_MOBILE:
+                transport = Transport.CELLULAR;
+                break;
+            case ConnectivityManager.TYPE_ETHERNET:
+                transport = Transport.ETHERNET;
+                break;
+            default:
+                transport = Transport.OTHER;
+        }
+
+        boolean metered = (android.os.Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) ?
+                this.connectivityManager.isActiveNetworkMetered() : transport == Transport.CELLULAR;
+
+        return new NetworkState(true, metered, transport);
+    }
+
+    @TargetApi(21)
+    private static NetworkState stateFrom(NetworkCapabilities capabilities) {
+        //not known yet - connected, and taken as metered until the capabilities say otherwise.
+        if (capabilities == null) {
+            return new NetworkState(true, true, Transport.OTHER);
+        }
+
+        Transport transport;
+
+        if (capabilities.hasTransport(NetworkCapabilities.TRANSPORT_WIFI)) {
+            transport = Transport.WIFI;
+        }
+        else if (capabilities.hasTransport(NetworkCapabilities.TRANSPORT_CELLULAR)) {
+            transport = Transport.CELLULAR;
+        }
+        else if (capabilities.hasTransport(NetworkCapabilities.TRANSPORT_ETHERNET)) {
+            transport = Transport.ETHERNET;
+        }
+        else {
+            transport = Transport.OTHER;
+        }
+
+        return new NetworkState(true, !capabilities.hasCapability(NetworkCapabilities.NET_CAPABILITY_NOT_METERED),
+                transport);
+    }
 
-        return (networkinfo != null) && networkinfo.isConnectedOrConnecting();
+    protected long nanoTime() {
+        return System.nanoTime();
     }
 
     protected ReachabilityCallback getCallback() {
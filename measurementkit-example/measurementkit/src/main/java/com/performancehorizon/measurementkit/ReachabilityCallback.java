@@ -5,4 +5,10 @@ package com.performancehorizon.measurementkit;
  */
 public interface ReachabilityCallback {
     public void onNetworkActive();
+
+    /**
+     * the default network changed - connected or lost, or its transport or metering changed.  Called on the main thread.
+     * @param state the new state.
+     */
+    public void onNetworkStateChanged(Reachability.NetworkState state);
 }
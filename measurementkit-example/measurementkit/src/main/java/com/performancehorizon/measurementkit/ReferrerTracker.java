@@ -39,7 +39,7 @@ public class ReferrerTracker extends BroadcastReceiver{
 
                     if (querydecoder.hasParameter(REFERER_KEY)) {
                         MeasurementServiceLog.d("Referrer Tracker - recovered install referrer");
-                        context.getSharedPreferences(REFERER_PREFS, Context.MODE_PRIVATE).edit().putString(REFERER_KEY, querydecoder.getValue(REFERER_KEY)).apply();
+                        this.putReferrer(context, querydecoder.getValue(REFERER_KEY));
                     }
                     else {
                         MeasurementServiceLog.d("Referrer Tracker - referrer missing PHN reference parameter");
@@ -61,14 +61,18 @@ public class ReferrerTracker extends BroadcastReceiver{
 
     public String getReferrer(Context context)
     {
-        return context.getSharedPreferences(REFERER_PREFS, Context.MODE_PRIVATE).getString(REFERER_KEY, null);
+        return this.stateStore(context).getString(REFERER_KEY, null);
     }
 
     protected void clearReferrer(Context context) {
-        context.getSharedPreferences(REFERER_PREFS, Context.MODE_PRIVATE).edit().clear().apply();
+        this.stateStore(context).edit().clear().apply();
     }
 
     protected void putReferrer(Context context, String referrer) {
-        context.getSharedPreferences(REFERER_PREFS, Context.MODE_PRIVATE).edit().putString(REFERER_KEY, referrer).apply();
+        this.stateStore(context).edit().putString(REFERER_KEY, referrer).apply();
+    }
+
+    private MeasurementStateStore stateStore(Context context) {
+        return MeasurementStateStoreFactory.getDefaultStateStoreFactory().getStateStore(context, REFERER_PREFS);
     }
 }
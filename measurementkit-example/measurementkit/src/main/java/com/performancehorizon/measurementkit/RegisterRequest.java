@@ -19,6 +19,9 @@ public class RegisterRequest {
     private String androidAdvertisingIdentifier;
     private boolean installed = false;
 
+    //assigned when first queued, and kept for any retry of the same request.
+    private String correlationID;
+
     public RegisterRequest( Context context) {
         this(context, true);
     }
@@ -50,7 +53,7 @@ public class RegisterRequest {
                     //please note, as we're only using the advertising for attribution, we don't consult the limit ad tracking setting.
                 }
             } catch (Exception failedaaid) {
-                MeasurementServiceLog.d("Register Request - Retrieval of advertising identifier failed with exception: " + failedaaid.toString());
+                MeasurementServiceLog.d("Register Request - Retrieval of advertising identifier failed with exception: {}", failedaaid);
             }
         }
     }
@@ -114,4 +117,10 @@ public class RegisterRequest {
     public String getAndroidAdvertisingIdentifier() {return androidAdvertisingIdentifier;};
 
     public boolean getInstalled() {return installed;}
+
+    public String getCorrelationID() {return correlationID;}
+
+    protected void setCorrelationID(String correlationID) {
+        this.correlationID = correlationID;
+    }
 }
@@ -7,8 +7,13 @@ import android.util.Log;
 import org.json.JSONObject;
 
 import java.lang.ref.WeakReference;
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.TimeoutException;
 
 
 /**
@@ -16,13 +21,29 @@ import java.util.Map;
  */
 public class RegisterRequestQueue implements TrackingRequestQueueDelegate {
 
+    //registrations in flight are few - anything beyond these bounds has been abandoned by the transport.
+    protected static final int MAX_PENDING_REQUESTS = 16;
+    protected static final long PENDING_REQUEST_TIMEOUT_MILLIS = 60 * 60 * 1000;
+
+    private static class PendingRequest {
+        final RegisterRequest request;
+        final long queuedAtMillis;
+
+        PendingRequest(RegisterRequest request, long queuedAtMillis) {
+            this.request = request;
+            this.queuedAtMillis = queuedAtMillis;
+        }
+    }
+
      private TrackingRequestFactory factory;
      private TrackingRequestQueue requestQueue;
      private TrackingURLHelper urlHelper;
-     private Map<TrackingRequest, RegisterRequest> requests;
+     //correlation id -> pending registration, oldest first.
+     private LinkedHashMap<String, PendingRequest> requests;
      private RegisterRequestJSONFactory jsonFactory;
 
      private WeakReference<RegisterRequestQueueDelegate> delegate;
+     private MeasurementServiceMetrics metrics = new MeasurementServiceMetrics();
 
     protected static class RegisterRequestJSONFactory {
 
@@ -39,9 +60,11 @@ public class RegisterRequestQueue implements TrackingRequestQueueDelegate {
 
         this.requestQueue = queue;
         this.requestQueue.setDelegate(this);
+        //a failed registration goes straight back to the delegate, whose recovery scheduler paces (and caps) retries.
+        this.requestQueue.setMaxAttempts(1);
         this.factory = factory;
         this.urlHelper = urlHelper;
-        this.requests = new HashMap<>();
+        this.requests = new LinkedHashMap<>();
         this.jsonFactory = jsonfactory;
     }
 
@@ -56,11 +79,31 @@ public class RegisterRequestQueue implements TrackingRequestQueueDelegate {
         this.requestQueue.setQueueIsPaused(isPaused);
     }
 
+    /**
+     * stop sending registrations - see {@link TrackingRequestQueue#shutdown()}.
+     * @return the number of registrations queued, and not sent.
+     */
+    public int shutdown() {
+        return this.requestQueue.shutdown().size();
+    }
+
+    protected boolean isRequestActive() {
+        return this.requestQueue.isRequestActive();
+    }
+
     public void setDelegate(RegisterRequestQueueDelegate delegate)
     {
         this.delegate = new WeakReference<>(delegate);
     }
 
+    /**
+     * @param metrics metrics to record into, shared with the transport queue.
+     */
+    public void setMetrics(MeasurementServiceMetrics metrics) {
+        this.metrics = metrics;
+        this.requestQueue.setMetrics(metrics);
+    }
+
     public void addRegisterRequest(RegisterRequest request) {
 
         RegisterRequestJSONBuilder requestbuilder = this.jsonFactory.jsonBuilder();
@@ -68,10 +111,35 @@ public class RegisterRequestQueue implements TrackingRequestQueueDelegate {
         JSONObject requestjson = requestbuilder.setRequest(request).build();
 
         if (requestjson != null) {
-            TrackingRequest transportrequest = factory.getRequest(this.urlHelper.urlStringForTracking() + "/register", requestjson);
+            TrackingEndpoints.Endpoint endpoint = this.urlHelper.selectEndpoint();
+            TrackingRequest transportrequest = factory.getRequest(endpoint.getRegisterUrl(), requestjson);
+            transportrequest.setEndpoint(endpoint);
+
+            //a retried request keeps its correlation id, and so replaces its own entry.
+            String correlationid = request.getCorrelationID();
+
+            if (correlationid == null) {
+                correlationid = EventIDGenerator.getDefault().nextID().toString();
+                request.setCorrelationID(correlationid);
+            }
+            else {
+                this.metrics.increment(MeasurementServiceMetrics.Counter.REGISTRATIONS_RETRIED);
+            }
+
+            transportrequest.setTag(correlationid);
+
+            List<RegisterRequest> expired;
 
-            this.requests.put(transportrequest, request);
+            synchronized (this.requests) {
+                this.requests.remove(correlationid);
+                this.requests.put(correlationid, new PendingRequest(request, this.monotonicMillis()));
+                expired = this.removeExpiredRequests();
+                this.metrics.set(MeasurementServiceMetrics.Gauge.REGISTRATIONS_PENDING, this.requests.size());
+            }
+
+            this.removeExpiredTransport(expired);
             this.requestQueue.enqueueRequest(transportrequest);
+            this.notifyExpired(expired);
         }
         else
         {
@@ -81,28 +149,139 @@ public class RegisterRequestQueue implements TrackingRequestQueueDelegate {
 
     @Override
     public void requestQueueDidCompleteRequest(TrackingRequestQueue queue,  TrackingRequest request, String result) {
-        if (this.delegate != null && this.delegate.get() != null) {
+        RegisterRequest registerrequest = this.takeRequest(request);
 
-            RegisterRequest registerrequest = this.requests.get(request);
-
-            if (registerrequest != null) {
-                this.requests.remove(request);
-                this.delegate.get().registerRequestQueueDidComplete(this, registerrequest, result);
-            }
+        if (registerrequest != null && this.delegate != null && this.delegate.get() != null) {
+            this.delegate.get().registerRequestQueueDidComplete(this, registerrequest, result);
         }
     }
 
     @Override
     public void requestQueueErrorOnRequest(TrackingRequestQueue queue, TrackingRequest request, Exception error) {
+        RegisterRequest registerrequest = this.takeRequest(request);
+
         if (this.delegate != null && this.delegate.get() != null) {
+            this.delegate.get().registerRequestQueueDidError(this, registerrequest, error);
+        }
+    }
 
-            RegisterRequest registerrequest = this.requests.get(request);
+    /**
+     * remove and return the registration a transport request was made for.
+     * @param request the finished transport request
+     * @return the registration, or null if it is unknown or has expired.
+     */
+    private RegisterRequest takeRequest(TrackingRequest request) {
+        Object correlationid = request.getTag();
+        PendingRequest pending = null;
 
-            this.delegate.get().registerRequestQueueDidError(this, registerrequest, error);
+        if (correlationid != null) {
+            synchronized (this.requests) {
+                pending = this.requests.remove(correlationid);
+                this.metrics.set(MeasurementServiceMetrics.Gauge.REGISTRATIONS_PENDING, this.requests.size());
+            }
+        }
+
+        if (pending == null) {
+            MeasurementServiceLog.d("Register Request Queue - response for unknown or expired registration {} ignored.", correlationid);
+            return null;
+        }
+
+        return pending.request;
+    }
+
+    /**
+     * drop registrations that have waited too long for a response, reporting each to the delegate as failed (with a
+     * TimeoutException), so registration can be retried.
+     */
+    public void expirePendingRequests() {
+        List<RegisterRequest> expired;
+
+        synchronized (this.requests) {
+            expired = this.removeExpiredRequests();
+            this.metrics.set(MeasurementServiceMetrics.Gauge.REGISTRATIONS_PENDING, this.requests.size());
+        }
+
+        this.removeExpiredTransport(expired);
+        this.notifyExpired(expired);
+    }
+
+    protected boolean hasPendingRequests() {
+        synchronized (this.requests) {
+            return !this.requests.isEmpty();
+        }
+    }
+
+    //an expired registration still queued would only be ignored when answered - and hold up those behind it.
+    private void removeExpiredTransport(List<RegisterRequest> expired) {
+        if (expired.isEmpty()) {
+            return;
+        }
+
+        List<String> correlationids = new ArrayList<>(expired.size());
+
+        for (RegisterRequest request : expired) {
+            correlationids.add(request.getCorrelationID());
+        }
+
+        this.requestQueue.removeRequestsTagged(correlationids);
+    }
+
+    private void notifyExpired(List<RegisterRequest> expired) {
+        RegisterRequestQueueDelegate delegate = (this.delegate != null) ? this.delegate.get() : null;
+
+        if (delegate == null) {
+            return;
+        }
+
+        for (RegisterRequest request : expired) {
+            delegate.registerRequestQueueDidError(this, request,
+                    new TimeoutException("registration " + request.getCorrelationID() + " expired"));
         }
     }
 
-    protected Map<TrackingRequest, RegisterRequest> getRequests() {
-        return this.requests;
+    //call holding the requests lock.
+    private List<RegisterRequest> removeExpiredRequests() {
+        long expiredbefore = this.monotonicMillis() - PENDING_REQUEST_TIMEOUT_MILLIS;
+        Iterator<Map.Entry<String, PendingRequest>> pending = this.requests.entrySet().iterator();
+        List<RegisterRequest> expired = null;
+
+        //oldest first, so stop at the first entry that is both in date and within bounds.
+        while (pending.hasNext()) {
+            Map.Entry<String, PendingRequest> oldest = pending.next();
+
+            if (this.requests.size() > MAX_PENDING_REQUESTS || oldest.getValue().queuedAtMillis < expiredbefore) {
+                MeasurementServiceLog.d("Register Request Queue - registration {} expired.", oldest.getKey());
+                pending.remove();
+
+                if (expired == null) {
+                    expired = new ArrayList<>();
+                }
+
+                expired.add(oldest.getValue().request);
+            }
+            else {
+                break;
+            }
+        }
+
+        return (expired != null) ? expired : Collections.<RegisterRequest>emptyList();
+    }
+
+    //milliseconds from an arbitrary origin - for intervals only, unaffected by changes to the wall clock.
+    protected long monotonicMillis() {
+        return System.nanoTime() / 1000000L;
+    }
+
+    protected int getPendingRequestCount() {
+        synchronized (this.requests) {
+            return this.requests.size();
+        }
+    }
+
+    protected RegisterRequest getPendingRequest(String correlationID) {
+        synchronized (this.requests) {
+            PendingRequest pending = this.requests.get(correlationID);
+            return (pending != null) ? pending.request : null;
+        }
     }
 }
@@ -0,0 +1,200 @@
+package com.performancehorizon.measurementkit;
+
+import java.util.Random;
+import java.util.concurrent.Executor;
+
+import bolts.CancellationTokenSource;
+import bolts.Continuation;
+import bolts.Task;
+
+/**
+ * Retries failed registrations, so a service left querying recovers without waiting for the app to initialise again.
+ *
+ * Retries back off exponentially (with jitter), wait for the network, and stop after {@link #MAX_ATTEMPTS} failures.
+ * The attempt count is persisted in {@link MeasurementServiceStorage}, so the backoff and cap carry across launches
+ * until a registration is answered.  Also records how long the service has been querying.
+ */
+public class RegistrationRecoveryScheduler {
+
+    protected static final long BASE_DELAY_MILLIS = 30 * 1000;
+    protected static final long MAX_DELAY_MILLIS = 60 * 60 * 1000;
+    protected static final int MAX_ATTEMPTS = 10;
+
+    public interface Callback {
+        /**
+         * a registration should be attempted now.  Called on the callback executor (the main thread by default).
+         */
+        void registrationRecoveryDue(RegistrationRecoveryScheduler scheduler);
+    }
+
+    private final MeasurementServiceStorage storage;
+    private final Reachability reachability;
+    private final Callback callback;
+    private final Random random;
+    private final Executor callbackExecutor;
+
+    //guarded by this.
+    private CancellationTokenSource pendingRetry;
+    private boolean waitingForNetwork = false;
+
+    private long lastQueryingDurationMillis = 0;
+
+    /**
+     * @param storage persists attempts, and querying time
+     * @param reachability used to hold retries until the network is active, or null to always retry.
+     * @param callback told when a registration is due
+     */
+    public RegistrationRecoveryScheduler(MeasurementServiceStorage storage, Reachability reachability, Callback callback) {
+        this(storage, reachability, callback, new Random(), Task.UI_THREAD_EXECUTOR);
+    }
+
+    protected RegistrationRecoveryScheduler(MeasurementServiceStorage storage, Reachability reachability,
+                                            Callback callback, Random random, Executor callbackExecutor) {
+        this.storage = storage;
+        this.reachability = reachability;
+        this.callback = callback;
+        this.random = random;
+        this.callbackExecutor = callbackExecutor;
+    }
+
+    /**
+     * record a registration that failed without an answer, and schedule a retry.
+     * @return true if a retry is scheduled, false if out of attempts.
+     */
+    public boolean registrationFailed() {
+        long attempts = this.storage.getRegistrationAttempts() + 1;
+        this.storage.putRegistrationAttempts(attempts);
+
+        if (attempts >= MAX_ATTEMPTS) {
+            MeasurementServiceLog.d("Registration Recovery - {} failed registrations, no more retries until next launch.", attempts);
+            return false;
+        }
+
+        this.schedule(this.delayForAttempt(attempts));
+
+        return true;
+    }
+
+    /**
+     * the registration was answered, so reset the attempts, and drop any pending retry.
+     */
+    public void registrationAnswered() {
+        this.cancel();
+
+        if (this.storage.getRegistrationAttempts() != 0) {
+            this.storage.putRegistrationAttempts(0);
+        }
+    }
+
+    /**
+     * prompt a retry held for the network.
+     */
+    public void networkActive() {
+        boolean due;
+
+        synchronized (this) {
+            due = this.waitingForNetwork;
+            this.waitingForNetwork = false;
+        }
+
+        if (due) {
+            this.callbackExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    RegistrationRecoveryScheduler.this.callback.registrationRecoveryDue(RegistrationRecoveryScheduler.this);
+                }
+            });
+        }
+    }
+
+    public synchronized void cancel() {
+        if (this.pendingRetry != null) {
+            this.pendingRetry.cancel();
+            this.pendingRetry = null;
+        }
+
+        this.waitingForNetwork = false;
+    }
+
+    protected synchronized boolean isRetryPending() {
+        return this.pendingRetry != null || this.waitingForNetwork;
+    }
+
+    /**
+     * delay before retrying after the given number of failures: exponential, capped at {@link #MAX_DELAY_MILLIS},
+     * with the upper half jittered so devices failing together don't retry together.
+     */
+    protected long delayForAttempt(long attempts) {
+        long delay = MAX_DELAY_MILLIS;
+
+        if (attempts <= 20) {
+            delay = Math.min(MAX_DELAY_MILLIS, BASE_DELAY_MILLIS << Math.max(0, attempts - 1));
+        }
+
+        return delay / 2 + (long) (this.random.nextDouble() * (delay / 2));
+    }
+
+    private void schedule(long delayMillis) {
+        final CancellationTokenSource retry = new CancellationTokenSource();
+
+        synchronized (this) {
+            this.cancel();
+            this.pendingRetry = retry;
+        }
+
+        Task.delay(delayMillis, retry.getToken()).continueWith(new Continuation<Void, Void>() {
+            @Override
+            public Void then(Task<Void> task) throws Exception {
+                synchronized (RegistrationRecoveryScheduler.this) {
+                    if (task.isCancelled() || RegistrationRecoveryScheduler.this.pendingRetry != retry) {
+                        return null;
+                    }
+
+                    RegistrationRecoveryScheduler.this.pendingRetry = null;
+
+                    //offline - retrying now would just burn an attempt, so wait for the network.
+                    if (RegistrationRecoveryScheduler.this.reachability != null &&
+                            !RegistrationRecoveryScheduler.this.reachability.isNetworkActive()) {
+                        RegistrationRecoveryScheduler.this.waitingForNetwork = true;
+                        return null;
+                    }
+                }
+
+                RegistrationRecoveryScheduler.this.callback.registrationRecoveryDue(RegistrationRecoveryScheduler.this);
+
+                return null;
+            }
+        }, this.callbackExecutor);
+    }
+
+    //querying time
+
+    public void queryingStarted() {
+        if (this.storage.getQueryingSince() == 0) {
+            this.storage.putQueryingSince(this.currentTimeMillis());
+        }
+    }
+
+    public void queryingEnded() {
+        long since = this.storage.getQueryingSince();
+
+        if (since != 0) {
+            this.lastQueryingDurationMillis = Math.max(0, this.currentTimeMillis() - since);
+            this.storage.putQueryingSince(0);
+        }
+    }
+
+    /**
+     * @return time in the current querying period (including previous launches), or the length of the last one
+     * if not querying.
+     */
+    public long getTimeInQueryingMillis() {
+        long since = this.storage.getQueryingSince();
+
+        return (since != 0) ? Math.max(0, this.currentTimeMillis() - since) : this.lastQueryingDurationMillis;
+    }
+
+    protected long currentTimeMillis() {
+        return System.currentTimeMillis();
+    }
+}
@@ -0,0 +1,140 @@
+package com.performancehorizon.measurementkit;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import okhttp3.MediaType;
+import okhttp3.RequestBody;
+import okio.Buffer;
+
+/**
+ * Request bodies moved off the heap under memory pressure, appended to FILE_NAME in the given directory (created on
+ * the first write).  Each body is read back once, when its request is sent; once every body written has been read,
+ * the file is emptied, so it only grows while requests are waiting.
+ *
+ * Where each body was written is only kept on the heap, so a file left by an earlier process can't be read back -
+ * see {@link #delete()}.
+ */
+public class RequestSpillFile {
+
+    /**
+     * Where a body was written - all that stays on the heap.
+     */
+    public static class Entry {
+        private final long offset;
+        private final int length;
+        private final MediaType contentType;
+
+        protected Entry(long offset, int length, MediaType contentType) {
+            this.offset = offset;
+            this.length = length;
+            this.contentType = contentType;
+        }
+
+        public int getLength() {
+            return this.length;
+        }
+    }
+
+    protected static final String FILE_NAME = "measurementkit-spill.bin";
+
+    private final File file;
+    private RandomAccessFile access;
+    //entries written and not yet read.
+    private int outstanding = 0;
+
+    /**
+     * @param directory where to create the file, e.g. the cache directory.
+     */
+    public RequestSpillFile(File directory) {
+        this.file = new File(directory, FILE_NAME);
+    }
+
+    /**
+     * @param body the body to write.
+     * @return where it was written.
+     */
+    public synchronized Entry write(RequestBody body) throws IOException {
+        Buffer buffer = new Buffer();
+        body.writeTo(buffer);
+
+        RandomAccessFile access = this.open();
+        long offset = access.length();
+        int length = (int) buffer.size();
+
+        access.seek(offset);
+        access.write(buffer.readByteArray());
+
+        this.outstanding++;
+
+        return new Entry(offset, length, body.contentType());
+    }
+
+    /**
+     * read a body back, and let its space go.
+     * @param entry where the body was written.
+     * @return the body.
+     */
+    public synchronized RequestBody read(Entry entry) throws IOException {
+        byte[] bytes = new byte[entry.length];
+
+        RandomAccessFile access = this.open();
+        access.seek(entry.offset);
+        access.readFully(bytes);
+
+        this.release();
+
+        return RequestBody.create(entry.contentType, bytes);
+    }
+
+    /**
+     * @return the bytes in the file.
+     */
+    public synchronized long length() throws IOException {
+        return (this.access != null) ? this.access.length() : 0;
+    }
+
+    /**
+     * close and delete the file, including one left by an earlier process.  Entries written before can't be read
+     * back.
+     */
+    public synchronized void delete() {
+        this.close();
+
+        if (this.file.exists() && !this.file.delete()) {
+            MeasurementServiceLog.w("Request Spill File - could not delete {}", this.file);
+        }
+
+        this.outstanding = 0;
+    }
+
+    private void release() throws IOException {
+        this.outstanding = Math.max(0, this.outstanding - 1);
+
+        if (this.outstanding == 0 && this.access != null) {
+            this.access.setLength(0);
+        }
+    }
+
+    private RandomAccessFile open() throws IOException {
+        if (this.access == null) {
+            this.access = new RandomAccessFile(this.file, "rw");
+        }
+
+        return this.access;
+    }
+
+    private void close() {
+        if (this.access != null) {
+            try {
+                this.access.close();
+            }
+            catch (IOException closeexception) {
+                //nothing to be done.
+            }
+
+            this.access = null;
+        }
+    }
+}
@@ -4,11 +4,12 @@ package com.performancehorizon.measurementkit;
 
 
 import java.math.BigDecimal;
-import java.util.HashMap;
 import java.util.Map;
 
 /**
  * Sale item.  Attached to {@link Event}
+ *
+ * Meta is only allocated when the first item is set.
  */
 public class Sale {
 
@@ -25,7 +26,8 @@ public class Sale {
     private String voucher;
     private String country;
 
-    private HashMap<String, String> saleMeta;
+    //null until the first item is set.
+    private EventMeta saleMeta;
 
     /**
      *
@@ -36,7 +38,6 @@ public class Sale {
     public Sale(String category, BigDecimal value) {
         this.category = category;
         this.value= value;
-        this.saleMeta = new HashMap<String, String>();
     }
 
     /**
@@ -174,11 +175,45 @@ public class Sale {
      * @param value - the value for the meta item
      */
     public void setMetaItem(String key, String value) {
+        this.saleMeta().put(key, value);
+    }
+
+    /**
+     * Sets a numeric meta item for the sale, sent as a number rather than a string.
+     */
+    public void setMetaItem(String key, long value) {
+        this.saleMeta().put(key, value);
+    }
 
-        this.saleMeta.put(key, value);
+    /**
+     * Sets a numeric meta item for the sale, sent as a number rather than a string.
+     */
+    public void setMetaItem(String key, double value) {
+        this.saleMeta().put(key, value);
     }
 
+    /**
+     * Sets a boolean meta item for the sale, sent as true or false rather than a string.
+     */
+    public void setMetaItem(String key, boolean value) {
+        this.saleMeta().put(key, value);
+    }
+
+    private EventMeta saleMeta() {
+        if (this.saleMeta == null) {
+            this.saleMeta = new EventMeta();
+        }
+
+        return this.saleMeta;
+    }
+
+    //as a new map.
     protected  Map<String, String> getMetaItems() {
+        return EventMeta.toMap(this.saleMeta);
+    }
+
+    //null if there's no meta.
+    protected EventMeta getSaleMeta() {
         return this.saleMeta;
     }
 
@@ -198,7 +233,7 @@ public class Sale {
         private String voucher;
         private String country;
 
-        private Map<String, String> saleMeta= new HashMap<>();
+        private EventMeta saleMeta;
 
         public Builder category(String category) {
             this.category = category;
@@ -241,44 +276,48 @@ public class Sale {
         }
 
         public Builder saleMetaItem(String key, String value) {
-            this.saleMeta.put(key, value);
+            this.saleMeta().put(key, value);
             return this;
         }
 
-        public Builder() {}
-
-        public Sale build() {
-            Sale sale = new Sale(this.category, this.value);
+        public Builder saleMetaItem(String key, long value) {
+            this.saleMeta().put(key, value);
+            return this;
+        }
 
-            if (this.commission != null) {
-                sale.setCommission(this.commission);
-            }
+        public Builder saleMetaItem(String key, double value) {
+            this.saleMeta().put(key, value);
+            return this;
+        }
 
-            if (this.override != null) {
-                sale.setOverride(this.override);
-            }
+        public Builder saleMetaItem(String key, boolean value) {
+            this.saleMeta().put(key, value);
+            return this;
+        }
 
-            if (this.quantity != null) {
-                sale.setQuantity(this.quantity);
+        private EventMeta saleMeta() {
+            if (this.saleMeta == null) {
+                this.saleMeta = new EventMeta();
             }
 
-            if (this.sku != null) {
-                sale.setSKU(this.sku);
-            }
+            return this.saleMeta;
+        }
 
-            if (this.voucher != null) {
-                sale.setVoucher(this.voucher);
-            }
+        public Builder() {}
 
-            if (this.country != null) {
-                sale.setCountry(this.country);
-            }
+        public Sale build() {
+            Sale sale = new Sale(this.category, this.value);
 
-            if (this.saleMeta.size() > 0) {
+            sale.commission = this.commission;
+            sale.override = this.override;
+            sale.quantity = this.quantity;
+            sale.sku = this.sku;
+            sale.voucher = this.voucher;
+            sale.country = this.country;
 
-                for(Map.Entry<String, String> entry : this.saleMeta.entrySet()) {
-                    sale.setMetaItem(entry.getKey(), entry.getValue());
-                }
+            //copied in one go, so the builder can carry on without changing the sale.
+            if (this.saleMeta != null) {
+                sale.saleMeta = this.saleMeta.copy();
             }
 
             return sale;
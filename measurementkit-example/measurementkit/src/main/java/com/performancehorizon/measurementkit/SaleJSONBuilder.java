@@ -2,7 +2,6 @@ package com.performancehorizon.measurementkit;
 
 import org.json.JSONObject;
 
-import java.util.Map;
 
 /**
  * Created by owainbrown on 12/01/16.
@@ -34,12 +33,11 @@ public class SaleJSONBuilder {
             if (sale.getOverride() != null) {salejson.put("override", sale.getOverride().toPlainString());}
 
 
-            if (sale.getMetaItems().size() > 0) {
-                JSONObject meta = new JSONObject();
+            EventMeta salemeta = sale.getSaleMeta();
 
-                for (Map.Entry<String, String> entry: sale.getMetaItems().entrySet()) {
-                    meta.put(entry.getKey(), entry.getValue());
-                }
+            if (salemeta != null && salemeta.size() > 0) {
+                JSONObject meta = new JSONObject();
+                salemeta.writeTo(meta);
 
                 salejson.put("meta", meta);
             }
@@ -0,0 +1,107 @@
+package com.performancehorizon.measurementkit;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import java.lang.ref.WeakReference;
+
+/**
+ * {@link MeasurementStateStore} backed by a shared preferences file (the original storage format).
+ */
+public class SharedPreferencesStateStore implements MeasurementStateStore {
+
+    private WeakReference<Context> context;
+    private String name;
+
+    public SharedPreferencesStateStore(Context context, String name) {
+        this.context = new WeakReference<>(context);
+        this.name = name;
+    }
+
+    private SharedPreferences preferences() {
+        Context context = this.context.get();
+
+        return (context != null) ? context.getSharedPreferences(this.name, Context.MODE_PRIVATE) : null;
+    }
+
+    @Override
+    public String getString(String key, String defaultValue) {
+        SharedPreferences preferences = this.preferences();
+        return (preferences != null) ? preferences.getString(key, defaultValue) : defaultValue;
+    }
+
+    @Override
+    public boolean getBoolean(String key, boolean defaultValue) {
+        SharedPreferences preferences = this.preferences();
+        return (preferences != null) ? preferences.getBoolean(key, defaultValue) : defaultValue;
+    }
+
+    @Override
+    public long getLong(String key, long defaultValue) {
+        SharedPreferences preferences = this.preferences();
+        return (preferences != null) ? preferences.getLong(key, defaultValue) : defaultValue;
+    }
+
+    @Override
+    public MeasurementStateStore.Editor edit() {
+        SharedPreferences preferences = this.preferences();
+        return new Editor((preferences != null) ? preferences.edit() : null);
+    }
+
+    private static class Editor implements MeasurementStateStore.Editor {
+
+        //null when the context has gone away, in which case changes are dropped.
+        private SharedPreferences.Editor editor;
+
+        Editor(SharedPreferences.Editor editor) {
+            this.editor = editor;
+        }
+
+        @Override
+        public MeasurementStateStore.Editor putString(String key, String value) {
+            if (this.editor != null) {
+                this.editor.putString(key, value);
+            }
+            return this;
+        }
+
+        @Override
+        public MeasurementStateStore.Editor putBoolean(String key, boolean value) {
+            if (this.editor != null) {
+                this.editor.putBoolean(key, value);
+            }
+            return this;
+        }
+
+        @Override
+        public MeasurementStateStore.Editor putLong(String key, long value) {
+            if (this.editor != null) {
+                this.editor.putLong(key, value);
+            }
+            return this;
+        }
+
+        @Override
+        public MeasurementStateStore.Editor remove(String key) {
+            if (this.editor != null) {
+                this.editor.remove(key);
+            }
+            return this;
+        }
+
+        @Override
+        public MeasurementStateStore.Editor clear() {
+            if (this.editor != null) {
+                this.editor.clear();
+            }
+            return this;
+        }
+
+        @Override
+        public void apply() {
+            if (this.editor != null) {
+                this.editor.apply();
+            }
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package com.performancehorizon.measurementkit;
+
+/**
+ * What was left unsent when the service was shut down, as delivered by
+ * {@link MeasurementService#shutdown(long, java.util.concurrent.TimeUnit)}.  Events left unsent have their delivery
+ * completed as {@link EventDelivery.Outcome#DROPPED} (or {@link EventDelivery.Outcome#EXPIRED}, if cancelled in flight).
+ */
+public class ShutdownReport {
+
+    private final boolean drained;
+    private final int eventsUnsent;
+    private final int eventsAwaitingTrackingID;
+    private final int requestsCancelled;
+    private final int registrationsUnsent;
+
+    protected ShutdownReport(boolean drained, int eventsUnsent, int eventsAwaitingTrackingID, int requestsCancelled,
+                             int registrationsUnsent) {
+        this.drained = drained;
+        this.eventsUnsent = eventsUnsent;
+        this.eventsAwaitingTrackingID = eventsAwaitingTrackingID;
+        this.requestsCancelled = requestsCancelled;
+        this.registrationsUnsent = registrationsUnsent;
+    }
+
+    /**
+     * @return whether every event tracked was sent (or failed to send) before the deadline.
+     */
+    public boolean isDrained() {
+        return this.drained;
+    }
+
+    /**
+     * @return events ready to send, but still queued at the deadline.
+     */
+    public int getEventsUnsent() {
+        return this.eventsUnsent;
+    }
+
+    /**
+     * @return events never sent because they were waiting on registration for a tracking id.
+     */
+    public int getEventsAwaitingTrackingID() {
+        return this.eventsAwaitingTrackingID;
+    }
+
+    /**
+     * @return requests cancelled in flight at the deadline, whose outcome is unknown.
+     */
+    public int getRequestsCancelled() {
+        return this.requestsCancelled;
+    }
+
+    /**
+     * @return registrations queued, and not sent.
+     */
+    public int getRegistrationsUnsent() {
+        return this.registrationsUnsent;
+    }
+
+    @Override
+    public String toString() {
+        return "drained " + this.drained + ", " + this.eventsUnsent + " events unsent, " +
+                this.eventsAwaitingTrackingID + " awaiting a tracking id, " + this.requestsCancelled +
+                " cancelled in flight, " + this.registrationsUnsent + " registrations unsent";
+    }
+}
@@ -0,0 +1,89 @@
+package com.performancehorizon.measurementkit;
+
+import android.content.Intent;
+import android.net.Uri;
+
+/**
+ * Classifies the intent that opened the app as a tracked click, with a single parse of its data (see TrackingLink).
+ *
+ * In order of precedence, a click is:
+ * - a web click: a viewed uri carrying a mobile tracking id in its query ({@link TrackingLink#TRACKING_ID_QUERY_PARAM}),
+ * - an app click: a camref extra,
+ * - a universal click: a tracking link (camref in the path) opened directly.
+ *
+ * The filtered intent (a single copy of the original) has the tracking parameters removed, or for universal clicks,
+ * the destination / deep link substituted.
+ */
+public class TrackedIntentClassifier extends TrackedIntentProcessor {
+
+    public enum ClickType {
+        NONE,
+        WEB,
+        APP,
+        UNIVERSAL
+    }
+
+    private ClickType clickType = ClickType.NONE;
+    private String mobileTrackingID = null;
+    private String camref = null;
+
+    protected TrackedIntentClassifier(Intent intent, String camrefKey, TrackingURLHelper helper) {
+        Uri data = intent.getData();
+        TrackingLink link = (data != null) ? TrackingLink.parse(data.toString()) : null;
+
+        //web click
+        if (link != null && Intent.ACTION_VIEW.equals(intent.getAction()) && link.hasMobileTrackingID()) {
+            this.clickType = ClickType.WEB;
+            this.mobileTrackingID = link.getMobileTrackingID();
+
+            Intent filteredintent = new Intent(intent);
+            filteredintent.setData(Uri.parse(link.getLinkWithoutTrackingID()));
+
+            this.setFilteredIntent(filteredintent);
+            return;
+        }
+
+        //app click
+        String extracamref = intent.getStringExtra(camrefKey);
+
+        if (extracamref != null) {
+            this.clickType = ClickType.APP;
+            this.camref = extracamref;
+
+            Intent filteredintent = new Intent(intent);
+            filteredintent.removeExtra(camrefKey);
+
+            this.setFilteredIntent(filteredintent);
+            return;
+        }
+
+        //universal click
+        if (link != null && helper != null && helper.scheme().equals(link.getScheme()) &&
+                helper.hostForMobileTracking().equals(link.getAuthority()) && link.getCamref() != null) {
+            this.clickType = ClickType.UNIVERSAL;
+            this.camref = link.getCamref();
+
+            String alternatedestination = (link.getDeepLink() != null) ? link.getDeepLink() : link.getDestination();
+
+            Intent filteredintent = new Intent(intent);
+
+            if (alternatedestination != null) {
+                filteredintent.setData(Uri.parse(alternatedestination));
+            }
+
+            this.setFilteredIntent(filteredintent);
+        }
+    }
+
+    public ClickType getClickType() {
+        return this.clickType;
+    }
+
+    protected String getMobileTrackingID() {
+        return this.mobileTrackingID;
+    }
+
+    public String getCamref() {
+        return this.camref;
+    }
+}
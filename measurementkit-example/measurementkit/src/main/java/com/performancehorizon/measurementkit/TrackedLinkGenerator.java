@@ -0,0 +1,145 @@
+package com.performancehorizon.measurementkit;
+
+import android.net.Uri;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Generates tracking links for many destinations under one camref (and advertising id), as
+ * MeasurementService.measurementServiceURI does for a single link.
+ *
+ * The camref path and alias query are encoded once; each link only encodes its destination (and deep link) into a
+ * reused buffer.  Links for plain destinations can also be kept in a least recently used cache.
+ *
+ * Safe to share between threads; calls are serialised.
+ */
+public class TrackedLinkGenerator {
+
+    private final StringBuilder buffer = new StringBuilder(256);
+
+    //scheme://host/click/camref:{camref}/destination:
+    private final String prefix;
+    //?aaid={advertisingid} or empty.
+    private final String aliases;
+
+    private final Map<String, String> cache;
+
+    /**
+     * @param camref the camref for every link.
+     * @param advertisingid the android advertising id, or null.
+     * @param cachesize the number of links to keep (by destination); 0 to keep none.
+     */
+    public TrackedLinkGenerator(String camref, String advertisingid, int cachesize) {
+        this(new TrackingURLHelper(false), camref, advertisingid, cachesize);
+    }
+
+    protected TrackedLinkGenerator(TrackingURLHelper helper, String camref, String advertisingid, final int cachesize) {
+        if (camref == null) {
+            throw new IllegalArgumentException("Tracked Link Generator - a camref is required");
+        }
+
+        StringBuilder prefixbuilder = new StringBuilder(helper.scheme()).append("://").append(helper.hostForMobileTracking())
+                .append("/click/").append(TrackingLink.CAMREF_SEGMENT_PREFIX).append(camref)
+                .append('/').append(TrackingLink.DESTINATION_SEGMENT_PREFIX);
+        this.prefix = prefixbuilder.toString();
+
+        StringBuilder aliasbuilder = new StringBuilder();
+
+        if (advertisingid != null) {
+            aliasbuilder.append("?aaid=");
+            TrackingLink.encode(advertisingid, false, aliasbuilder);
+        }
+
+        this.aliases = aliasbuilder.toString();
+
+        if (cachesize > 0) {
+            this.cache = new LinkedHashMap<String, String>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+                    return this.size() > cachesize;
+                }
+            };
+        }
+        else {
+            this.cache = null;
+        }
+    }
+
+    /**
+     * @param destination the destination the link should open, unencoded.
+     * @return the tracking link.
+     */
+    public synchronized String linkFor(String destination) {
+        if (this.cache != null) {
+            String cached = this.cache.get(destination);
+
+            if (cached != null) {
+                return cached;
+            }
+        }
+
+        String link = this.generate(destination, null);
+
+        if (this.cache != null) {
+            this.cache.put(destination, link);
+        }
+
+        return link;
+    }
+
+    /**
+     * @param destination the destination the link should open, unencoded.
+     * @param deeplink the deep link representing the original intent (not cached).
+     * @return the tracking link, skipping the deep link when the app is installed.
+     */
+    public synchronized String linkFor(String destination, String deeplink) {
+        return (deeplink == null) ? this.linkFor(destination) : this.generate(destination, deeplink);
+    }
+
+    public synchronized List<String> linksFor(Iterable<String> destinations) {
+        List<String> links = (destinations instanceof Collection) ?
+                new ArrayList<String>(((Collection<String>) destinations).size()) : new ArrayList<String>();
+
+        for (String destination : destinations) {
+            links.add(this.linkFor(destination));
+        }
+
+        return links;
+    }
+
+    public Uri uriFor(Uri destination) {
+        return Uri.parse(this.linkFor(destination.toString()));
+    }
+
+    public Uri uriFor(Uri destination, Uri deeplink) {
+        return Uri.parse(this.linkFor(destination.toString(), (deeplink != null) ? deeplink.toString() : null));
+    }
+
+    public synchronized int getCachedLinkCount() {
+        return (this.cache != null) ? this.cache.size() : 0;
+    }
+
+    //query order as MeasurementServiceURIBuilder - aliases, skip_deep_link, deep_link.
+    private String generate(String destination, String deeplink) {
+        StringBuilder link = this.buffer;
+        link.setLength(0);
+
+        link.append(this.prefix);
+        TrackingLink.encode(destination, true, link);
+        link.append(this.aliases);
+
+        if (deeplink != null) {
+            char separator = (this.aliases.length() > 0) ? '&' : '?';
+
+            link.append(separator).append(TrackingLink.SKIP_DEEP_LINK_QUERY_PARAM).append("=true&")
+                    .append(TrackingLink.DEEP_LINK_QUERY_PARAM).append('=');
+            TrackingLink.encode(deeplink, false, link);
+        }
+
+        return link.toString();
+    }
+}
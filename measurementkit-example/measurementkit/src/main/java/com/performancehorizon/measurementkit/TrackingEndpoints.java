@@ -0,0 +1,330 @@
+package com.performancehorizon.measurementkit;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The tracking hosts requests can be sent to, in order of preference, with passive health scores from the round trip
+ * times and failures of the requests sent to each, and a circuit breaker per host.
+ *
+ * The fastest endpoint with a closed circuit is preferred, its score weighted up by its recent error rate.  Endpoints
+ * not yet measured are tried first, in order - unless they've failed, when they're scored as the slowest measured.
+ *
+ * An endpoint failing repeatedly, or throttling requests (429 or 503), has its circuit opened: it is skipped for a
+ * cooldown (doubling while it keeps failing), or for as long as the server's Retry-After asks.  Requests fail over to
+ * the next endpoint, or are held if every circuit is open.  Once the cooldown passes the circuit is half open, and a
+ * single request probes the endpoint; if that succeeds, the circuit closes and the error rate starts afresh.
+ */
+public class TrackingEndpoints {
+
+    public enum CircuitState {
+        CLOSED,
+        OPEN,
+        HALF_OPEN
+    }
+
+    //weight of the latest sample in the moving averages.
+    private static final double SAMPLE_WEIGHT = 0.2;
+    //an endpoint erroring every time scores 1 + ERROR_PENALTY times its round trip.
+    private static final double ERROR_PENALTY = 4.0;
+
+    protected static final int FAILURES_BEFORE_OPEN = 2;
+    protected static final long COOLDOWN_NANOS = 30 * 1000000000L;
+    protected static final long MAX_COOLDOWN_NANOS = 5 * 60 * 1000000000L;
+    protected static final long MAX_RETRY_AFTER_NANOS = 60 * 60 * 1000000000L;
+
+    /**
+     * A tracking host, with its request urls built once.
+     */
+    public static class Endpoint {
+
+        private final TrackingEndpoints owner;
+        private final String baseUrl;
+        private final String eventUrl;
+        private final String registerUrl;
+
+        //guarded by owner - rtt is 0 until measured.
+        private double rttNanos = 0;
+        private double errorRate = 0;
+        private int consecutiveFailures = 0;
+        private CircuitState circuitState = CircuitState.CLOSED;
+        private long openUntilNanos = 0;
+        //when the half open probe was sent, 0 if not sent.
+        private long probeSentNanos = 0;
+
+        protected Endpoint(TrackingEndpoints owner, String baseUrl) {
+            this.owner = owner;
+            this.baseUrl = baseUrl;
+            this.eventUrl = baseUrl + "/event";
+            this.registerUrl = baseUrl + "/register";
+        }
+
+        public String getBaseUrl() {
+            return this.baseUrl;
+        }
+
+        public String getEventUrl() {
+            return this.eventUrl;
+        }
+
+        public String getRegisterUrl() {
+            return this.registerUrl;
+        }
+
+        public CircuitState getCircuitState() {
+            return this.owner.circuitStateOf(this);
+        }
+
+        /**
+         * claim an endpoint to send a request built for this one: this endpoint if its circuit allows, otherwise
+         * the best that does.
+         * @return the endpoint to send to, or null if every circuit is open (and the request should be held).
+         */
+        public Endpoint acquire() {
+            return this.owner.acquire(this);
+        }
+
+        /**
+         * @return how long until a request could be sent to any of the endpoints, 0 if one could be now.
+         */
+        public long nanosUntilAvailable() {
+            return this.owner.nanosUntilAvailable();
+        }
+
+        /**
+         * record a request answered by the endpoint.
+         * @param rttNanos the request's round trip.
+         */
+        public void recordSuccess(long rttNanos) {
+            this.owner.recordSuccess(this, rttNanos);
+        }
+
+        /**
+         * record a request the endpoint failed - no response, or a server error.
+         */
+        public void recordFailure() {
+            this.owner.recordFailure(this, -1);
+        }
+
+        /**
+         * record a request the endpoint throttled (429 or 503).
+         * @param retryAfterNanos how long the server asked to wait, or -1 if it didn't say.
+         */
+        public void recordThrottled(long retryAfterNanos) {
+            this.owner.recordFailure(this, Math.max(-1, retryAfterNanos));
+        }
+
+        //only meaningful under the owner's lock.
+        private double score(double worstRttNanos) {
+            double rtt = this.rttNanos;
+
+            //failed before it was ever measured - no better than the slowest that has been.
+            if (rtt == 0 && this.errorRate > 0) {
+                rtt = Math.max(worstRttNanos, 1.0);
+            }
+
+            return rtt * (1.0 + ERROR_PENALTY * this.errorRate);
+        }
+    }
+
+    private final List<Endpoint> endpoints;
+
+    /**
+     * @param baseUrls scheme and host of each endpoint, e.g. https://m.prf.hn, most preferred first.  Must not be empty.
+     */
+    public TrackingEndpoints(List<String> baseUrls) {
+        if (baseUrls.isEmpty()) {
+            throw new IllegalArgumentException("Tracking Endpoints - at least one endpoint is required");
+        }
+
+        List<Endpoint> endpoints = new ArrayList<>(baseUrls.size());
+
+        for (String baseurl : baseUrls) {
+            endpoints.add(new Endpoint(this, baseurl));
+        }
+
+        this.endpoints = Collections.unmodifiableList(endpoints);
+    }
+
+    public List<Endpoint> getEndpoints() {
+        return this.endpoints;
+    }
+
+    /**
+     * the endpoint to build a request for.  (It's claimed when the request is sent - see Endpoint.acquire().)
+     * @return an endpoint due a probe, the fastest endpoint with a closed circuit or, if every circuit is open, the
+     * endpoint available soonest.
+     */
+    public synchronized Endpoint select() {
+        long now = this.nanoTime();
+
+        Endpoint soonest = null;
+
+        for (Endpoint endpoint : this.endpoints) {
+            this.refresh(endpoint, now);
+
+            if (endpoint.circuitState == CircuitState.HALF_OPEN && endpoint.probeSentNanos == 0) {
+                return endpoint;
+            }
+            else if (endpoint.circuitState != CircuitState.CLOSED &&
+                    (soonest == null || this.availableAt(endpoint) - this.availableAt(soonest) < 0)) {
+                soonest = endpoint;
+            }
+        }
+
+        Endpoint best = this.bestClosed();
+
+        return (best != null) ? best : soonest;
+    }
+
+    protected synchronized Endpoint acquire(Endpoint preferred) {
+        long now = this.nanoTime();
+
+        for (Endpoint endpoint : this.endpoints) {
+            this.refresh(endpoint, now);
+        }
+
+        if (this.claim(preferred, now)) {
+            return preferred;
+        }
+
+        Endpoint best = this.bestClosed();
+
+        if (best != null) {
+            return best;
+        }
+
+        for (Endpoint endpoint : this.endpoints) {
+            if (this.claim(endpoint, now)) {
+                return endpoint;
+            }
+        }
+
+        return null;
+    }
+
+    //the lowest scoring endpoint with a closed circuit, first in order on a tie - call holding the lock.
+    private Endpoint bestClosed() {
+        double worstrtt = 0;
+
+        for (Endpoint endpoint : this.endpoints) {
+            worstrtt = Math.max(worstrtt, endpoint.rttNanos);
+        }
+
+        Endpoint best = null;
+        double bestscore = 0;
+
+        for (Endpoint endpoint : this.endpoints) {
+            if (endpoint.circuitState == CircuitState.CLOSED) {
+                double score = endpoint.score(worstrtt);
+
+                if (best == null || score < bestscore) {
+                    best = endpoint;
+                    bestscore = score;
+                }
+            }
+        }
+
+        return best;
+    }
+
+    protected synchronized long nanosUntilAvailable() {
+        long now = this.nanoTime();
+        long wait = Long.MAX_VALUE;
+
+        for (Endpoint endpoint : this.endpoints) {
+            this.refresh(endpoint, now);
+
+            if (endpoint.circuitState == CircuitState.CLOSED ||
+                    (endpoint.circuitState == CircuitState.HALF_OPEN && endpoint.probeSentNanos == 0)) {
+                return 0;
+            }
+
+            wait = Math.min(wait, Math.max(0, this.availableAt(endpoint) - now));
+        }
+
+        return wait;
+    }
+
+    protected synchronized CircuitState circuitStateOf(Endpoint endpoint) {
+        this.refresh(endpoint, this.nanoTime());
+
+        return endpoint.circuitState;
+    }
+
+    protected synchronized void recordSuccess(Endpoint endpoint, long rttNanos) {
+        endpoint.rttNanos = (endpoint.rttNanos == 0) ?
+                rttNanos : endpoint.rttNanos + SAMPLE_WEIGHT * (rttNanos - endpoint.rttNanos);
+        endpoint.errorRate = (endpoint.circuitState != CircuitState.CLOSED) ?
+                0 : endpoint.errorRate - SAMPLE_WEIGHT * endpoint.errorRate;
+        endpoint.consecutiveFailures = 0;
+        endpoint.circuitState = CircuitState.CLOSED;
+        endpoint.probeSentNanos = 0;
+    }
+
+    /**
+     * @param retryAfterNanos for a throttled request, how long the server asked to wait; -1 if it didn't say, or
+     *                        the request failed.
+     */
+    protected synchronized void recordFailure(Endpoint endpoint, long retryAfterNanos) {
+        endpoint.errorRate += SAMPLE_WEIGHT * (1.0 - endpoint.errorRate);
+        endpoint.consecutiveFailures++;
+
+        if (retryAfterNanos >= 0) {
+            this.open(endpoint, Math.min(retryAfterNanos, MAX_RETRY_AFTER_NANOS));
+        }
+        else if (endpoint.consecutiveFailures >= FAILURES_BEFORE_OPEN || endpoint.circuitState == CircuitState.HALF_OPEN) {
+            int doublings = Math.min(Math.max(0, endpoint.consecutiveFailures - FAILURES_BEFORE_OPEN), 16);
+
+            this.open(endpoint, Math.min(COOLDOWN_NANOS << doublings, MAX_COOLDOWN_NANOS));
+        }
+    }
+
+    private void open(Endpoint endpoint, long cooldownNanos) {
+        endpoint.circuitState = CircuitState.OPEN;
+        endpoint.openUntilNanos = this.nanoTime() + cooldownNanos;
+        endpoint.probeSentNanos = 0;
+
+        //checked here, so the seconds aren't boxed when debug logging is off.
+        if (MeasurementServiceLog.isEnabled(MeasurementServiceLog.DEBUG)) {
+            MeasurementServiceLog.d("Tracking Endpoints - {} circuit open for {}s", endpoint.baseUrl,
+                    cooldownNanos / 1000000000L);
+        }
+    }
+
+    //open circuits become half open once the cooldown passes; a probe never answered (never sent) can be sent again.
+    private void refresh(Endpoint endpoint, long now) {
+        if (endpoint.circuitState == CircuitState.OPEN && now - endpoint.openUntilNanos >= 0) {
+            endpoint.circuitState = CircuitState.HALF_OPEN;
+            endpoint.probeSentNanos = 0;
+        }
+        else if (endpoint.circuitState == CircuitState.HALF_OPEN && endpoint.probeSentNanos != 0 &&
+                now - endpoint.probeSentNanos >= COOLDOWN_NANOS) {
+            endpoint.probeSentNanos = 0;
+        }
+    }
+
+    //whether a request can go to the endpoint now, taking the probe if it's half open.
+    private boolean claim(Endpoint endpoint, long now) {
+        if (endpoint.circuitState == CircuitState.CLOSED) {
+            return true;
+        }
+
+        if (endpoint.circuitState == CircuitState.HALF_OPEN && endpoint.probeSentNanos == 0) {
+            endpoint.probeSentNanos = now;
+            return true;
+        }
+
+        return false;
+    }
+
+    private long availableAt(Endpoint endpoint) {
+        return (endpoint.circuitState == CircuitState.OPEN) ?
+                endpoint.openUntilNanos : endpoint.probeSentNanos + COOLDOWN_NANOS;
+    }
+
+    protected long nanoTime() {
+        return System.nanoTime();
+    }
+}
@@ -0,0 +1,433 @@
+package com.performancehorizon.measurementkit;
+
+import java.nio.charset.Charset;
+
+/**
+ * Parses and builds tracking links (click/camref:{camref}/destination:{destination}?{query}) in plain java, so the
+ * android wrappers (MeasurementServiceURIBuilder, TrackedIntentClassifier) can be exercised on the JVM.
+ *
+ * Parsing is a single pass over the link string; values are only decoded (and copied) when they carry escapes.
+ */
+public class TrackingLink {
+
+    protected static final String CAMREF_SEGMENT_PREFIX = "camref:";
+    protected static final String DESTINATION_SEGMENT_PREFIX = "destination:";
+
+    protected static final String TRACKING_ID_QUERY_PARAM = "phn_mtid";
+    protected static final String DEEP_LINK_QUERY_PARAM = "deep_link";
+    protected static final String SKIP_DEEP_LINK_QUERY_PARAM = "skip_deep_link";
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final char[] HEX_DIGITS = "0123456789ABCDEF".toCharArray();
+
+    private final String link;
+
+    private String scheme = null;
+    private String authority = null;
+
+    //encoded values as found in the link.
+    private String encodedCamref = null;
+    private String encodedDestination = null;
+    private String encodedTrackingID = null;
+    private String encodedDeepLink = null;
+
+    //start of the query (after '?') and fragment (after '#'), or -1.
+    private int queryStart = -1;
+    private int fragmentStart = -1;
+
+    //the query without tracking id pairs, only built once a tracking id is seen.
+    private StringBuilder filteredQuery = null;
+
+    private TrackingLink(String link) {
+        this.link = link;
+    }
+
+    /**
+     * @param link an encoded uri string.
+     * @return the parsed link, or null for null links.
+     */
+    public static TrackingLink parse(String link) {
+        if (link == null) {
+            return null;
+        }
+
+        TrackingLink parsed = new TrackingLink(link);
+        parsed.scan();
+
+        return parsed;
+    }
+
+    private void scan() {
+        int length = this.link.length();
+
+        int end = this.link.indexOf('#');
+
+        if (end == -1) {
+            end = length;
+        }
+        else {
+            this.fragmentStart = end + 1;
+        }
+
+        int question = this.link.indexOf('?');
+        int pathend = end;
+
+        if (question != -1 && question < end) {
+            this.queryStart = question + 1;
+            pathend = question;
+        }
+
+        //scheme, as long as it precedes any path.
+        int position = 0;
+        int colon = this.link.indexOf(':');
+
+        if (colon > 0 && colon < pathend && this.link.lastIndexOf('/', colon) == -1) {
+            this.scheme = this.link.substring(0, colon);
+            position = colon + 1;
+        }
+
+        if (this.link.startsWith("//", position)) {
+            int authorityend = this.link.indexOf('/', position + 2);
+
+            if (authorityend == -1 || authorityend > pathend) {
+                authorityend = pathend;
+            }
+
+            this.authority = this.link.substring(position + 2, authorityend);
+            position = authorityend;
+        }
+
+        this.scanPath(position, pathend);
+
+        if (this.queryStart != -1) {
+            this.scanQuery(this.queryStart, end);
+        }
+    }
+
+    private void scanPath(int start, int end) {
+        while (start < end) {
+            int segmentend = this.link.indexOf('/', start);
+
+            if (segmentend == -1 || segmentend > end) {
+                segmentend = end;
+            }
+
+            if (this.encodedCamref == null && this.link.startsWith(CAMREF_SEGMENT_PREFIX, start)) {
+                this.encodedCamref = this.link.substring(start + CAMREF_SEGMENT_PREFIX.length(), segmentend);
+            }
+            else if (this.encodedDestination == null && this.link.startsWith(DESTINATION_SEGMENT_PREFIX, start)) {
+                this.encodedDestination = this.link.substring(start + DESTINATION_SEGMENT_PREFIX.length(), segmentend);
+            }
+
+            start = segmentend + 1;
+        }
+    }
+
+    private void scanQuery(int start, int queryend) {
+        while (start < queryend) {
+            int end = this.link.indexOf('&', start);
+
+            if (end == -1 || end > queryend) {
+                end = queryend;
+            }
+
+            int equals = this.link.indexOf('=', start);
+
+            if (equals == -1 || equals > end) {
+                equals = end;
+            }
+
+            if (this.isName(start, equals, TRACKING_ID_QUERY_PARAM)) {
+                if (this.encodedTrackingID == null) {
+                    this.encodedTrackingID = this.value(equals, end);
+                }
+
+                //pairs so far are kept (without a trailing separator), and anything after is appended.
+                if (this.filteredQuery == null) {
+                    this.filteredQuery = new StringBuilder(queryend - this.queryStart);
+                    this.filteredQuery.append(this.link, this.queryStart, Math.max(this.queryStart, start - 1));
+                }
+            }
+            else {
+                if (this.encodedDeepLink == null && this.isName(start, equals, DEEP_LINK_QUERY_PARAM)) {
+                    this.encodedDeepLink = this.value(equals, end);
+                }
+
+                if (this.filteredQuery != null && end > start) {
+                    if (this.filteredQuery.length() > 0) {
+                        this.filteredQuery.append('&');
+                    }
+
+                    this.filteredQuery.append(this.link, start, end);
+                }
+            }
+
+            start = end + 1;
+        }
+    }
+
+    private boolean isName(int start, int end, String name) {
+        return (end - start) == name.length() && this.link.regionMatches(start, name, 0, name.length());
+    }
+
+    private String value(int equals, int end) {
+        return (equals >= end) ? "" : this.link.substring(equals + 1, end);
+    }
+
+    public String getScheme() {
+        return this.scheme;
+    }
+
+    public String getAuthority() {
+        return this.authority;
+    }
+
+    public String getCamref() {
+        return (this.encodedCamref == null) ? null : decode(this.encodedCamref, false);
+    }
+
+    /**
+     * @return the destination segment, decoded (as it was form encoded by the builder).
+     */
+    public String getDestination() {
+        return (this.encodedDestination == null) ? null : decode(this.encodedDestination, true);
+    }
+
+    public String getDeepLink() {
+        return (this.encodedDeepLink == null) ? null : decode(this.encodedDeepLink, true);
+    }
+
+    /**
+     * @return the (first) mobile tracking id in the query, or null.
+     */
+    public String getMobileTrackingID() {
+        return (this.encodedTrackingID == null) ? null : decode(this.encodedTrackingID, true);
+    }
+
+    public boolean hasMobileTrackingID() {
+        return this.encodedTrackingID != null;
+    }
+
+    /**
+     * @return the link with every tracking id pair removed from its query (other pairs are left as encoded), or the
+     * link itself if it carried no tracking id.
+     */
+    public String getLinkWithoutTrackingID() {
+        if (this.filteredQuery == null) {
+            return this.link;
+        }
+
+        StringBuilder filtered = new StringBuilder(this.link.length());
+        filtered.append(this.link, 0, this.queryStart - 1);
+
+        if (this.filteredQuery.length() > 0) {
+            filtered.append('?').append(this.filteredQuery);
+        }
+
+        if (this.fragmentStart != -1) {
+            filtered.append('#').append(this.link, this.fragmentStart, this.link.length());
+        }
+
+        return filtered.toString();
+    }
+
+    @Override
+    public String toString() {
+        return this.link;
+    }
+
+    /**
+     * Builds a tracking link straight into one buffer.
+     */
+    public static class Builder {
+
+        private final StringBuilder link = new StringBuilder(128);
+        private boolean hasQuery = false;
+
+        public Builder(String scheme, String authority) {
+            this.link.append(scheme).append("://").append(authority);
+        }
+
+        /**
+         * appends the click path; the camref is appended as is, the destination form encoded.
+         */
+        public Builder appendClickPath(String camref, String destination) {
+            this.link.append("/click/").append(CAMREF_SEGMENT_PREFIX).append(camref)
+                    .append('/').append(DESTINATION_SEGMENT_PREFIX);
+
+            encode(destination, true, this.link);
+            return this;
+        }
+
+        public Builder appendQueryParameter(String key, String value) {
+            this.link.append(this.hasQuery ? '&' : '?');
+            this.hasQuery = true;
+
+            encode(key, false, this.link);
+            this.link.append('=');
+            encode((value == null) ? "" : value, false, this.link);
+
+            return this;
+        }
+
+        public String build() {
+            return this.link.toString();
+        }
+    }
+
+    /**
+     * percent encodes value as utf-8 onto out.
+     *
+     * @param form true to encode as URLEncoder does (spaces as '+'), false as Uri.encode does (spaces as %20, and
+     *             "!~'()" left alone).
+     */
+    protected static void encode(CharSequence value, boolean form, StringBuilder out) {
+        int length = value.length();
+
+        for (int index = 0; index < length; index++) {
+            char character = value.charAt(index);
+
+            if (isUnreserved(character, form)) {
+                out.append(character);
+            }
+            else if (form && character == ' ') {
+                out.append('+');
+            }
+            else {
+                int codepoint = character;
+
+                if (Character.isHighSurrogate(character) && index + 1 < length &&
+                        Character.isLowSurrogate(value.charAt(index + 1))) {
+                    codepoint = Character.toCodePoint(character, value.charAt(++index));
+                }
+                else if (Character.isSurrogate(character)) {
+                    //unpaired, encoded as the platform encoders do.
+                    codepoint = '?';
+                }
+
+                appendEscapedUTF8(codepoint, out);
+            }
+        }
+    }
+
+    private static boolean isUnreserved(char character, boolean form) {
+        if ((character >= 'a' && character <= 'z') || (character >= 'A' && character <= 'Z') ||
+                (character >= '0' && character <= '9')) {
+            return true;
+        }
+
+        switch (character) {
+            case '.':
+            case '-':
+            case '*':
+            case '_':
+                return true;
+            case '!':
+            case '~':
+            case '\'':
+            case '(':
+            case ')':
+                return !form;
+            default:
+                return false;
+        }
+    }
+
+    private static void appendEscapedUTF8(int codepoint, StringBuilder out) {
+        if (codepoint < 0x80) {
+            appendEscapedByte(codepoint, out);
+        }
+        else if (codepoint < 0x800) {
+            appendEscapedByte(0xC0 | (codepoint >> 6), out);
+            appendEscapedByte(0x80 | (codepoint & 0x3F), out);
+        }
+        else if (codepoint < 0x10000) {
+            appendEscapedByte(0xE0 | (codepoint >> 12), out);
+            appendEscapedByte(0x80 | ((codepoint >> 6) & 0x3F), out);
+            appendEscapedByte(0x80 | (codepoint & 0x3F), out);
+        }
+        else {
+            appendEscapedByte(0xF0 | (codepoint >> 18), out);
+            appendEscapedByte(0x80 | ((codepoint >> 12) & 0x3F), out);
+            appendEscapedByte(0x80 | ((codepoint >> 6) & 0x3F), out);
+            appendEscapedByte(0x80 | (codepoint & 0x3F), out);
+        }
+    }
+
+    private static void appendEscapedByte(int value, StringBuilder out) {
+        out.append('%').append(HEX_DIGITS[(value >> 4) & 0xF]).append(HEX_DIGITS[value & 0xF]);
+    }
+
+    /**
+     * percent decodes value as utf-8.  Malformed escapes are left as they are.
+     *
+     * @param form true to decode '+' as a space.
+     */
+    protected static String decode(String value, boolean form) {
+        int length = value.length();
+        int first = 0;
+
+        //nothing to decode - no copy.
+        while (first < length) {
+            char character = value.charAt(first);
+
+            if (character == '%' || (form && character == '+')) {
+                break;
+            }
+
+            first++;
+        }
+
+        if (first == length) {
+            return value;
+        }
+
+        StringBuilder decoded = new StringBuilder(length);
+        decoded.append(value, 0, first);
+
+        byte[] bytes = null;
+        int index = first;
+
+        while (index < length) {
+            char character = value.charAt(index);
+
+            if (character == '%' && index + 2 < length && hexValue(value.charAt(index + 1)) != -1 &&
+                    hexValue(value.charAt(index + 2)) != -1) {
+                //a run of escapes is one utf-8 sequence.
+                if (bytes == null) {
+                    bytes = new byte[(length - index) / 3];
+                }
+
+                int count = 0;
+
+                while (index + 2 < length && value.charAt(index) == '%' && hexValue(value.charAt(index + 1)) != -1 &&
+                        hexValue(value.charAt(index + 2)) != -1) {
+                    bytes[count++] = (byte) ((hexValue(value.charAt(index + 1)) << 4) | hexValue(value.charAt(index + 2)));
+                    index += 3;
+                }
+
+                decoded.append(new String(bytes, 0, count, UTF8));
+            }
+            else {
+                decoded.append((form && character == '+') ? ' ' : character);
+                index++;
+            }
+        }
+
+        return decoded.toString();
+    }
+
+    private static int hexValue(char character) {
+        if (character >= '0' && character <= '9') {
+            return character - '0';
+        }
+        else if (character >= 'A' && character <= 'F') {
+            return character - 'A' + 10;
+        }
+        else if (character >= 'a' && character <= 'f') {
+            return character - 'a' + 10;
+        }
+
+        return -1;
+    }
+}
@@ -1,7 +1,11 @@
 package com.performancehorizon.measurementkit;
 
 import java.io.IOException;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Locale;
 import java.util.Map;
+import java.util.TimeZone;
 
 import okhttp3.OkHttpClient;
 import okhttp3.Request;
@@ -18,10 +22,31 @@ public class TrackingRequest {
     private String url;
     private RequestBody postBody;
 
+    //when the post body has been moved to a spill file - see spill().
+    private RequestSpillFile spillFile;
+    private RequestSpillFile.Entry spilledBody;
+
     //so you can refer back to the original params used to construct.
     //(quick solution, this class is meant to encapsulate transport rather than a whole request chain)
     private Map<String, Object> requestParameters;
 
+    //the request this transport request was built from, e.g. an EventRequest.
+    private Object tag;
+
+    //status code of the last response, 0 before a response.
+    private int responseCode = 0;
+
+    //the endpoint the url was selected from, told how the request went - null if not selected from one.
+    private TrackingEndpoints.Endpoint endpoint;
+
+    //from a Retry-After header on the last response, -1 if there wasn't one.
+    private long retryAfterMillis = -1;
+    private int attempts = 0;
+
+    //for EventTracer - 0 when untraced.
+    private long traceID = 0;
+    private long traceMarkNanos = 0;
+
     public TrackingRequest(String url, RequestBody postBody) {
        this.setUrl(url);
        this.setPostBody(postBody);
@@ -29,16 +54,38 @@ public class TrackingRequest {
 
     public String execute(OkHttpClientWrapper client) throws IOException{
 
+        this.unspill();
+
         okhttp3.Request trackingrequest = new okhttp3.Request.Builder()
                 .url(this.getUrl())
                 .post(this.getPostBody())
                 .build();
 
         Response response =  client.newCall(trackingrequest).execute();
+        this.responseCode = response.code();
+        this.retryAfterMillis = parseRetryAfterMillis(response.header("Retry-After"), System.currentTimeMillis());
 
         return response.body().string();
     }
 
+    /**
+     * @return the length of the post body, or 0 if it is unknown.
+     */
+    public long getPostBodyLength() {
+        RequestSpillFile.Entry spilled = this.spilledBody;
+
+        if (spilled != null) {
+            return spilled.getLength();
+        }
+
+        try {
+            return (this.postBody != null) ? Math.max(0, this.postBody.contentLength()) : 0;
+        }
+        catch (IOException lengthexception) {
+            return 0;
+        }
+    }
+
     public String getUrl() {
         return url;
     }
@@ -55,6 +102,35 @@ public class TrackingRequest {
         this.postBody = postBody;
     }
 
+    /**
+     * move the post body to a spill file, freeing it from the heap.  It's read back when the request is executed.
+     * @param file the file to write to.
+     * @return the bytes moved, 0 if there's no body or it's already spilled.
+     */
+    synchronized long spill(RequestSpillFile file) throws IOException {
+        if (this.spilledBody != null || this.postBody == null) {
+            return 0;
+        }
+
+        this.spilledBody = file.write(this.postBody);
+        this.spillFile = file;
+        this.postBody = null;
+
+        return this.spilledBody.getLength();
+    }
+
+    synchronized boolean isSpilled() {
+        return this.spilledBody != null;
+    }
+
+    synchronized void unspill() throws IOException {
+        if (this.spilledBody != null) {
+            this.postBody = this.spillFile.read(this.spilledBody);
+            this.spilledBody = null;
+            this.spillFile = null;
+        }
+    }
+
     public void setRequestParameters(Map<String, Object> params)
     {
         this.requestParameters = params;
@@ -64,4 +140,102 @@ public class TrackingRequest {
     {
         return this.requestParameters;
     }
+
+    public void setTag(Object tag) {
+        this.tag = tag;
+    }
+
+    public Object getTag() {
+        return this.tag;
+    }
+
+    public int getResponseCode() {
+        return this.responseCode;
+    }
+
+    public TrackingEndpoints.Endpoint getEndpoint() {
+        return this.endpoint;
+    }
+
+    public void setEndpoint(TrackingEndpoints.Endpoint endpoint) {
+        this.endpoint = endpoint;
+    }
+
+    /**
+     * send the request to another endpoint, keeping its path.
+     * @param endpoint the endpoint to send to instead.
+     */
+    public void retarget(TrackingEndpoints.Endpoint endpoint) {
+        if (this.endpoint != null && this.url != null && this.url.startsWith(this.endpoint.getBaseUrl())) {
+            this.url = endpoint.getBaseUrl() + this.url.substring(this.endpoint.getBaseUrl().length());
+        }
+
+        this.endpoint = endpoint;
+    }
+
+    /**
+     * @return how long the last response asked to wait before retrying, or -1 if it didn't say.
+     */
+    public long getRetryAfterMillis() {
+        return this.retryAfterMillis;
+    }
+
+    /**
+     * @return the number of times the request has been sent.
+     */
+    public int getAttempts() {
+        return this.attempts;
+    }
+
+    void countAttempt() {
+        this.attempts++;
+    }
+
+    /**
+     * @param value a Retry-After header - delay seconds, or an http date.
+     * @param nowMillis the current time
+     * @return the delay asked for in milliseconds (0 for a date passed), or -1 if there's no (valid) value.
+     */
+    protected static long parseRetryAfterMillis(String value, long nowMillis) {
+        if (value == null || value.trim().isEmpty()) {
+            return -1;
+        }
+
+        value = value.trim();
+
+        try {
+            long seconds = Long.parseLong(value);
+            return (seconds >= 0 && seconds < Long.MAX_VALUE / 1000) ? seconds * 1000 : -1;
+        }
+        catch (NumberFormatException notseconds) {
+            //try as a date.
+        }
+
+        SimpleDateFormat httpdate = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US);
+        httpdate.setTimeZone(TimeZone.getTimeZone("GMT"));
+
+        try {
+            return Math.max(0, httpdate.parse(value).getTime() - nowMillis);
+        }
+        catch (ParseException notdate) {
+            return -1;
+        }
+    }
+
+    long getTraceID() {
+        return this.traceID;
+    }
+
+    long getTraceMarkNanos() {
+        return this.traceMarkNanos;
+    }
+
+    /**
+     * @param traceID the trace id (0 for none)
+     * @param markNanos start of the current span, from EventTracer.mark().
+     */
+    void setTrace(long traceID, long markNanos) {
+        this.traceID = traceID;
+        this.traceMarkNanos = markNanos;
+    }
 }
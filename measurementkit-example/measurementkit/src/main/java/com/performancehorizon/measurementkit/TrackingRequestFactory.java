@@ -2,6 +2,8 @@ package com.performancehorizon.measurementkit;
 
 import org.json.JSONObject;
 
+import java.nio.charset.Charset;
+
 import okhttp3.MediaType;
 import okhttp3.RequestBody;
 
@@ -10,16 +12,18 @@ import okhttp3.RequestBody;
  */
 public class TrackingRequestFactory {
 
+    private static final MediaType JSON = MediaType.parse("application/json; charset=utf-8");
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
     private static TrackingRequestFactory defaultRequestFactory;
 
     public TrackingRequest getRequest(String url, RequestBody postBody) {
         return new TrackingRequest(url, postBody);
     }
 
+    //the body is encoded to bytes up front, so the serialisation cost stays on the calling (encoder) thread.
     public TrackingRequest getRequest(String url, JSONObject jsonObject) {
-
-        MediaType JSON = MediaType.parse("application/json; charset=utf-8");
-        String json = jsonObject.toString();
+        byte[] json = jsonObject.toString().getBytes(UTF8);
 
         return new TrackingRequest(url, RequestBody.create(JSON, json));
     }
@@ -2,28 +2,63 @@ package com.performancehorizon.measurementkit;
 
 import bolts.Continuation;
 import bolts.Task;
+import bolts.TaskCompletionSource;
 import okhttp3.OkHttpClient;
 
+import java.io.IOException;
 import java.lang.ref.WeakReference;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Set;
 import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Created by owainbrown on 02/03/15.
  */
 public class TrackingRequestQueue {
 
+    /**
+     * a request throttled, answered with a server error, or failed without a response is held at the front of the
+     * queue and sent again - after the server's Retry-After (paced by the endpoint's circuit breaker) or, if it gave
+     * none, after a backoff starting at RETRY_BACKOFF_NANOS and doubling with each attempt.  It's held until it's
+     * answered, the queue is shut down, or it has been sent maxAttempts times - when it's reported to the delegate as
+     * an error.  (Only requests sent to a TrackingEndpoints endpoint.)
+     */
+    protected static final long RETRY_BACKOFF_NANOS = 1000000000L;
+
+    protected static final int DEFAULT_MAX_ATTEMPTS = 5;
+
+    private static final long MAX_RETRY_AFTER_MILLIS = TimeUnit.NANOSECONDS.toMillis(TrackingEndpoints.MAX_RETRY_AFTER_NANOS);
+
     private boolean requestActive = false;
     private boolean queueIsPaused = false;
-
-    private List<TrackingRequest> requestList;
+    private boolean isShutdown = false;
+    //when the soonest scheduled resume will run, if one is.
+    private boolean resumeScheduled = false;
+    private long resumeAtNanos = 0;
+    //the request at the front is held for a retry until retryAtNanos.
+    private boolean holdingForRetry = false;
+    private long retryAtNanos = 0;
+    private int maxAttempts = DEFAULT_MAX_ATTEMPTS;
+
+    private Deque<TrackingRequest> requestList;
+    //guarded by this - queued requests whose bodies are being written to a spill file, which aren't sent until done.
+    private Set<TrackingRequest> spilling = new HashSet<>();
+    //guarded by this - flushes waiting for the queue to empty, or stall.
+    private List<TaskCompletionSource<Boolean>> flushWaiters = new ArrayList<>();
     private WeakReference<TrackingRequestQueueDelegate> delegate;
     private OkHttpClient client;
+    private MeasurementServiceMetrics metrics = new MeasurementServiceMetrics();
 
     public TrackingRequestQueue(OkHttpClient client)
     {
-        this.requestList = new ArrayList<TrackingRequest>();
+        this.requestList = new ArrayDeque<TrackingRequest>();
         this.client = client;
     }
 
@@ -33,13 +68,106 @@ public class TrackingRequestQueue {
             this.requestList.add(request);
         }
 
+        this.metrics.adjust(MeasurementServiceMetrics.Gauge.REQUESTS_QUEUED, 1);
+
         this.nextRequest();
     }
 
+    /**
+     * enqueue several requests, in order, taking the lock once.
+     * @param requests the requests to enqueue.
+     */
+    public void enqueueRequests(Collection<TrackingRequest> requests)
+    {
+        synchronized (this) {
+            this.requestList.addAll(requests);
+        }
+
+        this.metrics.adjust(MeasurementServiceMetrics.Gauge.REQUESTS_QUEUED, requests.size());
+
+        this.nextRequest();
+    }
+
+    /**
+     * send the queued requests without waiting for anything else to prompt the queue.  Requests still go one at a
+     * time, and not while the queue is paused.
+     * @return a task completing with true once the queue has emptied, or false once it can't send any more for now -
+     * it's paused, or holding requests for an open circuit.  It never completes with an error.
+     */
+    public Task<Boolean> flush()
+    {
+        TaskCompletionSource<Boolean> flushed = new TaskCompletionSource<>();
+
+        synchronized (this) {
+            this.flushWaiters.add(flushed);
+        }
+
+        this.nextRequest();
+
+        return flushed.getTask();
+    }
+
+    //requests can be enqueued from the encoder stage as well as the main thread, so select under the lock.
     private void nextRequest() {
+        TrackingRequest next = null;
+        long holdnanos = -1;
+        List<TaskCompletionSource<Boolean>> flushed = null;
+        boolean drained = false;
+
+        synchronized (this) {
+            long retrywait = this.holdingForRetry ? this.retryAtNanos - this.nanoTime() : 0;
+            //spill() looks again once the request at the front is written.
+            boolean frontspilling = this.requestList.size() > 0 && this.spilling.contains(this.requestList.peek());
+
+            if (this.requestList.size() > 0 && this.canStartRequest() && !frontspilling && retrywait > 0) {
+                //the request at the front failed, and is backing off.
+                holdnanos = retrywait;
+            }
+            else if (this.requestList.size() > 0 && this.canStartRequest() && !frontspilling) {
+                this.holdingForRetry = false;
+
+                TrackingRequest first = this.requestList.peek();
+                TrackingEndpoints.Endpoint endpoint = first.getEndpoint();
+                TrackingEndpoints.Endpoint target = (endpoint != null) ? endpoint.acquire() : null;
+
+                if (endpoint != null && target == null) {
+                    //every circuit is open - hold the requests until one could take a request.
+                    holdnanos = endpoint.nanosUntilAvailable();
+                }
+                else {
+                    if (target != endpoint) {
+                        first.retarget(target);
+                    }
+
+                    next = this.requestList.poll();
+                    this.setRequestActive(true);
+                }
+            }
+
+            //nothing in flight, and nothing more to send (yet), so the flushes are done.
+            if (!this.requestActive && !frontspilling && !this.flushWaiters.isEmpty()) {
+                flushed = this.flushWaiters;
+                drained = this.requestList.isEmpty();
+                this.flushWaiters = new ArrayList<>();
+            }
+        }
 
-        if (this.requestList.size() > 0 && this.canStartRequest()) {
-            this.makeRequest(requestList.get(0));
+        if (flushed != null) {
+            for (TaskCompletionSource<Boolean> flush : flushed) {
+                flush.trySetResult(drained);
+            }
+        }
+
+        if (holdnanos >= 0) {
+            this.scheduleResume(holdnanos);
+        }
+
+        if (next != null) {
+            this.metrics.adjust(MeasurementServiceMetrics.Gauge.REQUESTS_QUEUED, -1);
+            this.metrics.adjust(MeasurementServiceMetrics.Gauge.REQUESTS_IN_FLIGHT, 1);
+
+            EventTracer.span(next.getTraceID(), EventTracer.Phase.QUEUED, next.getTraceMarkNanos());
+            this.makeRequest(next);
         }
     }
 
@@ -86,20 +214,106 @@ public class TrackingRequestQueue {
         TrackingRequestQueue.this.nextRequest();
     }*/
 
-    private void makeRequest(TrackingRequest request)
-    {
-        synchronized(this)
-        {
-            this.setRequestActive(true);
-            this.requestList.remove(request);
+    private void scheduleResume(long delayNanos) {
+        synchronized (this) {
+            long resumeat = this.nanoTime() + delayNanos;
+
+            //a resume already due sooner will look again then.
+            if (this.resumeScheduled && this.resumeAtNanos - resumeat <= 0) {
+                return;
+            }
+
+            this.resumeScheduled = true;
+            this.resumeAtNanos = resumeat;
+        }
+
+        long delaymillis = Math.max(1, delayNanos / 1000000);
+
+        MeasurementServiceLog.d("Request Queue - holding requests for {}ms", delaymillis);
+
+        Task.delay(delaymillis).continueWith(new Continuation<Void, Void>() {
+            @Override
+            public Void then(Task<Void> task) throws Exception {
+                synchronized (TrackingRequestQueue.this) {
+                    TrackingRequestQueue.this.resumeScheduled = false;
+                }
+
+                TrackingRequestQueue.this.nextRequest();
+
+                return null;
+            }
+        });
+    }
+
+    private static boolean isThrottled(int responseCode) {
+        return responseCode == 429 || responseCode == 503;
+    }
+
+    //worth sending again: no response, or a server error (throttling included).  Other 4xx are rejections.
+    private static boolean isRetryable(Exception error, int responseCode) {
+        return (error != null) ? error instanceof IOException : responseCode >= 500 || isThrottled(responseCode);
+    }
+
+    /**
+     * @return how long to hold a failed request before sending it again.
+     */
+    protected long retryDelayNanos(TrackingRequest request, Exception error) {
+        //the server said when - the endpoint's circuit is open until then.
+        if (error == null && isThrottled(request.getResponseCode()) && request.getRetryAfterMillis() >= 0) {
+            return 0;
         }
 
+        int doublings = Math.min(Math.max(0, request.getAttempts() - 1), 16);
+
+        return Math.min(RETRY_BACKOFF_NANOS << doublings, TrackingEndpoints.MAX_COOLDOWN_NANOS);
+    }
+
+    private void makeRequest(TrackingRequest request)
+    {
         final TrackingRequest therequest = request;
 
         Task.callInBackground(new Callable<String>() {
             @Override
             public String call() throws Exception {
-                return therequest.execute(new OkHttpClientWrapper(TrackingRequestQueue.this.client));
+                long flightstart = EventTracer.mark();
+                long sendstart = System.nanoTime();
+                boolean answered = false;
+
+                therequest.countAttempt();
+
+                try {
+                    String result = therequest.execute(new OkHttpClientWrapper(TrackingRequestQueue.this.client));
+                    answered = true;
+
+                    return result;
+                }
+                finally {
+                    long rtt = System.nanoTime() - sendstart;
+                    MeasurementServiceMetrics metrics = TrackingRequestQueue.this.metrics;
+
+                    metrics.recordNanos(MeasurementServiceMetrics.Histogram.REQUEST_RTT, rtt);
+                    metrics.add(MeasurementServiceMetrics.Counter.BYTES_OUT, therequest.getPostBodyLength());
+
+                    TrackingEndpoints.Endpoint endpoint = therequest.getEndpoint();
+
+                    if (endpoint != null) {
+                        long retryafter = therequest.getRetryAfterMillis();
+
+                        if (answered && isThrottled(therequest.getResponseCode())) {
+                            endpoint.recordThrottled((retryafter >= 0) ?
+                                    TimeUnit.MILLISECONDS.toNanos(Math.min(retryafter, MAX_RETRY_AFTER_MILLIS)) : -1);
+                        }
+                        else if (answered && therequest.getResponseCode() < 500) {
+                            endpoint.recordSuccess(rtt);
+                        }
+                        else {
+                            endpoint.recordFailure();
+                        }
+                    }
+
+                    EventTracer.span(therequest.getTraceID(), EventTracer.Phase.IN_FLIGHT, flightstart);
+                    therequest.setTrace(therequest.getTraceID(), EventTracer.mark());
+                }
             }
 
         }).continueWith(new Continuation<String, Void>() {
@@ -107,10 +321,44 @@ public class TrackingRequestQueue {
             public Void then(Task<String> task) throws Exception {
                 Exception taskerror= task.getError();
 
+                boolean retryable = therequest.getEndpoint() != null &&
+                        isRetryable(taskerror, therequest.getResponseCode());
+                boolean hold;
+
                 synchronized (TrackingRequestQueue.this) {
+                    //throttled, a server error or unanswered, so held to send again after a wait, rather than dropped.
+                    hold = retryable && !TrackingRequestQueue.this.isShutdown &&
+                            therequest.getAttempts() < TrackingRequestQueue.this.maxAttempts;
+
                     TrackingRequestQueue.this.setRequestActive(false);
+
+                    if (hold) {
+                        TrackingRequestQueue.this.requestList.addFirst(therequest);
+                        TrackingRequestQueue.this.holdingForRetry = true;
+                        TrackingRequestQueue.this.retryAtNanos = TrackingRequestQueue.this.nanoTime() +
+                                TrackingRequestQueue.this.retryDelayNanos(therequest, taskerror);
+                    }
                 }
 
+                TrackingRequestQueue.this.metrics.adjust(MeasurementServiceMetrics.Gauge.REQUESTS_IN_FLIGHT, -1);
+
+                if (hold) {
+                    TrackingRequestQueue.this.metrics.increment(MeasurementServiceMetrics.Counter.REQUESTS_HELD);
+                    TrackingRequestQueue.this.metrics.adjust(MeasurementServiceMetrics.Gauge.REQUESTS_QUEUED, 1);
+                    TrackingRequestQueue.this.nextRequest();
+
+                    return null;
+                }
+
+                //out of attempts - an answer asking to be retried is a failure, not a completion.
+                if (retryable && taskerror == null) {
+                    taskerror = new IOException("request failed after " + therequest.getAttempts() +
+                            " attempts, last answered " + therequest.getResponseCode());
+                }
+
+                TrackingRequestQueue.this.metrics.increment((taskerror == null) ?
+                        MeasurementServiceMetrics.Counter.REQUESTS_SENT : MeasurementServiceMetrics.Counter.REQUESTS_FAILED);
+
                 if (taskerror == null) {
                     if (TrackingRequestQueue.this.delegate != null &&  TrackingRequestQueue.this.delegate.get() != null) {
                         TrackingRequestQueue.this.delegate.get().requestQueueDidCompleteRequest(TrackingRequestQueue.this, therequest, task.getResult());
@@ -123,6 +371,11 @@ public class TrackingRequestQueue {
                     }
                 }
 
+                boolean acknowledged = taskerror == null && therequest.getResponseCode() < 400;
+
+                EventTracer.span(therequest.getTraceID(), acknowledged ? EventTracer.Phase.ACKNOWLEDGED :
+                        EventTracer.Phase.FAILED, therequest.getTraceMarkNanos());
+
                 TrackingRequestQueue.this.nextRequest();
 
                 return null;
@@ -130,9 +383,17 @@ public class TrackingRequestQueue {
         }, Task.UI_THREAD_EXECUTOR);
     }
 
+    /**
+     * @param maxAttempts how many times a request is sent before it's given up on, at least 1 - where 1 leaves
+     * retries to the delegate.
+     */
+    public synchronized void setMaxAttempts(int maxAttempts) {
+        this.maxAttempts = Math.max(1, maxAttempts);
+    }
+
     private boolean canStartRequest()
     {
-        if (queueIsPaused || requestActive) {
+        if (queueIsPaused || requestActive || isShutdown) {
             return false;
         }
         else {
@@ -140,23 +401,187 @@ public class TrackingRequestQueue {
         }
     }
 
+    /**
+     * stop the queue for good: nothing more is sent, the queued requests are taken off it, and a request in flight is
+     * cancelled (and reported to the delegate as an error).  Idle connections to the tracking host are closed.
+     * Waiting flushes complete with false.
+     * @return the requests that were queued, in order.
+     */
+    public List<TrackingRequest> shutdown()
+    {
+        List<TrackingRequest> unsent;
+        List<TaskCompletionSource<Boolean>> flushed;
+
+        synchronized (this) {
+            this.isShutdown = true;
+
+            unsent = new ArrayList<>(this.requestList);
+            this.requestList.clear();
+
+            flushed = this.flushWaiters;
+            this.flushWaiters = new ArrayList<>();
+        }
+
+        this.metrics.adjust(MeasurementServiceMetrics.Gauge.REQUESTS_QUEUED, -unsent.size());
+
+        for (TaskCompletionSource<Boolean> flush : flushed) {
+            flush.trySetResult(false);
+        }
+
+        //the client is shared with (and rebuilt from) the service's other queue, which shares the pool and dispatcher.
+        this.client.dispatcher().cancelAll();
+        this.client.connectionPool().evictAll();
+
+        return unsent;
+    }
+
+    /**
+     * take queued requests off the queue without sending them, e.g. once nothing is waiting on their answer.  A
+     * request in flight is left to finish.
+     * @param tags the tags of the requests to remove.
+     * @return the number of requests removed.
+     */
+    public int removeRequestsTagged(Collection<?> tags)
+    {
+        int removed = 0;
+
+        synchronized (this) {
+            TrackingRequest first = this.requestList.peek();
+            Iterator<TrackingRequest> requests = this.requestList.iterator();
+
+            while (requests.hasNext()) {
+                TrackingRequest request = requests.next();
+
+                if (request.getTag() != null && tags.contains(request.getTag())) {
+                    requests.remove();
+                    removed++;
+
+                    //the hold was for the request at the front.
+                    if (request == first) {
+                        this.holdingForRetry = false;
+                    }
+                }
+            }
+        }
+
+        if (removed > 0) {
+            this.metrics.adjust(MeasurementServiceMetrics.Gauge.REQUESTS_QUEUED, -removed);
+            this.nextRequest();
+        }
+
+        return removed;
+    }
+
+    /**
+     * move the bodies of the queued requests to a spill file, to be read back as each is sent.  The request in flight
+     * is left alone.  Events without a delivery handle are let go too, as they're already serialised.
+     * @param file the file to spill to.
+     * @return the number of requests spilled.
+     */
+    public int spill(RequestSpillFile file)
+    {
+        int spilled = 0;
+        List<TrackingRequest> requests;
+
+        //mark the requests under the lock, and write them outside it - the queue's completions run on the main thread.
+        synchronized (this) {
+            requests = new ArrayList<>(this.requestList);
+            this.spilling.addAll(requests);
+        }
+
+        try {
+            for (TrackingRequest request : requests) {
+                if (request.getTag() instanceof EventRequest) {
+                    ((EventRequest) request.getTag()).releaseEvent();
+                }
+
+                try {
+                    if (request.spill(file) > 0) {
+                        spilled++;
+                    }
+                }
+                catch (IOException spillexception) {
+                    MeasurementServiceLog.e("Request Queue - could not spill requests: {}", spillexception);
+                    break;
+                }
+
+                boolean front;
+
+                synchronized (this) {
+                    this.spilling.remove(request);
+                    front = (request == this.requestList.peek());
+                }
+
+                //the request at the front was waiting on its body.
+                if (front) {
+                    this.nextRequest();
+                }
+            }
+        }
+        finally {
+            synchronized (this) {
+                this.spilling.removeAll(requests);
+            }
+
+            this.nextRequest();
+        }
+
+        this.metrics.add(MeasurementServiceMetrics.Counter.REQUESTS_SPILLED, spilled);
+
+        return spilled;
+    }
+
+    /**
+     * @return the bytes of queued request bodies on the heap.
+     */
+    public synchronized long getQueuedHeapBytes()
+    {
+        long bytes = 0;
+
+        for (TrackingRequest request : this.requestList) {
+            if (!request.isSpilled()) {
+                bytes += request.getPostBodyLength();
+            }
+        }
+
+        return bytes;
+    }
+
     protected void setRequestActive(boolean requestActive) {
         this.requestActive = requestActive;
     }
 
-    protected boolean isRequestActive()
+    //set under the lock, as a request is taken and answered - so read under it too.
+    protected synchronized boolean isRequestActive()
     {
         return this.requestActive;
     }
 
     protected void setQueueIsPaused(boolean queueIsPaused) {
-        this.queueIsPaused = queueIsPaused;
+        synchronized (this) {
+            this.queueIsPaused = queueIsPaused;
+        }
 
         this.nextRequest();
     }
 
+    /**
+     * record into metrics, including the http phase timings of each call.
+     * (the client is rebuilt with the listener; it still shares the original's connection pool and dispatcher.)
+     */
+    protected void setMetrics(MeasurementServiceMetrics metrics) {
+        this.metrics = metrics;
+        this.client = this.client.newBuilder()
+                .eventListenerFactory(new HttpPhaseListener.Factory(metrics))
+                .build();
+    }
+
     protected void setDelegate(TrackingRequestQueueDelegate delegate)
     {
        this.delegate = new WeakReference<>(delegate);
     }
+
+    protected long nanoTime() {
+        return System.nanoTime();
+    }
 }
@@ -1,5 +1,9 @@
 package com.performancehorizon.measurementkit;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
 /**
  * Created by owainbrown on 25/03/15.
  */
@@ -7,6 +11,11 @@ public class TrackingURLHelper {
 
     private boolean isDebug = false;
 
+    //the tracking host, then any failover hosts.
+    private List<String> failoverUrls;
+    //built on first use - a helper that only builds links never needs them.  Guarded by this.
+    private TrackingEndpoints endpoints;
+
     public String urlStringForTracking() {
         return this.scheme() + "://" + this.hostForMobileTracking();
     }
@@ -23,11 +32,44 @@ public class TrackingURLHelper {
         return (this.isDebug) ? "prf.local" : "prf.hn";
     }
 
-    public void setDebug(boolean isDebug) {
+    /**
+     * @return the endpoint to send the next register or event request to.
+     */
+    public TrackingEndpoints.Endpoint selectEndpoint() {
+        return this.getEndpoints().select();
+    }
+
+    public synchronized TrackingEndpoints getEndpoints() {
+        if (this.endpoints == null) {
+            this.endpoints = this.buildEndpoints();
+        }
+
+        return this.endpoints;
+    }
+
+    public synchronized void setDebug(boolean isDebug) {
         this.isDebug = isDebug;
+        this.endpoints = null;
+    }
+
+    private TrackingEndpoints buildEndpoints() {
+        List<String> urls = new ArrayList<>(this.failoverUrls.size() + 1);
+        urls.add(this.urlStringForTracking());
+        urls.addAll(this.failoverUrls);
+
+        return new TrackingEndpoints(urls);
     }
 
     public TrackingURLHelper(boolean isDebug) {
+        this(isDebug, null);
+    }
+
+    /**
+     * @param isDebug whether to use the debug tracking host
+     * @param failoverUrls scheme and host of endpoints to fail over to, in order of preference (may be null).
+     */
+    public TrackingURLHelper(boolean isDebug, List<String> failoverUrls) {
         this.isDebug = isDebug;
+        this.failoverUrls = (failoverUrls != null) ? new ArrayList<>(failoverUrls) : Collections.<String>emptyList();
     }
 }
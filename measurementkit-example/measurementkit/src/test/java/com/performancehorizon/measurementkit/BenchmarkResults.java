@@ -0,0 +1,50 @@
+package com.performancehorizon.measurementkit;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Where the JVM benchmarks write their results - a text file per benchmark under build/benchmarks (or the directory
+ * in the measurementkit.benchmark.dir property), rather than the build log.
+ *
+ * The benchmarks are @Ignored, so they don't run with the unit tests; remove the @Ignore to run one by hand.
+ */
+class BenchmarkResults {
+
+    private final File file;
+
+    BenchmarkResults(String name) {
+        File directory = new File(System.getProperty("measurementkit.benchmark.dir", "build/benchmarks"));
+
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IllegalStateException("could not create " + directory);
+        }
+
+        this.file = new File(directory, name + ".txt");
+    }
+
+    void record(String result) {
+        Writer writer = null;
+
+        try {
+            writer = new FileWriter(this.file, true);
+            writer.write(result);
+            writer.write('\n');
+        }
+        catch (IOException writeexception) {
+            throw new IllegalStateException("could not write " + this.file, writeexception);
+        }
+        finally {
+            if (writer != null) {
+                try {
+                    writer.close();
+                }
+                catch (IOException closeexception) {
+                    //nothing to be done.
+                }
+            }
+        }
+    }
+}
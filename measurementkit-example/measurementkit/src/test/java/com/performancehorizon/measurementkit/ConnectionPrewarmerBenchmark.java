@@ -0,0 +1,121 @@
+package com.performancehorizon.measurementkit;
+
+import junit.framework.Assert;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Ignore;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.RequestBody;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.tls.HandshakeCertificates;
+import okhttp3.tls.HeldCertificate;
+
+/**
+ * Time to the first acknowledged event from a cold client, with and without a prewarmed connection, against a local
+ * TLS stand-in for the tracking host - see {@link BenchmarkResults}.  Prewarming happens while the app starts up, so
+ * it isn't counted.  Correctness is covered by TestConnectionPrewarmer.
+ */
+@Ignore("benchmark - run by hand")
+public class ConnectionPrewarmerBenchmark {
+
+    private static final int ROUNDS = 20;
+
+    private final BenchmarkResults results = new BenchmarkResults("ConnectionPrewarmerBenchmark");
+
+    private MockWebServer server;
+    private HandshakeCertificates clientCertificates;
+
+    @Before
+    public void init() throws Exception {
+        MeasurementServiceLog.setLogcatActive(false);
+
+        HeldCertificate certificate = new HeldCertificate.Builder()
+                .addSubjectAlternativeName("localhost")
+                .build();
+
+        HandshakeCertificates servercertificates = new HandshakeCertificates.Builder()
+                .heldCertificate(certificate)
+                .build();
+
+        this.clientCertificates = new HandshakeCertificates.Builder()
+                .addTrustedCertificate(certificate.certificate())
+                .build();
+
+        this.server = new MockWebServer();
+        this.server.useHttps(servercertificates.sslSocketFactory(), false);
+        this.server.start();
+    }
+
+    @After
+    public void teardown() throws Exception {
+        this.server.shutdown();
+        MeasurementServiceLog.setLogcatActive(true);
+    }
+
+    //a cold client - new pool, so nothing is reused between rounds.
+    private OkHttpClient newClient() {
+        return ConnectionPrewarmer.newTrackingClient(60).newBuilder()
+                .sslSocketFactory(this.clientCertificates.sslSocketFactory(), this.clientCertificates.trustManager())
+                .build();
+    }
+
+    private long firstEventNanos(boolean prewarm) throws Exception {
+        OkHttpClient client = this.newClient();
+        String host = this.server.url("/").toString();
+
+        if (prewarm) {
+            this.server.enqueue(new MockResponse());
+            new ConnectionPrewarmer(client, host).prewarm().waitForCompletion();
+        }
+
+        this.server.enqueue(new MockResponse().setBody("{}"));
+
+        TrackingRequest request = new TrackingRequest(host + "event",
+                RequestBody.create(MediaType.parse("application/json"), "{\"events\":[]}"));
+
+        long start = System.nanoTime();
+        String result = request.execute(new OkHttpClientWrapper(client));
+        long elapsed = System.nanoTime() - start;
+
+        Assert.assertEquals("{}", result);
+
+        client.connectionPool().evictAll();
+
+        return elapsed;
+    }
+
+    private void run(String name, boolean prewarm) throws Exception {
+        //warm up the jvm (not the connection).
+        for (int round = 0; round < ROUNDS / 4; round++) {
+            this.firstEventNanos(prewarm);
+        }
+
+        long[] times = new long[ROUNDS];
+
+        for (int round = 0; round < ROUNDS; round++) {
+            times[round] = this.firstEventNanos(prewarm);
+        }
+
+        Arrays.sort(times);
+
+        this.results.record(name + ": median " + (times[ROUNDS / 2] / 1000) + "us, max " + (times[ROUNDS - 1] / 1000) +
+                "us to first acknowledged event");
+    }
+
+    @Test
+    public void benchmarkColdConnection() throws Exception {
+        this.run("cold", false);
+    }
+
+    @Test
+    public void benchmarkPrewarmedConnection() throws Exception {
+        this.run("prewarmed", true);
+    }
+}
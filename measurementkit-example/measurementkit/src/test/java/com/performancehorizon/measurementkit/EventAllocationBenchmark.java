@@ -0,0 +1,140 @@
+package com.performancehorizon.measurementkit;
+
+import junit.framework.Assert;
+
+import org.junit.Ignore;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.math.BigDecimal;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Bytes allocated per event and sale built, read from the JVM's per thread allocation counter (where it has one),
+ * beside the HashMap and Date each event used to carry - see {@link BenchmarkResults}.  Correctness is covered by
+ * TestEvent, TestSale and TestEventMeta.
+ */
+@Ignore("benchmark - run by hand")
+public class EventAllocationBenchmark {
+
+    private static final int WARMUP_ITERATIONS = 50000;
+    private static final int ITERATIONS = 200000;
+
+    //keeps results live, so the work can't be optimised away.
+    private long sink = 0;
+
+    private final BenchmarkResults results = new BenchmarkResults("EventAllocationBenchmark");
+
+    private interface Allocation {
+        Object allocate();
+    }
+
+    private void run(String name, Allocation allocation) {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+
+        if (!(threads instanceof com.sun.management.ThreadMXBean)) {
+            this.results.record("no allocation counter on this JVM, skipping " + name);
+            return;
+        }
+
+        com.sun.management.ThreadMXBean counter = (com.sun.management.ThreadMXBean) threads;
+        long thread = Thread.currentThread().getId();
+
+        for (int index = 0; index < WARMUP_ITERATIONS; index++) {
+            this.sink += allocation.allocate().hashCode();
+        }
+
+        long before = counter.getThreadAllocatedBytes(thread);
+
+        for (int index = 0; index < ITERATIONS; index++) {
+            this.sink += allocation.allocate().hashCode();
+        }
+
+        long allocated = counter.getThreadAllocatedBytes(thread) - before;
+
+        Assert.assertTrue(allocated >= 0);
+
+        this.results.record(name + ": " + (allocated / ITERATIONS) + " bytes/op");
+    }
+
+    @Test
+    public void benchmarkEventWithoutMeta() {
+        this.run("event, no meta", new Allocation() {
+            @Override
+            public Object allocate() {
+                Event event = new Event.Builder().category("install").build();
+
+                Assert.assertNull(event.getEventMeta());
+                return event;
+            }
+        });
+    }
+
+    @Test
+    public void benchmarkEventWithMeta() {
+        this.run("event, 2 meta items", new Allocation() {
+            @Override
+            public Object allocate() {
+                return new Event.Builder().category("install").metaItem("source", "push")
+                        .metaItem("screen", "home").build();
+            }
+        });
+    }
+
+    @Test
+    public void benchmarkEventWithTypedMeta() {
+        this.run("event, long and double meta", new Allocation() {
+            private long level = 12;
+
+            @Override
+            public Object allocate() {
+                return new Event.Builder().category("install").metaItem("level", this.level++)
+                        .metaItem("basket", 31.5 + this.level).build();
+            }
+        });
+    }
+
+    @Test
+    public void benchmarkEventWithStringifiedMeta() {
+        //the same values, turned to strings as callers had to before typed meta.
+        this.run("event, stringified long and double meta", new Allocation() {
+            private long level = 12;
+
+            @Override
+            public Object allocate() {
+                return new Event.Builder().category("install").metaItem("level", Long.toString(this.level++))
+                        .metaItem("basket", Double.toString(31.5 + this.level)).build();
+            }
+        });
+    }
+
+    @Test
+    public void benchmarkSaleWithMeta() {
+        this.run("sale, 2 meta items", new Allocation() {
+            private final BigDecimal value = new BigDecimal("9.99");
+
+            @Override
+            public Object allocate() {
+                return new Sale.Builder().value(this.value).saleMetaItem("size", "large")
+                        .saleMetaItem("colour", "red").build();
+            }
+        });
+    }
+
+    @Test
+    public void benchmarkPreviousMetaAndDate() {
+        //what each event allocated before meta and the date were made compact - an empty HashMap and a Date (held
+        //in a two element array, so they escape).
+        this.run("empty HashMap and Date", new Allocation() {
+            @Override
+            public Object allocate() {
+                Map<String, String> meta = new HashMap<>();
+
+                return new Object[] {meta, new Date()};
+            }
+        });
+    }
+}
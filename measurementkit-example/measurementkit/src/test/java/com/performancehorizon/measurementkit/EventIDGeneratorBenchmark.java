@@ -0,0 +1,76 @@
+package com.performancehorizon.measurementkit;
+
+import junit.framework.Assert;
+
+import org.junit.Ignore;
+import org.junit.Test;
+
+import java.util.UUID;
+
+/**
+ * Rough JVM timing of event id generation against UUID.randomUUID(), the first id (including seeding) and then
+ * steady state, in ns/op - see {@link BenchmarkResults}.  Correctness is covered by TestEventIDGenerator.
+ */
+@Ignore("benchmark - run by hand")
+public class EventIDGeneratorBenchmark {
+
+    private static final int WARMUP_ITERATIONS = 50000;
+    private static final int ITERATIONS = 500000;
+
+    //keeps results live, so the work can't be optimised away.
+    private long sink = 0;
+
+    private final BenchmarkResults results = new BenchmarkResults("EventIDGeneratorBenchmark");
+
+    private interface IDSource {
+        UUID next();
+    }
+
+    private void run(String name, IDSource source) {
+        long firststart = System.nanoTime();
+        UUID first = source.next();
+        long firstelapsed = System.nanoTime() - firststart;
+
+        Assert.assertNotNull(first);
+
+        for (int index = 0; index < WARMUP_ITERATIONS; index++) {
+            this.sink += source.next().getLeastSignificantBits();
+        }
+
+        long start = System.nanoTime();
+
+        for (int index = 0; index < ITERATIONS; index++) {
+            this.sink += source.next().getLeastSignificantBits();
+        }
+
+        long elapsed = System.nanoTime() - start;
+
+        this.results.record(name + ": first " + (firstelapsed / 1000) + "us, then " + (elapsed / ITERATIONS) + "ns/op");
+    }
+
+    @Test
+    public void benchmarkRandomUUID() {
+        this.run("UUID.randomUUID", new IDSource() {
+            @Override
+            public UUID next() {
+                return UUID.randomUUID();
+            }
+        });
+    }
+
+    @Test
+    public void benchmarkEventIDGenerator() {
+        this.run("EventIDGenerator", new IDSource() {
+            private EventIDGenerator generator;
+
+            @Override
+            public UUID next() {
+                if (this.generator == null) {
+                    this.generator = new EventIDGenerator();
+                }
+
+                return this.generator.nextID();
+            }
+        });
+    }
+}
@@ -0,0 +1,97 @@
+package com.performancehorizon.measurementkit;
+
+import junit.framework.Assert;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+public class TestAppStoreUriMatcher {
+
+    private final AppStoreUriMatcher matcher = AppStoreUriMatcher.defaultMatcher();
+
+    @Test
+    public void testSchemes() {
+        Assert.assertTrue(matcher.matches("market", "details", null));
+        Assert.assertTrue(matcher.matches("AMZN", "apps", "/android"));
+        Assert.assertTrue(matcher.matches("samsungapps", null, null));
+        Assert.assertFalse(matcher.matches("https", null, null));
+        Assert.assertFalse(matcher.matches(null, null, null));
+    }
+
+    @Test
+    public void testHostSuffix() {
+        Assert.assertTrue(matcher.matches("https", "play.google.com", "/store/apps/details"));
+        Assert.assertTrue(matcher.matches("https", "PLAY.Google.com", null));
+        Assert.assertTrue(matcher.matches("https", "eu.play.google.com", "/"));
+        Assert.assertTrue(matcher.matches("https", "user@play.google.com:443", "/"));
+
+        Assert.assertFalse(matcher.matches("https", "google.com", "/"));
+        Assert.assertFalse(matcher.matches("https", "notplay.google.com", "/"));
+        Assert.assertFalse(matcher.matches("https", "play.google.com.evil.com", "/"));
+        Assert.assertFalse(matcher.matches("https", "", "/"));
+    }
+
+    @Test
+    public void testPathPrefix() {
+        Assert.assertTrue(matcher.matches("http", "www.amazon.com", "/gp/mas/dl/android"));
+        Assert.assertTrue(matcher.matches("http", "www.amazon.com", "/gp/mas/dl/android/more"));
+
+        Assert.assertFalse(matcher.matches("http", "www.amazon.com", "/gp/product/1"));
+        Assert.assertFalse(matcher.matches("http", "www.amazon.com", null));
+        Assert.assertFalse(matcher.matches("http", "amazon.com", "/gp/mas/dl/android"));
+    }
+
+    @Test
+    public void testRegisteredRules() {
+        AppStoreUriMatcher custom = new AppStoreUriMatcher()
+                .addHost("example.com", "/apps/")
+                .addHost("example.com", "/games/")
+                .addHost("store.example.com", null)
+                .addScheme("ExampleStore");
+
+        Assert.assertTrue(custom.matches("https", "www.example.com", "/apps/1"));
+        Assert.assertTrue(custom.matches("https", "example.com", "/games/1"));
+        Assert.assertFalse(custom.matches("https", "example.com", "/about"));
+
+        //a more specific host with any path.
+        Assert.assertTrue(custom.matches("https", "store.example.com", "/about"));
+        Assert.assertTrue(custom.matches("examplestore", null, null));
+
+        //the default rules aren't shared.
+        Assert.assertFalse(custom.matches("market", "details", null));
+    }
+
+    @Test
+    public void testMatchingDoesNotAllocate() {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(threads instanceof com.sun.management.ThreadMXBean);
+
+        com.sun.management.ThreadMXBean allocations = (com.sun.management.ThreadMXBean) threads;
+        Assume.assumeTrue(allocations.isThreadAllocatedMemorySupported() && allocations.isThreadAllocatedMemoryEnabled());
+
+        long thread = Thread.currentThread().getId();
+        int matched = 0;
+
+        //warm up.
+        for (int index = 0; index < 10000; index++) {
+            matched += matcher.matches("https", "www.amazon.com", "/gp/mas/dl/android") ? 1 : 0;
+        }
+
+        long before = allocations.getThreadAllocatedBytes(thread);
+
+        for (int index = 0; index < 10000; index++) {
+            matched += matcher.matches("https", "www.amazon.com", "/gp/mas/dl/android") ? 1 : 0;
+            matched += matcher.matches("https", "user@eu.play.google.com:443", "/store") ? 1 : 0;
+            matched += matcher.matches("https", "www.ourwebsite.com", "/products/1") ? 1 : 0;
+        }
+
+        long allocated = allocations.getThreadAllocatedBytes(thread) - before;
+
+        Assert.assertEquals(30000, matched);
+        //well under one object per call.
+        Assert.assertTrue("allocated " + allocated, allocated < 16 * 1000);
+    }
+}
@@ -0,0 +1,119 @@
+package com.performancehorizon.measurementkit;
+
+import android.content.SharedPreferences;
+
+import junit.framework.Assert;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class TestBinaryStateStore {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testEmptyStoreReturnsDefaults() throws Exception {
+        BinaryStateStore store = new BinaryStateStore(new File(folder.getRoot(), "empty.mmkstate"), null);
+
+        Assert.assertNull(store.getString("key", null));
+        Assert.assertTrue(store.getBoolean("key", true));
+        Assert.assertEquals(7L, store.getLong("key", 7L));
+    }
+
+    @Test
+    public void testApplyIsVisibleImmediately() throws Exception {
+        BinaryStateStore store = new BinaryStateStore(new File(folder.getRoot(), "apply.mmkstate"), null);
+
+        store.edit().putString("id", "trackingid").putBoolean("halted", true).putLong("attempts", 3).apply();
+
+        Assert.assertEquals("trackingid", store.getString("id", null));
+        Assert.assertTrue(store.getBoolean("halted", false));
+        Assert.assertEquals(3L, store.getLong("attempts", 0));
+    }
+
+    @Test
+    public void testSnapshotSurvivesReopen() throws Exception {
+        File snapshot = new File(folder.getRoot(), "reopen.mmkstate");
+
+        BinaryStateStore store = new BinaryStateStore(snapshot, null);
+        store.edit().putString("id", "trackingid").putBoolean("inactive", false).putLong("attempts", 12).apply();
+        Assert.assertTrue(store.writeSnapshot());
+
+        BinaryStateStore reopened = new BinaryStateStore(snapshot, null);
+
+        Assert.assertEquals("trackingid", reopened.getString("id", null));
+        Assert.assertFalse(reopened.getBoolean("inactive", true));
+        Assert.assertEquals(12L, reopened.getLong("attempts", 0));
+        Assert.assertFalse(new File(snapshot.getPath() + ".tmp").exists());
+    }
+
+    @Test
+    public void testRemoveAndClear() throws Exception {
+        BinaryStateStore store = new BinaryStateStore(new File(folder.getRoot(), "remove.mmkstate"), null);
+
+        store.edit().putString("camref", "camref").putString("referrer", "referrer").apply();
+        store.edit().remove("camref").apply();
+
+        Assert.assertNull(store.getString("camref", null));
+        Assert.assertEquals("referrer", store.getString("referrer", null));
+
+        //clear applies before the puts in the same edit, as with shared preferences.
+        store.edit().putString("id", "trackingid").clear().apply();
+
+        Assert.assertNull(store.getString("referrer", null));
+        Assert.assertEquals("trackingid", store.getString("id", null));
+    }
+
+    @Test
+    public void testMigrationFromSharedPreferences() throws Exception {
+        File snapshot = new File(folder.getRoot(), "migrate.mmkstate");
+
+        Map<String, Object> legacyvalues = new HashMap<>();
+        legacyvalues.put("com.performancehorizon.mmk.id", "trackingid");
+        legacyvalues.put("com.performancehorizon.mmk.halted", true);
+        legacyvalues.put("count", 5);
+
+        SharedPreferences legacy = mock(SharedPreferences.class);
+        SharedPreferences.Editor legacyeditor = mock(SharedPreferences.Editor.class);
+        when(legacy.getAll()).thenReturn((Map) legacyvalues);
+        when(legacy.edit()).thenReturn(legacyeditor);
+        when(legacyeditor.clear()).thenReturn(legacyeditor);
+
+        BinaryStateStore store = new BinaryStateStore(snapshot, legacy);
+
+        Assert.assertEquals("trackingid", store.getString("com.performancehorizon.mmk.id", null));
+        Assert.assertTrue(store.getBoolean("com.performancehorizon.mmk.halted", false));
+        Assert.assertEquals(5L, store.getLong("count", 0));
+
+        //migrated values are written straight away, and only then removed from the preferences.
+        verify(legacyeditor).clear();
+        verify(legacyeditor).commit();
+
+        BinaryStateStore reopened = new BinaryStateStore(snapshot, null);
+        Assert.assertEquals("trackingid", reopened.getString("com.performancehorizon.mmk.id", null));
+    }
+
+    @Test(expected = IOException.class)
+    public void testDecodeRejectsUnknownVersion() throws Exception {
+        byte[] encoded = BinaryStateStore.encode(new HashMap<String, Object>());
+        encoded[4] = (byte) (BinaryStateStore.SNAPSHOT_VERSION + 1);
+
+        BinaryStateStore.decode(encoded);
+    }
+
+    @Test(expected = IOException.class)
+    public void testDecodeRejectsForeignFile() throws Exception {
+        BinaryStateStore.decode(new byte[] {'<', '?', 'x', 'm', 'l', ' ', 'v', 'e', 'r'});
+    }
+}
@@ -0,0 +1,83 @@
+package com.performancehorizon.measurementkit;
+
+import junit.framework.Assert;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import bolts.Task;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.RequestBody;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+
+public class TestConnectionPrewarmer {
+
+    private MockWebServer server;
+
+    @Before
+    public void init() throws Exception {
+        MeasurementServiceLog.setLogcatActive(false);
+
+        this.server = new MockWebServer();
+        this.server.start();
+    }
+
+    @After
+    public void teardown() throws Exception {
+        this.server.shutdown();
+        MeasurementServiceLog.setLogcatActive(true);
+    }
+
+    @Test
+    public void testPrewarmedConnectionIsReused() throws Exception {
+        this.server.enqueue(new MockResponse());
+        this.server.enqueue(new MockResponse().setBody("{}"));
+
+        OkHttpClient client = ConnectionPrewarmer.newTrackingClient(60);
+        new ConnectionPrewarmer(client, this.server.url("/").toString()).prewarm().waitForCompletion();
+
+        Assert.assertEquals(1, client.connectionPool().idleConnectionCount());
+        Assert.assertEquals("HEAD", this.server.takeRequest().getMethod());
+
+        //the tracking queues add a listener to a client sharing the pool.
+        MeasurementServiceMetrics metrics = new MeasurementServiceMetrics();
+        OkHttpClient trackingclient = client.newBuilder()
+                .eventListenerFactory(new HttpPhaseListener.Factory(metrics))
+                .build();
+
+        TrackingRequest request = new TrackingRequest(this.server.url("/event").toString(),
+                RequestBody.create(MediaType.parse("application/json"), "{}"));
+
+        Assert.assertEquals("{}", request.execute(new OkHttpClientWrapper(trackingclient)));
+        Assert.assertEquals(1, metrics.snapshot().getCounter(MeasurementServiceMetrics.Counter.CONNECTIONS_REUSED));
+        Assert.assertEquals(0, metrics.snapshot().getCounter(MeasurementServiceMetrics.Counter.CONNECTIONS_OPENED));
+    }
+
+    @Test
+    public void testSkipsWhenPooled() throws Exception {
+        this.server.enqueue(new MockResponse());
+        this.server.enqueue(new MockResponse());
+
+        OkHttpClient client = ConnectionPrewarmer.newTrackingClient(60);
+        ConnectionPrewarmer prewarmer = new ConnectionPrewarmer(client, this.server.url("/").toString());
+
+        prewarmer.prewarm().waitForCompletion();
+        prewarmer.prewarm().waitForCompletion();
+
+        Assert.assertEquals(1, this.server.getRequestCount());
+    }
+
+    @Test
+    public void testFailureIsQuiet() throws Exception {
+        String url = this.server.url("/").toString();
+        this.server.shutdown();
+
+        Task<Void> task = new ConnectionPrewarmer(ConnectionPrewarmer.newTrackingClient(60), url).prewarm();
+        task.waitForCompletion();
+
+        Assert.assertFalse(task.isFaulted());
+    }
+}
@@ -221,4 +221,52 @@ public class TestEvent {
         Event event = new Event.Builder().country("GB").build();
         Assert.assertEquals(event.getCountry(), "GB");
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testNoMetaAllocated()
+    {
+        Event event = new Event("event");
+
+        Assert.assertNull(event.getEventMeta());
+        Assert.assertTrue(event.getMeta().isEmpty());
+    }
+
+    @Test
+    public void testDateMillis()
+    {
+        Event event = new Event("event");
+        event.setDate(new Date(1500000000123L));
+
+        Assert.assertEquals(1500000000123L, event.getDateMillis());
+        Assert.assertEquals(new Date(1500000000123L), event.getDate());
+    }
+
+    @Test
+    public void testBuilderMeta()
+    {
+        Event.Builder builder = new Event.Builder().category("event").metaItem("meta", "100");
+
+        Event event = builder.build();
+        builder.metaItem("later", "200");
+
+        Assert.assertEquals("event", event.getCategory());
+        Assert.assertEquals(1, event.getMeta().size());
+        Assert.assertEquals("100", event.getMeta().get("meta"));
+    }
+
+    @Test
+    public void testAddTypedMeta()
+    {
+        Event event = new Event.Builder().metaItem("level", 7).build();
+        event.addMetaItem("rating", 4.5);
+        event.addMetaItem("returning", true);
+
+        EventMeta meta = event.getEventMeta();
+
+        Assert.assertEquals(3, meta.size());
+        Assert.assertEquals(EventMeta.TYPE_LONG, meta.getType(0));
+        Assert.assertEquals("7", event.getMeta().get("level"));
+        Assert.assertEquals("4.5", event.getMeta().get("rating"));
+        Assert.assertEquals("true", event.getMeta().get("returning"));
+    }
+}
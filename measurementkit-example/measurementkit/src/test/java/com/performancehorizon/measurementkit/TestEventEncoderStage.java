@@ -0,0 +1,275 @@
+package com.performancehorizon.measurementkit;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import bolts.Task;
+import bolts.TaskCompletionSource;
+
+import static org.mockito.Mockito.mock;
+
+public class TestEventEncoderStage {
+
+    @Test
+    public void testEncodesInOrderOnBackgroundThread() throws Exception {
+        final List<EventRequest> encoded = Collections.synchronizedList(new ArrayList<EventRequest>());
+        final List<Thread> threads = Collections.synchronizedList(new ArrayList<Thread>());
+        final CountDownLatch done = new CountDownLatch(100);
+
+        EventEncoderStage stage = new EventEncoderStage(new EventEncoderStage.Encoder() {
+            @Override
+            public void encode(EventRequest request) {
+                encoded.add(request);
+                threads.add(Thread.currentThread());
+                done.countDown();
+            }
+
+            @Override
+            public void encodeBatch(List<EventRequest> requests) {
+                for (EventRequest request : requests) {
+                    this.encode(request);
+                }
+            }
+        }, 8);
+
+        List<EventRequest> offered = new ArrayList<>();
+
+        for (int index = 0; index < 100; index++) {
+            EventRequest request = new EventRequest(mock(Event.class), "trackingid");
+            offered.add(request);
+
+            //a small ring fills up quickly, so spin until the encoder catches up.
+            while (!stage.offer(request)) {
+                Thread.yield();
+            }
+        }
+
+        Assert.assertTrue(done.await(5, TimeUnit.SECONDS));
+        Assert.assertEquals(offered, encoded);
+        Assert.assertFalse(threads.contains(Thread.currentThread()));
+        Assert.assertEquals(0, stage.pending());
+    }
+
+    @Test
+    public void testOfferFailsWhenFull() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch started = new CountDownLatch(1);
+
+        EventEncoderStage stage = new EventEncoderStage(new EventEncoderStage.Encoder() {
+            @Override
+            public void encode(EventRequest request) {
+                started.countDown();
+
+                try {
+                    release.await();
+                }
+                catch (InterruptedException interrupted) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+
+            @Override
+            public void encodeBatch(List<EventRequest> requests) {
+                this.encode(null);
+            }
+        }, 4);
+
+        //first request is taken by the (now blocked) encoder thread, the next four fill the ring.
+        Assert.assertTrue(stage.offer(new EventRequest(mock(Event.class), "trackingid")));
+        Assert.assertTrue(started.await(5, TimeUnit.SECONDS));
+
+        for (int index = 0; index < 4; index++) {
+            Assert.assertTrue(stage.offer(new EventRequest(mock(Event.class), "trackingid")));
+        }
+
+        Assert.assertFalse(stage.offer(new EventRequest(mock(Event.class), "trackingid")));
+        Assert.assertEquals(4, stage.pending());
+
+        release.countDown();
+    }
+
+    @Test
+    public void testBatchTakesOneSlotAndKeepsOrder() throws Exception {
+        final List<Object> encoded = Collections.synchronizedList(new ArrayList<Object>());
+        final CountDownLatch done = new CountDownLatch(3);
+
+        EventEncoderStage stage = new EventEncoderStage(new EventEncoderStage.Encoder() {
+            @Override
+            public void encode(EventRequest request) {
+                encoded.add(request);
+                done.countDown();
+            }
+
+            @Override
+            public void encodeBatch(List<EventRequest> requests) {
+                encoded.add(requests);
+                done.countDown();
+            }
+        }, 2);
+
+        EventRequest first = new EventRequest(mock(Event.class), "trackingid");
+        List<EventRequest> batch = new ArrayList<>();
+
+        for (int index = 0; index < 1000; index++) {
+            batch.add(new EventRequest(mock(Event.class), "trackingid"));
+        }
+
+        EventRequest last = new EventRequest(mock(Event.class), "trackingid");
+
+        Assert.assertTrue(stage.offer(first));
+        Assert.assertTrue(stage.offerBatch(batch));
+
+        while (!stage.offer(last)) {
+            Thread.yield();
+        }
+
+        Assert.assertTrue(done.await(5, TimeUnit.SECONDS));
+        Assert.assertEquals(3, encoded.size());
+        Assert.assertSame(first, encoded.get(0));
+        Assert.assertSame(batch, encoded.get(1));
+        Assert.assertSame(last, encoded.get(2));
+    }
+
+    @Test
+    public void testDrainWaitsForOfferedRequests() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        final List<EventRequest> encoded = Collections.synchronizedList(new ArrayList<EventRequest>());
+
+        EventEncoderStage stage = new EventEncoderStage(new EventEncoderStage.Encoder() {
+            @Override
+            public void encode(EventRequest request) {
+                try {
+                    release.await();
+                }
+                catch (InterruptedException interrupted) {
+                    Thread.currentThread().interrupt();
+                }
+
+                encoded.add(request);
+            }
+
+            @Override
+            public void encodeBatch(List<EventRequest> requests) {
+                for (EventRequest request : requests) {
+                    this.encode(request);
+                }
+            }
+        }, 8);
+
+        Assert.assertTrue(stage.drain().isCompleted());
+
+        stage.offer(new EventRequest(mock(Event.class), "trackingid"));
+        stage.offerBatch(Arrays.asList(new EventRequest(mock(Event.class), "trackingid"),
+                new EventRequest(mock(Event.class), "trackingid")));
+
+        Task<Void> drained = stage.drain();
+        Assert.assertFalse(drained.isCompleted());
+
+        release.countDown();
+
+        Assert.assertTrue(drained.waitForCompletion(5, TimeUnit.SECONDS));
+        Assert.assertEquals(3, encoded.size());
+    }
+
+    @Test
+    public void testFailedEncodingDropsDelivery() throws Exception {
+        MeasurementServiceLog.setLogcatActive(false);
+
+        try {
+            EventEncoderStage stage = new EventEncoderStage(new EventEncoderStage.Encoder() {
+                @Override
+                public void encode(EventRequest request) {
+                    throw new IllegalStateException("unencodable");
+                }
+
+                @Override
+                public void encodeBatch(List<EventRequest> requests) {
+                    throw new IllegalStateException("unencodable");
+                }
+            }, 8);
+
+            EventRequest single = new EventRequest(mock(Event.class), "trackingid");
+            single.setDelivery(new TaskCompletionSource<EventDelivery>(), System.nanoTime());
+            EventRequest batched = new EventRequest(mock(Event.class), "trackingid");
+            batched.setDelivery(new TaskCompletionSource<EventDelivery>(), System.nanoTime());
+
+            stage.offer(single);
+            stage.offerBatch(Arrays.asList(batched));
+
+            Assert.assertTrue(single.getDelivery().waitForCompletion(5, TimeUnit.SECONDS));
+            Assert.assertTrue(batched.getDelivery().waitForCompletion(5, TimeUnit.SECONDS));
+            Assert.assertEquals(EventDelivery.Outcome.DROPPED, single.getDelivery().getResult().getOutcome());
+            Assert.assertEquals(EventDelivery.Outcome.DROPPED, batched.getDelivery().getResult().getOutcome());
+
+            stage.stop();
+        }
+        finally {
+            MeasurementServiceLog.setLogcatActive(true);
+        }
+    }
+
+    @Test
+    public void testStopReturnsUnencoded() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch started = new CountDownLatch(1);
+
+        EventEncoderStage stage = new EventEncoderStage(new EventEncoderStage.Encoder() {
+            @Override
+            public void encode(EventRequest request) {
+                started.countDown();
+
+                try {
+                    release.await();
+                }
+                catch (InterruptedException interrupted) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+
+            @Override
+            public void encodeBatch(List<EventRequest> requests) {
+                this.encode(null);
+            }
+        }, 8);
+
+        EventRequest first = new EventRequest(mock(Event.class), "trackingid");
+        EventRequest second = new EventRequest(mock(Event.class), "trackingid");
+        EventRequest third = new EventRequest(mock(Event.class), "trackingid");
+
+        stage.offer(first);
+        Assert.assertTrue(started.await(5, TimeUnit.SECONDS));
+
+        stage.offer(second);
+        stage.offerBatch(Arrays.asList(third));
+        Task<Void> drained = stage.drain();
+
+        //let the encoder finish while stop waits on it.
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(100);
+                }
+                catch (InterruptedException interrupted) {
+                    Thread.currentThread().interrupt();
+                }
+
+                release.countDown();
+            }
+        }).start();
+
+        //the one being encoded is finished, the rest handed back.
+        Assert.assertEquals(Arrays.asList(second, third), stage.stop());
+        Assert.assertTrue(drained.isCompleted());
+        Assert.assertFalse(stage.offer(first));
+        Assert.assertTrue(stage.drain().isCompleted());
+    }
+}
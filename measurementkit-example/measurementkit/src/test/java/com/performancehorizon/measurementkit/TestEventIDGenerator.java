@@ -0,0 +1,159 @@
+package com.performancehorizon.measurementkit;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class TestEventIDGenerator {
+
+    //a clock the tests move by hand.
+    private static class ClockedGenerator extends EventIDGenerator {
+        private long now = 1700000000000L;
+
+        ClockedGenerator() {
+            super(42);
+        }
+
+        @Override
+        protected long currentTimeMillis() {
+            return this.now;
+        }
+    }
+
+    private static long millisOf(UUID id) {
+        return id.getMostSignificantBits() >>> 16;
+    }
+
+    @Test
+    public void testVersionSevenLayout() {
+        ClockedGenerator generator = new ClockedGenerator();
+        UUID id = generator.nextID();
+
+        Assert.assertEquals(7, id.version());
+        Assert.assertEquals(2, id.variant());
+        Assert.assertEquals(generator.now, millisOf(id));
+        Assert.assertEquals(36, id.toString().length());
+    }
+
+    @Test
+    public void testMonotonicWithinMillisecondAndClockGoingBack() {
+        ClockedGenerator generator = new ClockedGenerator();
+        UUID previous = generator.nextID();
+
+        for (int index = 0; index < 20000; index++) {
+            if (index == 10000) {
+                //the clock steps back.
+                generator.now -= 5000;
+            }
+
+            UUID next = generator.nextID();
+
+            //(the time keeps the top bit clear, so signed comparison works.)
+            Assert.assertTrue(next.getMostSignificantBits() > previous.getMostSignificantBits());
+            Assert.assertTrue(millisOf(next) >= millisOf(previous));
+
+            previous = next;
+        }
+
+        //over 4096 ids in a millisecond borrow the milliseconds after it.
+        Assert.assertTrue(millisOf(previous) > generator.now);
+    }
+
+    @Test
+    public void testNewMillisecondRestartsCounter() {
+        ClockedGenerator generator = new ClockedGenerator();
+        UUID first = generator.nextID();
+
+        generator.now += 1;
+        UUID second = generator.nextID();
+
+        Assert.assertEquals(millisOf(first) + 1, millisOf(second));
+        Assert.assertTrue((second.getMostSignificantBits() & 0xfff) < 512);
+    }
+
+    @Test
+    public void testUniqueAcrossThreads() throws Exception {
+        final EventIDGenerator generator = new EventIDGenerator();
+        final int threads = 8;
+        final int perthread = 50000;
+        final List<List<UUID>> generated = Collections.synchronizedList(new ArrayList<List<UUID>>());
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(threads);
+
+        for (int thread = 0; thread < threads; thread++) {
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    List<UUID> ids = new ArrayList<>(perthread);
+
+                    try {
+                        start.await();
+
+                        for (int index = 0; index < perthread; index++) {
+                            ids.add(generator.nextID());
+                        }
+                    }
+                    catch (InterruptedException interrupted) {
+                        Thread.currentThread().interrupt();
+                    }
+
+                    generated.add(ids);
+                    done.countDown();
+                }
+            }).start();
+        }
+
+        start.countDown();
+        Assert.assertTrue(done.await(30, TimeUnit.SECONDS));
+
+        Set<UUID> unique = new HashSet<>();
+
+        for (List<UUID> ids : generated) {
+            for (int index = 0; index < ids.size(); index++) {
+                Assert.assertTrue(unique.add(ids.get(index)));
+
+                //each thread sees its ids increase.
+                if (index > 0) {
+                    Assert.assertTrue(ids.get(index).getMostSignificantBits() >
+                            ids.get(index - 1).getMostSignificantBits());
+                }
+            }
+        }
+
+        Assert.assertEquals(threads * perthread, unique.size());
+    }
+
+    @Test
+    public void testReseedChangesRandomBits() {
+        ClockedGenerator generator = new ClockedGenerator();
+        ClockedGenerator reseeded = new ClockedGenerator();
+
+        Assert.assertEquals(generator.nextID(), reseeded.nextID());
+
+        reseeded.reseed(7);
+
+        UUID id = generator.nextID();
+        UUID reseededid = reseeded.nextID();
+
+        Assert.assertFalse(id.getLeastSignificantBits() == reseededid.getLeastSignificantBits());
+        Assert.assertEquals(7, reseededid.version());
+        //the counter still only counts up.
+        Assert.assertEquals(id.getMostSignificantBits(), reseededid.getMostSignificantBits());
+    }
+
+    @Test
+    public void testSeparateGeneratorsDiffer() {
+        //two generators (as in two processes) in the same millisecond still differ in their random bits.
+        Assert.assertFalse(new EventIDGenerator().nextID().getLeastSignificantBits() ==
+                new EventIDGenerator().nextID().getLeastSignificantBits());
+    }
+}
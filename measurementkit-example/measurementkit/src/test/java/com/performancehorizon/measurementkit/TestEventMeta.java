@@ -0,0 +1,170 @@
+package com.performancehorizon.measurementkit;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+import java.util.Iterator;
+import java.util.Map;
+
+public class TestEventMeta {
+
+    @Test
+    public void testPutAndGet() {
+        EventMeta meta = new EventMeta();
+
+        meta.put("first", "1");
+        meta.put("second", "2");
+
+        Assert.assertEquals(2, meta.size());
+        Assert.assertEquals("1", meta.get("first"));
+        Assert.assertEquals("2", meta.get("second"));
+        Assert.assertNull(meta.get("third"));
+    }
+
+    @Test
+    public void testPutReplaces() {
+        EventMeta meta = new EventMeta();
+
+        meta.put("first", "1");
+        meta.put("first", "one");
+
+        Assert.assertEquals(1, meta.size());
+        Assert.assertEquals("one", meta.get("first"));
+    }
+
+    @Test
+    public void testKeepsOrder() {
+        EventMeta meta = new EventMeta();
+
+        meta.put("b", "1");
+        meta.put("a", "2");
+        meta.put("c", "3");
+
+        Assert.assertEquals("b", meta.getKey(0));
+        Assert.assertEquals("2", meta.getValue(1));
+
+        Iterator<Map.Entry<String, String>> entries = meta.toMap().entrySet().iterator();
+
+        Assert.assertEquals("b", entries.next().getKey());
+        Assert.assertEquals("a", entries.next().getKey());
+        Assert.assertEquals("c", entries.next().getKey());
+    }
+
+    @Test
+    public void testGrowsPastLinearMax() {
+        EventMeta meta = new EventMeta();
+        int count = EventMeta.LINEAR_MAX * 4;
+
+        for (int i = 0; i < count; i++) {
+            meta.put("key" + i, "value" + i);
+        }
+
+        meta.put("key3", "replaced");
+        meta.put("key" + (count - 1), "last");
+
+        Assert.assertEquals(count, meta.size());
+        Assert.assertEquals("replaced", meta.get("key3"));
+        Assert.assertEquals("last", meta.get("key" + (count - 1)));
+        Assert.assertEquals("value20", meta.getValue(20));
+    }
+
+    @Test
+    public void testCopyIsIndependent() {
+        EventMeta meta = new EventMeta();
+        meta.put("first", "1");
+
+        EventMeta copy = meta.copy();
+        meta.put("first", "one");
+        meta.put("second", "2");
+        copy.put("third", "3");
+
+        Assert.assertEquals(2, copy.size());
+        Assert.assertEquals("1", copy.get("first"));
+        Assert.assertNull(copy.get("second"));
+        Assert.assertNull(meta.get("third"));
+    }
+
+    @Test
+    public void testToMapOfNone() {
+        Assert.assertTrue(EventMeta.toMap(null).isEmpty());
+    }
+
+    @Test
+    public void testTypedValues() {
+        EventMeta meta = new EventMeta();
+
+        meta.put("name", "value");
+        meta.put("level", 7L);
+        meta.put("rating", 4.5);
+        meta.put("returning", true);
+
+        Assert.assertEquals(EventMeta.TYPE_STRING, meta.getType(0));
+        Assert.assertEquals(EventMeta.TYPE_LONG, meta.getType(1));
+        Assert.assertEquals(7L, meta.getLong(1));
+        Assert.assertEquals(EventMeta.TYPE_DOUBLE, meta.getType(2));
+        Assert.assertEquals(4.5, meta.getDouble(2));
+        Assert.assertEquals(EventMeta.TYPE_BOOLEAN, meta.getType(3));
+        Assert.assertTrue(meta.getBoolean(3));
+
+        Assert.assertEquals("7", meta.get("level"));
+        Assert.assertEquals("4.5", meta.get("rating"));
+        Assert.assertEquals("true", meta.get("returning"));
+    }
+
+    @Test
+    public void testPutChangesType() {
+        EventMeta meta = new EventMeta();
+
+        meta.put("level", 7L);
+        meta.put("level", "seven");
+
+        Assert.assertEquals(1, meta.size());
+        Assert.assertEquals(EventMeta.TYPE_STRING, meta.getType(0));
+        Assert.assertEquals("seven", meta.get("level"));
+
+        meta.put("level", 8.0);
+
+        Assert.assertEquals(EventMeta.TYPE_DOUBLE, meta.getType(0));
+        Assert.assertEquals("8.0", meta.get("level"));
+    }
+
+    @Test
+    public void testTypedValuesPastLinearMax() {
+        EventMeta meta = new EventMeta();
+        int count = EventMeta.LINEAR_MAX * 8;
+
+        for (int i = 0; i < count; i++) {
+            if (i % 2 == 0) {
+                meta.put("key" + i, (long) i);
+            }
+            else {
+                meta.put("key" + i, "value" + i);
+            }
+        }
+
+        EventMeta copy = meta.copy();
+        copy.put("extra", true);
+
+        for (int i = 0; i < count; i++) {
+            String expected = (i % 2 == 0) ? Integer.toString(i) : "value" + i;
+
+            Assert.assertEquals(expected, meta.get("key" + i));
+            Assert.assertEquals(expected, copy.get("key" + i));
+        }
+
+        Assert.assertEquals(count, meta.size());
+        Assert.assertEquals(count + 1, copy.size());
+        Assert.assertEquals("true", copy.get("extra"));
+        Assert.assertNull(meta.get("extra"));
+    }
+
+    @Test
+    public void testNullKey() {
+        EventMeta meta = new EventMeta();
+
+        meta.put(null, 1L);
+
+        Assert.assertEquals("1", meta.get(null));
+    }
+}
@@ -4,6 +4,9 @@ import junit.framework.Assert;
 
 import org.junit.Test;
 
+import bolts.Task;
+import bolts.TaskCompletionSource;
+
 import static org.mockito.Mockito.mock;
 
 /**
@@ -44,4 +47,32 @@ public class TestEventRequest {
         Assert.assertEquals(eventrequest.getTrackingID(), "tracking");
     }
 
+    @Test
+    public void testCompleteWithoutDelivery() {
+        EventRequest eventrequest = new EventRequest(mock(Event.class));
+
+        //no handle was asked for, so there's nothing to complete.
+        eventrequest.completeDelivery(EventDelivery.Outcome.ACCEPTED, 200);
+
+        Assert.assertNull(eventrequest.getDelivery());
+    }
+
+    @Test
+    public void testCompleteDelivery() {
+        Event pretendevent = mock(Event.class);
+
+        EventRequest eventrequest = new EventRequest(pretendevent);
+        eventrequest.setDelivery(new TaskCompletionSource<EventDelivery>(), System.nanoTime());
+
+        eventrequest.completeDelivery(EventDelivery.Outcome.REJECTED, 400);
+        eventrequest.completeDelivery(EventDelivery.Outcome.EXPIRED, 0);
+
+        Task<EventDelivery> delivery = eventrequest.getDelivery();
+
+        Assert.assertTrue(delivery.isCompleted());
+        Assert.assertEquals(EventDelivery.Outcome.REJECTED, delivery.getResult().getOutcome());
+        Assert.assertEquals(400, delivery.getResult().getResponseCode());
+        Assert.assertEquals(pretendevent, delivery.getResult().getEvent());
+        Assert.assertTrue(delivery.getResult().getLatencyNanos() >= 0);
+    }
 }
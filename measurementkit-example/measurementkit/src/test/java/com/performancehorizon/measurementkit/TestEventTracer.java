@@ -0,0 +1,82 @@
+package com.performancehorizon.measurementkit;
+
+import junit.framework.Assert;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class TestEventTracer {
+
+    @After
+    public void teardown() {
+        EventTracer.stop();
+    }
+
+    @Test
+    public void testOffByDefault() {
+        EventTracer.stop();
+
+        Assert.assertEquals(0, EventTracer.newTraceID());
+        Assert.assertEquals(0, EventTracer.mark());
+    }
+
+    @Test
+    public void testRecordsSpans() {
+        EventTracer.start(8);
+
+        long traceid = EventTracer.newTraceID();
+        long start = EventTracer.mark();
+
+        Assert.assertTrue(traceid != 0);
+        Assert.assertTrue(start != 0);
+
+        EventTracer.span(traceid, EventTracer.Phase.ENQUEUE, start);
+        EventTracer.span(traceid, EventTracer.Phase.SERIALISE, EventTracer.mark());
+
+        Assert.assertEquals(2, EventTracer.getSpanCount());
+
+        String trace = EventTracer.exportChromeTrace();
+
+        Assert.assertTrue(trace.startsWith("{\"traceEvents\":[{\"name\":\"enqueue\",\"cat\":\"event\",\"ph\":\"X\",\"pid\":1,\"tid\":" + traceid + ",\"ts\":"));
+        Assert.assertTrue(trace.contains("},{\"name\":\"serialise\""));
+        Assert.assertTrue(trace.endsWith("}],\"displayTimeUnit\":\"ms\"}"));
+    }
+
+    @Test
+    public void testIgnoresUntracedSpans() {
+        EventTracer.start(8);
+
+        //untraced event, and a span started while tracing was off.
+        EventTracer.span(0, EventTracer.Phase.QUEUED, EventTracer.mark());
+        EventTracer.span(EventTracer.newTraceID(), EventTracer.Phase.QUEUED, 0);
+
+        long traceid = EventTracer.newTraceID();
+        long start = EventTracer.mark();
+        EventTracer.stop();
+
+        //and one ending after tracing stopped.
+        EventTracer.span(traceid, EventTracer.Phase.IN_FLIGHT, start);
+
+        Assert.assertEquals(0, EventTracer.getSpanCount());
+        Assert.assertEquals("{\"traceEvents\":[],\"displayTimeUnit\":\"ms\"}", EventTracer.exportChromeTrace());
+    }
+
+    @Test
+    public void testRingKeepsMostRecent() {
+        EventTracer.start(4);
+
+        for (int index = 0; index < 10; index++) {
+            EventTracer.span(100 + index, EventTracer.Phase.ACKNOWLEDGED, EventTracer.mark());
+        }
+
+        String trace = EventTracer.exportChromeTrace();
+
+        Assert.assertEquals(4, EventTracer.getSpanCount());
+        Assert.assertFalse(trace.contains("\"tid\":105,"));
+        Assert.assertTrue(trace.indexOf("\"tid\":106,") < trace.indexOf("\"tid\":109,"));
+
+        //restarting discards the trace.
+        EventTracer.start(4);
+        Assert.assertEquals(0, EventTracer.getSpanCount());
+    }
+}
@@ -0,0 +1,96 @@
+package com.performancehorizon.measurementkit;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.util.Collections;
+
+import okhttp3.Call;
+import okhttp3.Connection;
+import okhttp3.EventListener;
+import okhttp3.Protocol;
+
+import static org.mockito.Mockito.mock;
+
+public class TestHttpPhaseListener {
+
+    private static final InetSocketAddress ADDRESS = InetSocketAddress.createUnresolved("localhost", 443);
+
+    @Test
+    public void testNewConnectionPhases() {
+        MeasurementServiceMetrics metrics = new MeasurementServiceMetrics();
+        Call call = mock(Call.class);
+        EventListener listener = new HttpPhaseListener.Factory(metrics).create(call);
+
+        listener.callStart(call);
+        listener.dnsStart(call, "localhost");
+        listener.dnsEnd(call, "localhost", Collections.<InetAddress>emptyList());
+        listener.connectStart(call, ADDRESS, Proxy.NO_PROXY);
+        listener.secureConnectStart(call);
+        listener.secureConnectEnd(call, null);
+        listener.connectEnd(call, ADDRESS, Proxy.NO_PROXY, Protocol.HTTP_1_1);
+        listener.connectionAcquired(call, mock(Connection.class));
+        listener.requestHeadersStart(call);
+        listener.requestHeadersEnd(call, null);
+        listener.requestBodyStart(call);
+        listener.requestBodyEnd(call, 10);
+        listener.responseHeadersStart(call);
+        listener.callEnd(call);
+
+        MeasurementServiceMetrics.Snapshot snapshot = metrics.snapshot();
+
+        Assert.assertEquals(1, snapshot.getCounter(MeasurementServiceMetrics.Counter.CONNECTIONS_OPENED));
+        Assert.assertEquals(0, snapshot.getCounter(MeasurementServiceMetrics.Counter.CONNECTIONS_REUSED));
+        Assert.assertEquals(1, snapshot.getHistogram(MeasurementServiceMetrics.Histogram.HTTP_DNS).getCount());
+        Assert.assertEquals(1, snapshot.getHistogram(MeasurementServiceMetrics.Histogram.HTTP_CONNECT).getCount());
+        Assert.assertEquals(1, snapshot.getHistogram(MeasurementServiceMetrics.Histogram.HTTP_TLS).getCount());
+        Assert.assertEquals(1, snapshot.getHistogram(MeasurementServiceMetrics.Histogram.HTTP_TIME_TO_FIRST_BYTE).getCount());
+    }
+
+    @Test
+    public void testReusedConnection() {
+        MeasurementServiceMetrics metrics = new MeasurementServiceMetrics();
+        HttpPhaseListener.Factory factory = new HttpPhaseListener.Factory(metrics);
+
+        //two calls on a pooled connection - no dns, connect or tls.
+        for (int count = 0; count < 2; count++) {
+            Call call = mock(Call.class);
+            EventListener listener = factory.create(call);
+
+            listener.callStart(call);
+            listener.connectionAcquired(call, mock(Connection.class));
+            listener.requestHeadersEnd(call, null);
+            listener.responseHeadersStart(call);
+            listener.callEnd(call);
+        }
+
+        MeasurementServiceMetrics.Snapshot snapshot = metrics.snapshot();
+
+        Assert.assertEquals(0, snapshot.getCounter(MeasurementServiceMetrics.Counter.CONNECTIONS_OPENED));
+        Assert.assertEquals(2, snapshot.getCounter(MeasurementServiceMetrics.Counter.CONNECTIONS_REUSED));
+        Assert.assertEquals(0, snapshot.getHistogram(MeasurementServiceMetrics.Histogram.HTTP_DNS).getCount());
+        Assert.assertEquals(0, snapshot.getHistogram(MeasurementServiceMetrics.Histogram.HTTP_CONNECT).getCount());
+        Assert.assertEquals(2, snapshot.getHistogram(MeasurementServiceMetrics.Histogram.HTTP_TIME_TO_FIRST_BYTE).getCount());
+    }
+
+    @Test
+    public void testFailedRouteIsNotTimed() {
+        MeasurementServiceMetrics metrics = new MeasurementServiceMetrics();
+        Call call = mock(Call.class);
+        EventListener listener = new HttpPhaseListener.Factory(metrics).create(call);
+
+        listener.connectStart(call, ADDRESS, Proxy.NO_PROXY);
+        listener.connectFailed(call, ADDRESS, Proxy.NO_PROXY, null, new IOException("refused"));
+        listener.callFailed(call, new IOException("refused"));
+
+        MeasurementServiceMetrics.Snapshot snapshot = metrics.snapshot();
+
+        Assert.assertEquals(0, snapshot.getHistogram(MeasurementServiceMetrics.Histogram.HTTP_CONNECT).getCount());
+        Assert.assertEquals(0, snapshot.getCounter(MeasurementServiceMetrics.Counter.CONNECTIONS_OPENED));
+    }
+}
@@ -0,0 +1,160 @@
+package com.performancehorizon.measurementkit;
+
+import junit.framework.Assert;
+
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.List;
+
+public class TestMeasurementServiceLog {
+
+    private MeasurementServiceLog.RingSink sink;
+
+    //counts conversions to a string.
+    private static class Argument {
+        private int formatted = 0;
+
+        @Override
+        public String toString() {
+            this.formatted++;
+            return "argument";
+        }
+    }
+
+    @Before
+    public void startup() {
+        //android.util.Log isn't available on the JVM.
+        MeasurementServiceLog.setLogcatActive(false);
+
+        this.sink = new MeasurementServiceLog.RingSink(3);
+        MeasurementServiceLog.setRingSink(this.sink);
+    }
+
+    @After
+    public void teardown() {
+        MeasurementServiceLog.setRingSink(null);
+        MeasurementServiceLog.setLevel(MeasurementServiceLog.DEBUG);
+        MeasurementServiceLog.setLogcatActive(true);
+    }
+
+    private String message(int index) {
+        String entry = this.sink.getEntries().get(index);
+
+        //strip the time.
+        return entry.substring(entry.indexOf(' ') + 1);
+    }
+
+    @Test
+    public void testFormat() {
+        Assert.assertEquals("Component - a 1 b 2", MeasurementServiceLog.format("Component - a {} b {}", 1, 2, 2));
+        Assert.assertEquals("Component - a null", MeasurementServiceLog.format("Component - a {}", null, null, 1));
+        Assert.assertEquals("Component - no placeholder", MeasurementServiceLog.format("Component - no placeholder", 1, null, 1));
+        Assert.assertEquals("Component - a 1 {}", MeasurementServiceLog.format("Component - a {} {}", 1, null, 1));
+    }
+
+    @Test
+    public void testLevels() {
+        MeasurementServiceLog.setLevel(MeasurementServiceLog.WARN);
+
+        Assert.assertFalse(MeasurementServiceLog.isEnabled(MeasurementServiceLog.DEBUG));
+        Assert.assertTrue(MeasurementServiceLog.isEnabled(MeasurementServiceLog.ERROR));
+
+        MeasurementServiceLog.d("Component - debug");
+        MeasurementServiceLog.i("Component - info");
+        MeasurementServiceLog.w("Component - warning {}", "argument");
+        MeasurementServiceLog.e("Component - error {} {}", "first", "second");
+
+        List<String> entries = this.sink.getEntries();
+
+        Assert.assertEquals(2, entries.size());
+        Assert.assertEquals("W Component - warning argument", this.message(0));
+        Assert.assertEquals("E Component - error first second", this.message(1));
+
+        MeasurementServiceLog.setLevel(MeasurementServiceLog.NONE);
+        MeasurementServiceLog.e("Component - error");
+
+        Assert.assertEquals(2, this.sink.getEntries().size());
+    }
+
+    @Test
+    public void testVerbose() {
+        MeasurementServiceLog.v("Component - verbose {}", "argument");
+        Assert.assertTrue(this.sink.getEntries().isEmpty());
+
+        MeasurementServiceLog.setLevel(MeasurementServiceLog.VERBOSE);
+        MeasurementServiceLog.v("Component - verbose {}", 12L);
+        MeasurementServiceLog.v("Component - verbose {} {}", "first", "second");
+
+        Assert.assertEquals("V Component - verbose 12", this.message(0));
+        Assert.assertEquals("V Component - verbose first second", this.message(1));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRingSinkRequiresCapacity() {
+        new MeasurementServiceLog.RingSink(0);
+    }
+
+    @Test
+    public void testDisabledMessagesAreNotFormatted() {
+        Argument argument = new Argument();
+
+        MeasurementServiceLog.setLevel(MeasurementServiceLog.ERROR);
+        MeasurementServiceLog.d("Component - {}", argument);
+        MeasurementServiceLog.d("Component - {} {}", argument, argument);
+
+        Assert.assertEquals(0, argument.formatted);
+
+        MeasurementServiceLog.e("Component - {}", argument);
+        Assert.assertEquals(1, argument.formatted);
+    }
+
+    @Test
+    public void testRingSinkKeepsMostRecent() {
+        for (int index = 0; index < 5; index++) {
+            MeasurementServiceLog.d("Component - message {}", index);
+        }
+
+        Assert.assertEquals(3, this.sink.getEntries().size());
+        Assert.assertEquals("D Component - message 2", this.message(0));
+        Assert.assertEquals("D Component - message 4", this.message(2));
+
+        this.sink.clear();
+        Assert.assertTrue(this.sink.getEntries().isEmpty());
+    }
+
+    @Test
+    public void testDisabledCallsDoNotAllocate() {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(threads instanceof com.sun.management.ThreadMXBean);
+
+        com.sun.management.ThreadMXBean allocations = (com.sun.management.ThreadMXBean) threads;
+        Assume.assumeTrue(allocations.isThreadAllocatedMemorySupported() && allocations.isThreadAllocatedMemoryEnabled());
+
+        MeasurementServiceLog.setLevel(MeasurementServiceLog.ERROR);
+
+        Exception error = new Exception("failed");
+        long thread = Thread.currentThread().getId();
+
+        for (int index = 0; index < 10000; index++) {
+            MeasurementServiceLog.d("Component - failed with error: {}", error);
+        }
+
+        long before = allocations.getThreadAllocatedBytes(thread);
+
+        for (int index = 0; index < 10000; index++) {
+            MeasurementServiceLog.d("Component - failed with error: {}", error);
+            MeasurementServiceLog.d("Component - {} and {}", error, "second");
+            //outside the Long cache, so boxing would allocate.
+            MeasurementServiceLog.d("Component - holding for {}ms", 100000L + index);
+        }
+
+        long allocated = allocations.getThreadAllocatedBytes(thread) - before;
+
+        Assert.assertTrue("allocated " + allocated, allocated < 16 * 1000);
+    }
+}
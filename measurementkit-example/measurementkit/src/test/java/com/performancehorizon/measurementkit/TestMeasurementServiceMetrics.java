@@ -0,0 +1,100 @@
+package com.performancehorizon.measurementkit;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+public class TestMeasurementServiceMetrics {
+
+    @Test
+    public void testCountersAndGauges() {
+        MeasurementServiceMetrics metrics = new MeasurementServiceMetrics();
+
+        metrics.increment(MeasurementServiceMetrics.Counter.EVENTS_ENQUEUED);
+        metrics.increment(MeasurementServiceMetrics.Counter.EVENTS_ENQUEUED);
+        metrics.add(MeasurementServiceMetrics.Counter.BYTES_OUT, 512);
+
+        metrics.adjust(MeasurementServiceMetrics.Gauge.REQUESTS_QUEUED, 3);
+        metrics.adjust(MeasurementServiceMetrics.Gauge.REQUESTS_QUEUED, -1);
+        metrics.set(MeasurementServiceMetrics.Gauge.REGISTRATIONS_PENDING, 4);
+
+        MeasurementServiceMetrics.Snapshot snapshot = metrics.snapshot();
+
+        Assert.assertEquals(2, snapshot.getCounter(MeasurementServiceMetrics.Counter.EVENTS_ENQUEUED));
+        Assert.assertEquals(512, snapshot.getCounter(MeasurementServiceMetrics.Counter.BYTES_OUT));
+        Assert.assertEquals(0, snapshot.getCounter(MeasurementServiceMetrics.Counter.REQUESTS_FAILED));
+        Assert.assertEquals(2, snapshot.getGauge(MeasurementServiceMetrics.Gauge.REQUESTS_QUEUED));
+        Assert.assertEquals(4, snapshot.getGauge(MeasurementServiceMetrics.Gauge.REGISTRATIONS_PENDING));
+
+        //snapshots don't change afterwards.
+        metrics.increment(MeasurementServiceMetrics.Counter.EVENTS_ENQUEUED);
+        Assert.assertEquals(2, snapshot.getCounter(MeasurementServiceMetrics.Counter.EVENTS_ENQUEUED));
+    }
+
+    @Test
+    public void testHistogramBuckets() {
+        LatencyHistogram histogram = new LatencyHistogram();
+
+        histogram.recordMillis(0);
+        histogram.recordMillis(1);
+        histogram.recordMillis(3);
+        histogram.recordNanos(75 * 1000000L);
+        histogram.recordMillis(120000);
+        histogram.recordMillis(-5);
+
+        LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+        long[] counts = snapshot.getBucketCounts();
+
+        Assert.assertEquals(6, snapshot.getCount());
+        Assert.assertEquals(LatencyHistogram.BUCKET_UPPER_BOUNDS_MILLIS.length + 1, counts.length);
+
+        //0, 1 and -5 (clamped) are in the first bucket; 3 is in (2, 5]; 75 in (50, 100]; 120000 overflows.
+        Assert.assertEquals(3, counts[0]);
+        Assert.assertEquals(1, counts[2]);
+        Assert.assertEquals(1, counts[6]);
+        Assert.assertEquals(1, counts[counts.length - 1]);
+
+        Assert.assertEquals(1, snapshot.getPercentileUpperBoundMillis(0.5));
+        Assert.assertEquals(100, snapshot.getPercentileUpperBoundMillis(0.8));
+        Assert.assertEquals(Long.MAX_VALUE, snapshot.getPercentileUpperBoundMillis(0.99));
+        Assert.assertEquals((1 + 3 + 75 + 120000) / 6, snapshot.getMeanMillis());
+    }
+
+    @Test
+    public void testEmptyHistogram() {
+        LatencyHistogram.Snapshot snapshot = new LatencyHistogram().snapshot();
+
+        Assert.assertEquals(0, snapshot.getCount());
+        Assert.assertEquals(0, snapshot.getMeanMillis());
+        Assert.assertEquals(0, snapshot.getPercentileUpperBoundMillis(0.99));
+    }
+
+    @Test
+    public void testConcurrentRecording() throws Exception {
+        final MeasurementServiceMetrics metrics = new MeasurementServiceMetrics();
+        Thread[] threads = new Thread[4];
+
+        for (int index = 0; index < threads.length; index++) {
+            threads[index] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int count = 0; count < 10000; count++) {
+                        metrics.increment(MeasurementServiceMetrics.Counter.REQUESTS_SENT);
+                        metrics.recordNanos(MeasurementServiceMetrics.Histogram.REQUEST_RTT, 20 * 1000000L);
+                    }
+                }
+            });
+            threads[index].start();
+        }
+
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        MeasurementServiceMetrics.Snapshot snapshot = metrics.snapshot();
+
+        Assert.assertEquals(40000, snapshot.getCounter(MeasurementServiceMetrics.Counter.REQUESTS_SENT));
+        Assert.assertEquals(40000, snapshot.getHistogram(MeasurementServiceMetrics.Histogram.REQUEST_RTT).getCount());
+        Assert.assertEquals(25, snapshot.getHistogram(MeasurementServiceMetrics.Histogram.REQUEST_RTT).getPercentileUpperBoundMillis(0.5));
+    }
+}
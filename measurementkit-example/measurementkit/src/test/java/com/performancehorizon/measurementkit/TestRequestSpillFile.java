@@ -0,0 +1,124 @@
+package com.performancehorizon.measurementkit;
+
+import junit.framework.Assert;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.RequestBody;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import okio.Buffer;
+
+public class TestRequestSpillFile {
+
+    private static final MediaType JSON = MediaType.parse("application/json; charset=utf-8");
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Before
+    public void init() {
+        MeasurementServiceLog.setLogcatActive(false);
+    }
+
+    @After
+    public void teardown() {
+        MeasurementServiceLog.setLogcatActive(true);
+    }
+
+    private static String read(RequestBody body) throws Exception {
+        Buffer buffer = new Buffer();
+        body.writeTo(buffer);
+
+        return buffer.readUtf8();
+    }
+
+    @Test
+    public void testRoundTripAndEmptiedOnceRead() throws Exception {
+        RequestSpillFile file = new RequestSpillFile(this.folder.getRoot());
+
+        //nothing is created until something is written.
+        Assert.assertEquals(0, this.folder.getRoot().list().length);
+
+        RequestSpillFile.Entry first = file.write(RequestBody.create(JSON, "{\"event\":1}"));
+        RequestSpillFile.Entry second = file.write(RequestBody.create(JSON, "{\"event\":22}"));
+
+        Assert.assertEquals(23, file.length());
+
+        //read back in any order.
+        RequestBody secondbody = file.read(second);
+        Assert.assertEquals("{\"event\":22}", read(secondbody));
+        Assert.assertEquals(JSON, secondbody.contentType());
+        Assert.assertEquals(23, file.length());
+
+        Assert.assertEquals("{\"event\":1}", read(file.read(first)));
+        Assert.assertEquals(0, file.length());
+
+        //and written to afresh.
+        RequestSpillFile.Entry third = file.write(RequestBody.create(JSON, "{}"));
+        Assert.assertEquals(2, third.getLength());
+        Assert.assertEquals(2, file.length());
+
+        file.delete();
+        Assert.assertEquals(0, this.folder.getRoot().list().length);
+    }
+
+    @Test
+    public void testDeletesFileLeftByEarlierProcess() throws Exception {
+        File leftover = new File(this.folder.getRoot(), RequestSpillFile.FILE_NAME);
+        Assert.assertTrue(leftover.createNewFile());
+
+        //one file, whichever process wrote it.
+        RequestSpillFile file = new RequestSpillFile(this.folder.getRoot());
+        file.write(RequestBody.create(JSON, "{}"));
+        Assert.assertEquals(1, this.folder.getRoot().list().length);
+
+        file.delete();
+        Assert.assertFalse(leftover.exists());
+
+        //and there's nothing to delete the next time.
+        file.delete();
+        Assert.assertEquals(0, this.folder.getRoot().list().length);
+    }
+
+    @Test
+    public void testSpilledRequestIsSentIntact() throws Exception {
+        MockWebServer server = new MockWebServer();
+        server.enqueue(new MockResponse().setBody("{}"));
+        server.start();
+
+        try {
+            RequestSpillFile file = new RequestSpillFile(this.folder.getRoot());
+            TrackingRequest request = new TrackingRequest(server.url("/event").toString(),
+                    RequestBody.create(JSON, "{\"events\":[{\"category\":\"spilled\"}]}"));
+
+            Assert.assertEquals(35, request.spill(file));
+            Assert.assertTrue(request.isSpilled());
+            Assert.assertNull(request.getPostBody());
+            Assert.assertEquals(35, request.getPostBodyLength());
+
+            //spilling twice does nothing.
+            Assert.assertEquals(0, request.spill(file));
+
+            Assert.assertEquals("{}", request.execute(new OkHttpClientWrapper(new OkHttpClient())));
+
+            RecordedRequest recorded = server.takeRequest();
+            Assert.assertEquals("{\"events\":[{\"category\":\"spilled\"}]}", recorded.getBody().readUtf8());
+            Assert.assertEquals("application/json; charset=utf-8", recorded.getHeader("Content-Type"));
+            Assert.assertFalse(request.isSpilled());
+            Assert.assertEquals(0, file.length());
+        }
+        finally {
+            server.shutdown();
+        }
+    }
+}
@@ -156,4 +156,22 @@ public class TestSale {
         Assert.assertEquals(sale.getMetaItems().get("firstitem"), "firstvalue");
         Assert.assertEquals(sale.getMetaItems().get("seconditem"), "secondvalue");
     }
+
+    @Test
+    public void testNoMetaAllocated() {
+        Sale sale = new Sale.Builder().build();
+
+        Assert.assertNull(sale.getSaleMeta());
+        Assert.assertTrue(sale.getMetaItems().isEmpty());
+    }
+
+    @Test
+    public void testBuilderMetaCopied() {
+        Sale.Builder builder = new Sale.Builder().saleMetaItem("firstitem", "firstvalue");
+
+        Sale sale = builder.build();
+        builder.saleMetaItem("seconditem", "secondvalue");
+
+        Assert.assertEquals(1, sale.getMetaItems().size());
+    }
 }
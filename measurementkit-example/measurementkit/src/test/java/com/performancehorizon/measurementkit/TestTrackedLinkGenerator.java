@@ -0,0 +1,102 @@
+package com.performancehorizon.measurementkit;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class TestTrackedLinkGenerator {
+
+    private static final String CAMREF = "1101l12345";
+    private static final String AAID = "38400000-8cf0-11bd-b23e-10b96e40000d";
+
+    private static String expected(String destination, String advertisingid, String deeplink) {
+        TrackingLink.Builder builder = new TrackingLink.Builder("https", "m.prf.hn").appendClickPath(CAMREF, destination);
+
+        if (advertisingid != null) {
+            builder.appendQueryParameter("aaid", advertisingid);
+        }
+
+        if (deeplink != null) {
+            builder.appendQueryParameter("skip_deep_link", "true").appendQueryParameter("deep_link", deeplink);
+        }
+
+        return builder.build();
+    }
+
+    @Test
+    public void testMatchesSingleLinks() {
+        TrackedLinkGenerator generator = new TrackedLinkGenerator(CAMREF, AAID, 0);
+        TrackedLinkGenerator noaaid = new TrackedLinkGenerator(CAMREF, null, 0);
+
+        String destination = "https://www.ourwebsite.com/products/a product?colour=red&size=10";
+
+        Assert.assertEquals(expected(destination, AAID, null), generator.linkFor(destination));
+        Assert.assertEquals(expected(destination, null, null), noaaid.linkFor(destination));
+        Assert.assertEquals(expected(destination, AAID, "exactview://open?x=1"), generator.linkFor(destination, "exactview://open?x=1"));
+        Assert.assertEquals(expected(destination, null, "exactview://open?x=1"), noaaid.linkFor(destination, "exactview://open?x=1"));
+    }
+
+    @Test
+    public void testDebugHelper() {
+        TrackedLinkGenerator generator = new TrackedLinkGenerator(new TrackingURLHelper(true), CAMREF, null, 0);
+
+        Assert.assertEquals("http://m.prf.local/click/camref:1101l12345/destination:http%3A%2F%2Fa",
+                generator.linkFor("http://a"));
+    }
+
+    @Test
+    public void testLinksForList() {
+        TrackedLinkGenerator generator = new TrackedLinkGenerator(CAMREF, AAID, 0);
+        List<String> destinations = Arrays.asList("http://a", "http://b", "http://c");
+
+        List<String> links = generator.linksFor(destinations);
+
+        Assert.assertEquals(3, links.size());
+
+        for (int index = 0; index < destinations.size(); index++) {
+            Assert.assertEquals(expected(destinations.get(index), AAID, null), links.get(index));
+        }
+    }
+
+    @Test
+    public void testCacheIsBoundedAndLeastRecentlyUsed() {
+        TrackedLinkGenerator generator = new TrackedLinkGenerator(CAMREF, AAID, 2);
+
+        String first = generator.linkFor("http://a");
+        generator.linkFor("http://b");
+
+        //a is used again, so b is evicted by c.
+        Assert.assertSame(first, generator.linkFor("http://a"));
+        generator.linkFor("http://c");
+
+        Assert.assertEquals(2, generator.getCachedLinkCount());
+        Assert.assertSame(first, generator.linkFor("http://a"));
+
+        //deep links are never cached.
+        generator.linkFor("http://d", "exactview://open");
+        Assert.assertEquals(2, generator.getCachedLinkCount());
+    }
+
+    @Test
+    public void testNoCache() {
+        TrackedLinkGenerator generator = new TrackedLinkGenerator(CAMREF, AAID, 0);
+
+        List<String> destinations = new ArrayList<>();
+
+        for (int index = 0; index < 100; index++) {
+            destinations.add("http://www.ourwebsite.com/" + index);
+        }
+
+        generator.linksFor(destinations);
+        Assert.assertEquals(0, generator.getCachedLinkCount());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testCamrefRequired() {
+        new TrackedLinkGenerator(null, AAID, 0);
+    }
+}
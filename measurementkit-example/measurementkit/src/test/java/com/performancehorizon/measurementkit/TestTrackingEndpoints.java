@@ -0,0 +1,266 @@
+package com.performancehorizon.measurementkit;
+
+import junit.framework.Assert;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.RequestBody;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+
+public class TestTrackingEndpoints {
+
+    private static final long MILLIS = 1000000L;
+
+    //a clock the tests move by hand.
+    private static class ClockedEndpoints extends TrackingEndpoints {
+        private long now = 1;
+
+        ClockedEndpoints(String... baseUrls) {
+            super(Arrays.asList(baseUrls));
+        }
+
+        @Override
+        protected long nanoTime() {
+            return this.now;
+        }
+    }
+
+    @Before
+    public void init() {
+        MeasurementServiceLog.setLogcatActive(false);
+    }
+
+    @After
+    public void teardown() {
+        MeasurementServiceLog.setLogcatActive(true);
+    }
+
+    @Test
+    public void testUrlsAreBuiltOnce() {
+        TrackingEndpoints endpoints = new TrackingEndpoints(Arrays.asList("https://m.prf.hn"));
+        TrackingEndpoints.Endpoint endpoint = endpoints.select();
+
+        Assert.assertEquals("https://m.prf.hn/event", endpoint.getEventUrl());
+        Assert.assertEquals("https://m.prf.hn/register", endpoint.getRegisterUrl());
+        Assert.assertSame(endpoint.getEventUrl(), endpoints.select().getEventUrl());
+    }
+
+    @Test
+    public void testUnmeasuredTriedInOrderThenFastest() {
+        ClockedEndpoints endpoints = new ClockedEndpoints("https://primary", "https://secondary");
+        TrackingEndpoints.Endpoint primary = endpoints.getEndpoints().get(0);
+        TrackingEndpoints.Endpoint secondary = endpoints.getEndpoints().get(1);
+
+        Assert.assertSame(primary, endpoints.select());
+        primary.recordSuccess(80 * MILLIS);
+
+        Assert.assertSame(secondary, endpoints.select());
+        secondary.recordSuccess(20 * MILLIS);
+
+        Assert.assertSame(secondary, endpoints.select());
+
+        //secondary slows down, until the primary is faster.
+        for (int count = 0; count < 10; count++) {
+            secondary.recordSuccess(200 * MILLIS);
+        }
+
+        Assert.assertSame(primary, endpoints.select());
+    }
+
+    @Test
+    public void testUnmeasuredFailureIsNotPreferred() {
+        ClockedEndpoints endpoints = new ClockedEndpoints("https://primary", "https://secondary");
+        TrackingEndpoints.Endpoint primary = endpoints.getEndpoints().get(0);
+        TrackingEndpoints.Endpoint secondary = endpoints.getEndpoints().get(1);
+
+        //the primary fails once (not enough to open its circuit) before ever being measured.
+        primary.recordFailure();
+        Assert.assertEquals(TrackingEndpoints.CircuitState.CLOSED, primary.getCircuitState());
+        Assert.assertSame(secondary, endpoints.select());
+
+        secondary.recordSuccess(50 * MILLIS);
+        Assert.assertSame(secondary, endpoints.select());
+        Assert.assertSame(secondary, secondary.acquire());
+    }
+
+    @Test
+    public void testFailoverAndProbe() {
+        ClockedEndpoints endpoints = new ClockedEndpoints("https://primary", "https://secondary");
+        TrackingEndpoints.Endpoint primary = endpoints.getEndpoints().get(0);
+        TrackingEndpoints.Endpoint secondary = endpoints.getEndpoints().get(1);
+
+        primary.recordSuccess(20 * MILLIS);
+        secondary.recordSuccess(50 * MILLIS);
+
+        Assert.assertSame(primary, endpoints.select());
+
+        //one failure only weights the score.
+        primary.recordFailure();
+        Assert.assertSame(primary, endpoints.select());
+        Assert.assertEquals(TrackingEndpoints.CircuitState.CLOSED, primary.getCircuitState());
+
+        //a second opens the circuit.
+        primary.recordFailure();
+        Assert.assertEquals(TrackingEndpoints.CircuitState.OPEN, primary.getCircuitState());
+        Assert.assertSame(secondary, endpoints.select());
+
+        //requests built for it go elsewhere.
+        Assert.assertSame(secondary, primary.acquire());
+
+        endpoints.now += TrackingEndpoints.COOLDOWN_NANOS - 1;
+        Assert.assertSame(secondary, endpoints.select());
+
+        //after the cooldown, it's half open, and one request probes it.
+        endpoints.now += 1;
+        Assert.assertEquals(TrackingEndpoints.CircuitState.HALF_OPEN, primary.getCircuitState());
+        Assert.assertSame(primary, endpoints.select());
+        Assert.assertSame(primary, primary.acquire());
+        Assert.assertSame(secondary, primary.acquire());
+        Assert.assertSame(secondary, endpoints.select());
+
+        //failing the probe opens it again, for twice as long.
+        primary.recordFailure();
+        endpoints.now += TrackingEndpoints.COOLDOWN_NANOS;
+        Assert.assertEquals(TrackingEndpoints.CircuitState.OPEN, primary.getCircuitState());
+
+        endpoints.now += TrackingEndpoints.COOLDOWN_NANOS;
+        Assert.assertSame(primary, primary.acquire());
+
+        //a successful probe closes it, with its error rate started afresh.
+        primary.recordSuccess(20 * MILLIS);
+        Assert.assertEquals(TrackingEndpoints.CircuitState.CLOSED, primary.getCircuitState());
+        Assert.assertSame(primary, endpoints.select());
+    }
+
+    @Test
+    public void testRetryAfter() {
+        ClockedEndpoints endpoints = new ClockedEndpoints("https://primary");
+        TrackingEndpoints.Endpoint primary = endpoints.select();
+
+        Assert.assertEquals(0, primary.nanosUntilAvailable());
+
+        //throttling opens the circuit straight away, for as long as asked.
+        primary.recordThrottled(120 * 1000 * MILLIS);
+
+        Assert.assertNull(primary.acquire());
+        Assert.assertEquals(120 * 1000 * MILLIS, primary.nanosUntilAvailable());
+
+        endpoints.now += 120 * 1000 * MILLIS;
+        Assert.assertEquals(0, primary.nanosUntilAvailable());
+        Assert.assertSame(primary, primary.acquire());
+
+        //while the probe is out, nothing else is sent.
+        Assert.assertNull(primary.acquire());
+        Assert.assertEquals(TrackingEndpoints.COOLDOWN_NANOS, primary.nanosUntilAvailable());
+
+        //a probe never answered can be sent again.
+        endpoints.now += TrackingEndpoints.COOLDOWN_NANOS;
+        Assert.assertSame(primary, primary.acquire());
+
+        //and a throttle without a Retry-After counts as a failure.
+        primary.recordThrottled(-1);
+        Assert.assertEquals(TrackingEndpoints.CircuitState.OPEN, primary.getCircuitState());
+        Assert.assertEquals(TrackingEndpoints.COOLDOWN_NANOS, primary.nanosUntilAvailable());
+    }
+
+    @Test
+    public void testAllOpen() {
+        ClockedEndpoints endpoints = new ClockedEndpoints("https://primary", "https://secondary");
+        TrackingEndpoints.Endpoint primary = endpoints.getEndpoints().get(0);
+        TrackingEndpoints.Endpoint secondary = endpoints.getEndpoints().get(1);
+
+        primary.recordFailure();
+        primary.recordFailure();
+
+        endpoints.now += MILLIS;
+        secondary.recordFailure();
+        secondary.recordFailure();
+
+        //requests are held, but built for the one available soonest.
+        Assert.assertNull(secondary.acquire());
+        Assert.assertSame(primary, endpoints.select());
+        Assert.assertEquals(TrackingEndpoints.COOLDOWN_NANOS - MILLIS, primary.nanosUntilAvailable());
+    }
+
+    @Test
+    public void testEmptyIsRejected() {
+        try {
+            new TrackingEndpoints(Arrays.<String>asList());
+            Assert.fail();
+        }
+        catch (IllegalArgumentException expected) {
+            //expected
+        }
+    }
+
+    //as the transport queue records outcomes.
+    private static void send(OkHttpClient client, TrackingEndpoints endpoints) {
+        TrackingEndpoints.Endpoint endpoint = endpoints.select().acquire();
+        TrackingRequest request = new TrackingRequest(endpoint.getEventUrl(),
+                RequestBody.create(MediaType.parse("application/json"), "{}"));
+
+        long start = System.nanoTime();
+
+        try {
+            request.execute(new OkHttpClientWrapper(client));
+
+            if (request.getResponseCode() == 503) {
+                long retryafter = request.getRetryAfterMillis();
+                endpoint.recordThrottled((retryafter >= 0) ? retryafter * MILLIS : -1);
+            }
+            else if (request.getResponseCode() < 500) {
+                endpoint.recordSuccess(System.nanoTime() - start);
+            }
+            else {
+                endpoint.recordFailure();
+            }
+        }
+        catch (Exception requestexception) {
+            endpoint.recordFailure();
+        }
+    }
+
+    @Test
+    public void testStandInServers() throws Exception {
+        MockWebServer slow = new MockWebServer();
+        MockWebServer fast = new MockWebServer();
+        slow.start();
+        fast.start();
+
+        try {
+            for (int count = 0; count < 10; count++) {
+                slow.enqueue(new MockResponse().setBody("{}").setHeadersDelay(100, TimeUnit.MILLISECONDS));
+            }
+
+            fast.enqueue(new MockResponse().setBody("{}"));
+            fast.enqueue(new MockResponse().setBody("{}"));
+            fast.enqueue(new MockResponse().setResponseCode(503));
+            fast.enqueue(new MockResponse().setResponseCode(503));
+
+            TrackingEndpoints endpoints = new TrackingEndpoints(Arrays.asList(
+                    slow.url("/").toString().replaceAll("/$", ""), fast.url("/").toString().replaceAll("/$", "")));
+            OkHttpClient client = new OkHttpClient();
+
+            //one each while unmeasured, then the fast server until it throttles twice, then back to the slow one.
+            for (int count = 0; count < 6; count++) {
+                send(client, endpoints);
+            }
+
+            Assert.assertEquals(2, slow.getRequestCount());
+            Assert.assertEquals(4, fast.getRequestCount());
+            Assert.assertEquals("/event", fast.takeRequest().getPath());
+        }
+        finally {
+            slow.shutdown();
+            fast.shutdown();
+        }
+    }
+}
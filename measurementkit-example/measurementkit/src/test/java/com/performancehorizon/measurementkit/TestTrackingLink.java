@@ -0,0 +1,154 @@
+package com.performancehorizon.measurementkit;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+
+public class TestTrackingLink {
+
+    private static final String[] VALUES = {
+            "",
+            "plain",
+            "http://www.google.com/a path?q=a+b&r=c%20d#fragment",
+            "!~'()*._-",
+            "caf\u00e9 \u20ac \u4e2d\u6587",
+            "emoji \ud83d\ude00",
+            "%zz%2",
+    };
+
+    private static String encode(String value, boolean form) {
+        StringBuilder encoded = new StringBuilder();
+        TrackingLink.encode(value, form, encoded);
+        return encoded.toString();
+    }
+
+    @Test
+    public void testFormEncodingMatchesURLEncoder() throws Exception {
+        for (String value : VALUES) {
+            Assert.assertEquals(URLEncoder.encode(value, "UTF-8"), encode(value, true));
+        }
+    }
+
+    @Test
+    public void testQueryEncodingKeepsUriSafeCharacters() {
+        Assert.assertEquals("a%20b!~'()*", encode("a b!~'()*", false));
+        Assert.assertEquals("%E2%82%AC%2F%26%3D", encode("\u20ac/&=", false));
+    }
+
+    @Test
+    public void testDecodeRoundTrips() throws Exception {
+        for (String value : VALUES) {
+            Assert.assertEquals(value, TrackingLink.decode(encode(value, true), true));
+            Assert.assertEquals(value, TrackingLink.decode(encode(value, false), false));
+            Assert.assertEquals(URLDecoder.decode(URLEncoder.encode(value, "UTF-8"), "UTF-8"),
+                    TrackingLink.decode(URLEncoder.encode(value, "UTF-8"), true));
+        }
+    }
+
+    @Test
+    public void testDecodeWithoutEscapesDoesNotCopy() {
+        String value = "nothingtodecode";
+        Assert.assertSame(value, TrackingLink.decode(value, true));
+    }
+
+    @Test
+    public void testDecodeLeavesMalformedEscapes() {
+        Assert.assertEquals("100% a%zz", TrackingLink.decode("100%25+a%zz", true));
+        Assert.assertEquals("a+b%2", TrackingLink.decode("a+b%2", false));
+    }
+
+    @Test
+    public void testParseClickLink() {
+        TrackingLink link = TrackingLink.parse(
+                "https://m.prf.hn/click/camref:abc%20d/destination:http%3A%2F%2Fwww.google.com%2Fa+b/?aaid=1&deep_link=exactview%3A%2F%2Fopen#top");
+
+        Assert.assertEquals("https", link.getScheme());
+        Assert.assertEquals("m.prf.hn", link.getAuthority());
+        Assert.assertEquals("abc d", link.getCamref());
+        Assert.assertEquals("http://www.google.com/a b", link.getDestination());
+        Assert.assertEquals("exactview://open", link.getDeepLink());
+        Assert.assertFalse(link.hasMobileTrackingID());
+    }
+
+    @Test
+    public void testParseWithoutSegments() {
+        TrackingLink link = TrackingLink.parse("exactview://open");
+
+        Assert.assertEquals("exactview", link.getScheme());
+        Assert.assertEquals("open", link.getAuthority());
+        Assert.assertNull(link.getCamref());
+        Assert.assertNull(link.getDestination());
+        Assert.assertNull(link.getDeepLink());
+
+        Assert.assertNull(TrackingLink.parse(null));
+    }
+
+    @Test
+    public void testRemovesTrackingID() {
+        TrackingLink link = TrackingLink.parse("exactview://open?first=1&phn_mtid=a%2Fb+c&other=steve%20smith&phn_mtid=again#frag");
+
+        Assert.assertEquals("a/b c", link.getMobileTrackingID());
+        Assert.assertEquals("exactview://open?first=1&other=steve%20smith#frag", link.getLinkWithoutTrackingID());
+    }
+
+    @Test
+    public void testRemovesTrackingIDFromLongQuery() {
+        StringBuilder query = new StringBuilder();
+        StringBuilder untracked = new StringBuilder();
+
+        for (int index = 0; index < 200; index++) {
+            String parameter = "utm_param" + index + "=value%20" + index + "&";
+
+            if (index == 100) {
+                query.append("phn_mtid=1101l12345abcdef&");
+            }
+
+            query.append(parameter);
+            untracked.append(parameter);
+        }
+
+        TrackingLink link = TrackingLink.parse("https://www.ourwebsite.com/products/a-product?" + query + "last=true");
+
+        Assert.assertEquals("1101l12345abcdef", link.getMobileTrackingID());
+        Assert.assertEquals("https://www.ourwebsite.com/products/a-product?" + untracked + "last=true",
+                link.getLinkWithoutTrackingID());
+    }
+
+    @Test
+    public void testRemovesOnlyQuery() {
+        TrackingLink link = TrackingLink.parse("http://www.ourwebsite.com/apage?phn_mtid=bob");
+
+        Assert.assertEquals("bob", link.getMobileTrackingID());
+        Assert.assertEquals("http://www.ourwebsite.com/apage", link.getLinkWithoutTrackingID());
+    }
+
+    @Test
+    public void testUntrackedLinkIsUnchanged() {
+        String untracked = "http://www.ourwebsite.com/apage?phn_mtidx=1&a=b";
+        TrackingLink link = TrackingLink.parse(untracked);
+
+        Assert.assertNull(link.getMobileTrackingID());
+        Assert.assertSame(untracked, link.getLinkWithoutTrackingID());
+    }
+
+    @Test
+    public void testBuildParsesBack() {
+        String built = new TrackingLink.Builder("https", "m.prf.hn")
+                .appendClickPath("camref", "http://www.google.com/?q=a b")
+                .appendQueryParameter("aaid", "an id")
+                .appendQueryParameter("deep_link", "exactview://open?x=1&y=2")
+                .build();
+
+        Assert.assertEquals("https://m.prf.hn/click/camref:camref/destination:http%3A%2F%2Fwww.google.com%2F%3Fq%3Da+b" +
+                "?aaid=an%20id&deep_link=exactview%3A%2F%2Fopen%3Fx%3D1%26y%3D2", built);
+
+        TrackingLink link = TrackingLink.parse(built);
+
+        Assert.assertEquals("camref", link.getCamref());
+        Assert.assertEquals("http://www.google.com/?q=a b", link.getDestination());
+        Assert.assertEquals("exactview://open?x=1&y=2", link.getDeepLink());
+    }
+}
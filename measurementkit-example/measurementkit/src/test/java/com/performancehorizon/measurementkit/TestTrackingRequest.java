@@ -56,7 +56,8 @@ public class TestTrackingRequest {
         responsebuilder.request(placeholder.url("http://dontcare").build())
                 .protocol(Protocol.HTTP_2)
                 .body(ResponseBody.create(MediaType.parse("application/json"), "content"))
-                .code(400);
+                .code(400)
+                .message("Bad Request");
 
         when(mockclient.newCall(any(Request.class))).thenReturn(mockcall);
         when(mockcall.execute()).thenReturn(responsebuilder.build());
@@ -67,4 +68,18 @@ public class TestTrackingRequest {
 
         Assert.assertEquals(result, "content");
     }
+
+    @Test
+    public void testParseRetryAfter() {
+        long now = 1445412480000L; //Wed, 21 Oct 2015 07:28:00 GMT
+
+        Assert.assertEquals(120000, TrackingRequest.parseRetryAfterMillis("120", now));
+        Assert.assertEquals(0, TrackingRequest.parseRetryAfterMillis(" 0 ", now));
+        Assert.assertEquals(30000, TrackingRequest.parseRetryAfterMillis("Wed, 21 Oct 2015 07:28:30 GMT", now));
+        Assert.assertEquals(0, TrackingRequest.parseRetryAfterMillis("Wed, 21 Oct 2015 07:00:00 GMT", now));
+
+        Assert.assertEquals(-1, TrackingRequest.parseRetryAfterMillis(null, now));
+        Assert.assertEquals(-1, TrackingRequest.parseRetryAfterMillis("-5", now));
+        Assert.assertEquals(-1, TrackingRequest.parseRetryAfterMillis("soon", now));
+    }
 }
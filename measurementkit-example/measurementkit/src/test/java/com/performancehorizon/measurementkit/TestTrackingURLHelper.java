@@ -25,4 +25,17 @@ public class TestTrackingURLHelper {
 
         Assert.assertEquals(helper.urlStringForTracking(), "https://m.prf.hn");
     }
+
+    @Test
+    public void testEndpointsBuiltOnceAndFollowDebug()
+    {
+        TrackingURLHelper helper = new TrackingURLHelper(false);
+
+        Assert.assertSame(helper.getEndpoints(), helper.getEndpoints());
+        Assert.assertEquals("https://m.prf.hn", helper.selectEndpoint().getBaseUrl());
+
+        helper.setDebug(true);
+
+        Assert.assertEquals("http://m.prf.local", helper.selectEndpoint().getBaseUrl());
+    }
 }
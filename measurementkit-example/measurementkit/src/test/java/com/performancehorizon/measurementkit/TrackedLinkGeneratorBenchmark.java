@@ -0,0 +1,84 @@
+package com.performancehorizon.measurementkit;
+
+import junit.framework.Assert;
+
+import org.junit.Ignore;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Rough JVM throughput of publisher link generation, in links per second - see {@link BenchmarkResults}.  Correctness
+ * is covered by TestTrackedLinkGenerator.
+ */
+@Ignore("benchmark - run by hand")
+public class TrackedLinkGeneratorBenchmark {
+
+    private static final int LINKS = 5000;
+    private static final int ROUNDS = 20;
+
+    private final BenchmarkResults results = new BenchmarkResults("TrackedLinkGeneratorBenchmark");
+
+    private static List<String> productDestinations() {
+        List<String> destinations = new ArrayList<>(LINKS);
+
+        for (int index = 0; index < LINKS; index++) {
+            destinations.add("https://www.ourwebsite.com/products/product-" + index + "?colour=red&size=" + (index % 12));
+        }
+
+        return destinations;
+    }
+
+    private void run(String name, TrackedLinkGenerator generator, List<String> destinations) {
+        //warm up.
+        for (int round = 0; round < ROUNDS / 4; round++) {
+            generator.linksFor(destinations);
+        }
+
+        int total = 0;
+        long start = System.nanoTime();
+
+        for (int round = 0; round < ROUNDS; round++) {
+            total += generator.linksFor(destinations).size();
+        }
+
+        long elapsed = System.nanoTime() - start;
+
+        Assert.assertEquals(LINKS * ROUNDS, total);
+        this.results.record(name + ": " + (total * 1000000000L / elapsed) + " links/s");
+    }
+
+    @Test
+    public void benchmarkUncached() {
+        this.run("uncached", new TrackedLinkGenerator("1101l12345", "38400000-8cf0-11bd-b23e-10b96e40000d", 0),
+                productDestinations());
+    }
+
+    @Test
+    public void benchmarkCached() {
+        this.run("cached", new TrackedLinkGenerator("1101l12345", "38400000-8cf0-11bd-b23e-10b96e40000d", LINKS),
+                productDestinations());
+    }
+
+    @Test
+    public void benchmarkSingleLinkBuilder() {
+        List<String> destinations = productDestinations();
+
+        int total = 0;
+        long start = System.nanoTime();
+
+        //the per link path - new builder, new aliases each time.
+        for (int round = 0; round < ROUNDS; round++) {
+            for (String destination : destinations) {
+                total += new TrackingLink.Builder("https", "m.prf.hn").appendClickPath("1101l12345", destination)
+                        .appendQueryParameter("aaid", "38400000-8cf0-11bd-b23e-10b96e40000d").build().length();
+            }
+        }
+
+        long elapsed = System.nanoTime() - start;
+
+        Assert.assertTrue(total > 0);
+        this.results.record("per link builder: " + (LINKS * ROUNDS * 1000000000L / elapsed) + " links/s");
+    }
+}
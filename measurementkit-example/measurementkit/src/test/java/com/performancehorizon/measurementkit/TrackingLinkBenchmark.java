@@ -0,0 +1,105 @@
+package com.performancehorizon.measurementkit;
+
+import junit.framework.Assert;
+
+import org.junit.Ignore;
+import org.junit.Test;
+
+/**
+ * Rough JVM timing of tracking link building and parsing, in ns/op - see {@link BenchmarkResults}.  Correctness is
+ * covered by TestTrackingLink; the checks here only guard against timing the wrong thing.
+ */
+@Ignore("benchmark - run by hand")
+public class TrackingLinkBenchmark {
+
+    private static final int WARMUP_ITERATIONS = 20000;
+    private static final int ITERATIONS = 100000;
+
+    //keeps results live, so the work can't be optimised away.
+    private int sink = 0;
+
+    private final BenchmarkResults results = new BenchmarkResults("TrackingLinkBenchmark");
+
+    private static String buildLink() {
+        return new TrackingLink.Builder("https", "m.prf.hn")
+                .appendClickPath("1101l12345", "https://www.ourwebsite.com/products/a product?colour=red&size=10")
+                .appendQueryParameter("aaid", "38400000-8cf0-11bd-b23e-10b96e40000d")
+                .appendQueryParameter("skip_deep_link", "true")
+                .appendQueryParameter("deep_link", "exactview://open/products/a-product?colour=red")
+                .build();
+    }
+
+    private static String trackedLink(int parameters) {
+        StringBuilder link = new StringBuilder("https://www.ourwebsite.com/products/a-product?");
+
+        for (int index = 0; index < parameters; index++) {
+            if (index == parameters / 2) {
+                link.append("phn_mtid=1101l12345abcdef&");
+            }
+
+            link.append("utm_param").append(index).append("=value%20").append(index).append('&');
+        }
+
+        return link.append("last=true").toString();
+    }
+
+    private void report(String name, long start, int iterations) {
+        this.results.record(name + ": " + ((System.nanoTime() - start) / iterations) + "ns/op");
+    }
+
+    @Test
+    public void benchmarkBuild() {
+        for (int index = 0; index < WARMUP_ITERATIONS; index++) {
+            this.sink += buildLink().length();
+        }
+
+        long start = System.nanoTime();
+
+        for (int index = 0; index < ITERATIONS; index++) {
+            this.sink += buildLink().length();
+        }
+
+        this.report("build", start, ITERATIONS);
+    }
+
+    @Test
+    public void benchmarkParseClick() {
+        String built = buildLink();
+
+        Assert.assertEquals("exactview://open/products/a-product?colour=red", TrackingLink.parse(built).getDeepLink());
+
+        for (int index = 0; index < WARMUP_ITERATIONS; index++) {
+            this.sink += TrackingLink.parse(built).getDestination().length();
+        }
+
+        long start = System.nanoTime();
+
+        for (int index = 0; index < ITERATIONS; index++) {
+            TrackingLink link = TrackingLink.parse(built);
+            this.sink += link.getCamref().length() + link.getDestination().length() + link.getDeepLink().length();
+        }
+
+        this.report("parse click", start, ITERATIONS);
+    }
+
+    @Test
+    public void benchmarkRemoveTrackingID() {
+        for (int parameters : new int[] {10, 50, 200}) {
+            String tracked = trackedLink(parameters);
+
+            Assert.assertEquals("1101l12345abcdef", TrackingLink.parse(tracked).getMobileTrackingID());
+
+            for (int index = 0; index < WARMUP_ITERATIONS / 10; index++) {
+                this.sink += TrackingLink.parse(tracked).getLinkWithoutTrackingID().length();
+            }
+
+            long start = System.nanoTime();
+
+            for (int index = 0; index < ITERATIONS / 10; index++) {
+                this.sink += TrackingLink.parse(tracked).getLinkWithoutTrackingID().length();
+            }
+
+            this.report("remove tracking id, " + parameters + " parameters", start, ITERATIONS / 10);
+        }
+    }
+}